@@ -0,0 +1,311 @@
+package com.facebook.micapp.analysis;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Level analysis and gain adjustment of many captures, the operations of
+ * audiocmp.py.
+ *
+ * The levels of every file are measured, a common target is derived from
+ * them according to the mode, and the first channel of every file is
+ * written with the gain that brings it to the target. Files are processed
+ * in parallel on a ForkJoinPool, each one streamed in chunks.
+ *
+ * Usage: AudioCompare [--mode safe|rms|peak|rms_common|peak_common]
+ *                     [-o workdir] [--levels-only] file...
+ *        AudioCompare align ..., see CaptureAligner
+ */
+public class AudioCompare {
+    public static final int MODE_SAFE = 0;
+    public static final int MODE_RMS = 1;
+    public static final int MODE_PEAK = 2;
+    public static final int MODE_RMS_COMMON = 3;
+    public static final int MODE_PEAK_COMMON = 4;
+    static final double RMS_TARGET_DB = -24;
+    static final double PEAK_TARGET_DB = -1;
+    // headroom of the safe mode over the highest peak to rms ratio
+    static final double SAFE_MARGIN_DB = 1;
+    static final int CHUNK_FRAMES = 1 << 16;
+    static final String DEFAULT_WORKDIR = "audio_compare";
+    static final String REPORT_NAME = "info.txt";
+
+    public static class Result {
+        public final File file;
+        public final int sampleRate;
+        public final AudioLevels levels;
+        public double gainDb = 0;
+        public File output = null;
+
+        Result(File file, int sampleRate, AudioLevels levels) {
+            this.file = file;
+            this.sampleRate = sampleRate;
+            this.levels = levels;
+        }
+    }
+
+    final ForkJoinPool mPool;
+
+    public AudioCompare(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    public AudioCompare() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public static int modeFromString(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "safe":
+                return MODE_SAFE;
+            case "rms":
+                return MODE_RMS;
+            case "peak":
+                return MODE_PEAK;
+            case "rms_common":
+                return MODE_RMS_COMMON;
+            case "peak_common":
+                return MODE_PEAK_COMMON;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + name);
+        }
+    }
+
+    public static String modeToString(int mode) {
+        switch (mode) {
+            case MODE_RMS:
+                return "rms";
+            case MODE_PEAK:
+                return "peak";
+            case MODE_RMS_COMMON:
+                return "rms_common";
+            case MODE_PEAK_COMMON:
+                return "peak_common";
+            default:
+                return "safe";
+        }
+    }
+
+    // runs the tasks on the pool, rethrowing the first failure
+    static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Measures the levels of every file, in parallel.
+     */
+    public List<Result> analyze(List<File> files) throws IOException {
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (final File file : files) {
+            tasks.add(new Callable<Result>() {
+                @Override
+                public Result call() throws IOException {
+                    try (AudioFile audio = AudioFile.open(file)) {
+                        return new Result(file, audio.getSampleRate(), AudioLevels.measure(audio));
+                    }
+                }
+            });
+        }
+        return invokeAll(mPool, tasks);
+    }
+
+    /**
+     * Level, in dBFS, the files are adjusted to. For the rms modes it is an
+     * rms level, for the peak modes a peak level.
+     */
+    public static double getTarget(int mode, List<Result> results) {
+        double target = -Double.MAX_VALUE;
+        for (Result result : results) {
+            switch (mode) {
+                case MODE_SAFE:
+                    // the largest crest factor must not clip
+                    target = Math.max(target, result.levels.papr[0]);
+                    break;
+                case MODE_RMS_COMMON:
+                    target = Math.max(target, result.levels.rms[0]);
+                    break;
+                case MODE_PEAK_COMMON:
+                    target = Math.max(target, result.levels.peak[0]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        switch (mode) {
+            case MODE_RMS:
+                return RMS_TARGET_DB;
+            case MODE_PEAK:
+                return PEAK_TARGET_DB;
+            case MODE_SAFE:
+                return -target - SAFE_MARGIN_DB;
+            default:
+                return target;
+        }
+    }
+
+    public static double getGain(int mode, double target, AudioLevels levels) {
+        if (mode == MODE_PEAK || mode == MODE_PEAK_COMMON) {
+            return target - levels.peak[0];
+        }
+        return target - levels.rms[0];
+    }
+
+    // <name>_<+gain>_<mode>.wav
+    static String getAdjustedName(File input, double gainDb, int mode) {
+        String name = input.getName().trim();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return String.format(Locale.ROOT, "%s_%s%.2f_%s.wav", name, gainDb > 0 ? "+" : "", gainDb, modeToString(mode));
+    }
+
+    /**
+     * Sets the gain of every result for the mode and writes the adjusted
+     * first channels into workdir, in parallel. Returns the target.
+     */
+    public double adjust(List<Result> results, final int mode, final File workdir) throws IOException {
+        if (!workdir.isDirectory() && !workdir.mkdirs()) {
+            throw new IOException("Cannot create " + workdir);
+        }
+        double target = getTarget(mode, results);
+        List<Callable<File>> tasks = new ArrayList<>();
+        for (final Result result : results) {
+            result.gainDb = getGain(mode, target, result.levels);
+            result.output = new File(workdir, getAdjustedName(result.file, result.gainDb, mode));
+            tasks.add(new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    applyGain(result.file, result.output, result.gainDb);
+                    return result.output;
+                }
+            });
+        }
+        invokeAll(mPool, tasks);
+        return target;
+    }
+
+    /**
+     * Writes the first channel of input amplified by gainDb as 16-bit mono,
+     * streaming CHUNK_FRAMES at a time.
+     */
+    public static void applyGain(File input, File output, double gainDb) throws IOException {
+        float factor = (float) AudioLevels.fromDb(gainDb);
+        try (AudioFile audio = AudioFile.open(input);
+             WavOutput wav = new WavOutput(output, audio.getSampleRate(), 1)) {
+            int channels = audio.getChannels();
+            float[] chunk = new float[CHUNK_FRAMES * channels];
+            long frame = 0;
+            int frames;
+            while ((frames = audio.read(frame, chunk, CHUNK_FRAMES)) > 0) {
+                for (int i = 0; i < frames; i++) {
+                    chunk[i] = chunk[i * channels] * factor;
+                }
+                wav.write(chunk, 0, frames);
+                frame += frames;
+            }
+        }
+    }
+
+    /**
+     * Levels of the first channel of every file, one csv row per file.
+     */
+    public static String toCsv(List<Result> results) {
+        StringBuilder str = new StringBuilder(",filename,rms,peak,crest,papr,bias,floor\n");
+        for (int i = 0; i < results.size(); i++) {
+            AudioLevels levels = results.get(i).levels;
+            str.append(String.format(Locale.ROOT, "%d,%s,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f\n", i,
+                    results.get(i).file.getPath(), levels.rms[0], levels.peak[0], levels.crest[0],
+                    levels.papr[0], levels.bias[0], levels.floor[0]));
+        }
+        return str.toString();
+    }
+
+    public static String toString(List<Result> results, int mode, double target, int indent) {
+        String tab = AudioLevels.getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        str.append(tab + "audio_compare {\n");
+        str.append(tab + "  mode: \"" + modeToString(mode) + "\"\n");
+        str.append(String.format(Locale.ROOT, "%s  target_db: %.2f\n", tab, target));
+        for (Result result : results) {
+            str.append(tab + "  file {\n");
+            str.append(tab + "    name: \"" + result.file.getPath() + "\"\n");
+            str.append(tab + "    sample_rate: " + result.sampleRate + "\n");
+            str.append(result.levels.toString(indent + 2));
+            if (result.output != null) {
+                str.append(String.format(Locale.ROOT, "%s    gain_db: %.2f\n", tab, result.gainDb));
+                str.append(tab + "    output: \"" + result.output.getPath() + "\"\n");
+            }
+            str.append(tab + "  }\n");
+        }
+        str.append(tab + "}\n");
+        return str.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("align")) {
+            CaptureAligner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        int mode = MODE_SAFE;
+        File workdir = new File(DEFAULT_WORKDIR);
+        boolean levelsOnly = false;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--mode":
+                    mode = modeFromString(args[++i]);
+                    break;
+                case "-o":
+                case "--output":
+                    workdir = new File(args[++i]);
+                    break;
+                case "--levels-only":
+                    levelsOnly = true;
+                    break;
+                default:
+                    files.add(new File(args[i]));
+                    break;
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: AudioCompare [--mode safe|rms|peak|rms_common|peak_common] " +
+                    "[-o workdir] [--levels-only] file...");
+            System.exit(1);
+        }
+        AudioCompare compare = new AudioCompare();
+        List<Result> results = compare.analyze(files);
+        System.out.print(toCsv(results));
+        if (levelsOnly) {
+            return;
+        }
+        double target = compare.adjust(results, mode, workdir);
+        try (Writer writer = new FileWriter(new File(workdir, REPORT_NAME))) {
+            writer.write(toString(results, mode, target, 0));
+        }
+    }
+}
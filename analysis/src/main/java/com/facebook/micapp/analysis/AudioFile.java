@@ -0,0 +1,217 @@
+package com.facebook.micapp.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only PCM file, WAV (RIFF or RF64, as written by the app) or raw.
+ *
+ * Samples are read as interleaved floats through memory mapped windows of
+ * at most MAP_BYTES, so files of any length are streamed in fixed size
+ * chunks without being loaded into memory. 16, 24 and 32-bit integer and
+ * 32-bit float samples are supported.
+ */
+public class AudioFile implements AutoCloseable {
+    static final int WAVE_FORMAT_PCM = 1;
+    static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    static final int WAVE_FORMAT_EXTENSIBLE = 0xfffe;
+    // raw files are what the app plays and captures by default
+    public static final int RAW_SAMPLE_RATE = 48000;
+    static final long MAP_BYTES = 4 << 20;
+
+    final File mFile;
+    final FileChannel mChannel;
+    final int mSampleRate;
+    final int mChannels;
+    final int mBitsPerSample;
+    final boolean mIsFloat;
+    final long mDataOffset;
+    final long mFrames;
+    MappedByteBuffer mMap = null;
+    long mMapStart = 0;
+
+    AudioFile(File file, FileChannel channel, int sampleRate, int channels, int bitsPerSample, boolean isFloat,
+              long dataOffset, long dataBytes) {
+        mFile = file;
+        mChannel = channel;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBitsPerSample = bitsPerSample;
+        mIsFloat = isFloat;
+        mDataOffset = dataOffset;
+        mFrames = dataBytes / getFrameSize();
+    }
+
+    /**
+     * Opens a WAV file, or a 16-bit mono RAW_SAMPLE_RATE raw file when
+     * there is no RIFF/RF64 header.
+     */
+    public static AudioFile open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            AudioFile audio = parseWav(file, channel);
+            if (audio == null) {
+                audio = new AudioFile(file, channel, RAW_SAMPLE_RATE, 1, 16, false, 0, channel.size());
+            }
+            return audio;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a headerless file of little endian integer samples.
+     */
+    public static AudioFile openRaw(File file, int sampleRate, int channels, int bitsPerSample) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        return new AudioFile(file, channel, sampleRate, channels, bitsPerSample, false, 0, channel.size());
+    }
+
+    // null if there is no RIFF/RF64 header
+    static AudioFile parseWav(File file, FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer riff = readAt(channel, 0, 12);
+        if (riff.limit() < 12) {
+            return null;
+        }
+        boolean rf64 = riff.getInt(0) == fourCc("RF64");
+        if ((riff.getInt(0) != fourCc("RIFF") && !rf64) || riff.getInt(8) != fourCc("WAVE")) {
+            return null;
+        }
+        int format = 0;
+        int channels = 0;
+        int sampleRate = 0;
+        int bits = 0;
+        long ds64DataBytes = -1;
+        // chunk by chunk, whatever comes before the data (LIST, bext, JUNK) is skipped
+        long position = 12;
+        while (position + 8 <= size) {
+            ByteBuffer header = readAt(channel, position, 8);
+            int id = header.getInt(0);
+            long chunkBytes = header.getInt(4) & 0xffffffffL;
+            long body = position + 8;
+            if (id == fourCc("ds64")) {
+                ByteBuffer ds64 = readAt(channel, body, 16);
+                if (ds64.limit() < 16) {
+                    throw new IOException(file + ": truncated ds64 chunk");
+                }
+                ds64DataBytes = ds64.getLong(8);
+            } else if (id == fourCc("fmt ")) {
+                ByteBuffer fmt = readAt(channel, body, 26);
+                if (fmt.limit() < 16) {
+                    throw new IOException(file + ": truncated fmt chunk");
+                }
+                format = fmt.getShort(0) & 0xffff;
+                channels = fmt.getShort(2);
+                sampleRate = fmt.getInt(4);
+                bits = fmt.getShort(14);
+                if (format == WAVE_FORMAT_EXTENSIBLE && fmt.limit() >= 26) {
+                    // the sub format GUID starts with the format tag
+                    format = fmt.getShort(24) & 0xffff;
+                }
+            } else if (id == fourCc("data")) {
+                if (format != WAVE_FORMAT_PCM && format != WAVE_FORMAT_IEEE_FLOAT) {
+                    throw new IOException(file + ": unsupported WAV format " + format);
+                }
+                if (rf64 && chunkBytes == 0xffffffffL) {
+                    chunkBytes = ds64DataBytes;
+                }
+                // an unfinished capture can claim more than there is
+                long dataBytes = Math.min(chunkBytes, size - body);
+                return new AudioFile(file, channel, sampleRate, channels, bits,
+                        format == WAVE_FORMAT_IEEE_FLOAT, body, dataBytes);
+            }
+            // chunks are padded to an even size
+            position = body + chunkBytes + (chunkBytes & 1);
+        }
+        throw new IOException(file + ": no data chunk");
+    }
+
+    // up to length bytes at position, little endian, fewer at the end of the file
+    static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static int fourCc(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public int getFrameSize() {
+        return mChannels * mBitsPerSample / 8;
+    }
+
+    /**
+     * Reads up to frames interleaved frames starting at frame into dst as
+     * floats, 1.0 being full scale. Returns the number of frames read.
+     */
+    public int read(long frame, float[] dst, int frames) throws IOException {
+        frames = (int) Math.max(0, Math.min(frames, mFrames - frame));
+        int bytesPerSample = mBitsPerSample / 8;
+        int samples = frames * mChannels;
+        long position = mDataOffset + frame * getFrameSize();
+        for (int i = 0; i < samples; i++, position += bytesPerSample) {
+            if (mMap == null || position < mMapStart || position + bytesPerSample > mMapStart + mMap.limit()) {
+                remap(position);
+            }
+            int index = (int) (position - mMapStart);
+            switch (mBitsPerSample) {
+                case 16:
+                    dst[i] = mMap.getShort(index) / 32768.0f;
+                    break;
+                case 24:
+                    int value = (mMap.get(index) & 0xff) | ((mMap.get(index + 1) & 0xff) << 8) |
+                            (mMap.get(index + 2) << 16);
+                    dst[i] = value / 8388608.0f;
+                    break;
+                case 32:
+                    dst[i] = mIsFloat ? mMap.getFloat(index) : mMap.getInt(index) / 2147483648.0f;
+                    break;
+                default:
+                    throw new IOException(mFile + ": unsupported sample size " + mBitsPerSample);
+            }
+        }
+        return frames;
+    }
+
+    void remap(long position) throws IOException {
+        long end = mDataOffset + mFrames * getFrameSize();
+        mMapStart = position;
+        mMap = mChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_BYTES, end - position));
+        mMap.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mMap = null;
+        mChannel.close();
+    }
+}
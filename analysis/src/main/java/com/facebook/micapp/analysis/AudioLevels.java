@@ -0,0 +1,113 @@
+package com.facebook.micapp.analysis;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Levels of every channel of an audio file, in dBFS, as audiocmp.py
+ * audio_levels() measures them:
+ *
+ *   rms: over the whole file, the mean of the mean squares of BLOCK_MS blocks
+ *   peak: the highest absolute sample
+ *   crest: peak / rms, as a ratio
+ *   papr: peak / rms in dB
+ *   bias: the dc offset, the absolute mean of the samples
+ *   floor: the rms level of the quietest block, at most 0
+ *
+ * The file is read block by block, only one block is held in memory.
+ */
+public class AudioLevels {
+    static final int BLOCK_MS = 250;
+    static final double SILENCE_DB = -100;
+
+    public final int channels;
+    public final double[] rms;
+    public final double[] peak;
+    public final double[] crest;
+    public final double[] papr;
+    public final double[] bias;
+    public final double[] floor;
+
+    AudioLevels(int channels) {
+        this.channels = channels;
+        rms = new double[channels];
+        peak = new double[channels];
+        crest = new double[channels];
+        papr = new double[channels];
+        bias = new double[channels];
+        floor = new double[channels];
+    }
+
+    public static double toDb(double value) {
+        return value > 0 ? 20 * Math.log10(value) : SILENCE_DB;
+    }
+
+    public static double fromDb(double db) {
+        return Math.pow(10, db / 20);
+    }
+
+    public static AudioLevels measure(AudioFile file) throws IOException {
+        int channels = file.getChannels();
+        int blockFrames = Math.max(1, file.getSampleRate() * BLOCK_MS / 1000);
+        float[] block = new float[blockFrames * channels];
+        double[] sum = new double[channels];
+        double[] meanSquareSum = new double[channels];
+        double[] peak = new double[channels];
+        double[] floor = new double[channels];
+        long blocks = 0;
+        long frame = 0;
+        int frames;
+        while ((frames = file.read(frame, block, blockFrames)) > 0) {
+            for (int ch = 0; ch < channels; ch++) {
+                double blockSquares = 0;
+                for (int i = ch; i < frames * channels; i += channels) {
+                    double value = block[i];
+                    sum[ch] += value;
+                    blockSquares += value * value;
+                    peak[ch] = Math.max(peak[ch], Math.abs(value));
+                }
+                double blockMeanSquare = blockSquares / frames;
+                meanSquareSum[ch] += blockMeanSquare;
+                floor[ch] = Math.min(floor[ch], toDb(Math.sqrt(blockMeanSquare)));
+            }
+            frame += frames;
+            blocks++;
+        }
+        AudioLevels levels = new AudioLevels(channels);
+        for (int ch = 0; ch < channels; ch++) {
+            double rms = blocks > 0 ? Math.sqrt(meanSquareSum[ch] / blocks) : 0;
+            levels.rms[ch] = toDb(rms);
+            levels.peak[ch] = toDb(peak[ch]);
+            levels.crest[ch] = rms > 0 ? peak[ch] / rms : 0;
+            levels.papr[ch] = rms > 0 ? toDb(peak[ch] / rms) : 0;
+            levels.bias[ch] = frame > 0 ? toDb(Math.abs(sum[ch] / frame)) : SILENCE_DB;
+            levels.floor[ch] = floor[ch];
+        }
+        return levels;
+    }
+
+    public String toString(int indent) {
+        String tab = getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        for (int ch = 0; ch < channels; ch++) {
+            str.append(tab + "levels {\n");
+            str.append(tab + "  channel: " + ch + "\n");
+            str.append(String.format(Locale.ROOT, "%s  rms_db: %.2f\n", tab, rms[ch]));
+            str.append(String.format(Locale.ROOT, "%s  peak_db: %.2f\n", tab, peak[ch]));
+            str.append(String.format(Locale.ROOT, "%s  crest: %.2f\n", tab, crest[ch]));
+            str.append(String.format(Locale.ROOT, "%s  papr_db: %.2f\n", tab, papr[ch]));
+            str.append(String.format(Locale.ROOT, "%s  bias_db: %.2f\n", tab, bias[ch]));
+            str.append(String.format(Locale.ROOT, "%s  floor_db: %.2f\n", tab, floor[ch]));
+            str.append(tab + "}\n");
+        }
+        return str.toString();
+    }
+
+    // same as Utils.getIndentation() in the app
+    static String getIndentation(int indent) {
+        char[] tab = new char[2 * indent];
+        Arrays.fill(tab, ' ');
+        return new String(tab);
+    }
+}
@@ -0,0 +1,376 @@
+package com.facebook.micapp.analysis;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Time alignment of captures of the same sound, e.g. from the parallel
+ * recorders of a CaptureSession, to a reference capture.
+ *
+ * The lag is found in two steps on the first channel:
+ *
+ *   coarse: the ENVELOPE_MS rms envelopes of both files are cross correlated
+ *           through the FFT, block by block. Each reference block of
+ *           mEnvelopeBlock samples is correlated with the capture block
+ *           overlapping it by the maximum lag on each side, and the
+ *           correlations of all blocks are summed, so the FFT size does not
+ *           depend on the file length.
+ *   fine:   REFINE_MS of the loudest part of the reference is cross
+ *           correlated at full rate with the capture around the coarse lag,
+ *           with sub-sample resolution.
+ *
+ * Only the envelopes, 400 bytes per second of audio, and the blocks being
+ * processed are held in memory. The offset of a capture is the capture
+ * frame holding reference frame 0, negative if the capture started later.
+ * Clock drift between the files is not corrected.
+ *
+ * Usage: AudioCompare align [--max-lag-ms N] [-o workdir] [--offsets-only]
+ *                           reference file...
+ */
+public class CaptureAligner {
+    static final int ENVELOPE_MS = 10;
+    static final int DEFAULT_MAX_LAG_MS = 10000;
+    static final int ENVELOPE_BLOCK = 8192;
+    static final int REFINE_MS = 1000;
+    static final int CHUNK_FRAMES = 1 << 16;
+    static final String DEFAULT_WORKDIR = "aligned";
+    static final String REPORT_NAME = "offsets.txt";
+
+    public static class Offset {
+        public final File file;
+        public long coarseFrames = 0;
+        public double frames = 0;
+        public double peakToRms = 0;
+        public File output = null;
+
+        Offset(File file) {
+            this.file = file;
+        }
+    }
+
+    final ForkJoinPool mPool;
+    final int mMaxLagMs;
+    int mEnvelopeBlock = ENVELOPE_BLOCK;
+
+    public CaptureAligner(ForkJoinPool pool, int maxLagMs) {
+        mPool = pool;
+        mMaxLagMs = maxLagMs;
+    }
+
+    public CaptureAligner() {
+        this(ForkJoinPool.commonPool(), DEFAULT_MAX_LAG_MS);
+    }
+
+    static int getDecimation(int sampleRate) {
+        return Math.max(1, sampleRate * ENVELOPE_MS / 1000);
+    }
+
+    /**
+     * Rms of the first channel over blocks of decimation frames, with the
+     * mean removed.
+     */
+    static float[] envelope(AudioFile audio, int decimation) throws IOException {
+        int channels = audio.getChannels();
+        int chunkFrames = CHUNK_FRAMES - CHUNK_FRAMES % decimation;
+        float[] chunk = new float[chunkFrames * channels];
+        float[] envelope = new float[(int) (audio.getFrames() / decimation)];
+        double sum = 0;
+        int index = 0;
+        long frame = 0;
+        int frames;
+        while (index < envelope.length && (frames = audio.read(frame, chunk, chunkFrames)) > 0) {
+            for (int start = 0; start + decimation <= frames && index < envelope.length; start += decimation) {
+                double squares = 0;
+                for (int i = start; i < start + decimation; i++) {
+                    double value = chunk[i * channels];
+                    squares += value * value;
+                }
+                envelope[index] = (float) Math.sqrt(squares / decimation);
+                sum += envelope[index++];
+            }
+            frame += frames;
+        }
+        float mean = envelope.length > 0 ? (float) (sum / envelope.length) : 0;
+        for (int i = 0; i < envelope.length; i++) {
+            envelope[i] -= mean;
+        }
+        return envelope;
+    }
+
+    /**
+     * Lag, in envelope samples within +-maxLag, at which the capture
+     * envelope correlates best with the reference envelope.
+     */
+    static int findEnvelopeLag(float[] reference, float[] capture, int maxLag, int block) {
+        int size = Fft.sizeFor(2 * block + 2 * maxLag);
+        Fft fft = new Fft(size);
+        double[] refRe = new double[size];
+        double[] refIm = new double[size];
+        double[] re = new double[size];
+        double[] im = new double[size];
+        double[] correlation = new double[2 * maxLag + 1];
+        for (int start = 0; start < reference.length; start += block) {
+            int length = Math.min(block, reference.length - start);
+            Arrays.fill(refRe, 0);
+            Arrays.fill(refIm, 0);
+            Arrays.fill(re, 0);
+            Arrays.fill(im, 0);
+            for (int i = 0; i < length; i++) {
+                refRe[i] = reference[start + i];
+            }
+            // capture[start - maxLag, start + length + maxLag)
+            for (int i = 0; i < length + 2 * maxLag; i++) {
+                int index = start - maxLag + i;
+                re[i] = (index >= 0 && index < capture.length) ? capture[index] : 0;
+            }
+            fft.transform(refRe, refIm, false);
+            fft.transform(re, im, false);
+            for (int i = 0; i < size; i++) {
+                // capture * conj(reference)
+                double productRe = re[i] * refRe[i] + im[i] * refIm[i];
+                double productIm = im[i] * refRe[i] - re[i] * refIm[i];
+                re[i] = productRe;
+                im[i] = productIm;
+            }
+            fft.transform(re, im, true);
+            for (int lag = 0; lag < correlation.length; lag++) {
+                correlation[lag] += re[lag];
+            }
+        }
+        int best = 0;
+        for (int lag = 1; lag < correlation.length; lag++) {
+            if (correlation[lag] > correlation[best]) {
+                best = lag;
+            }
+        }
+        return best - maxLag;
+    }
+
+    // start of the loudest length envelope samples
+    static int findLoudest(float[] envelope, int length) {
+        if (envelope.length <= length) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += envelope[i];
+        }
+        double best = sum;
+        int bestStart = 0;
+        for (int start = 1; start + length <= envelope.length; start++) {
+            sum += envelope[start + length - 1] - envelope[start - 1];
+            if (sum > best) {
+                best = sum;
+                bestStart = start;
+            }
+        }
+        return bestStart;
+    }
+
+    // first channel of frames [start, start + length), zeros outside of the file
+    static void readChannel(AudioFile audio, long start, float[] dst, int length) throws IOException {
+        int channels = audio.getChannels();
+        float[] chunk = new float[Math.min(length, CHUNK_FRAMES) * channels];
+        Arrays.fill(dst, 0, length, 0);
+        int done = 0;
+        if (start < 0) {
+            done = (int) Math.min(length, -start);
+        }
+        while (done < length) {
+            int frames = audio.read(start + done, chunk, Math.min(length - done, CHUNK_FRAMES));
+            if (frames == 0) {
+                break;
+            }
+            for (int i = 0; i < frames; i++) {
+                dst[done + i] = chunk[i * channels];
+            }
+            done += frames;
+        }
+    }
+
+    /**
+     * Offset of capture relative to reference, both at the same sample rate.
+     */
+    public Offset align(File reference, File capture) throws IOException {
+        Offset offset = new Offset(capture);
+        try (AudioFile ref = AudioFile.open(reference);
+             AudioFile cap = AudioFile.open(capture)) {
+            int sampleRate = ref.getSampleRate();
+            if (cap.getSampleRate() != sampleRate) {
+                throw new IOException(capture + ": " + cap.getSampleRate() + " Hz, the reference is " +
+                        sampleRate + " Hz");
+            }
+            int decimation = getDecimation(sampleRate);
+            float[] refEnvelope = envelope(ref, decimation);
+            float[] capEnvelope = envelope(cap, decimation);
+            int maxLag = mMaxLagMs / ENVELOPE_MS;
+            offset.coarseFrames = (long) findEnvelopeLag(refEnvelope, capEnvelope, maxLag, mEnvelopeBlock) *
+                    decimation;
+
+            int refineFrames = (int) Math.min(sampleRate * REFINE_MS / 1000, ref.getFrames());
+            long refStart = (long) findLoudest(refEnvelope, refineFrames / decimation) * decimation;
+            // the coarse lag is within one envelope sample
+            int margin = 2 * decimation;
+            float[] refSegment = new float[refineFrames];
+            float[] capSegment = new float[refineFrames + 2 * margin];
+            readChannel(ref, refStart, refSegment, refSegment.length);
+            long capStart = refStart + offset.coarseFrames - margin;
+            readChannel(cap, capStart, capSegment, capSegment.length);
+            CrossCorrelator correlator = new CrossCorrelator(refSegment, capSegment.length);
+            double delay = correlator.findDelay(capSegment, capSegment.length);
+            offset.frames = capStart + delay - refStart;
+            offset.peakToRms = correlator.getPeakToRms();
+        }
+        return offset;
+    }
+
+    /**
+     * Offsets of every capture relative to reference, in parallel. The
+     * reference itself comes first, with offset 0.
+     */
+    public List<Offset> alignAll(final File reference, List<File> captures) throws IOException {
+        List<Callable<Offset>> tasks = new ArrayList<>();
+        for (final File capture : captures) {
+            tasks.add(new Callable<Offset>() {
+                @Override
+                public Offset call() throws IOException {
+                    return align(reference, capture);
+                }
+            });
+        }
+        List<Offset> offsets = new ArrayList<>();
+        offsets.add(new Offset(reference));
+        offsets.addAll(AudioCompare.invokeAll(mPool, tasks));
+        return offsets;
+    }
+
+    /**
+     * Writes input shifted by the rounded offset and cut or padded to
+     * frames, all channels as 16-bit, so that frame n of every output is
+     * the same instant.
+     */
+    public static void writeAligned(File input, File output, double offset, long frames) throws IOException {
+        long shift = Math.round(offset);
+        try (AudioFile audio = AudioFile.open(input);
+             WavOutput wav = new WavOutput(output, audio.getSampleRate(), audio.getChannels())) {
+            int channels = audio.getChannels();
+            float[] chunk = new float[CHUNK_FRAMES * channels];
+            for (long frame = 0; frame < frames; ) {
+                int length = (int) Math.min(CHUNK_FRAMES, frames - frame);
+                long start = frame + shift;
+                Arrays.fill(chunk, 0);
+                // frames before the start of the input stay silent
+                int skip = (int) Math.max(0, Math.min(length, -start));
+                audio.read(start + skip, chunk, length - skip);
+                if (skip > 0) {
+                    System.arraycopy(chunk, 0, chunk, skip * channels, (length - skip) * channels);
+                    Arrays.fill(chunk, 0, skip * channels, 0);
+                }
+                wav.write(chunk, 0, length * channels);
+                frame += length;
+            }
+        }
+    }
+
+    /**
+     * Writes every file aligned to the reference, which comes first, into workdir.
+     */
+    public void writeAll(final List<Offset> offsets, final File workdir) throws IOException {
+        if (!workdir.isDirectory() && !workdir.mkdirs()) {
+            throw new IOException("Cannot create " + workdir);
+        }
+        final long frames;
+        try (AudioFile reference = AudioFile.open(offsets.get(0).file)) {
+            frames = reference.getFrames();
+        }
+        List<Callable<File>> tasks = new ArrayList<>();
+        for (final Offset offset : offsets) {
+            String name = offset.file.getName();
+            int dot = name.lastIndexOf('.');
+            offset.output = new File(workdir, (dot > 0 ? name.substring(0, dot) : name) + "_aligned.wav");
+            tasks.add(new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    writeAligned(offset.file, offset.output, offset.frames, frames);
+                    return offset.output;
+                }
+            });
+        }
+        AudioCompare.invokeAll(mPool, tasks);
+    }
+
+    public static String toString(List<Offset> offsets, int sampleRate, int indent) {
+        String tab = AudioLevels.getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        str.append(tab + "alignment {\n");
+        str.append(tab + "  reference: \"" + offsets.get(0).file.getPath() + "\"\n");
+        str.append(tab + "  sample_rate: " + sampleRate + "\n");
+        for (Offset offset : offsets) {
+            str.append(tab + "  file {\n");
+            str.append(tab + "    name: \"" + offset.file.getPath() + "\"\n");
+            str.append(String.format(Locale.ROOT, "%s    offset_frames: %.2f\n", tab, offset.frames));
+            str.append(String.format(Locale.ROOT, "%s    offset_ms: %.3f\n", tab, offset.frames * 1000 / sampleRate));
+            str.append(tab + "    coarse_offset_frames: " + offset.coarseFrames + "\n");
+            str.append(String.format(Locale.ROOT, "%s    peak_to_rms: %.1f\n", tab, offset.peakToRms));
+            if (offset.output != null) {
+                str.append(tab + "    output: \"" + offset.output.getPath() + "\"\n");
+            }
+            str.append(tab + "  }\n");
+        }
+        str.append(tab + "}\n");
+        return str.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxLagMs = DEFAULT_MAX_LAG_MS;
+        File workdir = new File(DEFAULT_WORKDIR);
+        boolean offsetsOnly = false;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--max-lag-ms":
+                    maxLagMs = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                case "--output":
+                    workdir = new File(args[++i]);
+                    break;
+                case "--offsets-only":
+                    offsetsOnly = true;
+                    break;
+                default:
+                    files.add(new File(args[i]));
+                    break;
+            }
+        }
+        if (files.size() < 2) {
+            System.err.println("usage: AudioCompare align [--max-lag-ms N] [-o workdir] [--offsets-only] " +
+                    "reference file...");
+            System.exit(1);
+        }
+        CaptureAligner aligner = new CaptureAligner(ForkJoinPool.commonPool(), maxLagMs);
+        List<Offset> offsets = aligner.alignAll(files.get(0), files.subList(1, files.size()));
+        int sampleRate;
+        try (AudioFile reference = AudioFile.open(files.get(0))) {
+            sampleRate = reference.getSampleRate();
+        }
+        if (!offsetsOnly) {
+            aligner.writeAll(offsets, workdir);
+        }
+        String report = toString(offsets, sampleRate, 0);
+        System.out.print(report);
+        if (!offsetsOnly) {
+            try (Writer writer = new FileWriter(new File(workdir, REPORT_NAME))) {
+                writer.write(report);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.facebook.micapp.analysis;
+
+/**
+ * Finds where a reference signal starts in a longer capture.
+ *
+ * The cross correlation is computed through the FFT: the spectrum of the
+ * reference is computed once, each call to findDelay() transforms the
+ * capture, multiplies with the conjugate reference spectrum and transforms
+ * back. The correlation peak is refined to a fraction of a sample with a
+ * parabola through the peak and its neighbours.
+ */
+public class CrossCorrelator {
+    final Fft mFft;
+    final int mReferenceLength;
+    final int mMaxSignalLength;
+    final double[] mRefRe;
+    final double[] mRefIm;
+    final double[] mRe;
+    final double[] mIm;
+    double mPeak = 0;
+    double mPeakToRms = 0;
+
+    public CrossCorrelator(float[] reference, int maxSignalLength) {
+        mReferenceLength = reference.length;
+        mMaxSignalLength = maxSignalLength;
+        int size = Fft.sizeFor(maxSignalLength + reference.length);
+        mFft = new Fft(size);
+        mRefRe = new double[size];
+        mRefIm = new double[size];
+        for (int i = 0; i < reference.length; i++) {
+            mRefRe[i] = reference[i];
+        }
+        mFft.transform(mRefRe, mRefIm, false);
+        mRe = new double[size];
+        mIm = new double[size];
+    }
+
+    /**
+     * Offset in samples, with a fractional part, at which the reference
+     * correlates best with signal[0, length).
+     */
+    public double findDelay(float[] signal, int length) {
+        if (length > mMaxSignalLength) {
+            throw new IllegalArgumentException("Signal longer than " + mMaxSignalLength + ": " + length);
+        }
+        int size = mFft.getSize();
+        for (int i = 0; i < size; i++) {
+            mRe[i] = (i < length) ? signal[i] : 0;
+            mIm[i] = 0;
+        }
+        mFft.transform(mRe, mIm, false);
+        for (int i = 0; i < size; i++) {
+            // signal * conj(reference)
+            double re = mRe[i] * mRefRe[i] + mIm[i] * mRefIm[i];
+            double im = mIm[i] * mRefRe[i] - mRe[i] * mRefIm[i];
+            mRe[i] = re;
+            mIm[i] = im;
+        }
+        mFft.transform(mRe, mIm, true);
+
+        // only lags where the whole reference fits in the signal
+        int lags = Math.max(1, length - mReferenceLength + 1);
+        int best = 0;
+        double sumSquares = 0;
+        for (int i = 0; i < lags; i++) {
+            double val = Math.abs(mRe[i]);
+            sumSquares += val * val;
+            if (val > Math.abs(mRe[best])) {
+                best = i;
+            }
+        }
+        mPeak = Math.abs(mRe[best]);
+        double rms = Math.sqrt(sumSquares / lags);
+        mPeakToRms = (rms > 0) ? mPeak / rms : 0;
+        if (best == 0 || best == lags - 1) {
+            return best;
+        }
+        double left = Math.abs(mRe[best - 1]);
+        double right = Math.abs(mRe[best + 1]);
+        double denominator = left - 2 * mPeak + right;
+        if (denominator == 0) {
+            return best;
+        }
+        return best + 0.5 * (left - right) / denominator;
+    }
+
+    // correlation peak of the last findDelay() over the rms of all lags, > 10 is a clear match
+    public double getPeakToRms() {
+        return mPeakToRms;
+    }
+}
@@ -0,0 +1,87 @@
+package com.facebook.micapp.analysis;
+
+/**
+ * In place radix-2 complex FFT of a fixed power of two size.
+ *
+ * Twiddle factors and the bit reversal permutation are computed once in
+ * the constructor, transform() does not allocate.
+ */
+public class Fft {
+    final int mSize;
+    final double[] mCos;
+    final double[] mSin;
+    final int[] mReverse;
+
+    public Fft(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        mSize = size;
+        mCos = new double[size / 2];
+        mSin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            mCos[i] = Math.cos(2 * Math.PI * i / size);
+            mSin[i] = -Math.sin(2 * Math.PI * i / size);
+        }
+        mReverse = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            mReverse[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    // smallest power of two >= size
+    public static int sizeFor(int size) {
+        int fftSize = 1;
+        while (fftSize < size) {
+            fftSize <<= 1;
+        }
+        return fftSize;
+    }
+
+    /**
+     * Forward (e^-j) or inverse transform of re/im, the inverse is scaled by 1/size.
+     */
+    public void transform(double[] re, double[] im, boolean inverse) {
+        int n = mSize;
+        for (int i = 0; i < n; i++) {
+            int j = mReverse[i];
+            if (j > i) {
+                double tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+        double sign = inverse ? -1 : 1;
+        for (int half = 1; half < n; half <<= 1) {
+            int step = n / (2 * half);
+            for (int start = 0; start < n; start += 2 * half) {
+                for (int k = 0; k < half; k++) {
+                    double wr = mCos[k * step];
+                    double wi = sign * mSin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+}
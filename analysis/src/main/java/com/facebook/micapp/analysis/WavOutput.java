@@ -0,0 +1,95 @@
+package com.facebook.micapp.analysis;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Streaming 16-bit PCM WAV writer. The sizes in the header are filled in
+ * by close().
+ */
+public class WavOutput implements AutoCloseable {
+    static final int HEADER_BYTES = 44;
+
+    final File mFile;
+    final int mSampleRate;
+    final int mChannels;
+    final OutputStream mOut;
+    final byte[] mBuffer;
+    long mDataBytes = 0;
+
+    public WavOutput(File file, int sampleRate, int channels) throws IOException {
+        mFile = file;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mOut = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        mBuffer = new byte[1 << 14];
+        mOut.write(createHeader(sampleRate, channels, 0));
+    }
+
+    static byte[] createHeader(int sampleRate, int channels, long dataBytes) {
+        byte[] header = new byte[HEADER_BYTES];
+        putFourCc(header, 0, "RIFF");
+        putInt(header, 4, (int) Math.min(36 + dataBytes, 0xffffffffL));
+        putFourCc(header, 8, "WAVE");
+        putFourCc(header, 12, "fmt ");
+        putInt(header, 16, 16);
+        putShort(header, 20, AudioFile.WAVE_FORMAT_PCM);
+        putShort(header, 22, channels);
+        putInt(header, 24, sampleRate);
+        putInt(header, 28, sampleRate * channels * 2);
+        putShort(header, 32, channels * 2);
+        putShort(header, 34, 16);
+        putFourCc(header, 36, "data");
+        putInt(header, 40, (int) Math.min(dataBytes, 0xffffffffL));
+        return header;
+    }
+
+    static void putFourCc(byte[] dst, int offset, String id) {
+        for (int i = 0; i < 4; i++) {
+            dst[offset + i] = (byte) id.charAt(i);
+        }
+    }
+
+    static void putShort(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >> 8);
+    }
+
+    static void putInt(byte[] dst, int offset, int value) {
+        putShort(dst, offset, value);
+        putShort(dst, offset + 2, value >> 16);
+    }
+
+    /**
+     * Writes count interleaved samples, clipped to full scale.
+     */
+    public void write(float[] samples, int offset, int count) throws IOException {
+        int fill = 0;
+        for (int i = offset; i < offset + count; i++) {
+            float value = Math.max(-1.0f, Math.min(1.0f, samples[i]));
+            putShort(mBuffer, fill, Math.min(32767, Math.round(value * 32768.0f)));
+            fill += 2;
+            if (fill == mBuffer.length) {
+                mOut.write(mBuffer, 0, fill);
+                fill = 0;
+            }
+        }
+        mOut.write(mBuffer, 0, fill);
+        mDataBytes += 2L * count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOut.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.write(createHeader(mSampleRate, mChannels, mDataBytes));
+        } finally {
+            file.close();
+        }
+    }
+}
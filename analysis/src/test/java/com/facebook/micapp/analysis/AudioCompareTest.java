@@ -0,0 +1,73 @@
+package com.facebook.micapp.analysis;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class AudioCompareTest {
+    // 1 kHz sine of amplitude over one second at 16 kHz
+    static File sine(double amplitude) throws IOException {
+        File file = AudioFileTest.tempFile(".wav");
+        float[] samples = new float[16000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * 1000 * i / 16000));
+        }
+        try (WavOutput wav = new WavOutput(file, 16000, 1)) {
+            wav.write(samples, 0, samples.length);
+        }
+        return file;
+    }
+
+    @Test
+    public void measuresSineLevels() throws IOException {
+        try (AudioFile audio = AudioFile.open(sine(0.5))) {
+            AudioLevels levels = AudioLevels.measure(audio);
+            assertEquals(-9.03, levels.rms[0], 0.01);
+            assertEquals(-6.02, levels.peak[0], 0.01);
+            assertEquals(Math.sqrt(2), levels.crest[0], 0.01);
+            assertEquals(3.01, levels.papr[0], 0.01);
+            assertEquals(-9.03, levels.floor[0], 0.01);
+            assertTrue(levels.bias[0] < -60);
+        }
+    }
+
+    @Test
+    public void adjustsManyFilesInParallel() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            files.add(sine(0.05 * (i + 1)));
+        }
+        AudioCompare compare = new AudioCompare(new ForkJoinPool(4));
+        List<AudioCompare.Result> results = compare.analyze(files);
+        assertEquals(8, results.size());
+        assertEquals(files.get(3), results.get(3).file);
+
+        File workdir = new File(AudioFileTest.tempFile(".dir").getPath() + ".out");
+        double target = compare.adjust(results, AudioCompare.MODE_PEAK_COMMON, workdir);
+        assertEquals(AudioLevels.toDb(0.4), target, 0.01);
+        for (AudioCompare.Result result : results) {
+            try (AudioFile audio = AudioFile.open(result.output)) {
+                assertEquals(target, AudioLevels.measure(audio).peak[0], 0.01);
+            }
+            result.output.deleteOnExit();
+        }
+        workdir.deleteOnExit();
+        // a sine fits the safe mode with a 1 dB margin
+        assertEquals(-3.01 - 1, AudioCompare.getTarget(AudioCompare.MODE_SAFE, results), 0.01);
+        assertEquals(-24, AudioCompare.getTarget(AudioCompare.MODE_RMS, results), 0);
+    }
+
+    @Test
+    public void namesAdjustedFiles() {
+        assertEquals("capture_+3.50_rms.wav",
+                AudioCompare.getAdjustedName(new File("/tmp/capture.wav"), 3.5, AudioCompare.MODE_RMS));
+        assertEquals("capture_-1.25_safe.wav",
+                AudioCompare.getAdjustedName(new File("capture.wav"), -1.25, AudioCompare.MODE_SAFE));
+    }
+}
@@ -0,0 +1,123 @@
+package com.facebook.micapp.analysis;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AudioFileTest {
+    static File tempFile(String suffix) throws IOException {
+        File file = File.createTempFile("audiofile", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void readsBackWavOutput() throws IOException {
+        File file = tempFile(".wav");
+        float[] samples = new float[2 * 1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (i % 200 - 100) / 128.0f;
+        }
+        try (WavOutput wav = new WavOutput(file, 16000, 2)) {
+            wav.write(samples, 0, 1200);
+            wav.write(samples, 1200, 800);
+        }
+        try (AudioFile audio = AudioFile.open(file)) {
+            assertEquals(16000, audio.getSampleRate());
+            assertEquals(2, audio.getChannels());
+            assertEquals(1000, audio.getFrames());
+            float[] read = new float[2 * 10];
+            assertEquals(10, audio.read(500, read, 10));
+            for (int i = 0; i < read.length; i++) {
+                assertEquals(samples[1000 + i], read[i], 1e-6);
+            }
+            // clamped at the end
+            assertEquals(4, audio.read(996, read, 10));
+        }
+    }
+
+    @Test
+    public void readsRawAsMono16Bit() throws IOException {
+        File file = tempFile(".raw");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            // 0x4000, -0x4000 little endian
+            out.write(new byte[]{0x00, 0x40, 0x00, (byte) 0xc0});
+        }
+        try (AudioFile audio = AudioFile.open(file)) {
+            assertEquals(AudioFile.RAW_SAMPLE_RATE, audio.getSampleRate());
+            float[] read = new float[2];
+            assertEquals(2, audio.read(0, read, 2));
+            assertEquals(0.5f, read[0], 0);
+            assertEquals(-0.5f, read[1], 0);
+        }
+    }
+
+    @Test
+    public void readsExtensibleFloat() throws IOException {
+        File file = tempFile(".wav");
+        // RIFF, 40 byte extensible fmt of 1 float channel, then 2 samples
+        byte[] data = new byte[12 + 8 + 40 + 8 + 8];
+        WavOutput.putFourCc(data, 0, "RIFF");
+        WavOutput.putInt(data, 4, data.length - 8);
+        WavOutput.putFourCc(data, 8, "WAVE");
+        WavOutput.putFourCc(data, 12, "fmt ");
+        WavOutput.putInt(data, 16, 40);
+        WavOutput.putShort(data, 20, AudioFile.WAVE_FORMAT_EXTENSIBLE);
+        WavOutput.putShort(data, 22, 1);
+        WavOutput.putInt(data, 24, 48000);
+        WavOutput.putShort(data, 34, 32);
+        WavOutput.putShort(data, 44, AudioFile.WAVE_FORMAT_IEEE_FLOAT);
+        WavOutput.putFourCc(data, 60, "data");
+        WavOutput.putInt(data, 64, 8);
+        WavOutput.putInt(data, 68, Float.floatToIntBits(0.25f));
+        WavOutput.putInt(data, 72, Float.floatToIntBits(-1.5f));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        try (AudioFile audio = AudioFile.open(file)) {
+            float[] read = new float[2];
+            assertEquals(2, audio.read(0, read, 2));
+            assertEquals(0.25f, read[0], 0);
+            assertEquals(-1.5f, read[1], 0);
+        }
+    }
+
+    @Test
+    public void skipsLargeChunksBeforeTheData() throws IOException {
+        File file = tempFile(".wav");
+        // RIFF, fmt of 1 16-bit channel, a 9999 byte LIST padded to even, then 2 samples
+        int list = 9999;
+        int dataStart = 12 + 8 + 16 + 8 + list + 1;
+        byte[] data = new byte[dataStart + 8 + 4];
+        WavOutput.putFourCc(data, 0, "RIFF");
+        WavOutput.putInt(data, 4, data.length - 8);
+        WavOutput.putFourCc(data, 8, "WAVE");
+        WavOutput.putFourCc(data, 12, "fmt ");
+        WavOutput.putInt(data, 16, 16);
+        WavOutput.putShort(data, 20, AudioFile.WAVE_FORMAT_PCM);
+        WavOutput.putShort(data, 22, 1);
+        WavOutput.putInt(data, 24, 44100);
+        WavOutput.putShort(data, 34, 16);
+        WavOutput.putFourCc(data, 36, "LIST");
+        WavOutput.putInt(data, 40, list);
+        WavOutput.putFourCc(data, dataStart, "data");
+        WavOutput.putInt(data, dataStart + 4, 4);
+        WavOutput.putShort(data, dataStart + 8, 0x4000);
+        WavOutput.putShort(data, dataStart + 10, 0xc000);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        try (AudioFile audio = AudioFile.open(file)) {
+            assertEquals(44100, audio.getSampleRate());
+            assertEquals(2, audio.getFrames());
+            float[] read = new float[2];
+            assertEquals(2, audio.read(0, read, 2));
+            assertEquals(0.5f, read[0], 0);
+            assertEquals(-0.5f, read[1], 0);
+        }
+    }
+}
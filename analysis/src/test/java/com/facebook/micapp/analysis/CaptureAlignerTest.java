@@ -0,0 +1,88 @@
+package com.facebook.micapp.analysis;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CaptureAlignerTest {
+    static final int SAMPLE_RATE = 8000;
+
+    // noise bursts of random length and level, like speech
+    static float[] bursts(int frames, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[frames];
+        int i = 0;
+        while (i < frames) {
+            int length = SAMPLE_RATE / 10 + random.nextInt(SAMPLE_RATE / 2);
+            float level = random.nextBoolean() ? 0.3f * random.nextFloat() : 0.0f;
+            for (int end = Math.min(frames, i + length); i < end; i++) {
+                samples[i] = level * (float) random.nextGaussian();
+            }
+        }
+        return samples;
+    }
+
+    // capture[n + offset] = gain * reference[n], plus noise
+    static File capture(float[] reference, int offset, float gain, long seed) throws IOException {
+        Random random = new Random(seed);
+        float[] samples = new float[reference.length];
+        for (int i = 0; i < samples.length; i++) {
+            int n = i - offset;
+            float value = (n >= 0 && n < reference.length) ? gain * reference[n] : 0;
+            samples[i] = value + 0.002f * (float) random.nextGaussian();
+        }
+        File file = AudioFileTest.tempFile(".wav");
+        try (WavOutput wav = new WavOutput(file, SAMPLE_RATE, 1)) {
+            wav.write(samples, 0, samples.length);
+        }
+        return file;
+    }
+
+    @Test
+    public void findsOffsetsAcrossBlocks() throws IOException {
+        float[] reference = bursts(60 * SAMPLE_RATE, 1);
+        File referenceFile = capture(reference, 0, 1, 2);
+        CaptureAligner aligner = new CaptureAligner(new ForkJoinPool(2), 2000);
+        // 6000 envelope samples in blocks of 512
+        aligner.mEnvelopeBlock = 512;
+        List<CaptureAligner.Offset> offsets = aligner.alignAll(referenceFile, Arrays.asList(
+                capture(reference, 1234, 0.5f, 3),
+                capture(reference, -4321, 2.0f, 4)));
+        assertEquals(3, offsets.size());
+        assertEquals(0, offsets.get(0).frames, 0);
+        assertEquals(1234, offsets.get(1).frames, 0.5);
+        assertEquals(-4321, offsets.get(2).frames, 0.5);
+        assertEquals(1234, offsets.get(1).coarseFrames, CaptureAligner.getDecimation(SAMPLE_RATE));
+        assertTrue(offsets.get(1).peakToRms > 10);
+    }
+
+    @Test
+    public void writesAlignedOutputs() throws IOException {
+        float[] reference = new float[4000];
+        reference[1000] = 0.5f;
+        File input = capture(reference, 300, 1, 5);
+        File output = AudioFileTest.tempFile(".wav");
+        CaptureAligner.writeAligned(input, output, 300.2, 3000);
+        try (AudioFile audio = AudioFile.open(output)) {
+            assertEquals(3000, audio.getFrames());
+            float[] samples = new float[3000];
+            audio.read(0, samples, 3000);
+            assertEquals(0.5f, samples[1000], 0.01f);
+        }
+        // a capture that started late is padded with silence
+        CaptureAligner.writeAligned(input, output, -500, 3000);
+        try (AudioFile audio = AudioFile.open(output)) {
+            float[] samples = new float[3000];
+            audio.read(0, samples, 3000);
+            assertEquals(0.0f, samples[100], 0);
+            assertEquals(0.5f, samples[1800], 0.01f);
+        }
+    }
+}
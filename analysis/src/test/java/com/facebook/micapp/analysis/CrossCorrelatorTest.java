@@ -0,0 +1,50 @@
+package com.facebook.micapp.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CrossCorrelatorTest {
+    // 100 ms 200 Hz to 1200 Hz sweep at 48 kHz, zero outside, sample n is at time n
+    static double chirp(double n) {
+        if (n < 0 || n >= 4800) {
+            return 0;
+        }
+        double t = n / 48000.0;
+        return Math.sin(2 * Math.PI * (200 * t + 5000 * t * t));
+    }
+
+    @Test
+    public void fftRoundTrip() {
+        Fft fft = new Fft(16);
+        double[] re = new double[16];
+        double[] im = new double[16];
+        re[3] = 1;
+        fft.transform(re, im, false);
+        // an impulse has a flat magnitude spectrum
+        assertEquals(1.0, Math.hypot(re[5], im[5]), 1e-12);
+        fft.transform(re, im, true);
+        assertEquals(1.0, re[3], 1e-12);
+        assertEquals(0.0, re[4], 1e-12);
+    }
+
+    @Test
+    public void findsDelayWithSubSampleResolution() {
+        float[] reference = new float[4800];
+        for (int i = 0; i < reference.length; i++) {
+            reference[i] = (float) chirp(i);
+        }
+        CrossCorrelator correlator = new CrossCorrelator(reference, 20000);
+        // the chirp at half the level, delayed by a fraction of a sample, over noise
+        double delay = 7321.4;
+        float[] signal = new float[20000];
+        Random random = new Random(1);
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = (float) (0.5 * chirp(i - delay) + 0.05 * random.nextGaussian());
+        }
+        assertEquals(delay, correlator.findDelay(signal, signal.length), 0.1);
+        assertTrue(correlator.getPeakToRms() > 10);
+    }
+}
@@ -0,0 +1,148 @@
+package com.facebook.micapp;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writes to another AudioSink on a dedicated writer thread.
+ *
+ * Data is copied into blocks from a fixed pool. Full blocks are queued to the
+ * writer thread, which writes each one in a single call and returns it to
+ * the pool, so nothing is allocated per block. If storage is so slow that the
+ * pool runs dry, write() waits for a free block. Every such wait is counted as
+ * back-pressure in the CaptureStats together with the time spent waiting.
+ */
+public class AsyncSink implements AudioSink {
+    static class Block {
+        final byte[] mData;
+        int mLength = 0;
+
+        Block(int size) {
+            mData = new byte[size];
+        }
+    }
+
+    // queued after the last block to stop the writer
+    static final Block END = new Block(0);
+
+    final AudioSink mSink;
+    final CaptureStats mStats;
+    final ArrayBlockingQueue<Block> mFree;
+    final ArrayBlockingQueue<Block> mFilled;
+    final Thread mWriterThread;
+    Block mCurrent;
+    volatile IOException mError = null;
+    boolean mClosed = false;
+
+    public AsyncSink(AudioSink sink, int blockBytes, int blocks, CaptureStats stats) {
+        mSink = sink;
+        mStats = stats;
+        mFree = new ArrayBlockingQueue<>(blocks);
+        mFilled = new ArrayBlockingQueue<>(blocks + 1);
+        for (int i = 1; i < blocks; i++) {
+            mFree.add(new Block(blockBytes));
+        }
+        mCurrent = new Block(blockBytes);
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBlocks();
+            }
+        }, "micapp.writer");
+        mWriterThread.start();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (mError != null) {
+            throw mError;
+        }
+        while (length > 0) {
+            int count = Math.min(length, mCurrent.mData.length - mCurrent.mLength);
+            System.arraycopy(data, offset, mCurrent.mData, mCurrent.mLength, count);
+            mCurrent.mLength += count;
+            offset += count;
+            length -= count;
+            if (mCurrent.mLength == mCurrent.mData.length) {
+                queueCurrent();
+                mCurrent = acquire();
+            }
+        }
+    }
+
+    void queueCurrent() {
+        mFilled.add(mCurrent);
+        mStats.onWriteQueued(mFilled.size());
+    }
+
+    Block acquire() {
+        Block block = mFree.poll();
+        if (block != null) {
+            return block;
+        }
+        // storage is not keeping up
+        long start = System.nanoTime();
+        while (block == null) {
+            try {
+                block = mFree.take();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        mStats.onBackPressure(System.nanoTime() - start);
+        return block;
+    }
+
+    // writer thread
+    void writeBlocks() {
+        while (true) {
+            Block block;
+            try {
+                block = mFilled.take();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                continue;
+            }
+            if (block == END) {
+                break;
+            }
+            if (mError == null) {
+                try {
+                    long start = System.nanoTime();
+                    mSink.write(block.mData, 0, block.mLength);
+                    mStats.onWrite(System.nanoTime() - start);
+                } catch (IOException e) {
+                    mError = e;
+                }
+            }
+            block.mLength = 0;
+            mFree.add(block);
+        }
+    }
+
+    @Override
+    public void setInfo(String id, String value) {
+        mSink.setInfo(id, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mCurrent.mLength > 0) {
+            queueCurrent();
+        }
+        mFilled.add(END);
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mSink.close();
+        if (mError != null) {
+            throw mError;
+        }
+    }
+}
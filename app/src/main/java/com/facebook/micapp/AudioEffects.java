@@ -6,7 +6,7 @@ import android.media.audiofx.AutomaticGainControl;
 import android.media.audiofx.NoiseSuppressor;
 import android.util.Log;
 
-import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.UUID;
 
 public class AudioEffects {
@@ -17,7 +17,7 @@ public class AudioEffects {
     AutomaticGainControl mAutomaticGainControl = null;
     NoiseSuppressor mNoiseSuppressor = null;
 
-    Vector<StatusUpdatedListener> listeners = new Vector<>();
+    CopyOnWriteArrayList<StatusUpdatedListener> listeners = new CopyOnWriteArrayList<>();
 
     void disableAudioEffects() {
         try {
@@ -199,9 +199,7 @@ public class AudioEffects {
     }
 
     public void addStatusUpdateListener(StatusUpdatedListener listener) {
-        if (!listeners.contains(listener)) {
-            listeners.add(listener);
-        }
+        listeners.addIfAbsent(listener);
     }
     public interface StatusUpdatedListener {
         public void onStatusUpdates();
@@ -0,0 +1,35 @@
+package com.facebook.micapp;
+
+/**
+ * Source of captured pcm, with the AudioRecord semantics the Recorder uses.
+ *
+ * AudioRecordInput reads from the device, SyntheticInput generates the
+ * audio, so the capture path also runs on a plain JVM.
+ */
+public interface AudioInput {
+    // AudioRecord.ERROR
+    public static final int ERROR = -1;
+
+    // position of a frame and the monotonic time it was captured, like AudioTimestamp
+    public static class Timestamp {
+        public long framePosition = 0;
+        public long nanoTime = 0;
+    }
+
+    public void start();
+
+    public boolean isRecording();
+
+    // blocks until length bytes of whole frames are read, returns the bytes read or a negative error
+    public int read(byte[] data, int offset, int length);
+
+    // false if no timestamp is available yet
+    public boolean getTimestamp(Timestamp timestamp);
+
+    public int getAudioSessionId();
+
+    public void stop();
+
+    // the input cannot be used after this
+    public void release();
+}
@@ -0,0 +1,22 @@
+package com.facebook.micapp;
+
+/**
+ * Destination of played pcm, with the AudioTrack semantics the Player uses.
+ *
+ * AudioTrackOutput plays on the device, FileOutput writes a WAV file, so the
+ * playback path also runs on a plain JVM.
+ */
+public interface AudioOutput {
+    // AudioTrack.ERROR
+    public static final int ERROR = -1;
+
+    public void play();
+
+    // blocks until the data is queued, returns the bytes written or a negative error
+    public int write(byte[] data, int offset, int length);
+
+    public void stop();
+
+    // the output cannot be used after this
+    public void release();
+}
@@ -0,0 +1,61 @@
+package com.facebook.micapp;
+
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+
+/**
+ * AudioInput reading from an AudioRecord.
+ */
+public class AudioRecordInput implements AudioInput {
+    final AudioRecord mRecord;
+    final AudioTimestamp mTimestamp = new AudioTimestamp();
+
+    public AudioRecordInput(AudioRecord record) {
+        mRecord = record;
+    }
+
+    // for the routing and microphone queries
+    public AudioRecord getAudioRecord() {
+        return mRecord;
+    }
+
+    @Override
+    public void start() {
+        mRecord.startRecording();
+    }
+
+    @Override
+    public boolean isRecording() {
+        return mRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) {
+        return mRecord.read(data, offset, length);
+    }
+
+    @Override
+    public boolean getTimestamp(Timestamp timestamp) {
+        if (mRecord.getTimestamp(mTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) {
+            return false;
+        }
+        timestamp.framePosition = mTimestamp.framePosition;
+        timestamp.nanoTime = mTimestamp.nanoTime;
+        return true;
+    }
+
+    @Override
+    public int getAudioSessionId() {
+        return mRecord.getAudioSessionId();
+    }
+
+    @Override
+    public void stop() {
+        mRecord.stop();
+    }
+
+    @Override
+    public void release() {
+        mRecord.release();
+    }
+}
@@ -0,0 +1,149 @@
+package com.facebook.micapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Preallocated single producer, multiple consumer ring buffer for captured audio.
+ *
+ * The producer (the capture thread) never blocks and never waits for a
+ * consumer. Each consumer has its own Reader with its own read position. A
+ * reader that falls more than the buffer capacity behind loses the oldest
+ * data, and the lost bytes are counted in that reader only.
+ *
+ * Positions are absolute byte counts since the buffer was created. The
+ * producer copies and moves the write position under the write lock of a
+ * StampedLock. Readers only take optimistic read stamps, so the write lock
+ * is never contended and the producer does not wait. A reader copies and
+ * then validates its stamp. If a write happened during the copy, the data
+ * may be torn and the reader copies again. validate() also orders the
+ * copy before the check, which plain volatile positions do not.
+ */
+public class AudioRingBuffer {
+    final byte[] mData;
+    final int mCapacity;
+    final int mFrameSize;
+    final AtomicLong mWritePosition = new AtomicLong(0);
+    final StampedLock mLock = new StampedLock();
+    volatile Reader[] mReaders = new Reader[0];
+
+    public AudioRingBuffer(int capacityFrames, int frameSize) {
+        mFrameSize = frameSize;
+        mCapacity = capacityFrames * frameSize;
+        mData = new byte[mCapacity];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getWritePosition() {
+        return mWritePosition.get();
+    }
+
+    /**
+     * Copies length bytes (whole frames) into the buffer and wakes up waiting readers.
+     */
+    public void write(byte[] src, int offset, int length) {
+        long stamp = mLock.writeLock();
+        try {
+            long position = mWritePosition.get();
+            while (length > 0) {
+                int index = (int) (position % mCapacity);
+                int count = Math.min(length, mCapacity - index);
+                System.arraycopy(src, offset, mData, index, count);
+                offset += count;
+                length -= count;
+                position += count;
+            }
+            mWritePosition.lazySet(position);
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+        for (Reader reader : mReaders) {
+            Thread waiter = reader.mWaiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * Creates a reader starting at the current write position.
+     */
+    public synchronized Reader createReader() {
+        Reader reader = new Reader(mWritePosition.get());
+        Reader[] readers = new Reader[mReaders.length + 1];
+        System.arraycopy(mReaders, 0, readers, 0, mReaders.length);
+        readers[mReaders.length] = reader;
+        mReaders = readers;
+        return reader;
+    }
+
+    public class Reader {
+        long mReadPosition;
+        long mLostBytes = 0;
+        volatile Thread mWaiter = null;
+
+        Reader(long position) {
+            mReadPosition = position;
+        }
+
+        public int available() {
+            return (int) Math.min(mWritePosition.get() - mReadPosition, mCapacity);
+        }
+
+        /**
+         * Copies up to length bytes (rounded down to whole frames) into dst.
+         * Returns the number of bytes copied, 0 if nothing is available.
+         */
+        public int read(byte[] dst, int offset, int length) {
+            while (true) {
+                long stamp = mLock.tryOptimisticRead();
+                if (stamp == 0) {
+                    // the producer is copying, for a few microseconds
+                    Thread.yield();
+                    continue;
+                }
+                long writePosition = mWritePosition.get();
+                long readPosition = Math.max(mReadPosition, writePosition - mCapacity);
+                int count = (int) Math.min(writePosition - readPosition, length);
+                count -= count % mFrameSize;
+                long position = readPosition;
+                int copied = 0;
+                while (copied < count) {
+                    int index = (int) (position % mCapacity);
+                    int chunk = Math.min(count - copied, mCapacity - index);
+                    System.arraycopy(mData, index, dst, offset + copied, chunk);
+                    copied += chunk;
+                    position += chunk;
+                }
+                if (!mLock.validate(stamp)) {
+                    // written to while copying, maybe torn
+                    continue;
+                }
+                // the producer has lapped us, the oldest valid frame is read first
+                mLostBytes += readPosition - mReadPosition;
+                mReadPosition = readPosition + count;
+                return count;
+            }
+        }
+
+        /**
+         * Waits until data is available or the timeout expires.
+         */
+        public void await(long timeoutNanos) {
+            mWaiter = Thread.currentThread();
+            if (mWritePosition.get() == mReadPosition) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+            mWaiter = null;
+        }
+
+        // bytes this reader lost because it fell behind the producer
+        public long getLostBytes() {
+            return mLostBytes;
+        }
+    }
+}
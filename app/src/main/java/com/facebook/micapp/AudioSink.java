@@ -0,0 +1,17 @@
+package com.facebook.micapp;
+
+import java.io.IOException;
+
+/**
+ * Destination for captured pcm, e.g. a file.
+ */
+public interface AudioSink {
+    // raw little endian pcm, always whole frames
+    public void write(byte[] data, int offset, int length) throws IOException;
+
+    // metadata stored with the audio, ids are RIFF INFO ids ("ISFT", "ICMT", ...)
+    public void setInfo(String id, String value);
+
+    // finishes the output, the sink cannot be written after this
+    public void close() throws IOException;
+}
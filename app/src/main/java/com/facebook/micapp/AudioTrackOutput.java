@@ -0,0 +1,62 @@
+package com.facebook.micapp;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.util.Log;
+
+/**
+ * AudioOutput playing 16-bit mono through a low latency AudioTrack.
+ */
+public class AudioTrackOutput implements AudioOutput {
+    final static String TAG = "micapp.play";
+
+    final AudioTrack mTrack;
+
+    public AudioTrackOutput(int sampleRate, int bufferSize, int usage, int contentType) {
+        mTrack = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(usage)
+                        .setContentType(contentType)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                        .build())
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setBufferSizeInBytes(bufferSize)
+                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                .build();
+    }
+
+    // AudioTrack.getMinBufferSize() for the format of the output
+    public static int getMinBufferSize(int sampleRate) {
+        return AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    @Override
+    public void play() {
+        mTrack.play();
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
+            AudioAttributes ats = mTrack.getAudioAttributes();
+            Log.d(TAG, "Player:\nusage: " + ats.getUsage() + "\nContent type = " + ats.getContentType() +
+                    "\nflags: " + ats.getFlags());
+        }
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        return mTrack.write(data, offset, length);
+    }
+
+    @Override
+    public void stop() {
+        mTrack.stop();
+    }
+
+    @Override
+    public void release() {
+        mTrack.release();
+    }
+}
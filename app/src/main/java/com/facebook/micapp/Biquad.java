@@ -0,0 +1,69 @@
+package com.facebook.micapp;
+
+/**
+ * Second order IIR section, transposed direct form II.
+ *
+ * Coefficients are normalized so that a0 is 1. The state is two doubles, so
+ * process() does not allocate and can run per sample on the capture stream.
+ */
+public class Biquad {
+    final double mB0;
+    final double mB1;
+    final double mB2;
+    final double mA1;
+    final double mA2;
+    double mZ1 = 0;
+    double mZ2 = 0;
+
+    public Biquad(double b0, double b1, double b2, double a1, double a2) {
+        mB0 = b0;
+        mB1 = b1;
+        mB2 = b2;
+        mA1 = a1;
+        mA2 = a2;
+    }
+
+    /**
+     * Digital section of the analog (b0 s^2 + b1 s + b2) / (a0 s^2 + a1 s + a2)
+     * through the bilinear transform at sampleRate.
+     */
+    public static Biquad fromAnalog(double b0, double b1, double b2,
+                                    double a0, double a1, double a2, int sampleRate) {
+        double k = 2.0 * sampleRate;
+        double k2 = k * k;
+        double norm = a0 * k2 + a1 * k + a2;
+        return new Biquad((b0 * k2 + b1 * k + b2) / norm,
+                (2 * b2 - 2 * b0 * k2) / norm,
+                (b0 * k2 - b1 * k + b2) / norm,
+                (2 * a2 - 2 * a0 * k2) / norm,
+                (a0 * k2 - a1 * k + a2) / norm);
+    }
+
+    public double process(double x) {
+        double y = mB0 * x + mZ1;
+        mZ1 = mB1 * x - mA1 * y + mZ2;
+        mZ2 = mB2 * x - mA2 * y;
+        return y;
+    }
+
+    public void reset() {
+        mZ1 = 0;
+        mZ2 = 0;
+    }
+
+    /**
+     * Magnitude of the response at frequency.
+     */
+    public double getGain(double frequency, int sampleRate) {
+        double w = 2 * Math.PI * frequency / sampleRate;
+        double cos1 = Math.cos(w);
+        double sin1 = Math.sin(w);
+        double cos2 = Math.cos(2 * w);
+        double sin2 = Math.sin(2 * w);
+        double numRe = mB0 + mB1 * cos1 + mB2 * cos2;
+        double numIm = -mB1 * sin1 - mB2 * sin2;
+        double denRe = 1 + mA1 * cos1 + mA2 * cos2;
+        double denIm = -mA1 * sin1 - mA2 * sin2;
+        return Math.sqrt((numRe * numRe + numIm * numIm) / (denRe * denRe + denIm * denIm));
+    }
+}
@@ -0,0 +1,25 @@
+package com.facebook.micapp;
+
+/**
+ * Receives captured audio from a Recorder.
+ *
+ * The consumers of a capture run on its ConsumerThread, each fed from its
+ * own reader of the Recorder ring buffer, so a slow consumer never delays
+ * the capture thread and only loses its own data.
+ */
+public interface CaptureConsumer {
+    // called before the first data, on the thread opening the capture, the
+    // clock maps the captured frames to monotonic time
+    public default void onCaptureStarted(int sampleRate, CaptureFormat format, FrameClock clock) {
+    }
+
+    // raw little endian pcm, always whole frames
+    public void onCaptureData(byte[] data, int offset, int length);
+
+    // bytes (whole frames) lost before the next data, the consumer fell behind
+    public default void onCaptureDataLost(long bytes) {
+    }
+
+    // called once on the consumer thread after the last data
+    public void onCaptureStopped();
+}
@@ -0,0 +1,177 @@
+package com.facebook.micapp;
+
+import android.media.AudioFormat;
+
+import java.util.Locale;
+
+/**
+ * Encoding and channel layout of a capture.
+ *
+ * Frames are interleaved, channel after channel. Channels are selected
+ * either with a positional mask (AudioFormat.CHANNEL_IN_*) or with a channel
+ * index mask, where bit n selects channel n of the device. Only the
+ * AudioFormat constants are used, so the class works in plain JVM tests.
+ */
+public final class CaptureFormat {
+    static final float INT_SCALE = 1.0f / 2147483648.0f;
+
+    public final int encoding;
+    // exactly one of the two masks is set
+    public final int channelMask;
+    public final int channelIndexMask;
+    public final int channels;
+    public final int bytesPerSample;
+
+    CaptureFormat(int encoding, int channelMask, int channelIndexMask) {
+        this.encoding = encoding;
+        this.channelMask = channelMask;
+        this.channelIndexMask = channelIndexMask;
+        this.channels = Integer.bitCount(channelMask != 0 ? channelMask : channelIndexMask);
+        this.bytesPerSample = getBytesPerSample(encoding);
+        if (channels == 0) {
+            throw new IllegalArgumentException("No channels selected");
+        }
+    }
+
+    public static CaptureFormat withChannelMask(int encoding, int channelMask) {
+        return new CaptureFormat(encoding, channelMask, 0);
+    }
+
+    public static CaptureFormat withChannelIndexMask(int encoding, int channelIndexMask) {
+        return new CaptureFormat(encoding, 0, channelIndexMask);
+    }
+
+    // the first channels of the device, mono and stereo use the positional masks
+    public static CaptureFormat withChannels(int encoding, int channels) {
+        switch (channels) {
+            case 1:
+                return withChannelMask(encoding, AudioFormat.CHANNEL_IN_MONO);
+            case 2:
+                return withChannelMask(encoding, AudioFormat.CHANNEL_IN_STEREO);
+            default:
+                return withChannelIndexMask(encoding, (1 << channels) - 1);
+        }
+    }
+
+    public static CaptureFormat getDefault() {
+        return withChannelMask(AudioFormat.ENCODING_PCM_16BIT, AudioFormat.CHANNEL_IN_MONO);
+    }
+
+    static int getBytesPerSample(int encoding) {
+        switch (encoding) {
+            case AudioFormat.ENCODING_PCM_16BIT:
+                return 2;
+            case AudioFormat.ENCODING_PCM_24BIT_PACKED:
+                return 3;
+            case AudioFormat.ENCODING_PCM_32BIT:
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+    }
+
+    // "16", "24", "32" or "float"
+    public static int encodingFromString(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "16":
+                return AudioFormat.ENCODING_PCM_16BIT;
+            case "24":
+                return AudioFormat.ENCODING_PCM_24BIT_PACKED;
+            case "32":
+                return AudioFormat.ENCODING_PCM_32BIT;
+            case "float":
+                return AudioFormat.ENCODING_PCM_FLOAT;
+            default:
+                throw new IllegalArgumentException("Unknown encoding: " + name);
+        }
+    }
+
+    public static String encodingToString(int encoding) {
+        switch (encoding) {
+            case AudioFormat.ENCODING_PCM_16BIT:
+                return "16";
+            case AudioFormat.ENCODING_PCM_24BIT_PACKED:
+                return "24";
+            case AudioFormat.ENCODING_PCM_32BIT:
+                return "32";
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return "float";
+            default:
+                return "unknown";
+        }
+    }
+
+    public int getFrameSize() {
+        return channels * bytesPerSample;
+    }
+
+    public int getBitsPerSample() {
+        return 8 * bytesPerSample;
+    }
+
+    public boolean isFloat() {
+        return encoding == AudioFormat.ENCODING_PCM_FLOAT;
+    }
+
+    /**
+     * Converts little endian 16-bit samples, the encoding has to be ENCODING_PCM_16BIT.
+     */
+    public void toShorts(byte[] data, int offset, short[] dst, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int index = offset + 2 * i;
+            dst[i] = (short) ((data[index] & 0xff) | (data[index + 1] << 8));
+        }
+    }
+
+    /**
+     * Converts little endian samples of any encoding to floats, 1.0 being full scale.
+     */
+    public void toFloats(byte[] data, int offset, float[] dst, int samples) {
+        int index = offset;
+        switch (encoding) {
+            case AudioFormat.ENCODING_PCM_16BIT:
+                for (int i = 0; i < samples; i++, index += 2) {
+                    dst[i] = (short) ((data[index] & 0xff) | (data[index + 1] << 8)) * LevelMeter.SHORT_SCALE;
+                }
+                break;
+            case AudioFormat.ENCODING_PCM_24BIT_PACKED:
+                for (int i = 0; i < samples; i++, index += 3) {
+                    dst[i] = ((data[index] & 0xff) << 8 |
+                            (data[index + 1] & 0xff) << 16 |
+                            data[index + 2] << 24) * INT_SCALE;
+                }
+                break;
+            case AudioFormat.ENCODING_PCM_32BIT:
+                for (int i = 0; i < samples; i++, index += 4) {
+                    dst[i] = readInt(data, index) * INT_SCALE;
+                }
+                break;
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                for (int i = 0; i < samples; i++, index += 4) {
+                    dst[i] = Float.intBitsToFloat(readInt(data, index));
+                }
+                break;
+        }
+    }
+
+    static int readInt(byte[] data, int index) {
+        return (data[index] & 0xff) |
+                (data[index + 1] & 0xff) << 8 |
+                (data[index + 2] & 0xff) << 16 |
+                data[index + 3] << 24;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append("encoding: " + encodingToString(encoding));
+        str.append(" channels: " + channels);
+        if (channelMask != 0) {
+            str.append(" channel_mask: 0x" + Integer.toHexString(channelMask));
+        } else {
+            str.append(" channel_index_mask: 0x" + Integer.toHexString(channelIndexMask));
+        }
+        return str.toString();
+    }
+}
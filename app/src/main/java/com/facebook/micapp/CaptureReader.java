@@ -0,0 +1,59 @@
+package com.facebook.micapp;
+
+/**
+ * The work of the capture thread for one read: reads a period from the
+ * AudioInput, reports the read and the time of its first frame to the
+ * CaptureStats and hands the data to the consumers through the ring buffer.
+ *
+ * Has no android dependencies, so the capture path can be run and
+ * benchmarked with a SyntheticInput on a plain JVM.
+ */
+public class CaptureReader {
+    final AudioInput mInput;
+    final AudioRingBuffer mRing;
+    final CaptureStats mStats;
+    final byte[] mAudioData;
+    final int mFrameSize;
+    final int mSampleRate;
+    final int mPeriodFrames;
+    final AudioInput.Timestamp mTimestamp = new AudioInput.Timestamp();
+
+    public CaptureReader(AudioInput input, AudioRingBuffer ring, CaptureStats stats, byte[] audioData,
+                         int frameSize, int sampleRate) {
+        mInput = input;
+        mRing = ring;
+        mStats = stats;
+        mAudioData = audioData;
+        mFrameSize = frameSize;
+        mSampleRate = sampleRate;
+        mPeriodFrames = audioData.length / frameSize;
+    }
+
+    /**
+     * Reads one period, returns the frames read or the negative error of
+     * the input.
+     */
+    public int read() {
+        long firstFrame = mStats.getFramesDelivered();
+        int readBytes = mInput.read(mAudioData, 0, mAudioData.length);
+        long readTimeNs = System.nanoTime();
+        if (readBytes < 0) {
+            mStats.onReadError();
+            return readBytes;
+        }
+        int frames = readBytes / mFrameSize;
+        mStats.onRead(mPeriodFrames, frames, readTimeNs);
+        if (mInput.getTimestamp(mTimestamp)) {
+            mStats.onTimestamp(mTimestamp.framePosition, mTimestamp.nanoTime);
+            long firstFrameNs = mTimestamp.nanoTime +
+                    (firstFrame - mTimestamp.framePosition) * 1000000000L / mSampleRate;
+            mStats.onBuffer(firstFrame, firstFrameNs);
+            mStats.onInputDelay(readTimeNs - firstFrameNs - (frames - 1) * 1000000000L / mSampleRate);
+        } else {
+            // no timestamps, the last frame has just been read
+            mStats.onBuffer(firstFrame, readTimeNs - frames * 1000000000L / mSampleRate);
+        }
+        mRing.write(mAudioData, 0, frames * mFrameSize);
+        return frames;
+    }
+}
@@ -0,0 +1,190 @@
+package com.facebook.micapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Captures from several inputs at the same time.
+ *
+ * Every input gets a Recorder running on one thread of a pool sized to the
+ * number of inputs. All inputs are opened first, and a common barrier then
+ * starts them together, without polling. The time the barrier opened is
+ * stored in the CaptureStats of every input next to the monotonic time of
+ * its first frame, so the captures can be sample aligned afterwards.
+ *
+ * start() and stop() return futures: the session has started when every
+ * input delivered its first buffer, and has stopped when every input is
+ * closed. The first input that fails to start fails the start future. If
+ * an input fails to open, the inputs that did open are closed again
+ * without capturing.
+ */
+public class CaptureSession {
+    final static String TAG = "micapp.session";
+
+    final Vector<Recorder> mRecorders = new Vector<>();
+    final List<String> mInputs;
+    final int mAudioSource;
+    final int mSampleRate;
+    final boolean mRecord;
+    ExecutorService mExecutor = null;
+    volatile boolean mStopped = false;
+    // set before the start barrier opens, read after
+    volatile boolean mOpenFailed = false;
+    volatile long mStartTimeNs = 0;
+    volatile CompletableFuture<Void> mStarted = CompletableFuture.completedFuture(null);
+    volatile CompletableFuture<Void> mFinished = CompletableFuture.completedFuture(null);
+
+    public CaptureSession(Context context, List<String> inputs, int audioSource, int sampleRate, boolean record) {
+        this(context, inputs, audioSource, sampleRate, record, new Vector<Recorder>());
+    }
+
+    /**
+     * Captures with the recorders of an earlier, stopped, session. Missing
+     * recorders are created and added to recorders, so the next session
+     * can reuse them too.
+     */
+    public CaptureSession(Context context, List<String> inputs, int audioSource, int sampleRate, boolean record,
+                          Vector<Recorder> recorders) {
+        mInputs = inputs;
+        mAudioSource = audioSource;
+        mSampleRate = sampleRate;
+        mRecord = record;
+        for (int i = 0; i < inputs.size(); i++) {
+            if (i == recorders.size()) {
+                recorders.add(new Recorder(context));
+            }
+            mRecorders.add(recorders.get(i));
+        }
+    }
+
+    /**
+     * One recorder per input, in input order. Configure them before start().
+     */
+    public Vector<Recorder> getRecorders() {
+        return mRecorders;
+    }
+
+    // completes when every input delivered its first buffer
+    public CompletableFuture<Void> getStarted() {
+        return mStarted;
+    }
+
+    // monotonic time the captures were started, 0 before
+    public long getStartTimeNs() {
+        return mStartTimeNs;
+    }
+
+    /**
+     * Opens every input and starts them together, returns without waiting.
+     * The future completes when every input delivered its first buffer.
+     */
+    public CompletableFuture<Void> start() {
+        final int count = mRecorders.size();
+        if (count == 0) {
+            return mStarted;
+        }
+        mStarted = new CompletableFuture<>();
+        mFinished = new CompletableFuture<>();
+        mOpenFailed = false;
+        final AtomicInteger pending = new AtomicInteger(count);
+        final AtomicInteger running = new AtomicInteger(count);
+        mExecutor = Executors.newFixedThreadPool(count, new ThreadFactory() {
+            int mThreads = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "micapp.capture." + (mThreads++));
+            }
+        });
+        final CyclicBarrier startBarrier = new CyclicBarrier(count, new Runnable() {
+            @Override
+            public void run() {
+                // last input opened, runs before any of them starts
+                mStartTimeNs = System.nanoTime();
+                for (Recorder rec : mRecorders) {
+                    CaptureStats stats = rec.getCaptureStats();
+                    if (stats != null) {
+                        stats.setSessionStart(mStartTimeNs);
+                    }
+                }
+                Log.d(TAG, "Start " + count + " inputs");
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            final Recorder rec = mRecorders.get(i);
+            final String input = mInputs.get(i);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        capture(rec, input, startBarrier, pending);
+                    } finally {
+                        if (running.decrementAndGet() == 0) {
+                            mFinished.complete(null);
+                        }
+                    }
+                }
+            });
+        }
+        mExecutor.shutdown();
+        return mStarted;
+    }
+
+    // on the pool thread of the input
+    void capture(Recorder rec, String input, CyclicBarrier startBarrier, final AtomicInteger pending) {
+        boolean opened = false;
+        try {
+            opened = rec.open(mAudioSource, input, mSampleRate, mRecord);
+        } catch (Exception e) {
+            // the others must not wait for this input at the barrier
+            Log.e(TAG, "Failed to open " + input, e);
+            rec.fail(e);
+            rec.finish();
+        }
+        if (!opened) {
+            mOpenFailed = true;
+        }
+        rec.getStarted().whenComplete((session, error) -> {
+            if (error != null) {
+                mStarted.completeExceptionally(error);
+            } else if (pending.decrementAndGet() == 0) {
+                mStarted.complete(null);
+            }
+        });
+        try {
+            startBarrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Log.e(TAG, "Start of " + input + " interrupted");
+            rec.requestStop();
+        }
+        if (!opened) {
+            return;
+        }
+        if (mStopped || mOpenFailed) {
+            // closes the input, the consumers and the file without capturing
+            rec.requestStop();
+        }
+        rec.capture();
+    }
+
+    /**
+     * Stops every input. The future completes when all captures are closed.
+     */
+    public CompletableFuture<Void> stop() {
+        mStopped = true;
+        for (Recorder rec : mRecorders) {
+            rec.requestStop();
+        }
+        return mFinished;
+    }
+}
@@ -0,0 +1,316 @@
+package com.facebook.micapp;
+
+import java.util.Locale;
+import java.util.Vector;
+
+/**
+ * Health of one capture session.
+ *
+ * The capture thread reports every read and AudioRecord timestamp, the file
+ * writer reports how long each write took. Each value has a single writer and
+ * is volatile, so the stats can be read at any time from other threads.
+ */
+public class CaptureStats {
+    final int mSampleRate;
+    final int mPeriodFrames;
+    final long mPeriodNs;
+
+    volatile long mReads = 0;
+    volatile long mFramesRequested = 0;
+    volatile long mFramesDelivered = 0;
+    volatile long mShortReads = 0;
+    volatile long mReadErrors = 0;
+
+    // wall clock time between read returns, compared to the period
+    long mLastReadNs = 0;
+    volatile long mIntervalSumNs = 0;
+    volatile double mJitterSumSquares = 0;
+    volatile long mJitterMaxNs = 0;
+    volatile long mLongestGapNs = 0;
+
+    // AudioRecord.getTimestamp() frame position vs time
+    long mFirstTimestampFrames = -1;
+    long mFirstTimestampNs = 0;
+    volatile long mTimestampFrames = 0;
+    volatile long mTimestampExpectedFrames = 0;
+    volatile long mTimestampPendingMax = 0;
+    // monotonic time of every buffer, and when the session started all captures
+    final FrameClock mClock;
+    volatile long mSessionStartNs = 0;
+    // time from capturing the last frame of a buffer to the read returning it
+    volatile long mInputDelaySumNs = 0;
+    volatile long mInputDelayCount = 0;
+
+    volatile long mWrites = 0;
+    volatile long mWriteTotalNs = 0;
+    volatile long mWriteStallMaxNs = 0;
+    volatile int mWriteQueueMax = 0;
+    volatile long mBackPressureEvents = 0;
+    volatile long mBackPressureNs = 0;
+    // the file is truncated at the first failed write
+    volatile long mWriteErrors = 0;
+    volatile String mWriteError = null;
+
+    final Vector<String> mConsumerNames = new Vector<>();
+    final Vector<Long> mConsumerLostBytes = new Vector<>();
+    // content glitches found in the capture, null if not looked for
+    volatile GlitchDetector mGlitchDetector = null;
+
+    public CaptureStats(int sampleRate, int periodFrames) {
+        mSampleRate = sampleRate;
+        mPeriodFrames = periodFrames;
+        mPeriodNs = 1000000000L * periodFrames / sampleRate;
+        mClock = new FrameClock(sampleRate);
+    }
+
+    // capture thread, after every read
+    public void onRead(int requestedFrames, int deliveredFrames, long nowNs) {
+        mReads++;
+        mFramesRequested += requestedFrames;
+        mFramesDelivered += deliveredFrames;
+        if (deliveredFrames < requestedFrames) {
+            mShortReads++;
+        }
+        if (mLastReadNs != 0) {
+            long interval = nowNs - mLastReadNs;
+            long jitter = Math.abs(interval - mPeriodNs);
+            mIntervalSumNs += interval;
+            mJitterSumSquares += (double) jitter * jitter;
+            if (jitter > mJitterMaxNs) {
+                mJitterMaxNs = jitter;
+            }
+            if (interval > mLongestGapNs) {
+                mLongestGapNs = interval;
+            }
+        }
+        mLastReadNs = nowNs;
+    }
+
+    public void onReadError() {
+        mReadErrors++;
+    }
+
+    // capture thread, framePosition and nanoTime from an AudioTimestamp
+    public void onTimestamp(long framePosition, long nanoTime) {
+        if (mFirstTimestampFrames < 0) {
+            mFirstTimestampFrames = framePosition;
+            mFirstTimestampNs = nanoTime;
+        }
+        mTimestampFrames = framePosition - mFirstTimestampFrames;
+        mTimestampExpectedFrames = (nanoTime - mFirstTimestampNs) * mSampleRate / 1000000000L;
+        long pending = framePosition - mFramesDelivered;
+        if (pending > mTimestampPendingMax) {
+            mTimestampPendingMax = pending;
+        }
+    }
+
+    // capture thread, monotonic time of the first frame of every buffer
+    public void onBuffer(long frame, long timeNs) {
+        mClock.onBuffer(frame, timeNs);
+    }
+
+    // capture thread, for buffers with a timestamp
+    public void onInputDelay(long delayNs) {
+        mInputDelaySumNs += delayNs;
+        mInputDelayCount++;
+    }
+
+    public double getInputDelayMeanMs() {
+        if (mInputDelayCount == 0) {
+            return 0;
+        }
+        return mInputDelaySumNs / 1e6 / mInputDelayCount;
+    }
+
+    // set by CaptureSession when every device of the session is started
+    public void setSessionStart(long timeNs) {
+        mSessionStartNs = timeNs;
+    }
+
+    public FrameClock getFrameClock() {
+        return mClock;
+    }
+
+    // file writer thread, after every write to storage
+    public void onWrite(long durationNs) {
+        mWrites++;
+        mWriteTotalNs += durationNs;
+        if (durationNs > mWriteStallMaxNs) {
+            mWriteStallMaxNs = durationNs;
+        }
+    }
+
+    // consumer thread, queue depth after handing a block to the writer
+    public void onWriteQueued(int depth) {
+        if (depth > mWriteQueueMax) {
+            mWriteQueueMax = depth;
+        }
+    }
+
+    // consumer thread, waited for the writer to free a block
+    public void onBackPressure(long waitNs) {
+        mBackPressureEvents++;
+        mBackPressureNs += waitNs;
+    }
+
+    // consumer thread, the first error stops writing to the file
+    public void onWriteError(String message) {
+        if (mWriteErrors == 0) {
+            mWriteError = message;
+        }
+        mWriteErrors++;
+    }
+
+    public long getWriteErrors() {
+        return mWriteErrors;
+    }
+
+    // at the end of the session, for every ring buffer consumer
+    public void addConsumer(String name, long lostBytes) {
+        mConsumerNames.add(name);
+        mConsumerLostBytes.add(lostBytes);
+    }
+
+    public void setGlitchDetector(GlitchDetector detector) {
+        mGlitchDetector = detector;
+    }
+
+    public GlitchDetector getGlitchDetector() {
+        return mGlitchDetector;
+    }
+
+    public long getFramesRequested() {
+        return mFramesRequested;
+    }
+
+    public long getFramesDelivered() {
+        return mFramesDelivered;
+    }
+
+    public long getShortReads() {
+        return mShortReads;
+    }
+
+    public double getJitterRmsMs() {
+        long intervals = mReads - 1;
+        if (intervals <= 0) {
+            return 0;
+        }
+        return Math.sqrt(mJitterSumSquares / intervals) / 1e6;
+    }
+
+    public double getJitterMaxMs() {
+        return mJitterMaxNs / 1e6;
+    }
+
+    public double getLongestGapMs() {
+        return mLongestGapNs / 1e6;
+    }
+
+    // frames reported by the timestamps that were not there (< 0) or extra (> 0) at the nominal rate
+    public long getTimestampFrameError() {
+        return mTimestampFrames - mTimestampExpectedFrames;
+    }
+
+    public double getWriteStallMaxMs() {
+        return mWriteStallMaxNs / 1e6;
+    }
+
+    public long getBackPressureEvents() {
+        return mBackPressureEvents;
+    }
+
+    public long getLostBytes() {
+        long lost = 0;
+        for (Long bytes : mConsumerLostBytes) {
+            lost += bytes;
+        }
+        return lost;
+    }
+
+    /**
+     * A capture is healthy if every read returned what was asked for, no
+     * consumer lost data, the file was written completely and the
+     * timestamps agree with the nominal rate within two periods.
+     */
+    public boolean isHealthy() {
+        return mReadErrors == 0 &&
+                mShortReads == 0 &&
+                mWriteErrors == 0 &&
+                getLostBytes() == 0 &&
+                Math.abs(getTimestampFrameError()) <= 2 * mPeriodFrames;
+    }
+
+    public String toString(int indent) {
+        String tab = Utils.getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        str.append(tab + "capture_stats {\n");
+        indent += 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "healthy: " + isHealthy() + "\n");
+        str.append(tab + "sample_rate: " + mSampleRate + "\n");
+        str.append(tab + "period_frames: " + mPeriodFrames + "\n");
+        str.append(tab + "reads: " + mReads + "\n");
+        str.append(tab + "frames_requested: " + mFramesRequested + "\n");
+        str.append(tab + "frames_delivered: " + mFramesDelivered + "\n");
+        str.append(tab + "short_reads: " + mShortReads + "\n");
+        str.append(tab + "read_errors: " + mReadErrors + "\n");
+        long intervals = Math.max(1, mReads - 1);
+        str.append(String.format(Locale.ROOT, "%sread_interval_mean_ms: %.3f\n", tab, mIntervalSumNs / 1e6 / intervals));
+        str.append(String.format(Locale.ROOT, "%sread_jitter_rms_ms: %.3f\n", tab, getJitterRmsMs()));
+        str.append(String.format(Locale.ROOT, "%sread_jitter_max_ms: %.3f\n", tab, getJitterMaxMs()));
+        str.append(String.format(Locale.ROOT, "%slongest_read_gap_ms: %.3f\n", tab, getLongestGapMs()));
+        str.append(tab + "timestamp_frames: " + mTimestampFrames + "\n");
+        str.append(tab + "timestamp_expected_frames: " + mTimestampExpectedFrames + "\n");
+        str.append(tab + "timestamp_frame_error: " + getTimestampFrameError() + "\n");
+        str.append(tab + "timestamp_pending_frames_max: " + mTimestampPendingMax + "\n");
+        str.append(tab + "start_time_ns: " + mClock.getStartTimeNs() + "\n");
+        if (mSessionStartNs != 0) {
+            str.append(String.format(Locale.ROOT, "%ssession_start_offset_ms: %.3f\n",
+                    tab, (mClock.getStartTimeNs() - mSessionStartNs) / 1e6));
+        }
+        str.append(String.format(Locale.ROOT, "%smeasured_sample_rate: %.3f\n", tab, mClock.getMeasuredSampleRate()));
+        str.append(String.format(Locale.ROOT, "%sclock_drift_ppm: %.2f\n", tab, mClock.getDriftPpm()));
+        str.append(String.format(Locale.ROOT, "%sbuffer_time_deviation_max_ms: %.3f\n", tab, mClock.getMaxDeviationMs()));
+        str.append(String.format(Locale.ROOT, "%sinput_delay_mean_ms: %.3f\n", tab, getInputDelayMeanMs()));
+        str.append(tab + "writes: " + mWrites + "\n");
+        str.append(String.format(Locale.ROOT, "%swrite_time_total_ms: %.3f\n", tab, mWriteTotalNs / 1e6));
+        str.append(String.format(Locale.ROOT, "%swrite_stall_max_ms: %.3f\n", tab, getWriteStallMaxMs()));
+        str.append(tab + "write_queue_depth_max: " + mWriteQueueMax + "\n");
+        str.append(tab + "write_back_pressure_events: " + mBackPressureEvents + "\n");
+        str.append(String.format(Locale.ROOT, "%swrite_back_pressure_ms: %.3f\n", tab, mBackPressureNs / 1e6));
+        str.append(tab + "write_errors: " + mWriteErrors + "\n");
+        String writeError = mWriteError;
+        if (writeError != null) {
+            str.append(tab + "write_error: \"" + writeError.replace("\"", "'") + "\"\n");
+        }
+        for (int i = 0; i < mConsumerNames.size(); i++) {
+            str.append(tab + "consumer {\n");
+            str.append(tab + "  name: \"" + mConsumerNames.get(i) + "\"\n");
+            str.append(tab + "  lost_bytes: " + mConsumerLostBytes.get(i) + "\n");
+            str.append(tab + "}\n");
+        }
+        GlitchDetector glitches = mGlitchDetector;
+        if (glitches != null) {
+            str.append(tab + "glitches {\n");
+            str.append(tab + "  glitch_events: " + glitches.getTotalCount() + "\n");
+            for (int type = 0; type < GlitchDetector.GLITCH_TYPES; type++) {
+                if (glitches.getCount(type) == 0) {
+                    continue;
+                }
+                str.append(tab + "  glitch {\n");
+                str.append(tab + "    type: \"" + GlitchDetector.glitchTypeToString(type) + "\"\n");
+                str.append(tab + "    events: " + glitches.getCount(type) + "\n");
+                str.append(tab + "    frames: " + glitches.getFrameCount(type) + "\n");
+                str.append(String.format(Locale.ROOT, "%s    first_sec: %.6f\n",
+                        tab, (double) glitches.getFirstFrame(type) / mSampleRate));
+                str.append(tab + "  }\n");
+            }
+            str.append(tab + "}\n");
+        }
+        indent -= 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "}\n");
+        return str.toString();
+    }
+}
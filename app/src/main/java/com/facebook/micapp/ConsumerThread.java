@@ -0,0 +1,95 @@
+package com.facebook.micapp;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread feeding all the RingBufferConsumers of one capture, so a capture
+ * costs one consumer thread however many consumers it has.
+ *
+ * The consumers get a chunk each in turn. The thread sleeps until the
+ * producer wakes it up. A consumer that blocks delays the others, so the
+ * slow ones (the file) hand their data off, see AsyncSink. On stop()
+ * everything written so far is drained to the consumers before the thread
+ * exits.
+ */
+public class ConsumerThread implements Runnable {
+    // upper bound on the sleep if a wakeup is missed
+    static final long WAIT_TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    final Vector<RingBufferConsumer> mConsumers = new Vector<>();
+    final String mName;
+    volatile boolean mRunning = false;
+    Thread mThread = null;
+
+    public ConsumerThread(String name) {
+        mName = name;
+    }
+
+    // before start()
+    public void add(RingBufferConsumer consumer) {
+        mConsumers.add(consumer);
+    }
+
+    public List<RingBufferConsumer> getConsumers() {
+        return mConsumers;
+    }
+
+    public void start() {
+        mRunning = true;
+        mThread = new Thread(this, mName);
+        mThread.start();
+    }
+
+    @Override
+    public void run() {
+        final RingBufferConsumer[] consumers = mConsumers.toArray(new RingBufferConsumer[0]);
+        while (consumers.length > 0) {
+            boolean read = false;
+            for (RingBufferConsumer consumer : consumers) {
+                if (consumer.drain() > 0) {
+                    read = true;
+                }
+            }
+            if (read) {
+                continue;
+            }
+            if (mRunning) {
+                // every write wakes up every reader, waiting on one is enough
+                consumers[0].await(WAIT_TIMEOUT_NS);
+            } else if (isDrained(consumers)) {
+                break;
+            }
+        }
+        for (RingBufferConsumer consumer : consumers) {
+            consumer.finish();
+        }
+    }
+
+    static boolean isDrained(RingBufferConsumer[] consumers) {
+        for (RingBufferConsumer consumer : consumers) {
+            if (consumer.available() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the thread once all written data is consumed and waits for it.
+     */
+    public void stop() {
+        mRunning = false;
+        if (mThread == null) {
+            return;
+        }
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.facebook.micapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import static com.facebook.micapp.ControlProtocol.*;
+
+/**
+ * Host side of the ControlProtocol, e.g. through
+ * "adb forward tcp:4242 localabstract:micapp.control". Failed requests
+ * throw an IOException with the reason given by the device.
+ */
+public class ControlClient implements Closeable {
+    final Socket mSocket;
+    final DataInputStream mIn;
+    final DataOutputStream mOut;
+    final ArrayDeque<Frame> mStream = new ArrayDeque<>();
+
+    public ControlClient(String host, int port) throws IOException {
+        mSocket = new Socket(host, port);
+        mSocket.setTcpNoDelay(true);
+        mIn = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+        mOut = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+    }
+
+    /**
+     * Sends a request and returns the text of its reply.
+     */
+    public synchronized String request(int type, ByteBuffer payload) throws IOException {
+        writeFrame(mOut, new Frame(type, payload));
+        Frame reply = readFrame(mIn);
+        // streamed blocks arriving before the reply are kept for readStream()
+        while (reply != null && (reply.type & REPLY) == 0) {
+            mStream.add(reply);
+            reply = readFrame(mIn);
+        }
+        if (reply == null) {
+            throw new IOException("Connection closed");
+        }
+        if (reply.type != (type | REPLY)) {
+            throw new IOException("Unexpected reply " + reply.type + " to " + type);
+        }
+        int status = reply.payload.get();
+        String text = getString(reply.payload);
+        if (status != STATUS_OK) {
+            throw new IOException(text);
+        }
+        return text;
+    }
+
+    public String ping() throws IOException {
+        return request(PING, ByteBuffer.allocate(0));
+    }
+
+    // returns the audio session id
+    public int startCapture(int audioSource, String inputs, int sampleRate, boolean record) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(4 + 4 + 1 + stringSize(inputs));
+        payload.putInt(audioSource).putInt(sampleRate).put((byte) (record ? 1 : 0));
+        putString(payload, inputs);
+        payload.flip();
+        return Integer.parseInt(request(START_CAPTURE, payload));
+    }
+
+    public void stopCapture() throws IOException {
+        request(STOP_CAPTURE, ByteBuffer.allocate(0));
+    }
+
+    public void play(String sound, boolean loop) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(stringSize(sound) + 1);
+        putString(payload, sound);
+        payload.put((byte) (loop ? 1 : 0));
+        payload.flip();
+        request(PLAY, payload);
+    }
+
+    public void stopSounds() throws IOException {
+        request(STOP_SOUNDS, ByteBuffer.allocate(0));
+    }
+
+    // returns whether the effect is enabled afterwards
+    public boolean setEffect(int effect, boolean enable) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(2);
+        payload.put((byte) effect).put((byte) (enable ? 1 : 0));
+        payload.flip();
+        return Boolean.parseBoolean(request(SET_EFFECT, payload));
+    }
+
+    public String getStats() throws IOException {
+        return request(GET_STATS, ByteBuffer.allocate(0));
+    }
+
+    // streams is a combination of STREAM_STATS and STREAM_PCM, 0 to stop streaming
+    public void subscribe(int streams) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(1);
+        payload.put((byte) streams);
+        payload.flip();
+        request(SUBSCRIBE, payload);
+    }
+
+    /**
+     * Waits for the next streamed STATS_BLOCK or PCM_BLOCK, null once the
+     * connection is closed.
+     */
+    public synchronized Frame readStream() throws IOException {
+        if (!mStream.isEmpty()) {
+            return mStream.poll();
+        }
+        Frame frame = readFrame(mIn);
+        if (frame != null && (frame.type & REPLY) != 0) {
+            throw new IOException("Unexpected reply " + frame.type);
+        }
+        return frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
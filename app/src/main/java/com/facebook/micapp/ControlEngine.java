@@ -0,0 +1,39 @@
+package com.facebook.micapp;
+
+import java.io.IOException;
+
+/**
+ * What the ControlServer requests are run on. ControlService runs them on
+ * the recorders, the player and the effects, tests on a stand-in.
+ *
+ * The requests of a connection are run one at a time, in order.
+ */
+public interface ControlEngine {
+    /**
+     * Starts capturing from inputs, "default" or comma separated device
+     * ids, stopping the current capture first. Returns the audio session
+     * id once the first buffer was read.
+     */
+    public int startCapture(int audioSource, String inputs, int sampleRate, boolean record) throws IOException;
+
+    // returns once the capture files are complete, a no-op when not capturing
+    public void stopCapture() throws IOException;
+
+    // a sound resource name, chirp, noise or voice
+    public void play(String sound, boolean loop) throws IOException;
+
+    public void stopSounds();
+
+    // one of the ControlProtocol.EFFECT_ values, returns whether it is enabled afterwards
+    public boolean setEffect(int effect, boolean enable) throws IOException;
+
+    // text-proto stats of the current, or last, capture
+    public String getStats();
+
+    /**
+     * Streams the captured blocks to sender, streams being a combination
+     * of ControlProtocol.STREAM_STATS and STREAM_PCM. A null sender stops
+     * streaming.
+     */
+    public void setStream(StreamSender sender, int streams);
+}
@@ -0,0 +1,178 @@
+package com.facebook.micapp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Framing of the ControlService socket.
+ *
+ * Every message is a big endian int32 length, counting the bytes after
+ * it, then a type byte and the payload. Strings are an int32 byte length
+ * and UTF-8. Every request gets one reply, whose type is the request type
+ * with REPLY set and whose payload is a status byte and a string, the
+ * stats text or the reason of the failure.
+ *
+ *   PING           -> "micapp <protocol version>"
+ *   START_CAPTURE  int32 audio source, int32 sample rate, int8 record,
+ *                  string inputs ("default" or device ids, e.g. "12,14")
+ *                  -> audio session id
+ *   STOP_CAPTURE
+ *   PLAY           string sound (chirp, noise or voice), int8 loop
+ *   STOP_SOUNDS
+ *   SET_EFFECT     int8 effect (EFFECT_AEC, EFFECT_AGC or EFFECT_NS), int8 enable
+ *                  -> effect enabled, true or false
+ *   GET_STATS      -> text-proto stats of the capture
+ *   SUBSCRIBE      int8 streams (STREAM_STATS and/or STREAM_PCM, 0 to stop)
+ *
+ * Once subscribed, the blocks of every input are pushed as they are
+ * captured, between the replies, by a StreamConsumer:
+ *
+ *   STATS_BLOCK    int8 input, int64 sequence, int64 frame position,
+ *                  int64 monotonic time ns, int64 dropped messages,
+ *                  int32 frames, int8 channels,
+ *                  float32 peak dB and float32 rms dB of every channel
+ *   PCM_BLOCK      the same header, int32 sample rate, int8 channels,
+ *                  int8 bytes per sample, int8 float, little endian samples
+ *
+ * Sequence numbers count each message type per input, dropped messages
+ * included, so a gap is a message the device dropped rather than stall
+ * the capture.
+ *
+ * Uses no android classes, so the protocol runs on a plain JVM.
+ */
+public class ControlProtocol {
+    public static final int VERSION = 1;
+    // adb forward tcp:<port> localabstract:micapp.control
+    public static final String SOCKET_NAME = "micapp.control";
+    // anything larger is not a frame of this protocol
+    public static final int MAX_FRAME_BYTES = 1 << 20;
+
+    public static final int PING = 0x01;
+    public static final int START_CAPTURE = 0x02;
+    public static final int STOP_CAPTURE = 0x03;
+    public static final int PLAY = 0x04;
+    public static final int STOP_SOUNDS = 0x05;
+    public static final int SET_EFFECT = 0x06;
+    public static final int GET_STATS = 0x07;
+    public static final int SUBSCRIBE = 0x08;
+    public static final int STATS_BLOCK = 0x40;
+    public static final int PCM_BLOCK = 0x41;
+    public static final int REPLY = 0x80;
+
+    // SUBSCRIBE streams
+    public static final int STREAM_STATS = 1;
+    public static final int STREAM_PCM = 2;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+
+    public static final int EFFECT_AEC = 0;
+    public static final int EFFECT_AGC = 1;
+    public static final int EFFECT_NS = 2;
+
+    /**
+     * A message, the payload is read from its position to its limit.
+     */
+    public static class Frame {
+        public final int type;
+        public final ByteBuffer payload;
+
+        public Frame(int type, ByteBuffer payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public static Frame reply(int requestType, int status, String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer payload = ByteBuffer.allocate(1 + 4 + bytes.length);
+            payload.put((byte) status);
+            payload.putInt(bytes.length).put(bytes);
+            payload.flip();
+            return new Frame(requestType | REPLY, payload);
+        }
+    }
+
+    public static void putString(ByteBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    // bytes taken by putString()
+    public static int stringSize(String text) {
+        return 4 + text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    public static String getString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Bad string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the next frame, null at the end of the stream.
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 1 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Bad frame length: " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return new Frame(frame[0] & 0xff, ByteBuffer.wrap(frame, 1, length - 1).slice());
+    }
+
+    // writes and flushes, callers writing from several threads lock the stream
+    public static void writeFrame(DataOutputStream out, Frame frame) throws IOException {
+        ByteBuffer payload = frame.payload.duplicate();
+        out.writeInt(1 + payload.remaining());
+        out.writeByte(frame.type);
+        if (payload.hasArray()) {
+            out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        } else {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    public static int effectFromString(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "aec":
+                return EFFECT_AEC;
+            case "agc":
+                return EFFECT_AGC;
+            case "ns":
+                return EFFECT_NS;
+            default:
+                throw new IllegalArgumentException("Unknown effect: " + name);
+        }
+    }
+
+    public static String effectToString(int effect) {
+        switch (effect) {
+            case EFFECT_AEC:
+                return "aec";
+            case EFFECT_AGC:
+                return "agc";
+            case EFFECT_NS:
+                return "ns";
+            default:
+                return "unknown";
+        }
+    }
+}
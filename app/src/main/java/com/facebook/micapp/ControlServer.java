@@ -0,0 +1,149 @@
+package com.facebook.micapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static com.facebook.micapp.ControlProtocol.*;
+
+/**
+ * Runs the ControlProtocol requests of a connection on a ControlEngine.
+ * A subscription streams to a StreamSender of the connection until the
+ * connection ends.
+ *
+ * A failed request is answered with STATUS_ERROR and the connection goes
+ * on. Only a broken frame ends the connection, as the stream cannot be
+ * resynchronized.
+ *
+ * Uses no android classes: ControlService serves its local socket with
+ * serve(), the tests serve a TCP socket with listen().
+ */
+public class ControlServer {
+    // android.os.Process.SHELL_UID and root
+    static final int SHELL_UID = 2000;
+    static final int ROOT_UID = 0;
+
+    final ControlEngine mEngine;
+
+    public ControlServer(ControlEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * Whether a local socket peer may drive the engine: adb shell, root or
+     * the app itself. Any app can connect to an abstract socket, and the
+     * engine captures and streams the mics without RECORD_AUDIO.
+     */
+    public static boolean isAllowedPeer(int uid, int ownUid) {
+        return uid == SHELL_UID || uid == ROOT_UID || uid == ownUid;
+    }
+
+    /**
+     * Answers the requests read from in until the client closes the
+     * connection. The streamed blocks of a subscription are written to
+     * out between the replies, by a StreamSender of the connection.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        DataInputStream requests = new DataInputStream(new BufferedInputStream(in));
+        DataOutputStream replies = new DataOutputStream(new BufferedOutputStream(out));
+        StreamSender stream = null;
+        try {
+            Frame request;
+            while ((request = readFrame(requests)) != null) {
+                Frame reply;
+                if (request.type == SUBSCRIBE) {
+                    if (stream == null) {
+                        stream = new StreamSender(replies, StreamSender.DEFAULT_SLOTS);
+                        stream.start();
+                    }
+                    reply = subscribe(request, stream);
+                } else {
+                    reply = handle(request);
+                }
+                synchronized (replies) {
+                    writeFrame(replies, reply);
+                }
+            }
+        } finally {
+            if (stream != null) {
+                mEngine.setStream(null, 0);
+                stream.close();
+            }
+        }
+    }
+
+    Frame subscribe(Frame request, StreamSender stream) {
+        if (!request.payload.hasRemaining()) {
+            return Frame.reply(request.type, STATUS_ERROR, "Short request: " + request.type);
+        }
+        int streams = request.payload.get();
+        mEngine.setStream((streams != 0) ? stream : null, streams);
+        return Frame.reply(request.type, STATUS_OK, "");
+    }
+
+    /**
+     * Serves the clients of socket one after the other until the socket
+     * is closed.
+     */
+    public void listen(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try (Socket client = socket.accept()) {
+                serve(client.getInputStream(), client.getOutputStream());
+            } catch (IOException e) {
+                // broken connection, or the socket was closed
+            }
+        }
+    }
+
+    Frame handle(Frame request) {
+        ByteBuffer payload = request.payload;
+        try {
+            switch (request.type) {
+                case PING:
+                    return Frame.reply(request.type, STATUS_OK, "micapp " + VERSION);
+                case START_CAPTURE: {
+                    int audioSource = payload.getInt();
+                    int sampleRate = payload.getInt();
+                    boolean record = payload.get() != 0;
+                    String inputs = getString(payload);
+                    int session = mEngine.startCapture(audioSource, inputs, sampleRate, record);
+                    return Frame.reply(request.type, STATUS_OK, Integer.toString(session));
+                }
+                case STOP_CAPTURE:
+                    mEngine.stopCapture();
+                    return Frame.reply(request.type, STATUS_OK, "");
+                case PLAY: {
+                    String sound = getString(payload);
+                    boolean loop = payload.get() != 0;
+                    mEngine.play(sound, loop);
+                    return Frame.reply(request.type, STATUS_OK, "");
+                }
+                case STOP_SOUNDS:
+                    mEngine.stopSounds();
+                    return Frame.reply(request.type, STATUS_OK, "");
+                case SET_EFFECT: {
+                    int effect = payload.get();
+                    boolean enable = payload.get() != 0;
+                    boolean enabled = mEngine.setEffect(effect, enable);
+                    return Frame.reply(request.type, STATUS_OK, Boolean.toString(enabled));
+                }
+                case GET_STATS:
+                    return Frame.reply(request.type, STATUS_OK, mEngine.getStats());
+                default:
+                    return Frame.reply(request.type, STATUS_ERROR, "Unknown request: " + request.type);
+            }
+        } catch (BufferUnderflowException e) {
+            return Frame.reply(request.type, STATUS_ERROR, "Short request: " + request.type);
+        } catch (IOException | RuntimeException e) {
+            return Frame.reply(request.type, STATUS_ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.facebook.micapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.media.AudioAttributes;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Foreground service keeping the player, the effects and the recorders
+ * around, controlled with the ControlProtocol over the local socket
+ * ControlProtocol.SOCKET_NAME. Start it and reach it from the host with
+ *
+ *   adb shell am start-foreground-service -n com.facebook.micapp/.ControlService
+ *   adb forward tcp:4242 localabstract:micapp.control
+ *
+ * Clients are served one after the other, on the server thread. Only adb
+ * shell, root and the app itself are served, see ControlServer.isAllowedPeer().
+ */
+public class ControlService extends Service implements ControlEngine {
+    final static String TAG = "micapp.service";
+    final static String CHANNEL_ID = "micapp.control";
+    final static int NOTIFICATION_ID = 1;
+
+    Player mPlayer;
+    AudioEffects mAudioEffects;
+    final Vector<Recorder> mRecorders = new Vector<>();
+    CaptureSession mSession = null;
+    // of the current, or last, capture
+    Vector<Recorder> mSessionRecorders = new Vector<>();
+    // one per recorder, attached to it for good
+    final Vector<StreamConsumer> mStreamConsumers = new Vector<>();
+    StreamSender mStreamSender = null;
+    int mStreams = 0;
+    LocalServerSocket mServerSocket = null;
+    Thread mServerThread = null;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "micapp control",
+                NotificationManager.IMPORTANCE_LOW));
+        Notification notification = new Notification.Builder(this, CHANNEL_ID)
+                .setContentTitle("micapp")
+                .setContentText("Listening on " + ControlProtocol.SOCKET_NAME)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .build();
+        startForeground(NOTIFICATION_ID, notification);
+
+        mPlayer = new Player(this);
+        mAudioEffects = new AudioEffects();
+        final ControlServer server = new ControlServer(this);
+        try {
+            mServerSocket = new LocalServerSocket(ControlProtocol.SOCKET_NAME);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open " + ControlProtocol.SOCKET_NAME, e);
+            stopSelf();
+            return;
+        }
+        final LocalServerSocket serverSocket = mServerSocket;
+        mServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    LocalSocket client;
+                    try {
+                        client = serverSocket.accept();
+                    } catch (IOException e) {
+                        // closed by onDestroy()
+                        return;
+                    }
+                    try {
+                        int uid = client.getPeerCredentials().getUid();
+                        if (!ControlServer.isAllowedPeer(uid, Process.myUid())) {
+                            Log.w(TAG, "Refused client uid " + uid);
+                            continue;
+                        }
+                        Log.d(TAG, "Client connected, uid " + uid);
+                        server.serve(client.getInputStream(), client.getOutputStream());
+                    } catch (IOException e) {
+                        Log.e(TAG, "Connection failed: " + e.getMessage());
+                    } finally {
+                        try {
+                            client.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    Log.d(TAG, "Client disconnected");
+                }
+            }
+        }, "micapp.control");
+        mServerThread.start();
+        Log.d(TAG, "Listening on " + ControlProtocol.SOCKET_NAME);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mServerSocket != null) {
+            try {
+                mServerSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            stopCapture();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to stop capture", e);
+        }
+        mPlayer.release();
+        super.onDestroy();
+    }
+
+    @Override
+    public synchronized int startCapture(int audioSource, String inputs, int sampleRate, boolean record)
+            throws IOException {
+        stopCapture();
+        int[] ids = null;
+        if (!inputs.equalsIgnoreCase("default")) {
+            String[] splits = inputs.split("[,]");
+            ids = new int[splits.length];
+            for (int i = 0; i < splits.length; i++) {
+                ids[i] = Integer.parseInt(splits[i].trim());
+            }
+        }
+        CaptureSession session = new CaptureSession(this, Utils.lookupIdsStrings(ids, this), audioSource,
+                sampleRate, record, mRecorders);
+        for (Recorder rec : session.getRecorders()) {
+            rec.setAudioEffects(mAudioEffects);
+        }
+        while (mStreamConsumers.size() < mRecorders.size()) {
+            StreamConsumer consumer = new StreamConsumer(mStreamConsumers.size());
+            consumer.setSender(mStreamSender, mStreams);
+            mRecorders.get(mStreamConsumers.size()).addCaptureConsumer(consumer);
+            mStreamConsumers.add(consumer);
+        }
+        mSession = session;
+        mSessionRecorders = session.getRecorders();
+        session.start();
+        try {
+            session.getStarted().get(Recorder.START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            stopCapture();
+            throw new IOException("Failed to start recording: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            stopCapture();
+            throw new IOException("No audio after " + Recorder.START_TIMEOUT_MS + " ms");
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted");
+        }
+        int audioSessionId = session.getRecorders().get(0).getStarted().getNow(-1);
+        if (audioSessionId > 0) {
+            // the effects follow the first input
+            mAudioEffects.createAudioEffects(audioSessionId);
+        }
+        Log.d(TAG, "Capturing from " + inputs + ", session " + audioSessionId);
+        return audioSessionId;
+    }
+
+    @Override
+    public synchronized void stopCapture() throws IOException {
+        if (mSession == null) {
+            return;
+        }
+        CaptureSession session = mSession;
+        mSession = null;
+        try {
+            session.stop().get(Recorder.STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Failed to stop recording: " + e.getMessage());
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted");
+        } finally {
+            mAudioEffects.disableAudioEffects();
+        }
+    }
+
+    @Override
+    public void play(String sound, boolean loop) throws IOException {
+        PlaybackStream.Playback playback = mPlayer.play(Player.getSoundId(sound),
+                AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC, loop);
+        if (playback.getDone().isCompletedExceptionally()) {
+            throw new IOException("Failed to play " + sound);
+        }
+    }
+
+    @Override
+    public void stopSounds() {
+        mPlayer.stopSounds();
+    }
+
+    @Override
+    public synchronized boolean setEffect(int effect, boolean enable) throws IOException {
+        switch (effect) {
+            case ControlProtocol.EFFECT_AEC:
+                mAudioEffects.setAecStatus(enable);
+                return mAudioEffects.isAecEnabled();
+            case ControlProtocol.EFFECT_AGC:
+                mAudioEffects.setAgcStatus(enable);
+                return mAudioEffects.isAgcEnabled();
+            case ControlProtocol.EFFECT_NS:
+                mAudioEffects.setNsStatus(enable);
+                return mAudioEffects.isNsEnabled();
+            default:
+                throw new IOException("Unknown effect: " + effect);
+        }
+    }
+
+    @Override
+    public synchronized void setStream(StreamSender sender, int streams) {
+        mStreamSender = sender;
+        mStreams = streams;
+        for (StreamConsumer consumer : mStreamConsumers) {
+            consumer.setSender(sender, streams);
+        }
+        Log.d(TAG, "Stream " + streams);
+    }
+
+    @Override
+    public synchronized String getStats() {
+        StringBuilder str = new StringBuilder();
+        str.append("capturing: " + (mSession != null) + "\n");
+        str.append("playing: " + mPlayer.isPlaying() + "\n");
+        if (mStreamSender != null) {
+            str.append("stream {\n");
+            str.append("  streams: " + mStreams + "\n");
+            str.append("  sent: " + mStreamSender.getSent() + "\n");
+            str.append("  dropped: " + mStreamSender.getDropped() + "\n");
+            str.append("}\n");
+        }
+        str.append(mAudioEffects.getStatusAsString(0, true));
+        for (Recorder rec : mSessionRecorders) {
+            CaptureStats stats = rec.getCaptureStats();
+            if (stats == null) {
+                continue;
+            }
+            str.append("capture {\n");
+            if (rec.getFilename() != null) {
+                str.append("  capture_file: \"" + rec.getFilename() + "\"\n");
+            }
+            str.append(stats.toString(1));
+            str.append("}\n");
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.facebook.micapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AudioOutput writing 16-bit mono to a WAV file instead of playing it.
+ *
+ * With real time pacing every write blocks until the audio written so far
+ * would have been played, like a track with a full buffer, so the timing
+ * of the playback is kept. Pauses between writes are skipped in the file,
+ * like an underrun. Otherwise writes return as soon as the data is
+ * written.
+ */
+public class FileOutput implements AudioOutput {
+    static final int FRAME_SIZE = 2;
+    // writes starting later than this after the previous one ended are an underrun
+    static final long UNDERRUN_NS = 20000000L;
+
+    final WavWriter mWriter;
+    final int mSampleRate;
+    final boolean mRealTime;
+    long mStartNs = 0;
+    long mFrames = 0;
+    boolean mPlaying = false;
+
+    public FileOutput(File file, int sampleRate, boolean realTime) throws IOException {
+        mWriter = new WavWriter(file, sampleRate, 1, 16);
+        mSampleRate = sampleRate;
+        mRealTime = realTime;
+    }
+
+    @Override
+    public void play() {
+        mStartNs = System.nanoTime();
+        mFrames = 0;
+        mPlaying = true;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        if (!mPlaying) {
+            return ERROR;
+        }
+        length -= length % FRAME_SIZE;
+        try {
+            mWriter.write(data, offset, length);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ERROR;
+        }
+        long startNs = mStartNs + mFrames * 1000000000L / mSampleRate;
+        mFrames += length / FRAME_SIZE;
+        if (mRealTime) {
+            long lateNs = System.nanoTime() - startNs;
+            if (lateNs > UNDERRUN_NS) {
+                // nothing was written for a while, like an underrun, pace from now on
+                mStartNs += lateNs;
+            }
+            long due = mStartNs + mFrames * 1000000000L / mSampleRate;
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public void stop() {
+        mPlaying = false;
+    }
+
+    @Override
+    public void release() {
+        mPlaying = false;
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package com.facebook.micapp;
+
+import java.util.Arrays;
+
+/**
+ * Encodes the frames of a FLAC stream, one block of samples per frame.
+ *
+ * Every channel is coded on its own, the channels of a mic array are no
+ * stereo pair, as the smallest of a constant, a fixed predictor (orders 0
+ * to 4), an LPC (up to MAX_LPC_ORDER, the order picked from the prediction
+ * error of the Levinson-Durbin recursion) or a verbatim subframe. Residuals
+ * use partitioned Rice coding, with the partition order giving the fewest
+ * bits.
+ *
+ * An encoder holds the scratch buffers of one frame, so it is used by one
+ * thread at a time and allocates nothing once it has encoded a full block.
+ * Uses no android classes, so it runs on a plain JVM.
+ */
+public class FlacEncoder {
+    static final int MAX_FIXED_ORDER = 4;
+    static final int MAX_LPC_ORDER = 12;
+    static final int MAX_PARTITION_ORDER = 8;
+    // 4-bit parameters (RICE) up to this, 5-bit (RICE2) above
+    static final int MAX_RICE_PARAM = 14;
+    static final int MAX_RICE2_PARAM = 30;
+    // shorter blocks, e.g. the last one, only use fixed predictors
+    static final int MIN_LPC_BLOCK_SIZE = 64;
+    static final int MAX_QLP_SHIFT = 15;
+
+    static final int SUBFRAME_CONSTANT = 0x00;
+    static final int SUBFRAME_VERBATIM = 0x01;
+    static final int SUBFRAME_FIXED = 0x08;
+    static final int SUBFRAME_LPC = 0x20;
+
+    static final int[] CRC8_TABLE = new int[256];
+    static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = ((crc8 & 0x80) != 0) ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = ((crc16 & 0x8000) != 0) ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xff;
+            CRC16_TABLE[i] = crc16 & 0xffff;
+        }
+    }
+
+    /**
+     * Msb first bit writer into a growing byte array.
+     */
+    static class BitWriter {
+        byte[] mBytes;
+        int mLength = 0;
+        long mAccum = 0;
+        int mBits = 0;
+
+        BitWriter(int capacity) {
+            mBytes = new byte[capacity];
+        }
+
+        void reset() {
+            mLength = 0;
+            mAccum = 0;
+            mBits = 0;
+        }
+
+        // the low bits of value, bits is at most 32
+        void write(long value, int bits) {
+            if (mLength + 5 > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, 2 * mBytes.length + 5);
+            }
+            mAccum = (mAccum << bits) | (value & ((1L << bits) - 1));
+            mBits += bits;
+            while (mBits >= 8) {
+                mBits -= 8;
+                mBytes[mLength++] = (byte) (mAccum >>> mBits);
+            }
+        }
+
+        void writeZeros(long count) {
+            while (count > 32) {
+                write(0, 32);
+                count -= 32;
+            }
+            write(0, (int) count);
+        }
+
+        void writeRice(long value, int param) {
+            long folded = (value << 1) ^ (value >> 63);
+            long quotient = folded >>> param;
+            if (quotient + 1 + param <= 32) {
+                // the zeros of the quotient, its stop bit and the low bits
+                write((1L << param) | (folded & ((1L << param) - 1)), (int) quotient + 1 + param);
+            } else {
+                writeZeros(quotient);
+                write(1, 1);
+                write(folded, param);
+            }
+        }
+
+        void writeUtf8(long value) {
+            if (value < 0x80) {
+                write(value, 8);
+                return;
+            }
+            int extra = 1;
+            while (extra < 6 && value >= (1L << (5 * extra + 6))) {
+                extra++;
+            }
+            // leading ones count the bytes
+            int lead = (0xff00 >> (extra + 1)) & 0xff;
+            write(lead | (value >>> (6 * extra)), 8);
+            for (int i = extra - 1; i >= 0; i--) {
+                write(0x80 | ((value >>> (6 * i)) & 0x3f), 8);
+            }
+        }
+
+        void alignToByte() {
+            if (mBits > 0) {
+                write(0, 8 - mBits);
+            }
+        }
+
+        byte[] getBytes() {
+            return mBytes;
+        }
+
+        // whole bytes written
+        int getLength() {
+            return mLength;
+        }
+    }
+
+    final int mSampleRate;
+    final int mChannels;
+    final int mBitsPerSample;
+    final int mQlpPrecision;
+    final BitWriter mOut;
+    final long[] mFixedSums = new long[MAX_FIXED_ORDER + 1];
+    final long[] mFixedResidual;
+    final long[] mLpcResidual;
+    final double[] mWindowed;
+    double[] mWindow = new double[0];
+    final double[] mAutoc = new double[MAX_LPC_ORDER + 1];
+    final double[][] mLpc = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+    final double[] mLpcError = new double[MAX_LPC_ORDER];
+    final double[] mLevinson = new double[MAX_LPC_ORDER];
+    final int[] mQlp = new int[MAX_LPC_ORDER];
+    final long[][] mPartitionSums = new long[MAX_PARTITION_ORDER + 1][];
+    final int[] mRiceParams = new int[1 << MAX_PARTITION_ORDER];
+    // of the residual coded last by riceBits()
+    int mPartitionOrder = 0;
+    int mLpcOrder = 0;
+    int mQlpShift = 0;
+
+    public FlacEncoder(int sampleRate, int channels, int bitsPerSample, int maxBlockSize) {
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBitsPerSample = bitsPerSample;
+        mQlpPrecision = (bitsPerSample <= 16) ? 12 : 15;
+        mOut = new BitWriter(maxBlockSize * channels * bitsPerSample / 8 + 64);
+        mFixedResidual = new long[maxBlockSize];
+        mLpcResidual = new long[maxBlockSize];
+        mWindowed = new double[maxBlockSize];
+        for (int order = 0; order <= MAX_PARTITION_ORDER; order++) {
+            mPartitionSums[order] = new long[1 << order];
+        }
+    }
+
+    /**
+     * Encodes the first frames samples of every channel as frame
+     * frameNumber of a fixed block size stream. The frame is in
+     * getBytes() up to getLength() until the next call.
+     */
+    public void encodeFrame(int[][] samples, int frames, long frameNumber) {
+        BitWriter out = mOut;
+        out.reset();
+        int blockSizeCode = getBlockSizeCode(frames);
+        // sync code, reserved, fixed block size
+        out.write(0xfff8, 16);
+        out.write(blockSizeCode, 4);
+        out.write(getSampleRateCode(mSampleRate), 4);
+        // independent channels
+        out.write(mChannels - 1, 4);
+        out.write(getSampleSizeCode(mBitsPerSample), 3);
+        out.write(0, 1);
+        out.writeUtf8(frameNumber);
+        if (blockSizeCode == 6) {
+            out.write(frames - 1, 8);
+        } else if (blockSizeCode == 7) {
+            out.write(frames - 1, 16);
+        }
+        out.write(crc8(out.getBytes(), 0, out.getLength()), 8);
+        for (int ch = 0; ch < mChannels; ch++) {
+            encodeSubframe(samples[ch], frames);
+        }
+        out.alignToByte();
+        out.write(crc16(out.getBytes(), 0, out.getLength()), 16);
+    }
+
+    public byte[] getBytes() {
+        return mOut.getBytes();
+    }
+
+    public int getLength() {
+        return mOut.getLength();
+    }
+
+    void encodeSubframe(int[] x, int n) {
+        BitWriter out = mOut;
+        int bps = mBitsPerSample;
+        boolean constant = true;
+        for (int i = 1; i < n && constant; i++) {
+            constant = x[i] == x[0];
+        }
+        if (constant) {
+            out.write(SUBFRAME_CONSTANT << 1, 8);
+            out.write(x[0], bps);
+            return;
+        }
+
+        long verbatimBits = (long) n * bps;
+        int fixedOrder = pickFixedOrder(x, n);
+        long fixedBits = Long.MAX_VALUE;
+        if (fixedResidual(x, n, fixedOrder, mFixedResidual)) {
+            fixedBits = fixedOrder * bps + riceBits(mFixedResidual, n, fixedOrder);
+        }
+        long lpcBits = Long.MAX_VALUE;
+        if (n >= MIN_LPC_BLOCK_SIZE && computeLpc(x, n) && lpcResidual(x, n, mLpcResidual)) {
+            lpcBits = mLpcOrder * (bps + mQlpPrecision) + 4 + 5 + riceBits(mLpcResidual, n, mLpcOrder);
+        }
+
+        if (verbatimBits <= fixedBits && verbatimBits <= lpcBits) {
+            out.write(SUBFRAME_VERBATIM << 1, 8);
+            for (int i = 0; i < n; i++) {
+                out.write(x[i], bps);
+            }
+        } else if (fixedBits <= lpcBits) {
+            out.write((SUBFRAME_FIXED | fixedOrder) << 1, 8);
+            for (int i = 0; i < fixedOrder; i++) {
+                out.write(x[i], bps);
+            }
+            riceBits(mFixedResidual, n, fixedOrder);
+            writeResidual(mFixedResidual, n, fixedOrder);
+        } else {
+            int order = mLpcOrder;
+            out.write((SUBFRAME_LPC | (order - 1)) << 1, 8);
+            for (int i = 0; i < order; i++) {
+                out.write(x[i], bps);
+            }
+            out.write(mQlpPrecision - 1, 4);
+            out.write(mQlpShift, 5);
+            for (int i = 0; i < order; i++) {
+                out.write(mQlp[i], mQlpPrecision);
+            }
+            riceBits(mLpcResidual, n, order);
+            writeResidual(mLpcResidual, n, order);
+        }
+    }
+
+    // the fixed order with the smallest sum of absolute residuals
+    int pickFixedOrder(int[] x, int n) {
+        int maxOrder = Math.min(MAX_FIXED_ORDER, n - 1);
+        long[] sums = mFixedSums;
+        Arrays.fill(sums, 0);
+        for (int i = maxOrder; i < n; i++) {
+            long e0 = x[i];
+            long e1 = (i > 0) ? e0 - x[i - 1] : 0;
+            long e2 = (i > 1) ? e1 - ((long) x[i - 1] - x[i - 2]) : 0;
+            long e3 = (i > 2) ? e2 - ((long) x[i - 1] - 2L * x[i - 2] + x[i - 3]) : 0;
+            long e4 = (i > 3) ? e3 - ((long) x[i - 1] - 3L * x[i - 2] + 3L * x[i - 3] - x[i - 4]) : 0;
+            sums[0] += Math.abs(e0);
+            sums[1] += Math.abs(e1);
+            sums[2] += Math.abs(e2);
+            sums[3] += Math.abs(e3);
+            sums[4] += Math.abs(e4);
+        }
+        int best = 0;
+        for (int order = 1; order <= maxOrder; order++) {
+            if (sums[order] < sums[best]) {
+                best = order;
+            }
+        }
+        return best;
+    }
+
+    // false if a residual does not fit 32 bits, which FLAC does not allow
+    static boolean fixedResidual(int[] x, int n, int order, long[] residual) {
+        for (int i = order; i < n; i++) {
+            long r;
+            switch (order) {
+                case 0:
+                    r = x[i];
+                    break;
+                case 1:
+                    r = (long) x[i] - x[i - 1];
+                    break;
+                case 2:
+                    r = (long) x[i] - 2L * x[i - 1] + x[i - 2];
+                    break;
+                case 3:
+                    r = (long) x[i] - 3L * x[i - 1] + 3L * x[i - 2] - x[i - 3];
+                    break;
+                default:
+                    r = (long) x[i] - 4L * x[i - 1] + 6L * x[i - 2] - 4L * x[i - 3] + x[i - 4];
+                    break;
+            }
+            if (r != (int) r) {
+                return false;
+            }
+            residual[i] = r;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the quantized coefficients of the LPC order expected to
+     * take the fewest bits into mQlp, mLpcOrder and mQlpShift. False if
+     * there is no usable predictor.
+     */
+    boolean computeLpc(int[] x, int n) {
+        if (mWindow.length != n) {
+            // tukey(0.5)
+            mWindow = new double[n];
+            int taper = n / 4;
+            for (int i = 0; i < n; i++) {
+                double w = 1;
+                if (i < taper) {
+                    w = 0.5 - 0.5 * Math.cos(Math.PI * i / taper);
+                } else if (i >= n - taper) {
+                    w = 0.5 - 0.5 * Math.cos(Math.PI * (n - 1 - i) / taper);
+                }
+                mWindow[i] = w;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            mWindowed[i] = x[i] * mWindow[i];
+        }
+        int maxOrder = MAX_LPC_ORDER;
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < n; i++) {
+                sum += mWindowed[i] * mWindowed[i - lag];
+            }
+            mAutoc[lag] = sum;
+        }
+        if (mAutoc[0] <= 0) {
+            return false;
+        }
+
+        // levinson-durbin, mLpc[m - 1] predicts x[i] from x[i - 1] .. x[i - m]
+        double[] a = mLevinson;
+        double error = mAutoc[0];
+        int orders = 0;
+        for (int m = 1; m <= maxOrder; m++) {
+            double k = mAutoc[m];
+            for (int j = 1; j < m; j++) {
+                k -= a[j - 1] * mAutoc[m - j];
+            }
+            k /= error;
+            for (int j = 1; j <= m / 2; j++) {
+                double lo = a[j - 1];
+                double hi = a[m - j - 1];
+                a[j - 1] = lo - k * hi;
+                if (j != m - j) {
+                    a[m - j - 1] = hi - k * lo;
+                }
+            }
+            a[m - 1] = k;
+            error *= 1 - k * k;
+            System.arraycopy(a, 0, mLpc[m - 1], 0, m);
+            mLpcError[m - 1] = error;
+            orders = m;
+            if (error <= 0) {
+                break;
+            }
+        }
+
+        // expected residual bits from the prediction error, plus the header
+        int bestOrder = 0;
+        double bestBits = Double.MAX_VALUE;
+        for (int m = 1; m <= orders; m++) {
+            double bitsPerSample = 0;
+            if (mLpcError[m - 1] > 0) {
+                bitsPerSample = Math.max(0, 0.5 * Math.log(0.5 * mLpcError[m - 1] / n) / Math.log(2));
+            }
+            double bits = bitsPerSample * (n - m) + m * (mBitsPerSample + mQlpPrecision);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = m;
+            }
+        }
+        return bestOrder > 0 && quantizeLpc(mLpc[bestOrder - 1], bestOrder);
+    }
+
+    boolean quantizeLpc(double[] lpc, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) {
+            max = Math.max(max, Math.abs(lpc[i]));
+        }
+        if (!(max > 0) || Double.isInfinite(max)) {
+            return false;
+        }
+        int qmax = (1 << (mQlpPrecision - 1)) - 1;
+        // max < 2^(exponent + 1), so it scales below 2^(precision - 1)
+        int shift = Math.min(MAX_QLP_SHIFT, mQlpPrecision - 2 - Math.getExponent(max));
+        if (shift < 0) {
+            return false;
+        }
+        // carry the rounding error into the next coefficient
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += lpc[i] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(-qmax - 1, Math.min(qmax, q));
+            mQlp[i] = (int) q;
+            error -= q;
+        }
+        mLpcOrder = order;
+        mQlpShift = shift;
+        return true;
+    }
+
+    // false if a residual does not fit 32 bits
+    boolean lpcResidual(int[] x, int n, long[] residual) {
+        int order = mLpcOrder;
+        int shift = mQlpShift;
+        int[] qlp = mQlp;
+        for (int i = order; i < n; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) qlp[j] * x[i - j - 1];
+            }
+            long r = x[i] - (sum >> shift);
+            if (r != (int) r) {
+                return false;
+            }
+            residual[i] = r;
+        }
+        return true;
+    }
+
+    /**
+     * Bits of the partitioned Rice coding of residual[order .. n), with the
+     * partition order and parameters taking the fewest bits, which are
+     * kept in mPartitionOrder and mRiceParams for writeResidual().
+     */
+    long riceBits(long[] residual, int n, int order) {
+        // partitions split the block evenly and the first one holds more than the warm up
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER && (n % (2 << maxOrder)) == 0
+                && (n >> (maxOrder + 1)) > order) {
+            maxOrder++;
+        }
+        long[] sums = mPartitionSums[maxOrder];
+        int size = n >> maxOrder;
+        int i = order;
+        for (int p = 0; p < (1 << maxOrder); p++) {
+            long sum = 0;
+            for (int end = (p + 1) * size; i < end; i++) {
+                long r = residual[i];
+                sum += (r << 1) ^ (r >> 63);
+            }
+            sums[p] = sum;
+        }
+        for (int o = maxOrder - 1; o >= 0; o--) {
+            long[] finer = mPartitionSums[o + 1];
+            for (int p = 0; p < (1 << o); p++) {
+                mPartitionSums[o][p] = finer[2 * p] + finer[2 * p + 1];
+            }
+        }
+
+        int bestOrder = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int o = 0; o <= maxOrder; o++) {
+            long bits = 0;
+            int maxParam = 0;
+            int partitionSize = n >> o;
+            for (int p = 0; p < (1 << o); p++) {
+                int count = (p == 0) ? partitionSize - order : partitionSize;
+                long sum = mPartitionSums[o][p];
+                int param = riceParam(sum, count);
+                maxParam = Math.max(maxParam, param);
+                bits += (long) count * (param + 1) + (sum >>> param);
+            }
+            bits += (long) (1 << o) * ((maxParam > MAX_RICE_PARAM) ? 5 : 4);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = o;
+            }
+        }
+        int partitionSize = n >> bestOrder;
+        for (int p = 0; p < (1 << bestOrder); p++) {
+            int count = (p == 0) ? partitionSize - order : partitionSize;
+            mRiceParams[p] = riceParam(mPartitionSums[bestOrder][p], count);
+        }
+        mPartitionOrder = bestOrder;
+        // coding method, partition order
+        return 2 + 4 + bestBits;
+    }
+
+    // the parameter with the fewest bits for count values summing to sum
+    static int riceParam(long sum, int count) {
+        if (count == 0 || sum < count) {
+            return 0;
+        }
+        int guess = 63 - Long.numberOfLeadingZeros(sum / count);
+        int best = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int param = Math.max(0, guess - 1); param <= Math.min(MAX_RICE2_PARAM, guess + 1); param++) {
+            long bits = (long) count * (param + 1) + (sum >>> param);
+            if (bits < bestBits) {
+                bestBits = bits;
+                best = param;
+            }
+        }
+        return best;
+    }
+
+    void writeResidual(long[] residual, int n, int order) {
+        BitWriter out = mOut;
+        int partitions = 1 << mPartitionOrder;
+        boolean rice2 = false;
+        for (int p = 0; p < partitions; p++) {
+            rice2 |= mRiceParams[p] > MAX_RICE_PARAM;
+        }
+        int paramBits = rice2 ? 5 : 4;
+        out.write(rice2 ? 1 : 0, 2);
+        out.write(mPartitionOrder, 4);
+        int size = n >> mPartitionOrder;
+        int i = order;
+        for (int p = 0; p < partitions; p++) {
+            int param = mRiceParams[p];
+            out.write(param, paramBits);
+            for (int end = (p + 1) * size; i < end; i++) {
+                out.writeRice(residual[i], param);
+            }
+        }
+    }
+
+    static int getBlockSizeCode(int frames) {
+        if (frames == 192) {
+            return 1;
+        }
+        for (int code = 2; code <= 5; code++) {
+            if (frames == 576 << (code - 2)) {
+                return code;
+            }
+        }
+        for (int code = 8; code <= 15; code++) {
+            if (frames == 256 << (code - 8)) {
+                return code;
+            }
+        }
+        // the size follows the frame number, 8 or 16 bits
+        return (frames <= 256) ? 6 : 7;
+    }
+
+    // 0 if only STREAMINFO has the rate
+    static int getSampleRateCode(int sampleRate) {
+        switch (sampleRate) {
+            case 88200:
+                return 1;
+            case 176400:
+                return 2;
+            case 192000:
+                return 3;
+            case 8000:
+                return 4;
+            case 16000:
+                return 5;
+            case 22050:
+                return 6;
+            case 24000:
+                return 7;
+            case 32000:
+                return 8;
+            case 44100:
+                return 9;
+            case 48000:
+                return 10;
+            case 96000:
+                return 11;
+            default:
+                return 0;
+        }
+    }
+
+    static int getSampleSizeCode(int bitsPerSample) {
+        switch (bitsPerSample) {
+            case 8:
+                return 1;
+            case 12:
+                return 2;
+            case 16:
+                return 4;
+            case 20:
+                return 5;
+            case 24:
+                return 6;
+            case 32:
+                return 7;
+            default:
+                throw new IllegalArgumentException("Unsupported sample size: " + bitsPerSample);
+        }
+    }
+
+    static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8_TABLE[crc ^ (data[i] & 0xff)];
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) & 0xffff) ^ CRC16_TABLE[(crc >> 8) ^ (data[i] & 0xff)];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,354 @@
+package com.facebook.micapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming FLAC writer, lossless and a fraction of the size of a WAV
+ * capture, which mostly saves adb transfer time.
+ *
+ * Pcm is cut into blocks of BLOCK_SIZE frames, which the worker threads
+ * of ENCODERS encode with a FlacEncoder each, and the frames are written in
+ * order as they complete. The workers are shared by all writers, so a many
+ * mic capture costs at most DEFAULT_THREADS encoders, and none when idle.
+ * write() only waits for the oldest frame once PENDING_PER_THREAD blocks
+ * per worker are in flight. Blocks and their
+ * encoders are reused, so nothing is allocated per block once the pool of
+ * blocks is full.
+ *
+ * STREAMINFO is written when the file is opened and patched on close with
+ * the sample count, the frame sizes and the MD5 of the pcm. The values set
+ * through setInfo() go into a VORBIS_COMMENT block written on close into
+ * the padding reserved after STREAMINFO.
+ *
+ * FLAC stores integer samples only, 16, 24 and 32-bit pcm is accepted but
+ * float is not, and at most 8 channels. 32-bit FLAC needs a recent decoder
+ * (libFLAC 1.4 or later).
+ */
+public class FlacWriter implements AudioSink {
+    static final int BLOCK_SIZE = 4096;
+    static final int MAX_CHANNELS = 8;
+    static final int PENDING_PER_THREAD = 2;
+    // room for the VORBIS_COMMENT block
+    static final int PADDING_SIZE = 4096;
+    static final int STREAMINFO_SIZE = 34;
+    static final int STREAMINFO_OFFSET = 4 + 4;
+    static final int PADDING_OFFSET = STREAMINFO_OFFSET + STREAMINFO_SIZE;
+    static final int DEFAULT_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    static final String VENDOR = "micapp";
+    static final long IDLE_TIMEOUT_S = 10;
+    static final ExecutorService ENCODERS = createEncoders(DEFAULT_THREADS);
+
+    static class Block {
+        final int[][] mSamples;
+        final FlacEncoder mEncoder;
+        int mFrames = 0;
+        long mFrameNumber = 0;
+
+        Block(int sampleRate, int channels, int bitsPerSample) {
+            mSamples = new int[channels][BLOCK_SIZE];
+            mEncoder = new FlacEncoder(sampleRate, channels, bitsPerSample, BLOCK_SIZE);
+        }
+
+        void encode() {
+            mEncoder.encodeFrame(mSamples, mFrames, mFrameNumber);
+        }
+    }
+
+    final RandomAccessFile mFile;
+    final int mSampleRate;
+    final int mChannels;
+    final int mBitsPerSample;
+    final int mBytesPerSample;
+    final ExecutorService mEncoders;
+    final int mMaxPending;
+    final ArrayDeque<Future<Block>> mPending = new ArrayDeque<>();
+    final ArrayDeque<Block> mFreeBlocks = new ArrayDeque<>();
+    final MessageDigest mMd5;
+    final Map<String, String> mInfo = new LinkedHashMap<>();
+    Block mBlock = null;
+    long mFrameNumber = 0;
+    long mTotalFrames = 0;
+    int mMinFrameSize = Integer.MAX_VALUE;
+    int mMaxFrameSize = 0;
+    long mFileSize = 0;
+    boolean mClosed = false;
+
+    public FlacWriter(File file, int sampleRate, int channels, int bitsPerSample) throws IOException {
+        this(file, sampleRate, channels, bitsPerSample, ENCODERS, DEFAULT_THREADS);
+    }
+
+    public FlacWriter(File file, int sampleRate, CaptureFormat format) throws IOException {
+        this(file, sampleRate, format.channels, checkInteger(format).getBitsPerSample(), ENCODERS, DEFAULT_THREADS);
+    }
+
+    // encoders has threads workers
+    FlacWriter(File file, int sampleRate, int channels, int bitsPerSample, ExecutorService encoders, int threads)
+            throws IOException {
+        if (bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32) {
+            throw new IOException("FLAC captures are 16, 24 or 32-bit, not " + bitsPerSample);
+        }
+        if (channels < 1 || channels > MAX_CHANNELS) {
+            throw new IOException("FLAC stores up to " + MAX_CHANNELS + " channels, not " + channels);
+        }
+        try {
+            mMd5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBitsPerSample = bitsPerSample;
+        mBytesPerSample = bitsPerSample / 8;
+        mMaxPending = threads * PENDING_PER_THREAD;
+        mEncoders = encoders;
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        ByteBuffer header = ByteBuffer.allocate(PADDING_OFFSET + 4 + PADDING_SIZE);
+        header.put("fLaC".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(STREAMINFO_SIZE);
+        header.put(createStreamInfo(0, 0, 0, new byte[16]));
+        // last metadata block, for now
+        header.putInt(0x81000000 | PADDING_SIZE);
+        mFile.write(header.array());
+        mFileSize = header.capacity();
+    }
+
+    // threads daemon workers, stopped after IDLE_TIMEOUT_S without work
+    static ExecutorService createEncoders(int threads) {
+        ThreadPoolExecutor encoders = new ThreadPoolExecutor(threads, threads, IDLE_TIMEOUT_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "micapp.flac");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        encoders.allowCoreThreadTimeOut(true);
+        return encoders;
+    }
+
+    static CaptureFormat checkInteger(CaptureFormat format) throws IOException {
+        if (format.isFloat()) {
+            throw new IOException("FLAC does not store float samples");
+        }
+        return format;
+    }
+
+    /**
+     * Adds a RIFF INFO style entry, e.g. "ISFT" -> "micapp", stored as a
+     * vorbis comment. Ids are four characters.
+     */
+    @Override
+    public synchronized void setInfo(String id, String value) {
+        if (id.length() != 4) {
+            throw new IllegalArgumentException("Info id must be four characters: " + id);
+        }
+        mInfo.put(id, value);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        mMd5.update(data, offset, length);
+        int frames = length / (mChannels * mBytesPerSample);
+        for (int frame = 0; frame < frames; frame++) {
+            if (mBlock == null) {
+                mBlock = obtainBlock();
+            }
+            Block block = mBlock;
+            int index = block.mFrames;
+            for (int ch = 0; ch < mChannels; ch++) {
+                block.mSamples[ch][index] = readSample(data, offset);
+                offset += mBytesPerSample;
+            }
+            if (++block.mFrames == BLOCK_SIZE) {
+                submitBlock();
+            }
+        }
+        mTotalFrames += frames;
+    }
+
+    int readSample(byte[] data, int index) {
+        switch (mBytesPerSample) {
+            case 2:
+                return (short) ((data[index] & 0xff) | (data[index + 1] << 8));
+            case 3:
+                return (data[index] & 0xff) | ((data[index + 1] & 0xff) << 8) | (data[index + 2] << 16);
+            default:
+                return CaptureFormat.readInt(data, index);
+        }
+    }
+
+    Block obtainBlock() {
+        Block block = mFreeBlocks.poll();
+        if (block == null) {
+            block = new Block(mSampleRate, mChannels, mBitsPerSample);
+        }
+        block.mFrames = 0;
+        return block;
+    }
+
+    void submitBlock() throws IOException {
+        final Block block = mBlock;
+        mBlock = null;
+        block.mFrameNumber = mFrameNumber++;
+        mPending.add(mEncoders.submit(new Callable<Block>() {
+            @Override
+            public Block call() {
+                block.encode();
+                return block;
+            }
+        }));
+        // write what is done, wait only if too much is in flight
+        while (!mPending.isEmpty() && (mPending.peek().isDone() || mPending.size() > mMaxPending)) {
+            writeFrame(mPending.poll());
+        }
+    }
+
+    void writeFrame(Future<Block> pending) throws IOException {
+        Block block;
+        try {
+            block = pending.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted");
+        }
+        int length = block.mEncoder.getLength();
+        mFile.write(block.mEncoder.getBytes(), 0, length);
+        mFileSize += length;
+        mMinFrameSize = Math.min(mMinFrameSize, length);
+        mMaxFrameSize = Math.max(mMaxFrameSize, length);
+        mFreeBlocks.add(block);
+    }
+
+    public long getTotalFrames() {
+        return mTotalFrames;
+    }
+
+    // bytes written so far, the finished frames and the header
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mBlock != null && mBlock.mFrames > 0) {
+                submitBlock();
+            }
+            while (!mPending.isEmpty()) {
+                writeFrame(mPending.poll());
+            }
+            mFile.seek(STREAMINFO_OFFSET);
+            mFile.write(createStreamInfo(mTotalFrames,
+                    (mMaxFrameSize > 0) ? mMinFrameSize : 0, mMaxFrameSize, mMd5.digest()));
+            writeComments();
+        } finally {
+            // left after an error, the workers are shared
+            for (Future<Block> pending : mPending) {
+                pending.cancel(false);
+            }
+            mPending.clear();
+            mFile.close();
+        }
+    }
+
+    synchronized void writeComments() throws IOException {
+        if (mInfo.isEmpty()) {
+            return;
+        }
+        byte[] comments = createComments(mInfo);
+        if (4 + comments.length > PADDING_SIZE) {
+            // does not fit, the padding stays
+            return;
+        }
+        ByteBuffer blocks = ByteBuffer.allocate(4 + comments.length + 4);
+        blocks.putInt((4 << 24) | comments.length);
+        blocks.put(comments);
+        blocks.putInt(0x81000000 | (PADDING_SIZE - 4 - comments.length));
+        mFile.seek(PADDING_OFFSET);
+        mFile.write(blocks.array());
+    }
+
+    byte[] createStreamInfo(long totalFrames, int minFrameSize, int maxFrameSize, byte[] md5) {
+        FlacEncoder.BitWriter info = new FlacEncoder.BitWriter(STREAMINFO_SIZE);
+        info.write(BLOCK_SIZE, 16);
+        info.write(BLOCK_SIZE, 16);
+        info.write(minFrameSize, 24);
+        info.write(maxFrameSize, 24);
+        info.write(mSampleRate, 20);
+        info.write(mChannels - 1, 3);
+        info.write(mBitsPerSample - 1, 5);
+        info.write(totalFrames >>> 32, 4);
+        info.write(totalFrames, 32);
+        for (byte b : md5) {
+            info.write(b, 8);
+        }
+        return Arrays.copyOf(info.getBytes(), info.getLength());
+    }
+
+    /**
+     * VORBIS_COMMENT block body, the well known RIFF INFO ids get their
+     * vorbis names and the rest keep their id, e.g. ISRC=UNPROCESSED.
+     */
+    static byte[] createComments(Map<String, String> info) {
+        byte[] vendor = VENDOR.getBytes(StandardCharsets.UTF_8);
+        byte[][] comments = new byte[info.size()][];
+        int size = 4 + vendor.length + 4;
+        int i = 0;
+        for (Map.Entry<String, String> entry : info.entrySet()) {
+            comments[i] = (getCommentName(entry.getKey()) + "=" + entry.getValue())
+                    .getBytes(StandardCharsets.UTF_8);
+            size += 4 + comments[i].length;
+            i++;
+        }
+        ByteBuffer block = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(vendor.length).put(vendor);
+        block.putInt(comments.length);
+        for (byte[] comment : comments) {
+            block.putInt(comment.length).put(comment);
+        }
+        return block.array();
+    }
+
+    static String getCommentName(String id) {
+        switch (id) {
+            case "ISFT":
+                return "ENCODER";
+            case "ICMT":
+                return "COMMENT";
+            case "INAM":
+                return "TITLE";
+            case "ICRD":
+                return "DATE";
+            default:
+                return id;
+        }
+    }
+}
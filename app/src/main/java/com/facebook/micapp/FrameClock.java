@@ -0,0 +1,92 @@
+package com.facebook.micapp;
+
+/**
+ * Maps the frames of one capture to the monotonic clock.
+ *
+ * Every buffer is reported with the frame index of its first frame and the
+ * CLOCK_MONOTONIC time of that frame (System.nanoTime() on Android, the same
+ * clock as AudioTimestamp.TIMEBASE_MONOTONIC). A running least squares fit of
+ * time vs. frame gives the time of frame 0 and the actual sample rate, so
+ * captures from several devices can be sample aligned afterwards, drift
+ * included. The fit is updated incrementally, nothing is stored per buffer.
+ */
+public class FrameClock {
+    final int mSampleRate;
+
+    // first buffer, the fit is done relative to it
+    long mFirstFrame = -1;
+    long mFirstTimeNs = 0;
+    long mBuffers = 0;
+    double mMeanFrame = 0;
+    double mMeanTime = 0;
+    double mFrameVariance = 0;
+    double mCovariance = 0;
+    // largest difference between a buffer time and the nominal rate line
+    long mMaxDeviationNs = 0;
+
+    public FrameClock(int sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    public synchronized void onBuffer(long frame, long timeNs) {
+        if (mFirstFrame < 0) {
+            mFirstFrame = frame;
+            mFirstTimeNs = timeNs;
+        }
+        double f = frame - mFirstFrame;
+        double t = timeNs - mFirstTimeNs;
+        // Welford, stays accurate over long captures
+        mBuffers++;
+        double df = f - mMeanFrame;
+        mMeanFrame += df / mBuffers;
+        mMeanTime += (t - mMeanTime) / mBuffers;
+        mFrameVariance += df * (f - mMeanFrame);
+        mCovariance += df * (t - mMeanTime);
+        long deviation = Math.abs((long) (t - f * 1e9 / mSampleRate));
+        if (deviation > mMaxDeviationNs) {
+            mMaxDeviationNs = deviation;
+        }
+    }
+
+    public synchronized long getBuffers() {
+        return mBuffers;
+    }
+
+    // fitted ns per frame, nominal until two buffers were seen
+    synchronized double getFramePeriodNs() {
+        if (mBuffers < 2 || mFrameVariance <= 0) {
+            return 1e9 / mSampleRate;
+        }
+        return mCovariance / mFrameVariance;
+    }
+
+    /**
+     * Monotonic time of the given frame, 0 before the first buffer.
+     */
+    public synchronized long getTimeNs(long frame) {
+        if (mFirstFrame < 0) {
+            return 0;
+        }
+        double period = getFramePeriodNs();
+        double intercept = mMeanTime - period * mMeanFrame;
+        return mFirstTimeNs + (long) (intercept + period * (frame - mFirstFrame));
+    }
+
+    // monotonic time of the first captured frame
+    public long getStartTimeNs() {
+        return getTimeNs(0);
+    }
+
+    public double getMeasuredSampleRate() {
+        return 1e9 / getFramePeriodNs();
+    }
+
+    // > 0 if the device clock runs faster than nominal
+    public double getDriftPpm() {
+        return (getMeasuredSampleRate() / mSampleRate - 1) * 1e6;
+    }
+
+    public synchronized double getMaxDeviationMs() {
+        return mMaxDeviationNs / 1e6;
+    }
+}
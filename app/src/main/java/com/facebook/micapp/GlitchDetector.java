@@ -0,0 +1,400 @@
+package com.facebook.micapp;
+
+import java.util.Arrays;
+
+/**
+ * Finds content glitches in a capture as it streams by: runs of exact
+ * zeros, buffers repeated by the HAL, sample to sample discontinuities and
+ * clipping. Every event is reported to a Listener with the frame it starts
+ * at, counted from the first frame processed, so it is sample accurate.
+ *
+ *  - GLITCH_ZERO_RUN: at least ZERO_RUN_MS of exact zeros in a channel.
+ *    Real mics always have some noise, digital silence is a dropout or a
+ *    muted path.
+ *  - GLITCH_REPEATED_BUFFER: the frames of every channel equal the frames
+ *    a typical buffer size earlier (see getRepeatLags()) for at least that
+ *    long. Runs that are constant, or where the audio was already
+ *    repeating before, e.g. a synthetic tone, are not reported.
+ *  - GLITCH_DISCONTINUITY: the error of a linear extrapolation from the
+ *    two previous samples is JUMP_FACTOR times above its running rms, and
+ *    above MIN_JUMP. The rms follows the signal with a JUMP_TIME_MS time
+ *    constant, so loud but smooth audio is not flagged while a click or a
+ *    splice in it is. Flagged samples closer than JUMP_HOLD_MS make one
+ *    event.
+ *  - GLITCH_CLIPPING: at least CLIP_RUN samples in a row at full scale.
+ *  - GLITCH_LOST_FRAMES: frames the caller did not get, see advance().
+ *
+ * Runs are reported when they end, or by flush(). Nothing is allocated
+ * after the constructor, the listener is only called for events.
+ * Uses no android classes, so it runs on a plain JVM.
+ */
+public class GlitchDetector {
+    public static final int GLITCH_ZERO_RUN = 0;
+    public static final int GLITCH_REPEATED_BUFFER = 1;
+    public static final int GLITCH_DISCONTINUITY = 2;
+    public static final int GLITCH_CLIPPING = 3;
+    public static final int GLITCH_LOST_FRAMES = 4;
+    public static final int GLITCH_TYPES = 5;
+    // channel of the events covering every channel
+    public static final int ALL_CHANNELS = -1;
+
+    static final double ZERO_RUN_MS = 1;
+    // HAL buffer sizes
+    static final double[] REPEAT_PERIODS_MS = {5, 10, 20, 40};
+    static final int[] REPEAT_PERIODS_FRAMES = {256, 512, 1024, 2048};
+    // frames of every channel kept to compare, three times the longest lag
+    static final int HISTORY_FRAMES = 8192;
+    static final float JUMP_FACTOR = 10;
+    static final float MIN_JUMP = 0.02f;
+    static final double JUMP_TIME_MS = 5;
+    static final double JUMP_HOLD_MS = 1;
+    static final float CLIP_LEVEL = 0.999f;
+    static final int CLIP_RUN = 4;
+
+    public interface Listener {
+        // value is the lag in frames for repeats, the largest prediction
+        // error for discontinuities and the peak for clipping, all in full scale
+        public void onGlitch(int type, int channel, long frame, long frames, float value);
+    }
+
+    final int mSampleRate;
+    final int mChannels;
+    final Listener mListener;
+    final int mZeroRunFrames;
+    final int[] mLags;
+    final float mJumpAlpha;
+    final int mJumpHoldFrames;
+    final int mWarmupFrames;
+
+    final long[] mZeroStart;
+    final long[] mZeroFrames;
+    final long[] mClipStart;
+    final long[] mClipFrames;
+    final float[] mClipPeak;
+    final float[] mPrevious1;
+    final float[] mPrevious2;
+    final float[] mErrorPower;
+    final long[] mJumpStart;
+    final long[] mJumpEnd;
+    final float[] mJumpPeak;
+    final int[] mJumpHold;
+
+    // interleaved, frame f at (f % HISTORY_FRAMES) * channels
+    final float[] mHistory;
+    final long[] mRepeatStart;
+    final long[] mRepeatFrames;
+    final boolean[] mRepeatVaried;
+    final boolean[] mRepeatPeriodic;
+
+    long mFrame = 0;
+    // the first frame after the last gap, and after its prediction warmup
+    long mContinuousFrom = 0;
+    long mWarmupEnd;
+    final long[] mCounts = new long[GLITCH_TYPES];
+    final long[] mFrameCounts = new long[GLITCH_TYPES];
+    final long[] mFirstFrames = new long[GLITCH_TYPES];
+
+    /**
+     * periodFrames is the size the capture is read in, also checked for
+     * repeats, 0 if unknown.
+     */
+    public GlitchDetector(int sampleRate, int channels, int periodFrames, Listener listener) {
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mListener = listener;
+        mZeroRunFrames = Math.max(16, (int) (sampleRate * ZERO_RUN_MS / 1000));
+        mLags = getRepeatLags(sampleRate, periodFrames);
+        mJumpAlpha = (float) (1 - Math.exp(-1000 / (JUMP_TIME_MS * sampleRate)));
+        mJumpHoldFrames = Math.max(1, (int) (sampleRate * JUMP_HOLD_MS / 1000));
+        mWarmupFrames = (int) (sampleRate * JUMP_TIME_MS / 1000);
+        mWarmupEnd = mWarmupFrames;
+
+        mZeroStart = new long[channels];
+        mZeroFrames = new long[channels];
+        mClipStart = new long[channels];
+        mClipFrames = new long[channels];
+        mClipPeak = new float[channels];
+        mPrevious1 = new float[channels];
+        mPrevious2 = new float[channels];
+        mErrorPower = new float[channels];
+        mJumpStart = new long[channels];
+        mJumpEnd = new long[channels];
+        mJumpPeak = new float[channels];
+        mJumpHold = new int[channels];
+
+        mHistory = new float[HISTORY_FRAMES * channels];
+        mRepeatStart = new long[mLags.length];
+        mRepeatFrames = new long[mLags.length];
+        mRepeatVaried = new boolean[mLags.length];
+        mRepeatPeriodic = new boolean[mLags.length];
+        Arrays.fill(mFirstFrames, -1);
+    }
+
+    /**
+     * Buffer sizes checked for repeats: REPEAT_PERIODS_MS at the rate,
+     * REPEAT_PERIODS_FRAMES and periodFrames, up to a third of the history.
+     */
+    static int[] getRepeatLags(int sampleRate, int periodFrames) {
+        int[] lags = new int[REPEAT_PERIODS_MS.length + REPEAT_PERIODS_FRAMES.length + 1];
+        int count = 0;
+        for (double ms : REPEAT_PERIODS_MS) {
+            lags[count++] = (int) Math.round(sampleRate * ms / 1000);
+        }
+        for (int frames : REPEAT_PERIODS_FRAMES) {
+            lags[count++] = frames;
+        }
+        lags[count++] = periodFrames;
+        Arrays.sort(lags, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            int lag = lags[i];
+            if (lag > 0 && 3 * lag <= HISTORY_FRAMES && (unique == 0 || lags[unique - 1] != lag)) {
+                lags[unique++] = lag;
+            }
+        }
+        return Arrays.copyOf(lags, unique);
+    }
+
+    public int[] getLags() {
+        return mLags;
+    }
+
+    /**
+     * Processes frames interleaved frames in full scale floats.
+     */
+    public void process(float[] samples, int frames) {
+        final int channels = mChannels;
+        for (int f = 0; f < frames; f++) {
+            final long frame = mFrame++;
+            final int base = f * channels;
+            final int historyBase = (int) (frame % HISTORY_FRAMES) * channels;
+            for (int ch = 0; ch < channels; ch++) {
+                float x = samples[base + ch];
+                mHistory[historyBase + ch] = x;
+                processZeros(ch, frame, x);
+                processClipping(ch, frame, x);
+                processJump(ch, frame, x);
+            }
+            processRepeats(frame);
+        }
+    }
+
+    /**
+     * Skips frames the caller lost, e.g. when it fell behind the capture,
+     * so the frames after them keep their position in the capture. The gap
+     * is reported as GLITCH_LOST_FRAMES, the runs going on end before it and
+     * the prediction and the repeat history start over after it.
+     */
+    public void advance(long frames) {
+        if (frames <= 0) {
+            return;
+        }
+        flush();
+        report(GLITCH_LOST_FRAMES, ALL_CHANNELS, mFrame, frames, 0);
+        mFrame += frames;
+        mContinuousFrom = mFrame;
+        mWarmupEnd = mFrame + mWarmupFrames;
+        Arrays.fill(mPrevious1, 0);
+        Arrays.fill(mPrevious2, 0);
+        Arrays.fill(mErrorPower, 0);
+    }
+
+    void processZeros(int ch, long frame, float x) {
+        if (x == 0) {
+            if (mZeroFrames[ch]++ == 0) {
+                mZeroStart[ch] = frame;
+            }
+        } else if (mZeroFrames[ch] > 0) {
+            endZeros(ch);
+        }
+    }
+
+    void endZeros(int ch) {
+        if (mZeroFrames[ch] >= mZeroRunFrames) {
+            report(GLITCH_ZERO_RUN, ch, mZeroStart[ch], mZeroFrames[ch], 0);
+        }
+        mZeroFrames[ch] = 0;
+    }
+
+    void processClipping(int ch, long frame, float x) {
+        float level = Math.abs(x);
+        if (level >= CLIP_LEVEL) {
+            if (mClipFrames[ch]++ == 0) {
+                mClipStart[ch] = frame;
+                mClipPeak[ch] = 0;
+            }
+            mClipPeak[ch] = Math.max(mClipPeak[ch], level);
+        } else if (mClipFrames[ch] > 0) {
+            endClipping(ch);
+        }
+    }
+
+    void endClipping(int ch) {
+        if (mClipFrames[ch] >= CLIP_RUN) {
+            report(GLITCH_CLIPPING, ch, mClipStart[ch], mClipFrames[ch], mClipPeak[ch]);
+        }
+        mClipFrames[ch] = 0;
+    }
+
+    void processJump(int ch, long frame, float x) {
+        float error = x - (2 * mPrevious1[ch] - mPrevious2[ch]);
+        float errorSquare = error * error;
+        mPrevious2[ch] = mPrevious1[ch];
+        mPrevious1[ch] = x;
+        if (frame >= mWarmupEnd && errorSquare > JUMP_FACTOR * JUMP_FACTOR * mErrorPower[ch]
+                && Math.abs(error) > MIN_JUMP) {
+            // not learned, the model keeps describing the audio around the jump
+            if (mJumpHold[ch] == 0) {
+                mJumpStart[ch] = frame;
+                mJumpPeak[ch] = 0;
+            }
+            mJumpEnd[ch] = frame;
+            mJumpPeak[ch] = Math.max(mJumpPeak[ch], Math.abs(error));
+            mJumpHold[ch] = mJumpHoldFrames;
+            return;
+        }
+        mErrorPower[ch] += mJumpAlpha * (errorSquare - mErrorPower[ch]);
+        if (mJumpHold[ch] > 0 && --mJumpHold[ch] == 0) {
+            endJump(ch);
+        }
+    }
+
+    void endJump(int ch) {
+        report(GLITCH_DISCONTINUITY, ch, mJumpStart[ch], mJumpEnd[ch] - mJumpStart[ch] + 1, mJumpPeak[ch]);
+        mJumpHold[ch] = 0;
+    }
+
+    void processRepeats(long frame) {
+        for (int i = 0; i < mLags.length; i++) {
+            int lag = mLags[i];
+            if (frame - lag < mContinuousFrom) {
+                break;
+            }
+            if (framesEqual(frame, frame - lag)) {
+                if (mRepeatFrames[i]++ == 0) {
+                    mRepeatStart[i] = frame;
+                    mRepeatVaried[i] = false;
+                    mRepeatPeriodic[i] = false;
+                }
+                if (!mRepeatVaried[i] && frame > mContinuousFrom && !framesEqual(frame, frame - 1)) {
+                    mRepeatVaried[i] = true;
+                }
+                if (mRepeatFrames[i] == lag) {
+                    // what is repeated was already a repeat, or too early to tell
+                    long start = mRepeatStart[i];
+                    mRepeatPeriodic[i] = start - 2L * lag < mContinuousFrom || isRepeating(start - lag, lag);
+                }
+            } else if (mRepeatFrames[i] > 0) {
+                endRepeat(i);
+            }
+        }
+    }
+
+    void endRepeat(int i) {
+        int lag = mLags[i];
+        if (mRepeatFrames[i] >= lag && mRepeatVaried[i] && !mRepeatPeriodic[i]) {
+            report(GLITCH_REPEATED_BUFFER, ALL_CHANNELS, mRepeatStart[i], mRepeatFrames[i], lag);
+        }
+        mRepeatFrames[i] = 0;
+    }
+
+    // most of the lag frames from start equal the frames lag earlier
+    boolean isRepeating(long start, int lag) {
+        int equal = 0;
+        for (long frame = start; frame < start + lag; frame++) {
+            if (framesEqual(frame, frame - lag)) {
+                equal++;
+            }
+        }
+        return 2 * equal > lag;
+    }
+
+    boolean framesEqual(long a, long b) {
+        int baseA = (int) (a % HISTORY_FRAMES) * mChannels;
+        int baseB = (int) (b % HISTORY_FRAMES) * mChannels;
+        for (int ch = 0; ch < mChannels; ch++) {
+            if (mHistory[baseA + ch] != mHistory[baseB + ch]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports the runs still going on, e.g. at the end of the capture.
+     */
+    public void flush() {
+        for (int ch = 0; ch < mChannels; ch++) {
+            if (mZeroFrames[ch] > 0) {
+                endZeros(ch);
+            }
+            if (mClipFrames[ch] > 0) {
+                endClipping(ch);
+            }
+            if (mJumpHold[ch] > 0) {
+                endJump(ch);
+            }
+        }
+        for (int i = 0; i < mLags.length; i++) {
+            if (mRepeatFrames[i] > 0) {
+                endRepeat(i);
+            }
+        }
+    }
+
+    void report(int type, int channel, long frame, long frames, float value) {
+        synchronized (this) {
+            if (mCounts[type]++ == 0) {
+                mFirstFrames[type] = frame;
+            }
+            mFrameCounts[type] += frames;
+        }
+        if (mListener != null) {
+            mListener.onGlitch(type, channel, frame, frames, value);
+        }
+    }
+
+    public synchronized long getCount(int type) {
+        return mCounts[type];
+    }
+
+    // frames covered by the events of type
+    public synchronized long getFrameCount(int type) {
+        return mFrameCounts[type];
+    }
+
+    // first frame of the first event of type, -1 if none
+    public synchronized long getFirstFrame(int type) {
+        return mFirstFrames[type];
+    }
+
+    public synchronized long getTotalCount() {
+        long total = 0;
+        for (long count : mCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    // frames processed or skipped so far
+    public long getFrames() {
+        return mFrame;
+    }
+
+    public static String glitchTypeToString(int type) {
+        switch (type) {
+            case GLITCH_ZERO_RUN:
+                return "zero_run";
+            case GLITCH_REPEATED_BUFFER:
+                return "repeated_buffer";
+            case GLITCH_DISCONTINUITY:
+                return "discontinuity";
+            case GLITCH_CLIPPING:
+                return "clipping";
+            case GLITCH_LOST_FRAMES:
+                return "lost_frames";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.facebook.micapp;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.util.Log;
+
+import com.facebook.micapp.analysis.CrossCorrelator;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Record and play loopback latency.
+ *
+ * One capture runs while the chirp is played N times through the Player.
+ * For every run the capture window following the play is cross correlated
+ * with the chirp. The correlation peak gives the capture frame where the
+ * chirp starts, with a fraction of a sample resolution. The FrameClock of
+ * the capture turns that frame into monotonic time, which is compared with
+ * the time the first chirp sample was written to the AudioTrack:
+ *
+ *   output_to_capture: first write to the chirp reaching the input
+ *   round_trip: output_to_capture plus the mean input delay, i.e. until
+ *               the app reads the chirp back
+ */
+public class LatencyMeasurement {
+    final static String TAG = "micapp.latency";
+    // the rate of the chirp, the capture runs at the same rate
+    final static int SAMPLE_RATE = 48000;
+    final static int CHIRP_ID = R.raw.chirp_48k_300ms;
+    // every run waits this long for the chirp to come back
+    final static int WINDOW_MS = 1500;
+    final static double MIN_PEAK_TO_RMS = 10;
+
+    final Context mContext;
+    final Player mPlayer;
+    final Vector<Run> mRuns = new Vector<>();
+    double mInputDelayMs = 0;
+
+    static class Run {
+        double outputToCaptureMs;
+        double roundTripMs;
+        double peakToRms;
+        boolean valid;
+    }
+
+    public LatencyMeasurement(Context context, Player player) {
+        mContext = context;
+        mPlayer = player;
+    }
+
+    /**
+     * Measures runs times on the given input, returns false if the capture
+     * could not be started.
+     */
+    public boolean measure(int audioSource, String inputDevice, int runs)
+            throws IOException, InterruptedException {
+        float[] reference = Utils.loadRawSound(mContext, CHIRP_ID);
+        int windowFrames = SAMPLE_RATE * WINDOW_MS / 1000;
+        CrossCorrelator correlator = new CrossCorrelator(reference, windowFrames);
+        float[] window = new float[windowFrames];
+
+        Recorder recorder = new Recorder(mContext);
+        PcmCollector collector = new PcmCollector(recorder.getCaptureFormat(), 0, 2 * windowFrames);
+        recorder.addCaptureConsumer(collector);
+        try {
+            recorder.start(audioSource, inputDevice, SAMPLE_RATE, false)
+                    .get(Recorder.START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Failed to start the capture", e);
+            recorder.stopRecording();
+            return false;
+        }
+        CaptureStats stats = recorder.getCaptureStats();
+        try {
+            for (int i = 0; i < runs; i++) {
+                long startFrame = collector.getFrames();
+                long writeNs = mPlayer.playSound(CHIRP_ID,
+                        AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .get(Recorder.START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (!collector.awaitFrame(startFrame + windowFrames, 2 * WINDOW_MS) ||
+                        !collector.copy(startFrame, window, windowFrames)) {
+                    Log.e(TAG, "Capture stalled in run " + i);
+                    break;
+                }
+                double delay = correlator.findDelay(window, windowFrames);
+                double onset = startFrame + delay;
+                long onsetFrame = (long) onset;
+                long onsetNs = stats.getFrameClock().getTimeNs(onsetFrame) +
+                        (long) ((onset - onsetFrame) * 1e9 / SAMPLE_RATE);
+
+                Run run = new Run();
+                run.outputToCaptureMs = (onsetNs - writeNs) / 1e6;
+                run.roundTripMs = run.outputToCaptureMs + stats.getInputDelayMeanMs();
+                run.peakToRms = correlator.getPeakToRms();
+                run.valid = run.peakToRms >= MIN_PEAK_TO_RMS && run.outputToCaptureMs > 0;
+                mRuns.add(run);
+                Log.d(TAG, String.format(Locale.ROOT, "Run %d: %.3f ms (peak/rms %.1f)",
+                        i, run.roundTripMs, run.peakToRms));
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Failed to play the chirp", e);
+        } finally {
+            recorder.stopRecording();
+        }
+        mInputDelayMs = stats.getInputDelayMeanMs();
+        return true;
+    }
+
+    public String toString(int indent) {
+        String tab = Utils.getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        str.append(tab + "latency {\n");
+        indent += 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "sample_rate: " + SAMPLE_RATE + "\n");
+        str.append(String.format(Locale.ROOT, "%sinput_delay_mean_ms: %.3f\n", tab, mInputDelayMs));
+        int valid = 0;
+        double sum = 0;
+        double sumSquares = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < mRuns.size(); i++) {
+            Run run = mRuns.get(i);
+            str.append(tab + "run {\n");
+            str.append(tab + "  index: " + i + "\n");
+            str.append(String.format(Locale.ROOT, "%s  output_to_capture_ms: %.3f\n", tab, run.outputToCaptureMs));
+            str.append(String.format(Locale.ROOT, "%s  round_trip_ms: %.3f\n", tab, run.roundTripMs));
+            str.append(String.format(Locale.ROOT, "%s  peak_to_rms: %.1f\n", tab, run.peakToRms));
+            str.append(tab + "  valid: " + run.valid + "\n");
+            str.append(tab + "}\n");
+            if (run.valid) {
+                valid++;
+                sum += run.roundTripMs;
+                sumSquares += run.roundTripMs * run.roundTripMs;
+                min = Math.min(min, run.roundTripMs);
+                max = Math.max(max, run.roundTripMs);
+            }
+        }
+        str.append(tab + "runs: " + mRuns.size() + "\n");
+        str.append(tab + "valid_runs: " + valid + "\n");
+        if (valid > 0) {
+            double mean = sum / valid;
+            double jitter = Math.sqrt(Math.max(0, sumSquares / valid - mean * mean));
+            str.append(String.format(Locale.ROOT, "%sround_trip_mean_ms: %.3f\n", tab, mean));
+            str.append(String.format(Locale.ROOT, "%sround_trip_stddev_ms: %.3f\n", tab, jitter));
+            str.append(String.format(Locale.ROOT, "%sround_trip_min_ms: %.3f\n", tab, min));
+            str.append(String.format(Locale.ROOT, "%sround_trip_max_ms: %.3f\n", tab, max));
+        }
+        indent -= 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "}\n");
+        return str.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package com.facebook.micapp;
+
+/**
+ * Peak/RMS level meter for blocks of PCM samples.
+ *
+ * The meter keeps running sums over every sample passed to process() since the
+ * last reset(), so several short blocks can be metered as one. It does not
+ * allocate and has no android dependencies, so it can run on the capture
+ * thread and in plain JVM unit tests.
+ *
+ * Interleaved multichannel data is metered in place, one meter per channel,
+ * by passing the offset of the channel and the number of channels as stride.
+ *
+ * All levels are normalized so that 1.0 is full scale (0 dBFS).
+ */
+public class LevelMeter {
+    static final float SHORT_SCALE = 1.0f / 32768.0f;
+
+    // 16-bit input is accumulated exactly in integers, float input in doubles
+    long mShortSum = 0;
+    long mShortSumSquares = 0;
+    int mShortMin = Short.MAX_VALUE;
+    int mShortMax = Short.MIN_VALUE;
+    double mFloatSum = 0;
+    double mFloatSumSquares = 0;
+    float mFloatMin = Float.MAX_VALUE;
+    float mFloatMax = -Float.MAX_VALUE;
+    long mCount = 0;
+
+    public void reset() {
+        mShortSum = 0;
+        mShortSumSquares = 0;
+        mShortMin = Short.MAX_VALUE;
+        mShortMax = Short.MIN_VALUE;
+        mFloatSum = 0;
+        mFloatSumSquares = 0;
+        mFloatMin = Float.MAX_VALUE;
+        mFloatMax = -Float.MAX_VALUE;
+        mCount = 0;
+    }
+
+    public void process(short[] samples, int offset, int length) {
+        process(samples, offset, length, 1);
+    }
+
+    // count samples, stride apart, starting at offset
+    public void process(short[] samples, int offset, int count, int stride) {
+        long sum = 0;
+        long sumSquares = 0;
+        int min = mShortMin;
+        int max = mShortMax;
+        int end = offset + count * stride;
+        for (int i = offset; i < end; i += stride) {
+            int val = samples[i];
+            sum += val;
+            sumSquares += val * val;
+            if (val < min) {
+                min = val;
+            }
+            if (val > max) {
+                max = val;
+            }
+        }
+        mShortSum += sum;
+        mShortSumSquares += sumSquares;
+        mShortMin = min;
+        mShortMax = max;
+        mCount += count;
+    }
+
+    public void process(float[] samples, int offset, int length) {
+        process(samples, offset, length, 1);
+    }
+
+    public void process(float[] samples, int offset, int count, int stride) {
+        double sum = 0;
+        double sumSquares = 0;
+        float min = mFloatMin;
+        float max = mFloatMax;
+        int end = offset + count * stride;
+        for (int i = offset; i < end; i += stride) {
+            float val = samples[i];
+            sum += val;
+            sumSquares += val * val;
+            if (val < min) {
+                min = val;
+            }
+            if (val > max) {
+                max = val;
+            }
+        }
+        mFloatSum += sum;
+        mFloatSumSquares += sumSquares;
+        mFloatMin = min;
+        mFloatMax = max;
+        mCount += count;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    // sum of squared normalized samples
+    public double getSumSquares() {
+        return mShortSumSquares * (double) SHORT_SCALE * SHORT_SCALE + mFloatSumSquares;
+    }
+
+    // sum of normalized samples
+    public double getSum() {
+        return mShortSum * (double) SHORT_SCALE + mFloatSum;
+    }
+
+    public double getMin() {
+        if (mCount == 0) {
+            return 0;
+        }
+        return Math.min(mShortMin * SHORT_SCALE, mFloatMin);
+    }
+
+    public double getMax() {
+        if (mCount == 0) {
+            return 0;
+        }
+        return Math.max(mShortMax * SHORT_SCALE, mFloatMax);
+    }
+
+    public double getPeak() {
+        return Math.max(Math.abs(getMin()), Math.abs(getMax()));
+    }
+
+    public double getRms() {
+        if (mCount == 0) {
+            return 0;
+        }
+        return Math.sqrt(getSumSquares() / mCount);
+    }
+
+    public double getDcOffset() {
+        if (mCount == 0) {
+            return 0;
+        }
+        return getSum() / mCount;
+    }
+
+    public double getPeakDb() {
+        return toDb(getPeak());
+    }
+
+    public double getRmsDb() {
+        return toDb(getRms());
+    }
+
+    // same floor as Utils.floatToDB(), which cannot be used off-device
+    static double toDb(double val) {
+        if (val <= 0)
+            return -100;
+        return 20 * Math.log10(val);
+    }
+}
@@ -15,8 +15,11 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.facebook.micapp.analysis.AudioFile;
+
 import android.os.Handler;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 
 import android.view.Menu;
@@ -39,6 +42,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class MainActivity extends AppCompatActivity {
     public final static String TAG = "micapp.main";
@@ -62,12 +68,32 @@ public class MainActivity extends AppCompatActivity {
     boolean mRecord = true;
 
     Handler handler = new Handler();
+    // the levels are polled once per display frame instead of posted per update
+    long mShownSplSequence = -1;
+    final StringBuilder mSplTextBuilder = new StringBuilder();
+    final Choreographer.FrameCallback mSplFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            showSpl();
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
     float mRecSec = 10.0f;
     int mAudioSource = MediaRecorder.AudioSource.VOICE_COMMUNICATION;
     int[] mDeviceIds = null;
     int mSampleRate = 48000;
+    int mCapturePeriodMs = Recorder.DEFAULT_CAPTURE_PERIOD_MS;
+    int mSinkType = Recorder.SINK_WAV;
+    CaptureFormat mCaptureFormat = CaptureFormat.getDefault();
+    int mFftSize = Recorder.DEFAULT_FFT_SIZE;
+    int mFftWindow = SpectrumAnalyzer.WINDOW_HANN;
+    boolean mGlitchDetection = true;
+    int mSplWeighting = SplMeter.WEIGHTING_A;
+    double mSplCalibrationDb = Double.NaN;
+    // synthetic captures instead of the device inputs, null for the device
+    Recorder.InputFactory mInputFactory = null;
+    Vector<Recorder> mRecorders = new Vector<>();
     Thread mPlaybackThread;
-    boolean mPlaybackDone = false;
 
     public static String[] retrieveNotGrantedPermissions(Context context) {
         ArrayList<String> nonGrantedPerms = new ArrayList<>();
@@ -118,12 +144,8 @@ public class MainActivity extends AppCompatActivity {
                 // settings, and setup routing verifying availability of
                 // hw effects
                 Log.d(TAG, "Call rec");
-                record(mAudioSource, mDeviceIds, mSampleRate, 0);
-                try {
-                    Thread.sleep((long)(1000));
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+                CaptureSession session = record(mAudioSource, mDeviceIds, mSampleRate, 0);
+                awaitStarted(session);
                 Log.d(TAG, "Get audio manager");
                 AudioManager audio_manager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
                 List<AudioRecordingConfiguration> audio_record_configs = audio_manager.getActiveRecordingConfigurations();
@@ -176,6 +198,18 @@ public class MainActivity extends AppCompatActivity {
                         writer.write("}\n");
                     }
                 }
+                // health of the captures used for the verification
+                awaitStopped(session);
+                for (Recorder rec : mRecorders) {
+                    CaptureStats stats = rec.getCaptureStats();
+                    if (stats != null) {
+                        writer.write(stats.toString(0));
+                    }
+                    SpectrumStats spectrum = rec.getSessionSpectrum();
+                    if (spectrum != null) {
+                        writer.write(spectrum.toString(0));
+                    }
+                }
             }
 
         } catch (FileNotFoundException e) {
@@ -203,12 +237,8 @@ public class MainActivity extends AppCompatActivity {
         // With extened testing take default settings or cli settings and setup te routing
         // verifying availability of hw effects
         Log.d(TAG, "Call rec");
-        record(mAudioSource, mDeviceIds, sampleRate,0);
-        try {
-            Thread.sleep((long)(1000));
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        CaptureSession session = record(mAudioSource, mDeviceIds, sampleRate,0);
+        awaitStarted(session);
         Log.d(TAG, "Get audio manager");
         AudioManager audio_manager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         List<AudioRecordingConfiguration> audio_record_configs = audio_manager.getActiveRecordingConfigurations();
@@ -227,65 +257,151 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
+        mAudioPlayer.playSound(soundId,  AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC);
+
         try {
-            Thread.sleep(500);
+            Log.d(TAG, "Sleep for " + secs);
+            Thread.sleep((long)(secs * 1000));
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        mAudioPlayer.playSound(soundId,  AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC);
+        awaitStopped(session);
+    }
 
+    // waits until every input delivered audio, false if one of them failed
+    boolean awaitStarted(CaptureSession session) {
         try {
-            Log.d(TAG, "Sleep for " + secs);
-            Thread.sleep((long)(secs * 1000));
+            session.getStarted().get(Recorder.START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to start recording: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            Log.e(TAG, "No audio after " + Recorder.START_TIMEOUT_MS + " ms");
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        return false;
+    }
 
+    // stops the session and waits until every capture file is complete
+    void awaitStopped(CaptureSession session) {
+        try {
+            session.stop().get(Recorder.STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Failed to stop recording", e);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Plays the chirp runs times while capturing from the first input and
+     * writes the round trip latencies to latency.txt.
+     */
+    public void measureLatency(int audioSource, int[] inputIds, int runs) {
+        String input = Utils.lookupIdsStrings(inputIds, this).get(0);
+        LatencyMeasurement latency = new LatencyMeasurement(this, mAudioPlayer);
+        File[] externalStorageVolumes =
+                ContextCompat.getExternalFilesDirs(getApplicationContext(), null);
+        String filename = externalStorageVolumes[0].getAbsolutePath() + "/latency.txt";
+        (new File(filename)).delete();
+        FileWriter writer = null;
+        try {
+            if (!latency.measure(audioSource, input, runs)) {
+                Log.e(TAG, "Latency measurement failed");
+                return;
+            }
+            writer = new FileWriter(filename);
+            writer.write("input: \"" + input + "\"\n");
+            writer.write(latency.toString(0));
+        } catch (IOException | InterruptedException e) {
+            Log.e(TAG, "Latency measurement failed", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
     }
 
-    public void stopAudioPlayback() {
-        if (mPlaybackThread != null) {
-            mPlaybackDone = true;
+    public void measureResponse(int audioSource, int[] inputIds, int soundId, int runs) {
+        String input = Utils.lookupIdsStrings(inputIds, this).get(0);
+        ResponseMeasurement response = new ResponseMeasurement(this, mAudioPlayer);
+        File[] externalStorageVolumes =
+                ContextCompat.getExternalFilesDirs(getApplicationContext(), null);
+        String filename = externalStorageVolumes[0].getAbsolutePath() + "/response.txt";
+        (new File(filename)).delete();
+        FileWriter writer = null;
+        try {
+            if (!response.measure(audioSource, input, soundId, runs)) {
+                Log.e(TAG, "Frequency response measurement failed");
+                return;
+            }
+            writer = new FileWriter(filename);
+            writer.write("input: \"" + input + "\"\n");
+            writer.write(response.toString(0));
+        } catch (IOException | InterruptedException e) {
+            Log.e(TAG, "Frequency response measurement failed", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
+    public void stopAudioPlayback() {
+        mAudioPlayer.stopSounds();
+    }
+
+    // loops the sound without gaps for timeSec seconds, or until stopped with timeSec <= 0
     public void playback(float timeSec, int soundId) {
         mPlaybackThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                long startTime = System.currentTimeMillis();
-                long stopTime = (long) (timeSec * 1000.0);
-                while (!mPlaybackDone) {
-                    mAudioPlayer.playSound(soundId, AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC);
-                    do {
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    } while(mAudioPlayer.isPlaying());
-                    long playtime = System.currentTimeMillis() - startTime;
-                    if (timeSec > 0 && stopTime < playtime) {
-                        break;
+                PlaybackStream.Playback playback = mAudioPlayer.loopSound(soundId,
+                        AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC);
+                try {
+                    if (timeSec > 0) {
+                        playback.getDone().get((long) (timeSec * 1000), TimeUnit.MILLISECONDS);
+                    } else {
+                        playback.getDone().get();
                     }
+                } catch (TimeoutException e) {
+                    Log.d(TAG, "Played for " + timeSec + " s");
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Playback failed: " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
                 }
+                mAudioPlayer.release();
                 System.exit(0);
             }
         });
         mPlaybackThread.start();
     }
-    public void record(int audioSource, int[] inputIds, int sampleRate, float secs) {
+    /**
+     * Captures from the given inputs. Runs for secs seconds and returns
+     * the stopped session, or with secs = 0 returns the running session.
+     */
+    public CaptureSession record(int audioSource, int[] inputIds, int sampleRate, float secs) {
         mInfo.append("Start record");
         mInfo.append("\nAudio source: " + audioSource + " seconds: " + secs);
         Vector<String> inputs = Utils.lookupIdsStrings(inputIds, this);
-        Vector<Recorder> recorders = new Vector<>();
-        for (String input: inputs) {
-            Log.d(TAG, "Start a new recorder:" + input);
-            final Recorder rec = new Recorder(this);
-            recorders.add(rec);
-            (new Thread(() -> rec.checkAndRecord(audioSource, input, sampleRate, true))).start();
+        // all inputs are opened first and then started together
+        CaptureSession session = new CaptureSession(this, inputs, audioSource, sampleRate, true);
+        mRecorders = session.getRecorders();
+        for (Recorder rec : mRecorders) {
+            configureRecorder(rec, mInputFactory);
         }
+        Log.d(TAG, "Start " + inputs.size() + " recorders: " + inputs);
+        session.start();
 
         if (secs > 0) {
             try {
@@ -293,10 +409,156 @@ public class MainActivity extends AppCompatActivity {
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
-            for (Recorder rec : recorders) {
-                rec.stopRecording();
+            awaitStopped(session);
+        }
+        return session;
+    }
+
+    // the cli capture settings
+    void configureRecorder(Recorder rec, Recorder.InputFactory inputFactory) {
+        rec.setCapturePeriod(mCapturePeriodMs);
+        rec.setSinkType(mSinkType);
+        rec.setCaptureFormat(mCaptureFormat);
+        rec.setSpectrumAnalysis(mFftSize, mFftWindow);
+        rec.setGlitchDetection(mGlitchDetection);
+        rec.setSplWeighting(mSplWeighting);
+        rec.setSplCalibration(mSplCalibrationDb);
+        rec.setInputFactory(inputFactory);
+        rec.setAudioEffects(mAudioEffects);
+    }
+
+    /**
+     * Runs the steps of a test plan back to back in this process and writes
+     * every step and its results to plan_result.txt. The player, the effects
+     * and the recorders are reused from step to step, and the captures of
+     * step N are named plan<N>_<rate>Hz_<id>.wav.
+     */
+    public void runPlan(String path) {
+        File[] externalStorageVolumes =
+                ContextCompat.getExternalFilesDirs(getApplicationContext(), null);
+        File planFile = path.startsWith("/") ? new File(path) : new File(externalStorageVolumes[0], path);
+        String filename = externalStorageVolumes[0].getAbsolutePath() + "/plan_result.txt";
+        (new File(filename)).delete();
+        FileWriter writer = null;
+        try {
+            TestPlan plan = TestPlan.read(planFile);
+            List<TestPlan.Step> steps = plan.getSteps();
+            Log.d(TAG, "Run " + steps.size() + " steps of " + planFile);
+            writer = new FileWriter(filename);
+            writer.write("plan_file: \"" + planFile + "\"\n");
+            writer.write("steps: " + steps.size() + "\n");
+            Vector<Recorder> recorders = new Vector<>();
+            for (int i = 0; i < steps.size(); i++) {
+                writer.write(runPlanStep(i, steps.get(i), recorders));
+                // a partial result survives a crash in a later step
+                writer.flush();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Test plan failed", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // captures one step and returns its result
+    String runPlanStep(int index, TestPlan.Step step, Vector<Recorder> recorders) {
+        Log.d(TAG, "Plan step " + index + ": " + step.name);
+        Recorder.InputFactory inputFactory = mInputFactory;
+        if (step.synthetic != null) {
+            inputFactory = createSyntheticInputFactory(step.synthetic, 1, null);
+        }
+        String status = "ok";
+        StringBuilder str = new StringBuilder();
+        str.append("plan_step {\n");
+        str.append("  index: " + index + "\n");
+        str.append(step.toString(1));
+        try {
+            Vector<String> inputs = Utils.lookupIdsStrings(step.inputIds, this);
+            CaptureSession session = new CaptureSession(this, inputs, Utils.audioSourceFromString(step.audioSource),
+                    step.sampleRate, true, recorders);
+            mRecorders = session.getRecorders();
+            for (Recorder rec : mRecorders) {
+                configureRecorder(rec, inputFactory);
+                rec.setFilePrefix(String.format(Locale.ROOT, "plan%02d_", index));
+            }
+            session.start();
+            PlaybackStream.Playback playback = null;
+            if (!awaitStarted(session)) {
+                status = "failed to start";
+            } else {
+                setPlanEffects(step, mRecorders.get(0).getStarted().getNow(-1));
+                if (!step.stimulus.equals("none")) {
+                    playback = mAudioPlayer.loopSound(Player.getSoundId(step.stimulus),
+                            AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC);
+                }
+                Thread.sleep((long) (step.durationSec * 1000));
+            }
+            if (playback != null) {
+                playback.stop();
+            }
+            awaitStopped(session);
+            str.append(mAudioEffects.getStatusAsString(1, true));
+            for (Recorder rec : mRecorders) {
+                str.append("  capture {\n");
+                if (rec.getFilename() != null) {
+                    str.append("    capture_file: \"" + rec.getFilename() + "\"\n");
+                }
+                CaptureStats stats = rec.getCaptureStats();
+                if (stats != null) {
+                    str.append(stats.toString(2));
+                }
+                SpectrumStats spectrum = rec.getSessionSpectrum();
+                if (spectrum != null) {
+                    str.append(spectrum.toString(2));
+                }
+                str.append("  }\n");
             }
+        } catch (InterruptedException e) {
+            status = "interrupted";
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Plan step " + index + " failed", e);
+            status = "failed: " + e.getMessage();
+        }
+        str.append("  status: \"" + status + "\"\n");
+        str.append("}\n");
+        return str.toString();
+    }
+
+    // the effects are left alone with "default", and cannot be set without an audio session
+    void setPlanEffects(TestPlan.Step step, int audioSessionId) {
+        if (step.effects.equals("default") || audioSessionId <= 0) {
+            return;
         }
+        Log.d(TAG, "Set effects \"" + step.effects + "\" on session " + audioSessionId);
+        mAudioEffects.createAudioEffects(audioSessionId);
+        mAudioEffects.setAecStatus(step.isEffectEnabled("aec"));
+        mAudioEffects.setAgcStatus(step.isEffectEnabled("agc"));
+        mAudioEffects.setNsStatus(step.isEffectEnabled("ns"));
+    }
+
+    static Recorder.InputFactory createSyntheticInputFactory(final String signal, final double speed,
+                                                             final String dropouts) {
+        return (sampleRate, format) -> {
+            SyntheticInput input = new SyntheticInput(sampleRate, format.channels, format.bytesPerSample,
+                    format.isFloat());
+            if (signal.startsWith("file:")) {
+                input.setReplay(AudioFile.open(new File(signal.substring("file:".length()))));
+            } else {
+                input.setSignal(signal);
+            }
+            input.setSpeed(speed);
+            if (dropouts != null) {
+                String[] values = dropouts.split("[,]");
+                input.setDropouts(Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+            }
+            return input;
+        };
     }
 
     @Override
@@ -340,6 +602,58 @@ public class MainActivity extends AppCompatActivity {
             if (extras.containsKey("timesec")) {
                 mRecSec = Float.valueOf(extras.getString("timesec"));
             }
+
+            if (extras.containsKey("periodms")) {
+                mCapturePeriodMs = Integer.parseInt(extras.getString("periodms"));
+            }
+
+            if (extras.containsKey("sink")) {
+                mSinkType = Recorder.sinkTypeFromString(extras.getString("sink"));
+            }
+
+            // "encoding" is 16, 24, 32 or float, "channels" the first N device channels,
+            // "indexmask" (hex) selects device channels by index instead
+            if (extras.containsKey("encoding") || extras.containsKey("channels") || extras.containsKey("indexmask")) {
+                int encoding = CaptureFormat.encodingFromString(extras.getString("encoding", "16"));
+                if (extras.containsKey("indexmask")) {
+                    mCaptureFormat = CaptureFormat.withChannelIndexMask(encoding,
+                            Integer.parseInt(extras.getString("indexmask"), 16));
+                } else {
+                    mCaptureFormat = CaptureFormat.withChannels(encoding,
+                            Integer.parseInt(extras.getString("channels", "1")));
+                }
+            }
+            // "fft" is the spectrum FFT size, 0 disables it, "window" is hann or blackman
+            if (extras.containsKey("fft")) {
+                mFftSize = Integer.parseInt(extras.getString("fft"));
+            }
+            if (extras.containsKey("window")) {
+                mFftWindow = SpectrumAnalyzer.windowFromString(extras.getString("window"));
+            }
+            // "glitches" 0 turns the glitch detection off
+            if (extras.containsKey("glitches")) {
+                mGlitchDetection = Integer.parseInt(extras.getString("glitches")) != 0;
+            }
+            // "weighting" is A, C or Z, "splcal" the dBFS to dB SPL offset from a calibrator
+            if (extras.containsKey("weighting")) {
+                mSplWeighting = SplMeter.weightingFromString(extras.getString("weighting"));
+            }
+            if (extras.containsKey("splcal")) {
+                mSplCalibrationDb = Double.parseDouble(extras.getString("splcal"));
+            }
+            // "synthetic" captures a generated signal instead of the mics, e.g. sine:1000:-20,
+            // noise::-30, chirp or file:<path>, "speed" is a multiple of real time (0 as fast as
+            // possible) and "dropouts" injects <interval_ms>,<length_ms> of silence
+            if (extras.containsKey("synthetic")) {
+                mInputFactory = createSyntheticInputFactory(extras.getString("synthetic"),
+                        Double.parseDouble(extras.getString("speed", "1")), extras.getString("dropouts", null));
+            }
+            // "playfile" writes the played sounds to a file instead of the speaker
+            if (extras.containsKey("playfile")) {
+                File[] externalStorageVolumes =
+                        ContextCompat.getExternalFilesDirs(getApplicationContext(), null);
+                mAudioPlayer.setOutputFile(new File(externalStorageVolumes[0], extras.getString("playfile")));
+            }
             if (extras.containsKey("nogui")) {
                 Thread t = new Thread(new Runnable() {
                     @Override
@@ -356,7 +670,46 @@ public class MainActivity extends AppCompatActivity {
                 t.start();
             }
 
-            if (extras.containsKey("rec")) {
+            // "plan" runs the steps of a plan file, relative to the app files directory
+            if (extras.containsKey("plan")) {
+                final String plan = extras.getString("plan");
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.d(TAG, "cli test plan: " + plan);
+                        runPlan(plan);
+                        mAudioPlayer.release();
+                        Log.d(TAG, "Exit");
+                        System.exit(0);
+                    }
+                });
+                t.start();
+            } else if (extras.containsKey("latency")) {
+                final int runs = Integer.parseInt(extras.getString("latency"));
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.d(TAG, "cli latency, runs: " + runs);
+                        measureLatency(mAudioSource, mDeviceIds, runs);
+                        Log.d(TAG, "Exit");
+                        System.exit(0);
+                    }
+                });
+                t.start();
+            } else if (extras.containsKey("response")) {
+                final int runs = Integer.parseInt(extras.getString("response"));
+                final int id = getAudioId(extras);
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.d(TAG, "cli frequency response, runs: " + runs);
+                        measureResponse(mAudioSource, mDeviceIds, id, runs);
+                        Log.d(TAG, "Exit");
+                        System.exit(0);
+                    }
+                });
+                t.start();
+            } else if (extras.containsKey("rec")) {
                 Thread t = new Thread(new Runnable() {
                     @Override
                     public void run() {
@@ -511,15 +864,79 @@ public class MainActivity extends AppCompatActivity {
         new Thread(checkTask).start();
     }
 
-    private int getAudioId(Bundle extras) {
-        String sound = extras.getString("sound", "chirp");
-        int id = R.raw.voices_48khz_s16pcm;
-        if (sound.toLowerCase(Locale.ROOT).equals("noise")) {
-            id = R.raw.noise_48k_300ms;
-        } else if (sound.toLowerCase(Locale.ROOT).equals("chirp")) {
-            id = R.raw.chirp_48k_300ms;
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mSpltText != null) {
+            Choreographer.getInstance().postFrameCallback(mSplFrameCallback);
         }
-        return id;
+    }
+
+    @Override
+    protected void onPause() {
+        Choreographer.getInstance().removeFrameCallback(mSplFrameCallback);
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // the playback tracks are kept between sounds
+        mAudioPlayer.release();
+        super.onDestroy();
+    }
+
+    void showSpl() {
+        if (mAudioRecorder == null) {
+            return;
+        }
+        SplStats spl = mAudioRecorder.getLatestSpl();
+        if (spl == null || spl.sequence == mShownSplSequence) {
+            return;
+        }
+        mShownSplSequence = spl.sequence;
+        StringBuilder text = mSplTextBuilder;
+        text.setLength(0);
+        text.append("Peak ");
+        appendDb(text, spl.currentPeak).append(" (");
+        appendDb(text, spl.maxPeak).append(" / ");
+        appendDb(text, spl.minPeak).append(")\nRMS ");
+        appendDb(text, spl.currentRMS).append(" (");
+        appendDb(text, spl.maxRMS).append(" / ");
+        appendDb(text, spl.minRMS).append(")");
+        if (!Double.isNaN(spl.weightedFast)) {
+            // e.g. "LAF   52 dB SPL (LAS   51 dB SPL)"
+            String unit = spl.calibrated ? " SPL" : "FS";
+            text.append("\nL").append(spl.weighting).append("F ");
+            appendDb(text, spl.weightedFast).append(unit).append(" (L").append(spl.weighting).append("S ");
+            appendDb(text, spl.weightedSlow).append(unit).append(")\nL").append(spl.weighting).append("eq ");
+            appendDb(text, spl.leq).append(unit).append(" (L10 ");
+            appendDb(text, spl.l10).append(" / L90 ");
+            appendDb(text, spl.l90).append(")");
+        }
+        if (spl.channelRMS.length > 1) {
+            for (int ch = 0; ch < spl.channelRMS.length; ch++) {
+                text.append("\nch").append(ch).append(' ');
+                appendDb(text, spl.channelRMS[ch]);
+            }
+        }
+        mSpltText.setText(text);
+    }
+
+    // same as "%4d dB" without going through a Formatter
+    static StringBuilder appendDb(StringBuilder text, double value) {
+        int db = (int) value;
+        int digits = (db <= 0) ? 1 : 0;
+        for (int rest = db; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < 4; i++) {
+            text.append(' ');
+        }
+        return text.append(db).append(" dB");
+    }
+
+    private int getAudioId(Bundle extras) {
+        return Player.getSoundId(extras.getString("sound", "chirp"));
     }
 
     @Override
@@ -572,6 +989,9 @@ public class MainActivity extends AppCompatActivity {
         Runnable checkTask = () -> {
             if (mAudioRecorder == null) {
                 mAudioRecorder = new Recorder(this);
+                mAudioRecorder.setAudioEffects(mAudioEffects);
+                mAudioRecorder.setSplWeighting(mSplWeighting);
+                mAudioRecorder.setSplCalibration(mSplCalibrationDb);
                 mAudioRecorder.addStatsListener(new Recorder.RecordStatsUpdateListener() {
                     @Override
                     public void InputTextUpdated(String text) {
@@ -582,18 +1002,6 @@ public class MainActivity extends AppCompatActivity {
                             }
                         });
                     }
-
-                    @Override
-                    public void InputSplUpdated(double maxPeak, double maxRMS, double minPeak, double minRMS, double currentPeak, double currentRMS) {
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                String text = String.format(Locale.ROOT, "Peak %4d dB (%4d dB / %4d dB)\nRMS %4d dB (%4d dB / %4d dB)",
-                                        (int)currentPeak, (int)maxPeak, (int)minPeak, (int)currentRMS, (int)maxRMS, (int)minRMS);
-                                mSpltText.setText(text);
-                            }
-                        });
-                    }
                 });
             }
             Log.d(TAG, "start recorder, record to file: " + mRecordCheck.isChecked());
@@ -0,0 +1,206 @@
+package com.facebook.micapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * WAV writer for long captures, writing through memory mapped windows.
+ *
+ * The file is grown in large extents and pcm is copied into a mapped window
+ * that slides forward through the file. A background thread maps the next
+ * window ahead of time and syncs filled windows to storage on a fixed
+ * cadence, so the writing thread only ever does memory copies. The file is
+ * truncated to the data actually written on close, and the header is
+ * finished the same way as by WavWriter.
+ */
+public class MappedWavWriter implements AudioSink {
+    static final long EXTENT_SIZE = 64L * 1024 * 1024;
+    static final int WINDOW_SIZE = 8 * 1024 * 1024;
+    static final long SYNC_INTERVAL_MS = 1000;
+
+    static class Window {
+        final long mStart;
+        final MappedByteBuffer mBuffer;
+
+        Window(long start, MappedByteBuffer buffer) {
+            mStart = start;
+            mBuffer = buffer;
+        }
+    }
+
+    final RandomAccessFile mFile;
+    final FileChannel mChannel;
+    final int mBlockAlign;
+    final long mDataOffset;
+    final Map<String, String> mInfo = new LinkedHashMap<>();
+    final ScheduledExecutorService mBackground = Executors.newSingleThreadScheduledExecutor();
+    // windows that are full but not yet synced
+    final ConcurrentLinkedQueue<MappedByteBuffer> mRetired = new ConcurrentLinkedQueue<>();
+    final AtomicReference<Window> mNextWindow = new AtomicReference<>();
+    volatile Window mWindow;
+    volatile long mAllocated = 0;
+    volatile IOException mError = null;
+    long mDataSize = 0;
+    // windows the writing thread had to map itself because the next one was not ready
+    long mInlineMaps = 0;
+    boolean mClosed = false;
+
+    public MappedWavWriter(File file, int sampleRate, int channels, int bitsPerSample) throws IOException {
+        this(file, sampleRate, channels, bitsPerSample, false);
+    }
+
+    public MappedWavWriter(File file, int sampleRate, CaptureFormat format) throws IOException {
+        this(file, sampleRate, format.channels, format.getBitsPerSample(), format.isFloat());
+    }
+
+    public MappedWavWriter(File file, int sampleRate, int channels, int bitsPerSample, boolean isFloat) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mBlockAlign = channels * (bitsPerSample / 8);
+        mChannel.write(WavWriter.createHeader(sampleRate, channels, bitsPerSample, isFloat), 0);
+        mDataOffset = mChannel.size();
+        mWindow = map(mDataOffset);
+        mBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                prepareNextWindow();
+            }
+        });
+        mBackground.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void setInfo(String id, String value) {
+        if (id.length() != 4) {
+            throw new IllegalArgumentException("Info id must be four characters: " + id);
+        }
+        mInfo.put(id, value);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (mError != null) {
+            throw mError;
+        }
+        mDataSize += length;
+        while (length > 0) {
+            MappedByteBuffer buffer = mWindow.mBuffer;
+            if (!buffer.hasRemaining()) {
+                nextWindow();
+                buffer = mWindow.mBuffer;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    public long getInlineMaps() {
+        return mInlineMaps;
+    }
+
+    void nextWindow() throws IOException {
+        Window current = mWindow;
+        mRetired.add(current.mBuffer);
+        long start = current.mStart + WINDOW_SIZE;
+        Window next = mNextWindow.getAndSet(null);
+        if (next == null || next.mStart != start) {
+            mInlineMaps++;
+            next = map(start);
+        }
+        mWindow = next;
+        mBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                prepareNextWindow();
+            }
+        });
+    }
+
+    // background thread
+    void prepareNextWindow() {
+        try {
+            long start = mWindow.mStart + WINDOW_SIZE;
+            mNextWindow.set(map(start));
+        } catch (IOException e) {
+            mError = e;
+        }
+    }
+
+    // background thread
+    void sync() {
+        MappedByteBuffer retired;
+        while ((retired = mRetired.poll()) != null) {
+            retired.force();
+        }
+        mWindow.mBuffer.force();
+    }
+
+    Window map(long start) throws IOException {
+        long end = start + WINDOW_SIZE;
+        synchronized (this) {
+            if (end > mAllocated) {
+                // reserve a whole extent at a time
+                long allocated = ((end + EXTENT_SIZE - 1) / EXTENT_SIZE) * EXTENT_SIZE;
+                mFile.setLength(allocated);
+                mAllocated = allocated;
+            }
+        }
+        return new Window(start, mChannel.map(FileChannel.MapMode.READ_WRITE, start, WINDOW_SIZE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            mBackground.shutdown();
+            try {
+                mBackground.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            sync();
+            long end = mDataOffset + mDataSize;
+            mFile.setLength(end);
+            if ((mDataSize & 1) != 0) {
+                // chunks are word aligned
+                mChannel.write(ByteBuffer.wrap(new byte[1]), end);
+                end += 1;
+            }
+            synchronized (this) {
+                if (!mInfo.isEmpty()) {
+                    end += mChannel.write(WavWriter.createInfo(mInfo), end);
+                }
+            }
+            WavWriter.patchHeader(mChannel, end, mDataSize, mDataOffset, mBlockAlign, WavWriter.MAX_RIFF_SIZE);
+        } finally {
+            mChannel.close();
+            mFile.close();
+        }
+    }
+}
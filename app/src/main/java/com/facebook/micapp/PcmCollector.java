@@ -0,0 +1,71 @@
+package com.facebook.micapp;
+
+/**
+ * Keeps the most recent captured frames of one channel in memory, as floats.
+ *
+ * Frames are numbered from the first frame the collector received, which
+ * is frame 0 of the capture when it is added before the capture starts.
+ * Other threads can wait for a frame to arrive and copy any range that is
+ * still held.
+ */
+public class PcmCollector implements CaptureConsumer {
+    final CaptureFormat mFormat;
+    final int mChannel;
+    final float[] mFrames;
+    final float[] mConverted;
+    long mFrameCount = 0;
+
+    public PcmCollector(CaptureFormat format, int channel, int capacityFrames) {
+        mFormat = format;
+        mChannel = channel;
+        mFrames = new float[capacityFrames];
+        mConverted = new float[format.channels];
+    }
+
+    @Override
+    public synchronized void onCaptureData(byte[] data, int offset, int length) {
+        int frameSize = mFormat.getFrameSize();
+        for (int end = offset + length; offset + frameSize <= end; offset += frameSize) {
+            mFormat.toFloats(data, offset, mConverted, mConverted.length);
+            mFrames[(int) (mFrameCount % mFrames.length)] = mConverted[mChannel];
+            mFrameCount++;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public void onCaptureStopped() {
+    }
+
+    public synchronized long getFrames() {
+        return mFrameCount;
+    }
+
+    /**
+     * Waits until frame has been collected, false on timeout.
+     */
+    public synchronized boolean awaitFrame(long frame, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mFrameCount <= frame) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        return true;
+    }
+
+    /**
+     * Copies length frames starting at frame, false if they are not all held.
+     */
+    public synchronized boolean copy(long frame, float[] dst, int length) {
+        if (frame < mFrameCount - mFrames.length || frame + length > mFrameCount) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            dst[i] = mFrames[(int) ((frame + i) % mFrames.length)];
+        }
+        return true;
+    }
+}
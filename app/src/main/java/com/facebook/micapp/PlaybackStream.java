@@ -0,0 +1,208 @@
+package com.facebook.micapp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One long lived AudioOutput and the thread writing to it.
+ *
+ * The output is started once and kept running between sounds, so a sound
+ * starts as soon as the thread picks it up instead of after the setup of a
+ * new track. Sounds are played one after the other in the order they were
+ * queued, written straight from their pcm arrays without copying. A looped
+ * sound wraps around inside the same write loop, so it repeats without a
+ * gap until it is stopped.
+ *
+ * The queue, the current sound and the running state change together
+ * under the lock of the stream, so a sound is either rejected, stopped by
+ * stopSounds() or played, never lost in between.
+ */
+public class PlaybackStream implements Runnable {
+    // upper bound on the wait for a sound, to notice release()
+    static final long WAIT_TIMEOUT_MS = 100;
+
+    /**
+     * One queued sound. getFirstWrite() completes with the System.nanoTime()
+     * taken just before its first sample was written to the output, once
+     * that write returned, and getDone() once it is played or stopped.
+     */
+    public static class Playback {
+        final byte[] mPcm;
+        final boolean mLoop;
+        final CompletableFuture<Long> mFirstWrite = new CompletableFuture<>();
+        final CompletableFuture<Void> mDone = new CompletableFuture<>();
+        volatile boolean mStopped = false;
+
+        Playback(byte[] pcm, boolean loop) {
+            mPcm = pcm;
+            mLoop = loop;
+        }
+
+        public CompletableFuture<Long> getFirstWrite() {
+            return mFirstWrite;
+        }
+
+        public CompletableFuture<Void> getDone() {
+            return mDone;
+        }
+
+        public void stop() {
+            mStopped = true;
+        }
+
+        void finish(Throwable cause) {
+            if (cause != null) {
+                mFirstWrite.completeExceptionally(cause);
+                mDone.completeExceptionally(cause);
+            } else {
+                mFirstWrite.completeExceptionally(new IllegalStateException("Stopped before the first write"));
+                mDone.complete(null);
+            }
+        }
+    }
+
+    final AudioOutput mOutput;
+    final int mChunkBytes;
+    final String mName;
+    // guarded by this
+    final ArrayDeque<Playback> mQueue = new ArrayDeque<>();
+    volatile Playback mCurrent = null;
+    volatile boolean mRunning = false;
+    Thread mThread = null;
+
+    // chunkBytes is the most written to the output at once, e.g. its buffer size
+    public PlaybackStream(AudioOutput output, int chunkBytes, String name) {
+        mOutput = output;
+        mChunkBytes = chunkBytes;
+        mName = name;
+    }
+
+    public void start() {
+        mRunning = true;
+        mThread = new Thread(this, mName);
+        mThread.start();
+    }
+
+    /**
+     * Queues 16-bit pcm at the rate of the output, to be played once or
+     * looped until stopped.
+     */
+    public Playback play(byte[] pcm, boolean loop) {
+        Playback playback = new Playback(pcm, loop);
+        synchronized (this) {
+            if (mRunning) {
+                mQueue.add(playback);
+                notifyAll();
+                return playback;
+            }
+        }
+        playback.finish(new IllegalStateException(mName + " is not running"));
+        return playback;
+    }
+
+    // stops the current sound and drops the queued ones
+    public void stopSounds() {
+        ArrayList<Playback> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<>(mQueue);
+            mQueue.clear();
+            Playback current = mCurrent;
+            if (current != null) {
+                current.stop();
+            }
+        }
+        // outside the lock, the futures may run callbacks
+        for (Playback playback : dropped) {
+            playback.finish(null);
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        return mCurrent != null || !mQueue.isEmpty();
+    }
+
+    // the next sound, now current, null once released
+    synchronized Playback next() throws InterruptedException {
+        while (mRunning) {
+            Playback playback = mQueue.poll();
+            if (playback != null) {
+                mCurrent = playback;
+                return playback;
+            }
+            wait(WAIT_TIMEOUT_MS);
+        }
+        return null;
+    }
+
+    @Override
+    public void run() {
+        mOutput.play();
+        try {
+            while (true) {
+                Playback playback;
+                try {
+                    playback = next();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (playback == null) {
+                    break;
+                }
+                IOException error = write(playback);
+                // not playing anymore once done completes
+                mCurrent = null;
+                playback.finish(error);
+            }
+        } finally {
+            stopSounds();
+            mOutput.stop();
+            mOutput.release();
+        }
+    }
+
+    // the error that ended the playback, null if played or stopped
+    IOException write(Playback playback) {
+        final byte[] pcm = playback.mPcm;
+        int position = 0;
+        while (mRunning && !playback.mStopped && pcm.length > 0) {
+            long writeTimeNs = System.nanoTime();
+            int written = mOutput.write(pcm, position, Math.min(mChunkBytes, pcm.length - position));
+            if (written <= 0) {
+                return new IOException("Failed to write to " + mName + ": " + written);
+            }
+            if (!playback.mFirstWrite.isDone()) {
+                playback.mFirstWrite.complete(writeTimeNs);
+            }
+            position += written;
+            if (position >= pcm.length) {
+                if (!playback.mLoop) {
+                    break;
+                }
+                position = 0;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the sounds, the thread and releases the output once the thread
+     * is done.
+     */
+    public void release() {
+        synchronized (this) {
+            mRunning = false;
+            notifyAll();
+        }
+        stopSounds();
+        if (mThread == null) {
+            return;
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -3,105 +3,162 @@ package com.facebook.micapp;
 import android.content.Context;
 import android.media.AudioAttributes;
 import android.media.AudioDeviceInfo;
-import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioTrack;
 import android.util.Log;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Plays the raw 48 kHz 16-bit mono resources.
+ *
+ * The decoded resources are kept in a SoundCache and every usage and
+ * content type combination gets its own PlaybackStream, created at the
+ * first sound and kept until release(), so only the first sound of a
+ * stream waits for the track setup.
+ */
 public class Player {
     final static String TAG = "micapp.play";
+    final static int SAMPLE_RATE = 48000;
 
-    AudioTrack mPlayer = null;
-    byte[] mSound = null;
-    Context mContext;
-    private boolean mIsPlaying = false;
+    final Context mContext;
+    final SoundCache mCache;
+    // by usage and content type
+    final HashMap<Long, PlaybackStream> mStreams = new HashMap<>();
+    // written instead of played when set
+    File mOutputFile = null;
 
     public Player(Context context) {
         mContext = context;
+        mCache = new SoundCache(new SoundCache.Loader() {
+            @Override
+            public byte[] load(int id) throws IOException {
+                return Utils.readRawResource(mContext, id);
+            }
+        });
+    }
+
+    // noise, chirp, anything else is the voices
+    static int getSoundId(String sound) {
+        int id = R.raw.voices_48khz_s16pcm;
+        if (sound.toLowerCase(Locale.ROOT).equals("noise")) {
+            id = R.raw.noise_48k_300ms;
+        } else if (sound.toLowerCase(Locale.ROOT).equals("chirp")) {
+            id = R.raw.chirp_48k_300ms;
+        }
+        return id;
     }
 
     void playSound() {
         playSound(R.raw.voices_48khz_s16pcm,  AudioAttributes.USAGE_VOICE_COMMUNICATION, AudioAttributes.CONTENT_TYPE_SPEECH);
     }
 
-    void playSound(int soundId, int usage, int type) {
-        int samplerate = 48000;
-        int buffersize = AudioTrack.getMinBufferSize(
-                samplerate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
-        if (mSound == null) {
-            InputStream is = mContext.getResources().openRawResource(soundId);
-            int size;
-            int read = 0;
-            try {
-                size = is.available();
-                mSound = new byte[size];
-                read = is.read(mSound);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Plays a raw 48 kHz 16-bit mono resource once, after the sounds
+     * already queued with the same usage and content type. The future
+     * completes with the System.nanoTime() taken just before the first
+     * sample was written to the track, once that write returned.
+     */
+    CompletableFuture<Long> playSound(int soundId, int usage, int type) {
+        return play(soundId, usage, type, false).getFirstWrite();
+    }
+
+    /**
+     * Plays a raw resource over and over without gaps until
+     * stopSounds(), or until stop() on the returned playback.
+     */
+    public PlaybackStream.Playback loopSound(int soundId, int usage, int type) {
+        return play(soundId, usage, type, true);
+    }
+
+    PlaybackStream.Playback play(int soundId, int usage, int type, boolean loop) {
+        byte[] sound;
+        PlaybackStream stream;
+        try {
+            sound = mCache.get(soundId);
+            stream = getStream(usage, type);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to play " + soundId + ": " + e.getMessage());
+            PlaybackStream.Playback failed = new PlaybackStream.Playback(new byte[0], false);
+            failed.finish(e);
+            return failed;
         }
-        Thread t = new Thread(new Runnable() {
-            @Override
-            public void run() {
-
-                final AudioTrack player =
-                        new AudioTrack.Builder()
-                                .setAudioAttributes(new AudioAttributes.Builder()
-                                        .setUsage(usage)
-                                        .setContentType(type)
-                                        .build())
-                                .setAudioFormat(new AudioFormat.Builder()
-                                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
-                                        .setSampleRate(samplerate)
-                                        .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
-                                        .build())
-                                .setTransferMode(AudioTrack.MODE_STREAM)
-                                .setBufferSizeInBytes(buffersize)
-                                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
-                                .build();
-                //Speaker playback
-                setPreferredDevice();
-
-                int played = 0;
-                mIsPlaying = true;
-                player.play();
-
-                int contentType = -1;
-                AudioAttributes ats = null;
-                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-                    ats = player.getAudioAttributes();
-
-                    contentType = ats.getContentType();
-
-                    int usage = ats.getUsage();
-                    int flags = ats.getFlags();
-                    Log.d(TAG, "Player:\nusage: " + usage + "\nContent type = " + contentType + "\nflags: " + flags);
-                }
-
-
-                while (played < mSound.length) {
-                    int written = player.write(mSound, played, buffersize);
-                    if (written > 0) {
-                        played += written;
-                    } else {
-                        Log.d(TAG, "Failed to write to player: " + written);
-                        break;
-                    }
-                }
-                mIsPlaying = false;
-                player.release();
-            }
-        });
-        t.start();
+        return stream.play(sound, loop);
+    }
 
+    synchronized PlaybackStream getStream(int usage, int type) throws IOException {
+        long key = ((long) usage << 32) | type;
+        PlaybackStream stream = mStreams.get(key);
+        if (stream == null) {
+            int buffersize = AudioTrackOutput.getMinBufferSize(SAMPLE_RATE);
+            stream = new PlaybackStream(createOutput(SAMPLE_RATE, buffersize, usage, type, mStreams.isEmpty()), buffersize,
+                    "micapp.play");
+            //Speaker playback
+            setPreferredDevice();
+            stream.start();
+            mStreams.put(key, stream);
+        }
+        return stream;
+    }
+
+    AudioOutput createOutput(int sampleRate, int bufferSize, int usage, int type, boolean first)
+            throws IOException {
+        if (mOutputFile != null) {
+            File file = first ? mOutputFile : getOutputFile(mOutputFile, usage, type);
+            Log.d(TAG, "Playing usage " + usage + ", content type " + type + " to " + file);
+            return new FileOutput(file, sampleRate, true);
+        }
+        return new AudioTrackOutput(sampleRate, bufferSize, usage, type);
+    }
+
+    // e.g. play.wav -> play.usage_2.type_1.wav
+    static File getOutputFile(File file, int usage, int type) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = (dot > 0) ? name.substring(0, dot) : name;
+        String extension = (dot > 0) ? name.substring(dot) : "";
+        return new File(file.getParentFile(), base + ".usage_" + usage + ".type_" + type + extension);
+    }
 
+    /**
+     * Writes what would be played to file, in real time, instead of playing
+     * it, null to play again. The file holds everything played until the
+     * next release() by the first stream, the streams of other usages and
+     * content types write their own file next to it.
+     */
+    public synchronized void setOutputFile(File file) {
+        release();
+        mOutputFile = file;
     }
 
-    public boolean isPlaying() {
-      return  mIsPlaying;
+    // stops the sounds of every stream
+    public synchronized void stopSounds() {
+        for (PlaybackStream stream : mStreams.values()) {
+            stream.stopSounds();
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        for (PlaybackStream stream : mStreams.values()) {
+            if (stream.isPlaying()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the sounds and releases the tracks, the next sound sets up a
+     * new one. The cached sounds are kept.
+     */
+    public synchronized void release() {
+        for (PlaybackStream stream : mStreams.values()) {
+            stream.release();
+        }
+        mStreams.clear();
     }
 
     private void setPreferredDevice() {
@@ -0,0 +1,81 @@
+package com.facebook.micapp;
+
+import com.facebook.micapp.analysis.Fft;
+
+/**
+ * FFT of real input of a fixed power of two size.
+ *
+ * The N real samples are packed into N/2 complex values, transformed with
+ * an N/2 point Fft and split into the N/2 + 1 bins of the real spectrum,
+ * which takes about half the work of a complex transform of the same size.
+ * All buffers and twiddles are allocated in the constructor.
+ */
+public class RealFft {
+    final int mSize;
+    final Fft mFft;
+    final double[] mRe;
+    final double[] mIm;
+    final double[] mCos;
+    final double[] mSin;
+    final double[] mBinRe;
+    final double[] mBinIm;
+
+    public RealFft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        mSize = size;
+        mFft = new Fft(size / 2);
+        mRe = new double[size / 2];
+        mIm = new double[size / 2];
+        mCos = new double[size / 2 + 1];
+        mSin = new double[size / 2 + 1];
+        mBinRe = new double[size / 2 + 1];
+        mBinIm = new double[size / 2 + 1];
+        for (int k = 0; k <= size / 2; k++) {
+            mCos[k] = Math.cos(2 * Math.PI * k / size);
+            mSin[k] = Math.sin(2 * Math.PI * k / size);
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Bins 0 to size / 2 of the spectrum of input[0, size) into re and im.
+     */
+    public void transform(double[] input, double[] re, double[] im) {
+        int half = mSize / 2;
+        for (int n = 0; n < half; n++) {
+            mRe[n] = input[2 * n];
+            mIm[n] = input[2 * n + 1];
+        }
+        mFft.transform(mRe, mIm, false);
+        for (int k = 0; k <= half; k++) {
+            int i = k % half;
+            int m = (half - k) % half;
+            double a = mRe[i];
+            double b = mIm[i];
+            double c = mRe[m];
+            double d = mIm[m];
+            // even and odd sample spectra
+            double evenRe = (a + c) / 2;
+            double evenIm = (b - d) / 2;
+            double oddRe = (b + d) / 2;
+            double oddIm = -(a - c) / 2;
+            re[k] = evenRe + mCos[k] * oddRe + mSin[k] * oddIm;
+            im[k] = evenIm + mCos[k] * oddIm - mSin[k] * oddRe;
+        }
+    }
+
+    /**
+     * Squared magnitude of bins 0 to size / 2 of input[0, size) into power.
+     */
+    public void powerSpectrum(double[] input, double[] power) {
+        transform(input, mBinRe, mBinIm);
+        for (int k = 0; k <= mSize / 2; k++) {
+            power[k] = mBinRe[k] * mBinRe[k] + mBinIm[k] * mBinIm[k];
+        }
+    }
+}
@@ -9,16 +9,20 @@ import android.media.AudioRecord;
 import android.media.MicrophoneInfo;
 import android.util.Log;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.Writer;
 import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -27,7 +31,7 @@ public class Recorder {
     final static String TAG = "micapp.record";
     int mAudioSession = -1;
     Context mContext;
-    boolean mIsRunning = false;
+    volatile boolean mIsRunning = false;
     Thread mRecordThread = null;
     String mStatusText = "";
 
@@ -37,246 +41,742 @@ public class Recorder {
     double mMinPeakVal = 0;
     double mMinRMSVal = 0;
 
-    Vector<RecordStatsUpdateListener> mStatsListeners = new Vector<>();
+    final static int DEFAULT_CAPTURE_PERIOD_MS = 10;
+    // how long the blocking checkAndRecord()/stopRecording() wait
+    final static long START_TIMEOUT_MS = 2000;
+    final static long STOP_TIMEOUT_MS = 5000;
+    // capture file writers
+    final static int SINK_WAV = 0;
+    final static int SINK_MAPPED_WAV = 1;
+    final static int SINK_FLAC = 2;
+    // how far a consumer can fall behind before losing data
+    final static int RING_BUFFER_MS = 2000;
+    final static int FILE_CHUNK_PERIODS = 10;
+    // storage can stall for WRITER_BLOCKS * WRITER_BLOCK_MS on top of the ring buffer
+    final static int WRITER_BLOCK_MS = 500;
+    final static int WRITER_BLOCKS = 4;
+    // 0 means reading AudioRecord.getMinBufferSize() sized periods
+    int mCapturePeriodMs = DEFAULT_CAPTURE_PERIOD_MS;
+    Vector<CaptureConsumer> mCaptureConsumers = new Vector<>();
+    CaptureStats mCaptureStats = null;
+    boolean mWrongDevice = false;
+    volatile List<MicrophoneInfo> mActiveMicrophones = null;
+    int mSinkType = SINK_WAV;
+    CaptureFormat mCaptureFormat = CaptureFormat.getDefault();
+    AudioEffects mAudioEffects = null;
+
+    // creates the input instead of an AudioRecord, e.g. a SyntheticInput
+    InputFactory mInputFactory = null;
+
+    // set up by open() for capture()
+    AudioInput mInput = null;
+    AudioRingBuffer mRing = null;
+    ConsumerThread mConsumers = null;
+    byte[] mAudioData = null;
+    String mInputDevice = null;
+    String mFilename = null;
+    // capture files are <prefix><rate>Hz_<id>.wav, or .flac
+    String mFilePrefix = "capture_";
+    int mSampleRate = 0;
+    int mFrameSize = 0;
+    // completed with the audio session id at the first buffer, and once everything is closed
+    volatile CompletableFuture<Integer> mStarted = CompletableFuture.completedFuture(-1);
+    volatile CompletableFuture<Void> mFinished = CompletableFuture.completedFuture(null);
+
+    // level update interval and the window the levels are computed over
+    int mMeterIntervalMs = 100;
+    int mMeterWindowMs = 1000;
+    // spectrum of the first channel, averaged over each meter window, 0 disables it
+    final static int DEFAULT_FFT_SIZE = 4096;
+    int mFftSize = DEFAULT_FFT_SIZE;
+    int mFftWindow = SpectrumAnalyzer.WINDOW_HANN;
+    // zero runs, repeated buffers, discontinuities and clipping, see GlitchDetector
+    boolean mGlitchDetection = true;
+
+    // iterated on the capture threads without locking
+    CopyOnWriteArrayList<RecordStatsUpdateListener> mStatsListeners = new CopyOnWriteArrayList<>();
+    final AtomicReference<SplStats> mLatestSpl = new AtomicReference<>();
+    long mSplSequence = 0;
+    // weighted levels of the first channel, calibrated from the microphone sensitivity unless set
+    int mSplWeighting = SplMeter.WEIGHTING_A;
+    double mSplCalibrationDb = Double.NaN;
+    volatile SplMeter mSplMeter = null;
+    final AtomicReference<SpectrumStats> mLatestSpectrum = new AtomicReference<>();
+    volatile SpectrumStats mSessionSpectrum = null;
+
+    /**
+     * Creates the AudioInput of a capture session in place of the
+     * AudioRecord, e.g. a SyntheticInput.
+     */
+    public interface InputFactory {
+        public AudioInput create(int sampleRate, CaptureFormat format) throws IOException;
+    }
 
     public Recorder(Context context) {
         mContext = context;
     }
 
-    int checkAndRecord(int audioInputSource, String inputDevice, int sampleRate, boolean record) {
-        resetSpl();
-        mIsRunning = true;
+    /**
+     * Opens the input and starts capturing on a new thread. The future
+     * completes with the audio session id when the first buffer has been
+     * read, or with the reason the capture could not start.
+     */
+    public CompletableFuture<Integer> start(int audioInputSource, String inputDevice, int sampleRate, boolean record) {
+        if (!open(audioInputSource, inputDevice, sampleRate, record)) {
+            return mStarted;
+        }
         mRecordThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
-                    Log.d(TAG, "Missing audio record permission");
-                    return;
-                }
-                Log.d(TAG, "Open audio using " + Utils.audioSourceToString(audioInputSource) + " source");
-                AudioRecord tmprec = null;
-                try {
-                    tmprec = new AudioRecord.Builder()
-                            .setAudioSource(audioInputSource)
-                            .setAudioFormat(new AudioFormat.Builder()
-                                    .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
-                                    .setSampleRate(sampleRate)
-                                    .setChannelMask(AudioFormat.CHANNEL_IN_MONO)
-                                    .build())
-                            .setBufferSizeInBytes(2 * AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT))
-                            .build();
-                } catch(Exception ex) {
-                    Log.e(TAG, "Failed to create recorder: " + ex.getMessage());
-                    mIsRunning = false;
-                    Log.e(TAG, "Exist the recording thread");
-                    return;
+                capture();
+            }
+        }, "micapp.record");
+        mRecordThread.start();
+        return mStarted;
+    }
+
+    /**
+     * Stops the capture. The future completes when the input, the capture
+     * file and the consumers are closed.
+     */
+    public CompletableFuture<Void> stop() {
+        requestStop();
+        return mFinished;
+    }
+
+    // completes at the first buffer of the current, or last, capture
+    public CompletableFuture<Integer> getStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Blocking start(), returns the audio session id or -1 if the capture
+     * did not start within START_TIMEOUT_MS.
+     */
+    int checkAndRecord(int audioInputSource, String inputDevice, int sampleRate, boolean record) {
+        CompletableFuture<Integer> started = start(audioInputSource, inputDevice, sampleRate, record);
+        try {
+            mAudioSession = started.get(START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to start recording: " + e.getCause().getMessage());
+            return -1;
+        } catch (TimeoutException e) {
+            Log.e(TAG, "No audio after " + START_TIMEOUT_MS + " ms");
+            stop();
+            return -1;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        Log.d(TAG, "Recorder started, as = " + mAudioSession);
+        return mAudioSession;
+    }
+
+    /**
+     * Opens the input, the capture file and the consumers without starting
+     * the capture, so several recorders can be started together with
+     * capture(). Returns false if nothing could be opened.
+     */
+    public boolean open(int audioInputSource, String inputDevice, int sampleRate, boolean record) {
+        resetSpl();
+        mIsRunning = true;
+        mWrongDevice = false;
+        mAudioSession = -1;
+        mCaptureStats = null;
+        mActiveMicrophones = null;
+        mSplMeter = null;
+        mLatestSpectrum.set(null);
+        mSessionSpectrum = null;
+        mStarted = new CompletableFuture<>();
+        mFinished = new CompletableFuture<>();
+        final CaptureFormat format = mCaptureFormat;
+        final int frameSize = format.getFrameSize();
+        if (mInputFactory != null) {
+            try {
+                mInput = mInputFactory.create(sampleRate, format);
+            } catch (Exception ex) {
+                Log.e(TAG, "Failed to create input: " + ex.getMessage());
+                fail(ex);
+                finish();
+                return false;
+            }
+            Log.d(TAG, "Open " + mInput + ", " + format);
+            return openConsumers(null, audioInputSource, inputDevice, sampleRate, record);
+        }
+        if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            Log.d(TAG, "Missing audio record permission");
+            fail(new SecurityException("Missing audio record permission"));
+            finish();
+            return false;
+        }
+        Log.d(TAG, "Open audio using " + Utils.audioSourceToString(audioInputSource) + " source, " + format);
+        AudioRecord recorder = null;
+        try {
+            AudioFormat.Builder formatBuilder = new AudioFormat.Builder()
+                    .setEncoding(format.encoding)
+                    .setSampleRate(sampleRate);
+            if (format.channelMask != 0) {
+                formatBuilder.setChannelMask(format.channelMask);
+            } else {
+                formatBuilder.setChannelIndexMask(format.channelIndexMask);
+            }
+            recorder = new AudioRecord.Builder()
+                    .setAudioSource(audioInputSource)
+                    .setAudioFormat(formatBuilder.build())
+                    .setBufferSizeInBytes(2 * getMinBufferFrames(sampleRate, format) * frameSize)
+                    .build();
+        } catch(Exception ex) {
+            Log.e(TAG, "Failed to create recorder: " + ex.getMessage());
+            fail(ex);
+            finish();
+            return false;
+        }
+        AudioDeviceInfo routed_ok = null;
+        if (!inputDevice.toLowerCase(Locale.ROOT).equals("default")) {
+            Log.d(TAG, "\n\n--------------- Check Audio ---------------------");
+            Log.d(TAG, "Look for "+inputDevice);
+            routed_ok = Utils.getMatchingAudioDeviceInfo(inputDevice, mContext);
+            recorder.setPreferredDevice(routed_ok);
+        }
+        mInput = new AudioRecordInput(recorder);
+        return openConsumers(routed_ok, audioInputSource, inputDevice, sampleRate, record);
+    }
+
+    // the ring buffer, the consumers and the capture file of the input opened by open()
+    boolean openConsumers(AudioDeviceInfo routed_ok, int audioInputSource, String inputDevice, int sampleRate,
+                          boolean record) {
+        final CaptureFormat format = mCaptureFormat;
+        final int frameSize = format.getFrameSize();
+        // read in small periods, consumers are fed through the ring buffer
+        int periodFrames = getPeriodFrames(sampleRate, format);
+        mAudioData = new byte[periodFrames * frameSize];
+        mRing = new AudioRingBuffer(sampleRate * RING_BUFFER_MS / 1000, frameSize);
+        final CaptureStats stats = new CaptureStats(sampleRate, periodFrames);
+        mCaptureStats = stats;
+        // one thread for all the consumers of the capture
+        mConsumers = new ConsumerThread("micapp.consumers");
+        SplMeter splMeter = new SplMeter(sampleRate, mSplWeighting);
+        splMeter.setCalibration(mSplCalibrationDb);
+        mSplMeter = splMeter;
+        mConsumers.add(new RingBufferConsumer(mRing,
+                new MeterConsumer(sampleRate, format, mAudioData.length, stats, splMeter),
+                mAudioData.length, "micapp.meter"));
+        if (mFftSize > 0) {
+            mConsumers.add(new RingBufferConsumer(mRing,
+                    new SpectrumConsumer(sampleRate, format, mAudioData.length, mFftSize, mFftWindow),
+                    mAudioData.length, "micapp.spectrum"));
+        }
+        Log.d(TAG, "Capture period: " + periodFrames + " frames");
+
+        AudioSink sink = null;
+        String filename = null;
+        if (record) {
+            // open the record file path
+            File[] externalStorageVolumes =
+                    ContextCompat.getExternalFilesDirs(mContext.getApplicationContext(), null);
+            File primaryExternalStorage = externalStorageVolumes[0];
+            AudioDeviceInfo info = routed_ok;
+            String id;
+            String product;
+            if (mInput instanceof AudioRecordInput) {
+                if (info == null) {
+                    // Need to make this funny move since it seems the routing is not done until
+                    // recording is started
+                    info = ((AudioRecordInput) mInput).getAudioRecord().getRoutedDevice();
                 }
-                final AudioRecord recorder = tmprec;
-                AudioDeviceInfo routed_ok = null;
-                if (!inputDevice.toLowerCase(Locale.ROOT).equals("default")) {
-                    Log.d(TAG, "\n\n--------------- Check Audio ---------------------");
-                    Log.d(TAG, "Look for "+inputDevice);
-                    routed_ok = Utils.getMatchingAudioDeviceInfo(inputDevice, mContext);
-                    recorder.setPreferredDevice(routed_ok);
+                id = Utils.clean(info.getProductName().toString() + "." +
+                                       Utils.audioDeviceTypeToString( info.getType())+ "." +
+                                       info.getId());
+                product = Utils.audioDeviceToString(info);
+            } else {
+                // one file per input of the session
+                id = Utils.clean("synthetic." + inputDevice);
+                product = mInput.toString();
+            }
+            filename = primaryExternalStorage + "/" + mFilePrefix + sampleRate + "Hz_" + id +
+                    getFileExtension(format);
+            Log.d(TAG, "Record to \"" + filename + "\"");
+            try {
+                // written on its own thread in blocks of WRITER_BLOCK_MS
+                sink = new AsyncSink(createSink(new File(filename), sampleRate, format),
+                        sampleRate * WRITER_BLOCK_MS / 1000 * frameSize, WRITER_BLOCKS, stats);
+                sink.setInfo("ISFT", "micapp");
+                sink.setInfo("IPRD", product);
+                sink.setInfo("ISRC", Utils.audioSourceToString(audioInputSource));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open file for recording ", e);
+                filename = null;
+            }
+        }
+        mFilename = filename;
+        if (sink != null) {
+            // write in larger chunks than we read
+            mConsumers.add(new RingBufferConsumer(mRing, new FileConsumer(sink, sampleRate, format, stats),
+                    FILE_CHUNK_PERIODS * mAudioData.length, "micapp.file"));
+        }
+        if (mGlitchDetection) {
+            GlitchConsumer glitches = new GlitchConsumer(sampleRate, format, mAudioData.length, periodFrames,
+                    stats.getFrameClock(), (filename != null) ? getGlitchFilename(filename) : null);
+            stats.setGlitchDetector(glitches.mDetector);
+            mConsumers.add(new RingBufferConsumer(mRing, glitches, mAudioData.length, "micapp.glitch"));
+        }
+        for (CaptureConsumer consumer : mCaptureConsumers) {
+            consumer.onCaptureStarted(sampleRate, format, stats.getFrameClock());
+            mConsumers.add(new RingBufferConsumer(mRing, consumer, mAudioData.length, "micapp.consumer"));
+        }
+        mConsumers.start();
+        mInputDevice = inputDevice;
+        mSampleRate = sampleRate;
+        mFrameSize = frameSize;
+        return true;
+    }
+
+    /**
+     * Starts the capture prepared by open() and reads until stopRecording(),
+     * on the calling thread. Everything opened is closed before it returns.
+     */
+    public void capture() {
+        final AudioInput input = mInput;
+        final CaptureStats stats = mCaptureStats;
+        try {
+            if (mIsRunning) {
+                Log.d(TAG, "Start Recording");
+                input.start();
+                if (input instanceof AudioRecordInput) {
+                    checkRouting(((AudioRecordInput) input).getAudioRecord());
                 }
-                int bufferSize = sampleRate;
-                final byte audioData[] = new byte[(int) (bufferSize * 2)];
-                short[] shorts = new short[(int) bufferSize];
-
-                BufferedOutputStream os = null;
-                String filename = null;
-                if (record) {
-                    // open the record file path
-                    File[] externalStorageVolumes =
-                            ContextCompat.getExternalFilesDirs(mContext.getApplicationContext(), null);
-                    File primaryExternalStorage = externalStorageVolumes[0];
-                    AudioDeviceInfo info = routed_ok;
-                    if (info == null) {
-                        // Need to make this funny move since it seems the routing is not done until
-                        // recording is started
-                        info = recorder.getRoutedDevice();
-                    }
-                    String id = Utils.clean(info.getProductName().toString() + "." +
-                                                  Utils.audioDeviceTypeToString( info.getType())+ "." +
-                                                  info.getId());
-                    filename = primaryExternalStorage + "/capture_" + sampleRate + "Hz_" + id + ".raw";
-                    Log.d(TAG, "Record to \"" + filename + "\"");
-                    try {
-                        os = new BufferedOutputStream(new FileOutputStream(filename));
-                    } catch (FileNotFoundException e) {
-                        Log.e(TAG, "File not found for recording ", e);
-                        // TODO: how to break
-                    }
-                    final BufferedOutputStream fos = os;
+                mAudioSession = input.getAudioSessionId();
+                readLoop(input, stats);
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        } finally {
+            try {
+                close(input, stats);
+            } finally {
+                finish();
+            }
+        }
+    }
+
+    void close(AudioInput input, CaptureStats stats) {
+        input.stop();
+        input.release();
+        mInput = null;
+        mIsRunning = false;
+        // let the consumers finish what was captured
+        mConsumers.stop();
+        for (RingBufferConsumer consumer : mConsumers.getConsumers()) {
+            stats.addConsumer(consumer.getName(), consumer.getLostBytes());
+            if (consumer.getLostBytes() > 0) {
+                Log.e(TAG, consumer.getName() + " lost " + consumer.getLostBytes() + " bytes");
+            }
+        }
+        if (!stats.isHealthy()) {
+            Log.e(TAG, "Capture is not healthy:\n" + stats.toString(0));
+        }
+        if (mFilename != null && mWrongDevice) {
+            (new File(mFilename)).delete();
+            (new File(getGlitchFilename(mFilename))).delete();
+        } else if (mFilename != null) {
+            writeCaptureStats(mFilename, stats);
+        }
+        for (RecordStatsUpdateListener listener : mStatsListeners) {
+            listener.CaptureStatsUpdated(stats);
+        }
+    }
+
+    // reports the active microphones, stops the capture if routed to the wrong device
+    void checkRouting(AudioRecord recorder) {
+        StringBuilder strBuilder = new StringBuilder();
+        if (mFilename != null) {
+            strBuilder.append("Recording to: \"" + mFilename);
+            strBuilder.append("\n------------\n\n");
+        }
+        try {
+            List<MicrophoneInfo> minfo = recorder.getActiveMicrophones();
+            mActiveMicrophones = minfo;
+            if (Double.isNaN(mSplCalibrationDb) && !minfo.isEmpty()) {
+                mSplMeter.setCalibration(SplMeter.calibrationFromSensitivity(minfo.get(0).getSensitivity()));
+            }
+            strBuilder.append("Microphone info:\n");
+            strBuilder.append("\n--\n");
+            for (MicrophoneInfo mic : minfo) {
+                Log.d(TAG, "Input: " + recorder.getRoutedDevice().getProductName());
+                Log.d(TAG, "Address: " + mic.getAddress());
+                Log.d(TAG, "Desc: " + mic.getDescription());
+                Log.d(TAG, "Direc: " + mic.getDirectionality());
+                Log.d(TAG, "Sens: " + mic.getSensitivity());
+                strBuilder.append("Path:" + mic.getAddress());
+                strBuilder.append("\nDesc:" + mic.getDescription());
+                strBuilder.append("\nDirectiviy:" + Utils.microphoneInfoDirectionalityToString(mic.getDirectionality()));
+                strBuilder.append("\nSensitivity:" + mic.getSensitivity());
+                strBuilder.append("\nMax spl:" + mic.getMaxSpl());
+                strBuilder.append("\nMin spl:" + mic.getMaxSpl());
+                strBuilder.append("\n------------\n\n");
+
+
+            }
+            final String text = strBuilder.toString();
+            mStatusText = text;
+            for (RecordStatsUpdateListener listener : mStatsListeners) {
+                listener.InputTextUpdated(mStatusText);
+            }
+
+            AudioDeviceInfo audioDeviceInfo  = recorder.getRoutedDevice();
+            String descr = Utils.audioDeviceToString(audioDeviceInfo);
+            if (!mInputDevice.equals("default") && descr.equals(mInputDevice)) {
+                Log.d(TAG, "Preferred device succesfully activated");
+            } else if (!mInputDevice.equals("default")) {
+                Log.d(TAG, "Wrong device is running!");
+                Log.d(TAG, "Wanted: \"" + mInputDevice + "\"");
+                Log.d(TAG, "Routed: \"" + descr + "\"");
+                mIsRunning = false;
+                mWrongDevice = true;
+                fail(new IOException("Routed to \"" + descr + "\" instead of \"" + mInputDevice + "\""));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void readLoop(AudioInput input, CaptureStats stats) {
+        final CaptureReader reader = new CaptureReader(input, mRing, stats, mAudioData, mFrameSize, mSampleRate);
+        while (mIsRunning) {
+            if (!input.isRecording()) {
+                Log.e(TAG, "No recording");
+                fail(new IllegalStateException("Recording failed"));
+                for (RecordStatsUpdateListener listener : mStatsListeners) {
+                    listener.InputTextUpdated("Recording failed");
                 }
-                final String filerecPath = filename;
-                final BufferedOutputStream fos = os;
-                Thread rec = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(TAG, "Start Recording");
-                        recorder.startRecording();
-
-                        List<MicrophoneInfo> minfo = null;
-                        StringBuilder strBuilder = new StringBuilder();
-                        if (filerecPath != null) {
-                            strBuilder.append("Recording to: \"" + filerecPath);
-                            strBuilder.append("\n------------\n\n");
-                        }
-                        try {
-                            minfo = recorder.getActiveMicrophones();
-                            strBuilder.append("Microphone info:\n");
-                            strBuilder.append("\n--\n");
-                            for (MicrophoneInfo mic : minfo) {
-                                Log.d(TAG, "Input: " + recorder.getRoutedDevice().getProductName());
-                                Log.d(TAG, "Address: " + mic.getAddress());
-                                Log.d(TAG, "Desc: " + mic.getDescription());
-                                Log.d(TAG, "Direc: " + mic.getDirectionality());
-                                Log.d(TAG, "Sens: " + mic.getSensitivity());
-                                strBuilder.append("Path:" + mic.getAddress());
-                                strBuilder.append("\nDesc:" + mic.getDescription());
-                                strBuilder.append("\nDirectiviy:" + Utils.microphoneInfoDirectionalityToString(mic.getDirectionality()));
-                                strBuilder.append("\nSensitivity:" + mic.getSensitivity());
-                                strBuilder.append("\nMax spl:" + mic.getMaxSpl());
-                                strBuilder.append("\nMin spl:" + mic.getMaxSpl());
-                                strBuilder.append("\n------------\n\n");
+                break;
+            }
+            int frames = reader.read();
+            if (frames < 0) {
+                Log.e(TAG, "Read failed: " + frames);
+                fail(new IOException("Read failed: " + frames));
+                break;
+            }
+            if (frames > 0 && !mStarted.isDone()) {
+                mStarted.complete(mAudioSession);
+            }
+        }
+    }
 
+    // the capture could not start or stopped on an error, a no-op once started
+    void fail(Throwable cause) {
+        mStarted.completeExceptionally(cause);
+    }
 
-                            }
-                            final String text = strBuilder.toString();
-                            mStatusText = text;
-                            for (RecordStatsUpdateListener listener : mStatsListeners) {
-                                listener.InputTextUpdated(mStatusText);
-                            }
+    // nothing more will happen in this session
+    void finish() {
+        mIsRunning = false;
+        fail(new IllegalStateException("Stopped before the first buffer"));
+        mFinished.complete(null);
+    }
 
-                            AudioDeviceInfo audioDeviceInfo  = recorder.getRoutedDevice();
-                            String descr = Utils.audioDeviceToString(audioDeviceInfo);
-                            if (!inputDevice.equals("default") && descr.equals(inputDevice)) {
-                                Log.d(TAG, "Preferred device succesfully activated");
-                            } else if (!inputDevice.equals("default")) {
-                                Log.d(TAG, "Wrong device is running!");
-                                Log.d(TAG, "Wanted: \"" + inputDevice + "\"");
-                                Log.d(TAG, "Routed: \"" + descr + "\"");
-                                mIsRunning = false;
-                                recorder.stop();
-                                fos.close();
-                                (new File(filerecPath)).delete();
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+    // stops the capture without waiting for it to end
+    void requestStop() {
+        mIsRunning = false;
+    }
 
-                        mAudioSession = recorder.getAudioSessionId();
-                        while (mIsRunning) {
-                            if (recorder.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
-                                Log.e(TAG, "No recording");
-                                for (RecordStatsUpdateListener listener : mStatsListeners) {
-                                    listener.InputTextUpdated("Recording failed");
-                                }
-                                break;
-                            }
-                            int read_bytes = recorder.read(audioData, 0, audioData.length);
-                            ByteBuffer.wrap(audioData).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(shorts);
-                            double sum = 0;
-                            double max = 0;
-                            double min = 65000;
-                            for (int i = 0; i < shorts.length; i++) {
-                                double norm = shorts[i] / Math.pow(2, 15);
-                                sum += norm * norm;
-                                if (norm > max) {
-                                    max = norm;
-                                }
-                                if (norm < min) {
-                                    min = norm;
-                                }
-                            }
-                            double val = sum / (double) shorts.length;
-                            double nval = val;
-                            final double dB = Math.round(Utils.floatToDB(Math.sqrt(nval)));
-                            final double peak_dB = Math.round(Utils.floatToDB(max));
+    /**
+     * Blocking stop(), waits at most STOP_TIMEOUT_MS.
+     */
+    public void stopRecording() {
+        try {
+            stop().get(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Failed to stop recording", e);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
 
-                            if (dB < mMinRMSVal) {
-                                mMinRMSVal = dB;
-                            }
-                            if (dB > mMaxRMSVal) {
-                                mMaxRMSVal = dB;
-                            }
+    void updateSpl(double peak_dB, double dB, double[] channelPeak, double[] channelRMS, SplMeter meter) {
+        if (dB < mMinRMSVal) {
+            mMinRMSVal = dB;
+        }
+        if (dB > mMaxRMSVal) {
+            mMaxRMSVal = dB;
+        }
 
-                            if (peak_dB < mMinPeakVal) {
-                                mMinPeakVal = peak_dB;
-                            }
-                            if (peak_dB > mMaxPeakVal) {
-                                mMaxPeakVal = peak_dB;
-                            }
+        if (peak_dB < mMinPeakVal) {
+            mMinPeakVal = peak_dB;
+        }
+        if (peak_dB > mMaxPeakVal) {
+            mMaxPeakVal = peak_dB;
+        }
 
+        publishSpl(peak_dB, dB, channelPeak, channelRMS, meter);
+    }
 
-                            for (RecordStatsUpdateListener listener : mStatsListeners) {
-                                listener.InputSplUpdated(mMaxPeakVal, mMaxRMSVal, mMinPeakVal, mMinRMSVal, peak_dB, dB);
-                            }
-                            if (fos != null) {
-                                try {
-                                    fos.write(audioData, 0, read_bytes);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                        }
-                    }
-                });
+    void publishSpl(double peak_dB, double dB, double[] channelPeak, double[] channelRMS, SplMeter meter) {
+        SplStats stats;
+        if (meter != null) {
+            stats = new SplStats(++mSplSequence, mMaxPeakVal, mMaxRMSVal, mMinPeakVal, mMinRMSVal, peak_dB, dB,
+                    channelPeak, channelRMS, SplMeter.weightingToString(meter.getWeighting()), meter.isCalibrated(),
+                    meter.getFastDb(), meter.getSlowDb(), meter.getLeqDb(),
+                    meter.getPercentileDb(10), meter.getPercentileDb(90));
+        } else {
+            stats = new SplStats(++mSplSequence, mMaxPeakVal, mMaxRMSVal, mMinPeakVal, mMinRMSVal, peak_dB, dB,
+                    channelPeak, channelRMS, SplMeter.weightingToString(mSplWeighting), false,
+                    Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        mLatestSpl.set(stats);
+        for (RecordStatsUpdateListener listener : mStatsListeners) {
+            listener.InputSplUpdated(stats);
+        }
+    }
 
-                Log.d(TAG, "Start rec thread");
-                rec.start();
+    /**
+     * Latest levels, null before the first update. Cheap enough to poll every display frame.
+     */
+    public SplStats getLatestSpl() {
+        return mLatestSpl.get();
+    }
+
+    // <prefix><rate>Hz_<id>.wav (or .flac) -> <prefix><rate>Hz_<id>.stats.txt
+    static String getStatsFilename(String capturePath) {
+        int dot = capturePath.lastIndexOf('.');
+        return capturePath.substring(0, dot) + ".stats.txt";
+    }
+
+    // <prefix><rate>Hz_<id>.wav (or .flac) -> <prefix><rate>Hz_<id>.glitches.txt
+    static String getGlitchFilename(String capturePath) {
+        int dot = capturePath.lastIndexOf('.');
+        return capturePath.substring(0, dot) + ".glitches.txt";
+    }
 
+    void writeCaptureStats(String capturePath, CaptureStats stats) {
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(getStatsFilename(capturePath));
+            writer.write("capture_file: \"" + capturePath + "\"\n");
+            writer.write(stats.toString(0));
+            SpectrumStats spectrum = mSessionSpectrum;
+            if (spectrum != null) {
+                writer.write(spectrum.toString(0));
+            }
+            SplMeter splMeter = mSplMeter;
+            if (splMeter != null) {
+                writer.write(splMeter.toString(0));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write capture stats", e);
+        } finally {
+            if (writer != null) {
                 try {
-                    rec.join();
-                } catch (InterruptedException e) {
+                    writer.close();
+                } catch (IOException e) {
                     e.printStackTrace();
                 }
+            }
+        }
+    }
 
-                recorder.stop();
-                recorder.release();
-                mIsRunning = false;
-                if (fos != null) {
-                    try {
-                        fos.flush();
-                        fos.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Effects whose state is stored with the captures.
+     */
+    public void setAudioEffects(AudioEffects effects) {
+        mAudioEffects = effects;
+    }
+
+    String getEffectState() {
+        if (mAudioEffects == null) {
+            return "effects: unknown";
+        }
+        return "aec_enabled: " + mAudioEffects.isAecEnabled() +
+                " agc_enabled: " + mAudioEffects.isAgcEnabled() +
+                " ns_enabled: " + mAudioEffects.isNsEnabled();
+    }
+
+    /**
+     * Stats of the current, or last, capture session.
+     */
+    public CaptureStats getCaptureStats() {
+        return mCaptureStats;
+    }
+
+    /**
+     * Microphones used by the current, or last, capture, null before it started.
+     */
+    public List<MicrophoneInfo> getActiveMicrophones() {
+        return mActiveMicrophones;
+    }
+
+    // FLAC only stores integer samples, float captures stay WAV
+    boolean isFlac(CaptureFormat format) {
+        return mSinkType == SINK_FLAC && !format.isFloat();
+    }
+
+    String getFileExtension(CaptureFormat format) {
+        return isFlac(format) ? ".flac" : ".wav";
+    }
+
+    AudioSink createSink(File file, int sampleRate, CaptureFormat format) throws IOException {
+        if (mSinkType == SINK_FLAC && !isFlac(format)) {
+            Log.w(TAG, "FLAC cannot store float samples, writing WAV");
+        }
+        switch (mSinkType) {
+            case SINK_MAPPED_WAV:
+                return new MappedWavWriter(file, sampleRate, format);
+            case SINK_FLAC:
+                if (isFlac(format)) {
+                    return new FlacWriter(file, sampleRate, format);
                 }
-            }
-        });
-        mRecordThread.start();
+                return new WavWriter(file, sampleRate, format);
+            default:
+                return new WavWriter(file, sampleRate, format);
+        }
+    }
 
-        Log.d(TAG, "Wait for everything to start");
-        while (mAudioSession == -1 && mIsRunning && mRecordThread.isAlive()) {
-            try {
-                Log.d(TAG, "Session = " + mAudioSession  + ", running = " +
-                        mIsRunning + ", thread alive: " + mRecordThread.isAlive());
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Selects how captures are written, SINK_MAPPED_WAV is meant for long soak captures,
+     * SINK_FLAC for captures that have to be pulled quickly.
+     * Takes effect at the next checkAndRecord().
+     */
+    public void setSinkType(int sinkType) {
+        mSinkType = sinkType;
+    }
+
+    public static int sinkTypeFromString(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "mmap":
+                return SINK_MAPPED_WAV;
+            case "flac":
+                return SINK_FLAC;
+            case "wav":
+                return SINK_WAV;
+            default:
+                throw new IllegalArgumentException("Unknown sink: " + name);
         }
+    }
 
-        Log.d(TAG, "Recorder started, as = "+mAudioSession + ", running = "+mIsRunning);
-        return mAudioSession;
+    /**
+     * Selects the encoding and channels of the captures, e.g.
+     * CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_FLOAT, 4).
+     * Takes effect at the next checkAndRecord().
+     */
+    public void setCaptureFormat(CaptureFormat format) {
+        mCaptureFormat = format;
     }
 
+    public CaptureFormat getCaptureFormat() {
+        return mCaptureFormat;
+    }
 
-    public void stopRecording() {
-        mIsRunning = false;
+    /**
+     * Captures from the inputs created by factory instead of an AudioRecord,
+     * null to capture from the device again. Takes effect at the next
+     * checkAndRecord().
+     */
+    public void setInputFactory(InputFactory factory) {
+        mInputFactory = factory;
+    }
 
-        while (mRecordThread != null && mRecordThread.isAlive()) {
-            try {
-                Log.d(TAG, "Session = " + mAudioSession  + ", running = " +
-                        mIsRunning + ", thread alive: " + mRecordThread.isAlive());
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Names the capture files <prefix><rate>Hz_<id>.wav (or .flac), "capture_" unless
+     * set. Takes effect at the next checkAndRecord().
+     */
+    public void setFilePrefix(String prefix) {
+        mFilePrefix = prefix;
+    }
+
+    // path of the current, or last, capture file, null if nothing was recorded
+    public String getFilename() {
+        return mFilename;
+    }
+
+    // getMinBufferSize() does not take index masks, so scale the mono size by the channels
+    static int getMinBufferFrames(int sampleRate, CaptureFormat format) {
+        return AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, format.encoding) / format.bytesPerSample;
+    }
+
+    int getPeriodFrames(int sampleRate, CaptureFormat format) {
+        if (mCapturePeriodMs <= 0) {
+            return getMinBufferFrames(sampleRate, format);
         }
+        return Math.max(1, sampleRate * mCapturePeriodMs / 1000);
+    }
 
+    /**
+     * Sets the size of each AudioRecord read, 0 to use the minimum buffer size.
+     * Takes effect at the next checkAndRecord().
+     */
+    public void setCapturePeriod(int periodMs) {
+        mCapturePeriodMs = periodMs;
+    }
+
+    /**
+     * Adds a consumer fed on the consumer thread of the capture with
+     * everything captured from the next checkAndRecord() on. It must not
+     * block, it would delay the meters.
+     */
+    public void addCaptureConsumer(CaptureConsumer consumer) {
+        if (!mCaptureConsumers.contains(consumer)) {
+            mCaptureConsumers.add(consumer);
+        }
+    }
+
+    /**
+     * Sets how often the levels are updated and the window they are measured over.
+     * Takes effect at the next checkAndRecord().
+     */
+    public void setMeterInterval(int intervalMs, int windowMs) {
+        mMeterIntervalMs = intervalMs;
+        mMeterWindowMs = windowMs;
+    }
+
+    /**
+     * Sets the FFT size, a power of two or 0 to disable the spectrum, and
+     * the SpectrumAnalyzer window. Takes effect at the next checkAndRecord().
+     */
+    public void setSpectrumAnalysis(int fftSize, int window) {
+        mFftSize = fftSize;
+        mFftWindow = window;
+    }
+
+    /**
+     * Looks for content glitches in the captures, on by default. The counts
+     * are in the CaptureStats and every event is logged next to the capture
+     * file. Takes effect at the next checkAndRecord().
+     */
+    public void setGlitchDetection(boolean enable) {
+        mGlitchDetection = enable;
+    }
+
+    /**
+     * Spectrum of the last meter window, null before the first one.
+     */
+    public SpectrumStats getLatestSpectrum() {
+        return mLatestSpectrum.get();
+    }
+
+    /**
+     * Spectrum averaged over the whole current, or last, capture, available
+     * once the capture has stopped.
+     */
+    public SpectrumStats getSessionSpectrum() {
+        return mSessionSpectrum;
+    }
+
+    /**
+     * Sets the SplMeter frequency weighting, e.g. SplMeter.WEIGHTING_A.
+     * Takes effect at the next checkAndRecord().
+     */
+    public void setSplWeighting(int weighting) {
+        mSplWeighting = weighting;
+    }
+
+    /**
+     * Sets the offset from dBFS to dB SPL, e.g. measured with a calibrator,
+     * NaN to use the MicrophoneInfo sensitivity. Takes effect at the next
+     * checkAndRecord().
+     */
+    public void setSplCalibration(double offsetDb) {
+        mSplCalibrationDb = offsetDb;
     }
 
     public void resetSpl() {
@@ -286,27 +786,308 @@ public class Recorder {
         mMinPeakVal = 0;
         mMaxRMSVal = -100;
         mMinRMSVal = 0;
-        for (RecordStatsUpdateListener listener : mStatsListeners) {
-            listener.InputSplUpdated(mMaxPeakVal, mMaxRMSVal, mMinPeakVal, mMinRMSVal, -100, -100);
-        }
+        publishSpl(-100, -100, new double[0], new double[0], null);
     }
 
     public void addStatsListener(RecordStatsUpdateListener listener) {
-        if (!mStatsListeners.contains(listener)) {
-            mStatsListeners.add(listener);
+        mStatsListeners.addIfAbsent(listener);
+    }
+
+    public void removeStatsListener(RecordStatsUpdateListener listener) {
+        mStatsListeners.remove(listener);
+    }
+
+    /**
+     * Meters interleaved frames in place, as shorts for 16-bit captures and
+     * as floats for everything else.
+     */
+    class MeterConsumer implements CaptureConsumer {
+        final SlidingLevelMeter mMeter;
+        final CaptureFormat mFormat;
+        final short[] mShorts;
+        final float[] mFloats;
+        final int mChunkSamples;
+        final CaptureStats mStats;
+        final SplMeter mSplMeter;
+        int mUpdates = 0;
+
+        MeterConsumer(int sampleRate, CaptureFormat format, int chunkBytes, CaptureStats stats,
+                      final SplMeter splMeter) {
+            mFormat = format;
+            mChunkSamples = chunkBytes / format.bytesPerSample;
+            boolean shorts = format.encoding == AudioFormat.ENCODING_PCM_16BIT;
+            mShorts = shorts ? new short[mChunkSamples] : null;
+            mFloats = shorts ? null : new float[mChunkSamples];
+            mStats = stats;
+            mSplMeter = splMeter;
+            // capture stats go out once per meter window
+            final int statsInterval = Math.max(1, mMeterWindowMs / mMeterIntervalMs);
+            mMeter = new SlidingLevelMeter(sampleRate, format.channels, mMeterIntervalMs, mMeterWindowMs,
+                    new SlidingLevelMeter.Listener() {
+                        @Override
+                        public void onLevelsUpdated(SlidingLevelMeter levels) {
+                            int channels = levels.getChannels();
+                            double[] channelPeak = new double[channels];
+                            double[] channelRMS = new double[channels];
+                            for (int ch = 0; ch < channels; ch++) {
+                                channelPeak[ch] = Math.round(levels.getPeakDb(ch));
+                                channelRMS[ch] = Math.round(levels.getRmsDb(ch));
+                            }
+                            updateSpl(Math.round(levels.getPeakDb()), Math.round(levels.getRmsDb()),
+                                    channelPeak, channelRMS, splMeter);
+                            if (++mUpdates % statsInterval == 0) {
+                                for (RecordStatsUpdateListener listener : mStatsListeners) {
+                                    listener.CaptureStatsUpdated(mStats);
+                                }
+                            }
+                        }
+                    });
+        }
+
+        @Override
+        public void onCaptureData(byte[] data, int offset, int length) {
+            int channels = mFormat.channels;
+            int bytesPerSample = mFormat.bytesPerSample;
+            while (length > 0) {
+                // whole frames
+                int samples = Math.min(length / bytesPerSample, mChunkSamples);
+                samples -= samples % channels;
+                if (mShorts != null) {
+                    mFormat.toShorts(data, offset, mShorts, samples);
+                    mSplMeter.process(mShorts, 0, samples / channels, channels);
+                    mMeter.process(mShorts, 0, samples / channels);
+                } else {
+                    mFormat.toFloats(data, offset, mFloats, samples);
+                    mSplMeter.process(mFloats, 0, samples / channels, channels);
+                    mMeter.process(mFloats, 0, samples / channels);
+                }
+                offset += bytesPerSample * samples;
+                length -= bytesPerSample * samples;
+            }
+        }
 
+        @Override
+        public void onCaptureStopped() {
+        }
+    }
+
+    /**
+     * Averages the spectrum of the first channel and publishes it once per
+     * meter window.
+     */
+    class SpectrumConsumer implements CaptureConsumer {
+        final SpectrumAnalyzer mAnalyzer;
+        final CaptureFormat mFormat;
+        final float[] mFloats;
+        final int mChunkSamples;
+        final long mIntervalFrames;
+        long mFrames = 0;
+        long mSequence = 0;
+
+        SpectrumConsumer(int sampleRate, CaptureFormat format, int chunkBytes, int fftSize, int window) {
+            mFormat = format;
+            mChunkSamples = chunkBytes / format.bytesPerSample;
+            mFloats = new float[mChunkSamples];
+            mIntervalFrames = (long) sampleRate * mMeterWindowMs / 1000;
+            mAnalyzer = new SpectrumAnalyzer(sampleRate, fftSize, window);
+        }
+
+        @Override
+        public void onCaptureData(byte[] data, int offset, int length) {
+            int channels = mFormat.channels;
+            int bytesPerSample = mFormat.bytesPerSample;
+            while (length > 0) {
+                int samples = Math.min(length / bytesPerSample, mChunkSamples);
+                samples -= samples % channels;
+                mFormat.toFloats(data, offset, mFloats, samples);
+                mAnalyzer.process(mFloats, 0, samples / channels, channels);
+                offset += bytesPerSample * samples;
+                length -= bytesPerSample * samples;
+                mFrames += samples / channels;
+                if (mFrames >= mIntervalFrames) {
+                    mFrames = 0;
+                    publish(mAnalyzer.takeInterval(++mSequence));
+                }
+            }
+        }
+
+        void publish(SpectrumStats spectrum) {
+            if (spectrum == null) {
+                return;
+            }
+            mLatestSpectrum.set(spectrum);
+            for (RecordStatsUpdateListener listener : mStatsListeners) {
+                listener.SpectrumUpdated(spectrum);
+            }
+        }
+
+        @Override
+        public void onCaptureStopped() {
+            mSessionSpectrum = mAnalyzer.getTotal(++mSequence);
+        }
+    }
+
+    /**
+     * Runs a GlitchDetector over the capture and logs every event, with its
+     * frame and monotonic time, one glitch_event per line.
+     */
+    class GlitchConsumer implements CaptureConsumer, GlitchDetector.Listener {
+        // a broken capture can glitch all the time, the counts keep going
+        static final int MAX_LOGGED_EVENTS = 10000;
+        final GlitchDetector mDetector;
+        final CaptureFormat mFormat;
+        final float[] mFloats;
+        final int mChunkSamples;
+        final int mSampleRate;
+        final FrameClock mClock;
+        Writer mLog = null;
+        long mEvents = 0;
+
+        GlitchConsumer(int sampleRate, CaptureFormat format, int chunkBytes, int periodFrames, FrameClock clock,
+                       String logPath) {
+            mFormat = format;
+            mChunkSamples = chunkBytes / format.bytesPerSample;
+            mFloats = new float[mChunkSamples];
+            mSampleRate = sampleRate;
+            mClock = clock;
+            mDetector = new GlitchDetector(sampleRate, format.channels, periodFrames, this);
+            if (logPath != null) {
+                try {
+                    mLog = new BufferedWriter(new FileWriter(logPath));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to open " + logPath, e);
+                }
+            }
+        }
+
+        @Override
+        public void onCaptureData(byte[] data, int offset, int length) {
+            int channels = mFormat.channels;
+            int bytesPerSample = mFormat.bytesPerSample;
+            while (length > 0) {
+                int samples = Math.min(length / bytesPerSample, mChunkSamples);
+                samples -= samples % channels;
+                mFormat.toFloats(data, offset, mFloats, samples);
+                mDetector.process(mFloats, samples / channels);
+                offset += bytesPerSample * samples;
+                length -= bytesPerSample * samples;
+            }
+        }
+
+        @Override
+        public void onCaptureDataLost(long bytes) {
+            // the frames after the gap keep their position in the capture
+            mDetector.advance(bytes / (mFormat.channels * mFormat.bytesPerSample));
+        }
+
+        @Override
+        public void onGlitch(int type, int channel, long frame, long frames, float value) {
+            if (mEvents++ == 0) {
+                Log.w(TAG, "First glitch: " + GlitchDetector.glitchTypeToString(type) + " at frame " + frame);
+            }
+            if (mLog == null || mEvents > MAX_LOGGED_EVENTS) {
+                return;
+            }
+            try {
+                mLog.write(String.format(Locale.ROOT,
+                        "glitch_event { type: \"%s\" channel: %d frame: %d frames: %d time_sec: %.6f " +
+                                "time_ns: %d value: %.6f }\n",
+                        GlitchDetector.glitchTypeToString(type), channel, frame, frames,
+                        (double) frame / mSampleRate, mClock.getTimeNs(frame), value));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to log glitch", e);
+                closeLog();
+            }
+        }
+
+        void closeLog() {
+            try {
+                mLog.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mLog = null;
+        }
+
+        @Override
+        public void onCaptureStopped() {
+            mDetector.flush();
+            if (mLog != null) {
+                try {
+                    if (mEvents > MAX_LOGGED_EVENTS) {
+                        mLog.write("unlogged_events: " + (mEvents - MAX_LOGGED_EVENTS) + "\n");
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                closeLog();
+            }
+            if (mEvents > 0) {
+                Log.w(TAG, mEvents + " glitches in the capture");
+            }
+        }
+    }
+
+    // stops writing at the first error, the capture goes on but is not healthy
+    class FileConsumer implements CaptureConsumer {
+        final AudioSink mSink;
+        final int mSampleRate;
+        final CaptureFormat mFormat;
+        final CaptureStats mStats;
+        boolean mFailed = false;
+
+        FileConsumer(AudioSink sink, int sampleRate, CaptureFormat format, CaptureStats stats) {
+            mSink = sink;
+            mSampleRate = sampleRate;
+            mFormat = format;
+            mStats = stats;
+        }
+
+        @Override
+        public void onCaptureData(byte[] data, int offset, int length) {
+            if (mFailed) {
+                return;
+            }
+            try {
+                mSink.write(data, offset, length);
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public void onCaptureStopped() {
+            try {
+                mSink.setInfo("ICMT", "sample_rate: " + mSampleRate + " " + mFormat + " " + getEffectState());
+                mSink.close();
+            } catch (IOException e) {
+                // the error of a failed write is thrown again on close
+                if (!mFailed) {
+                    onError(e);
+                }
+            }
+        }
+
+        void onError(IOException e) {
+            mFailed = true;
+            Log.e(TAG, "Failed to write, the file is truncated: " + e.getMessage());
+            mStats.onWriteError(String.valueOf(e.getMessage()));
         }
     }
 
     public interface RecordStatsUpdateListener {
         public void InputTextUpdated(String text);
 
-        public void InputSplUpdated(double maxPeak,
-                                    double maxRMS,
-                                    double minPeak,
-                                    double minRMS,
-                                    double currentPeak,
-                                    double currentRMS);
+        // every meter update, on the consumer thread, poll getLatestSpl() to update less often
+        public default void InputSplUpdated(SplStats stats) {
+        }
+
+        // once per meter window while capturing, and when the capture ends
+        public default void CaptureStatsUpdated(CaptureStats stats) {
+        }
 
+        // once per meter window while capturing, on the consumer thread
+        public default void SpectrumUpdated(SpectrumStats spectrum) {
+        }
     }
 }
@@ -0,0 +1,182 @@
+package com.facebook.micapp;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.MicrophoneInfo;
+import android.util.Log;
+import android.util.Pair;
+
+import com.facebook.micapp.analysis.CrossCorrelator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measured frequency response of a microphone, next to the declared one.
+ *
+ * One capture runs while a stimulus (noise or chirp) is played N times
+ * through the Player. Every run is located in the capture by cross
+ * correlation, and the stimulus and the aligned capture, including a tail
+ * for the room and the speaker, are fed to a TransferFunction. The Welch
+ * averages accumulate over all runs, nothing but the current run is held.
+ *
+ * The measured band gains are relative to the REFERENCE_HZ band, like the
+ * MicrophoneInfo.getFrequencyResponse() of the first active microphone
+ * they are compared with. The measurement includes the speaker, so it is
+ * only the microphone response with a flat speaker or a reference setup.
+ */
+public class ResponseMeasurement {
+    final static String TAG = "micapp.response";
+    // the rate of the stimuli, the capture runs at the same rate
+    final static int SAMPLE_RATE = 48000;
+    final static int FFT_SIZE = 2048;
+    // every run waits this long for the stimulus to come back
+    final static int WINDOW_MS = 1500;
+    // captured after the end of the stimulus
+    final static int TAIL_MS = 100;
+    final static double MIN_PEAK_TO_RMS = 10;
+    final static double REFERENCE_HZ = 1000;
+
+    final Context mContext;
+    final Player mPlayer;
+    final TransferFunction mResponse = new TransferFunction(SAMPLE_RATE, FFT_SIZE);
+    int mRuns = 0;
+    int mValidRuns = 0;
+    String mMicrophone = null;
+    float[] mDeclaredFrequencies = new float[0];
+    float[] mDeclaredLevels = new float[0];
+
+    public ResponseMeasurement(Context context, Player player) {
+        mContext = context;
+        mPlayer = player;
+    }
+
+    /**
+     * Plays soundId runs times while capturing the given input, returns
+     * false if the capture could not be started.
+     */
+    public boolean measure(int audioSource, String inputDevice, int soundId, int runs)
+            throws IOException, InterruptedException {
+        float[] stimulus = Utils.loadRawSound(mContext, soundId);
+        int windowFrames = SAMPLE_RATE * WINDOW_MS / 1000;
+        int runFrames = stimulus.length + SAMPLE_RATE * TAIL_MS / 1000;
+        CrossCorrelator correlator = new CrossCorrelator(stimulus, windowFrames);
+        float[] window = new float[windowFrames];
+        // the stimulus followed by silence over the tail
+        float[] reference = Arrays.copyOf(stimulus, runFrames);
+
+        Recorder recorder = new Recorder(mContext);
+        // this measures the input, not the meters
+        recorder.setSpectrumAnalysis(0, SpectrumAnalyzer.WINDOW_HANN);
+        PcmCollector collector = new PcmCollector(recorder.getCaptureFormat(), 0, 2 * windowFrames);
+        recorder.addCaptureConsumer(collector);
+        try {
+            recorder.start(audioSource, inputDevice, SAMPLE_RATE, false)
+                    .get(Recorder.START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Failed to start the capture", e);
+            recorder.stopRecording();
+            return false;
+        }
+        try {
+            for (int i = 0; i < runs; i++) {
+                long startFrame = collector.getFrames();
+                mPlayer.playSound(soundId, AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .get(Recorder.START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (!collector.awaitFrame(startFrame + windowFrames, 2 * WINDOW_MS) ||
+                        !collector.copy(startFrame, window, windowFrames)) {
+                    Log.e(TAG, "Capture stalled in run " + i);
+                    break;
+                }
+                mRuns++;
+                int onset = (int) Math.round(correlator.findDelay(window, windowFrames));
+                if (correlator.getPeakToRms() < MIN_PEAK_TO_RMS || onset < 0 || onset + runFrames > windowFrames) {
+                    Log.d(TAG, String.format(Locale.ROOT, "Run %d: stimulus not found (peak/rms %.1f)",
+                            i, correlator.getPeakToRms()));
+                    continue;
+                }
+                mValidRuns++;
+                mResponse.restart();
+                mResponse.process(reference, 0, window, onset, runFrames);
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Failed to play the stimulus", e);
+        } finally {
+            recorder.stopRecording();
+        }
+        setDeclaredResponse(recorder.getActiveMicrophones());
+        return true;
+    }
+
+    void setDeclaredResponse(List<MicrophoneInfo> microphones) {
+        if (microphones == null || microphones.isEmpty()) {
+            return;
+        }
+        MicrophoneInfo microphone = microphones.get(0);
+        mMicrophone = microphone.getDescription();
+        List<Pair<Float, Float>> response = microphone.getFrequencyResponse();
+        if (response == null) {
+            return;
+        }
+        mDeclaredFrequencies = new float[response.size()];
+        mDeclaredLevels = new float[response.size()];
+        for (int i = 0; i < response.size(); i++) {
+            mDeclaredFrequencies[i] = response.get(i).first;
+            mDeclaredLevels[i] = response.get(i).second;
+        }
+    }
+
+    public String toString(int indent) {
+        String tab = Utils.getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        str.append(tab + "frequency_response {\n");
+        indent += 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "sample_rate: " + SAMPLE_RATE + "\n");
+        str.append(tab + "fft_size: " + FFT_SIZE + "\n");
+        str.append(tab + "runs: " + mRuns + "\n");
+        str.append(tab + "valid_runs: " + mValidRuns + "\n");
+        str.append(tab + "segments: " + mResponse.getSegments() + "\n");
+        if (mMicrophone != null) {
+            str.append(tab + "microphone: \"" + mMicrophone + "\"\n");
+        }
+        double[] centers = mResponse.getBandCenters();
+        double[] gains = mResponse.getBandGainsDb();
+        double[] coherence = mResponse.getBandCoherence();
+        // normalize to the reference band, like the declared responses
+        double reference = Double.NaN;
+        for (int i = 0; i < centers.length; i++) {
+            if (Math.abs(centers[i] - REFERENCE_HZ) < 1) {
+                reference = gains[i];
+            }
+        }
+        double declaredReference = TransferFunction.interpolateDb(mDeclaredFrequencies, mDeclaredLevels, REFERENCE_HZ);
+        for (int i = 0; i < centers.length; i++) {
+            str.append(tab + "band {\n");
+            str.append(String.format(Locale.ROOT, "%s  center_hz: %.0f\n", tab, centers[i]));
+            str.append(String.format(Locale.ROOT, "%s  coherence: %.3f\n", tab, coherence[i]));
+            double measured = gains[i] - reference;
+            if (!Double.isNaN(measured)) {
+                str.append(String.format(Locale.ROOT, "%s  measured_db: %.1f\n", tab, measured));
+            }
+            if (mDeclaredFrequencies.length > 0) {
+                double declared = TransferFunction.interpolateDb(mDeclaredFrequencies, mDeclaredLevels, centers[i]) -
+                        declaredReference;
+                str.append(String.format(Locale.ROOT, "%s  declared_db: %.1f\n", tab, declared));
+                if (!Double.isNaN(measured)) {
+                    str.append(String.format(Locale.ROOT, "%s  deviation_db: %.1f\n", tab, measured - declared));
+                }
+            }
+            str.append(tab + "}\n");
+        }
+        indent -= 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "}\n");
+        return str.toString();
+    }
+}
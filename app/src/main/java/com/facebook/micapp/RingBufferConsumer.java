@@ -0,0 +1,60 @@
+package com.facebook.micapp;
+
+/**
+ * One CaptureConsumer fed from its own AudioRingBuffer reader.
+ *
+ * A ConsumerThread drains every consumer of a capture in turn. Each one
+ * keeps its own read position, so a consumer that falls more than the ring
+ * behind loses only its own data.
+ */
+public class RingBufferConsumer {
+    final AudioRingBuffer.Reader mReader;
+    final CaptureConsumer mConsumer;
+    final byte[] mChunk;
+    final String mName;
+    long mLostBytes = 0;
+
+    public RingBufferConsumer(AudioRingBuffer ring, CaptureConsumer consumer, int chunkBytes, String name) {
+        mReader = ring.createReader();
+        mConsumer = consumer;
+        mChunk = new byte[chunkBytes];
+        mName = name;
+    }
+
+    /**
+     * Passes at most one chunk to the consumer, returns the bytes passed.
+     */
+    int drain() {
+        int read = mReader.read(mChunk, 0, mChunk.length);
+        long lost = mReader.getLostBytes();
+        if (lost != mLostBytes) {
+            // skipped before what was just read
+            mConsumer.onCaptureDataLost(lost - mLostBytes);
+            mLostBytes = lost;
+        }
+        if (read > 0) {
+            mConsumer.onCaptureData(mChunk, 0, read);
+        }
+        return read;
+    }
+
+    int available() {
+        return mReader.available();
+    }
+
+    void await(long timeoutNanos) {
+        mReader.await(timeoutNanos);
+    }
+
+    void finish() {
+        mConsumer.onCaptureStopped();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public long getLostBytes() {
+        return mReader.getLostBytes();
+    }
+}
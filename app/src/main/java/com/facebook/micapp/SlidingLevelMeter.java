@@ -0,0 +1,225 @@
+package com.facebook.micapp;
+
+/**
+ * Sliding window level meter for a continuous sample stream.
+ *
+ * Samples are consumed exactly as they are passed in, in blocks of any size.
+ * Every hop (the update interval) the partial sums of that hop are stored, and
+ * the listener is called with peak/RMS/DC offset over the last window, computed
+ * from the stored per hop sums. A window of 1000 ms with a 100 ms hop gives a
+ * one second level that updates ten times per second.
+ *
+ * Multichannel input is passed as interleaved frames and metered per channel
+ * without deinterleaving. The levels without a channel argument are over all
+ * channels: the highest peak, and the RMS and DC offset of every sample.
+ */
+public class SlidingLevelMeter {
+    public interface Listener {
+        // called on the thread calling process(), the meter is only valid during the call
+        public void onLevelsUpdated(SlidingLevelMeter meter);
+    }
+
+    final int mChannels;
+    final int mHopSize;
+    final int mHops;
+    final Listener mListener;
+    final LevelMeter[] mHop;
+    int mHopFrames = 0;
+
+    // per hop partial results, circular, mChannels values per hop
+    final double[] mHopSumSquares;
+    final double[] mHopSum;
+    final double[] mHopPeak;
+    final int[] mHopCount;
+    int mHopIndex = 0;
+    int mHopsFilled = 0;
+    long mFrames = 0;
+
+    final double[] mWindowPeak;
+    final double[] mWindowRms;
+    final double[] mWindowDcOffset;
+    double mWindowTotalPeak = 0;
+    double mWindowTotalRms = 0;
+    double mWindowTotalDcOffset = 0;
+
+    public SlidingLevelMeter(int sampleRate, int hopMs, int windowMs, Listener listener) {
+        this(sampleRate, 1, hopMs, windowMs, listener);
+    }
+
+    public SlidingLevelMeter(int sampleRate, int channels, int hopMs, int windowMs, Listener listener) {
+        if (hopMs <= 0 || windowMs < hopMs) {
+            throw new IllegalArgumentException("Invalid meter interval " + hopMs + " ms / window " + windowMs + " ms");
+        }
+        mChannels = channels;
+        mHopSize = Math.max(1, (int) ((long) sampleRate * hopMs / 1000));
+        mHops = windowMs / hopMs;
+        mListener = listener;
+        mHop = new LevelMeter[channels];
+        for (int ch = 0; ch < channels; ch++) {
+            mHop[ch] = new LevelMeter();
+        }
+        mHopSumSquares = new double[mHops * channels];
+        mHopSum = new double[mHops * channels];
+        mHopPeak = new double[mHops * channels];
+        mHopCount = new int[mHops];
+        mWindowPeak = new double[channels];
+        mWindowRms = new double[channels];
+        mWindowDcOffset = new double[channels];
+    }
+
+    public void reset() {
+        for (LevelMeter hop : mHop) {
+            hop.reset();
+        }
+        mHopFrames = 0;
+        mHopIndex = 0;
+        mHopsFilled = 0;
+        mFrames = 0;
+        for (int ch = 0; ch < mChannels; ch++) {
+            mWindowPeak[ch] = 0;
+            mWindowRms[ch] = 0;
+            mWindowDcOffset[ch] = 0;
+        }
+        mWindowTotalPeak = 0;
+        mWindowTotalRms = 0;
+        mWindowTotalDcOffset = 0;
+    }
+
+    // frames interleaved frames starting at offset
+    public void process(short[] samples, int offset, int frames) {
+        while (frames > 0) {
+            int count = Math.min(frames, mHopSize - mHopFrames);
+            for (int ch = 0; ch < mChannels; ch++) {
+                mHop[ch].process(samples, offset + ch, count, mChannels);
+            }
+            offset += count * mChannels;
+            frames -= count;
+            advance(count);
+        }
+    }
+
+    public void process(float[] samples, int offset, int frames) {
+        while (frames > 0) {
+            int count = Math.min(frames, mHopSize - mHopFrames);
+            for (int ch = 0; ch < mChannels; ch++) {
+                mHop[ch].process(samples, offset + ch, count, mChannels);
+            }
+            offset += count * mChannels;
+            frames -= count;
+            advance(count);
+        }
+    }
+
+    void advance(int frames) {
+        mFrames += frames;
+        mHopFrames += frames;
+        if (mHopFrames == mHopSize) {
+            closeHop();
+        }
+    }
+
+    void closeHop() {
+        int base = mHopIndex * mChannels;
+        for (int ch = 0; ch < mChannels; ch++) {
+            LevelMeter hop = mHop[ch];
+            mHopSumSquares[base + ch] = hop.getSumSquares();
+            mHopSum[base + ch] = hop.getSum();
+            mHopPeak[base + ch] = hop.getPeak();
+            hop.reset();
+        }
+        mHopCount[mHopIndex] = mHopFrames;
+        mHopFrames = 0;
+        mHopIndex = (mHopIndex + 1) % mHops;
+        if (mHopsFilled < mHops) {
+            mHopsFilled++;
+        }
+
+        long count = 0;
+        for (int i = 0; i < mHopsFilled; i++) {
+            count += mHopCount[i];
+        }
+        double totalSumSquares = 0;
+        double totalSum = 0;
+        double totalPeak = 0;
+        for (int ch = 0; ch < mChannels; ch++) {
+            double sumSquares = 0;
+            double sum = 0;
+            double peak = 0;
+            for (int i = 0; i < mHopsFilled; i++) {
+                int index = i * mChannels + ch;
+                sumSquares += mHopSumSquares[index];
+                sum += mHopSum[index];
+                if (mHopPeak[index] > peak) {
+                    peak = mHopPeak[index];
+                }
+            }
+            mWindowPeak[ch] = peak;
+            mWindowRms[ch] = Math.sqrt(sumSquares / count);
+            mWindowDcOffset[ch] = sum / count;
+            totalSumSquares += sumSquares;
+            totalSum += sum;
+            if (peak > totalPeak) {
+                totalPeak = peak;
+            }
+        }
+        mWindowTotalPeak = totalPeak;
+        mWindowTotalRms = Math.sqrt(totalSumSquares / (count * mChannels));
+        mWindowTotalDcOffset = totalSum / (count * mChannels);
+        if (mListener != null) {
+            mListener.onLevelsUpdated(this);
+        }
+    }
+
+    // frames consumed since reset, the end of the current window
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public int getHopSize() {
+        return mHopSize;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public double getPeak() {
+        return mWindowTotalPeak;
+    }
+
+    public double getRms() {
+        return mWindowTotalRms;
+    }
+
+    public double getDcOffset() {
+        return mWindowTotalDcOffset;
+    }
+
+    public double getPeakDb() {
+        return LevelMeter.toDb(mWindowTotalPeak);
+    }
+
+    public double getRmsDb() {
+        return LevelMeter.toDb(mWindowTotalRms);
+    }
+
+    public double getPeak(int channel) {
+        return mWindowPeak[channel];
+    }
+
+    public double getRms(int channel) {
+        return mWindowRms[channel];
+    }
+
+    public double getDcOffset(int channel) {
+        return mWindowDcOffset[channel];
+    }
+
+    public double getPeakDb(int channel) {
+        return LevelMeter.toDb(mWindowPeak[channel]);
+    }
+
+    public double getRmsDb(int channel) {
+        return LevelMeter.toDb(mWindowRms[channel]);
+    }
+}
@@ -0,0 +1,77 @@
+package com.facebook.micapp;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of decoded pcm, keyed by sound id.
+ *
+ * The cache is bounded by the total size of the sounds, evicting the least
+ * recently played ones first, but always keeps the last sound loaded even
+ * if it is larger than the bound. Cached arrays are shared and must not be
+ * modified.
+ */
+public class SoundCache {
+    public interface Loader {
+        public byte[] load(int id) throws IOException;
+    }
+
+    static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    final Loader mLoader;
+    final long mMaxBytes;
+    // in access order, the eldest entry is the least recently used
+    final LinkedHashMap<Integer, byte[]> mSounds = new LinkedHashMap<>(16, 0.75f, true);
+    long mBytes = 0;
+    long mHits = 0;
+    long mMisses = 0;
+
+    public SoundCache(Loader loader) {
+        this(loader, DEFAULT_MAX_BYTES);
+    }
+
+    public SoundCache(Loader loader, long maxBytes) {
+        mLoader = loader;
+        mMaxBytes = maxBytes;
+    }
+
+    public synchronized byte[] get(int id) throws IOException {
+        byte[] sound = mSounds.get(id);
+        if (sound != null) {
+            mHits++;
+            return sound;
+        }
+        mMisses++;
+        sound = mLoader.load(id);
+        mSounds.put(id, sound);
+        mBytes += sound.length;
+        Iterator<Map.Entry<Integer, byte[]>> eldest = mSounds.entrySet().iterator();
+        while (mBytes > mMaxBytes && mSounds.size() > 1) {
+            mBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+        return sound;
+    }
+
+    public synchronized boolean contains(int id) {
+        return mSounds.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return mSounds.size();
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+}
@@ -0,0 +1,211 @@
+package com.facebook.micapp;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Averaged power spectrum and 1/3 octave band levels of a sample stream.
+ *
+ * Samples are collected into FFT frames overlapping by half, windowed and
+ * transformed with a RealFft. The power of every frame is added to an
+ * interval average, read and restarted with takeInterval(), and to a total
+ * average over everything since reset(). Nothing is allocated after the
+ * constructor except the snapshots.
+ *
+ * Levels are mean square values normalized like LevelMeter: the sum of the
+ * bins or bands is the RMS level of the signal, so a full scale sine is at
+ * -3 dB in its band, the same as its RMS level.
+ */
+public class SpectrumAnalyzer {
+    public static final int WINDOW_HANN = 0;
+    public static final int WINDOW_BLACKMAN = 1;
+    // 25 Hz to 20 kHz, base ten nominal centers 1000 * 10^(n / 10)
+    static final int FIRST_BAND = -16;
+    static final int LAST_BAND = 13;
+    // band edges are half a band from the center
+    static final double BAND_EDGE = Math.pow(10, 0.05);
+
+    final int mSampleRate;
+    final int mFftSize;
+    final int mHop;
+    final RealFft mFft;
+    final double[] mWindow;
+    final double[] mFrame;
+    final double[] mWindowed;
+    final double[] mPower;
+    final double mScale;
+    int mFrameFill = 0;
+
+    final double[] mIntervalSum;
+    final double[] mTotalSum;
+    int mIntervalFrames = 0;
+    long mTotalFrames = 0;
+
+    final double[] mBandCenters;
+    final int[] mBandFirstBin;
+    final int[] mBandLastBin;
+
+    public SpectrumAnalyzer(int sampleRate, int fftSize, int window) {
+        mSampleRate = sampleRate;
+        mFftSize = fftSize;
+        mHop = fftSize / 2;
+        mFft = new RealFft(fftSize);
+        mWindow = createWindow(window, fftSize);
+        mFrame = new double[fftSize];
+        mWindowed = new double[fftSize];
+        mPower = new double[fftSize / 2 + 1];
+        mIntervalSum = new double[fftSize / 2 + 1];
+        mTotalSum = new double[fftSize / 2 + 1];
+        double windowSquares = 0;
+        for (double w : mWindow) {
+            windowSquares += w * w;
+        }
+        // one sided, sum over the bins is the mean square of the frame
+        mScale = 2.0 / (fftSize * windowSquares);
+
+        mBandCenters = getBandCenters(sampleRate, fftSize);
+        mBandFirstBin = new int[mBandCenters.length];
+        mBandLastBin = new int[mBandCenters.length];
+        for (int i = 0; i < mBandCenters.length; i++) {
+            mBandFirstBin[i] = getBandFirstBin(mBandCenters[i], sampleRate, fftSize);
+            mBandLastBin[i] = getBandLastBin(mBandCenters[i], sampleRate, fftSize);
+        }
+    }
+
+    /**
+     * Centers of the 1/3 octave bands below Nyquist holding at least one FFT bin.
+     */
+    static double[] getBandCenters(int sampleRate, int fftSize) {
+        double[] centers = new double[LAST_BAND - FIRST_BAND + 1];
+        int bands = 0;
+        for (int n = FIRST_BAND; n <= LAST_BAND; n++) {
+            double center = 1000 * Math.pow(10, n / 10.0);
+            if (center * BAND_EDGE < sampleRate / 2.0 &&
+                    getBandFirstBin(center, sampleRate, fftSize) <= getBandLastBin(center, sampleRate, fftSize)) {
+                centers[bands++] = center;
+            }
+        }
+        return Arrays.copyOf(centers, bands);
+    }
+
+    static int getBandFirstBin(double center, int sampleRate, int fftSize) {
+        return (int) Math.ceil(center / BAND_EDGE * fftSize / sampleRate);
+    }
+
+    static int getBandLastBin(double center, int sampleRate, int fftSize) {
+        return Math.min(fftSize / 2, (int) Math.ceil(center * BAND_EDGE * fftSize / sampleRate) - 1);
+    }
+
+    static double[] createWindow(int window, int size) {
+        double[] w = new double[size];
+        for (int i = 0; i < size; i++) {
+            double x = 2 * Math.PI * i / size;
+            switch (window) {
+                case WINDOW_BLACKMAN:
+                    w[i] = 0.42 - 0.5 * Math.cos(x) + 0.08 * Math.cos(2 * x);
+                    break;
+                default:
+                    w[i] = 0.5 - 0.5 * Math.cos(x);
+                    break;
+            }
+        }
+        return w;
+    }
+
+    public static int windowFromString(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "hann":
+                return WINDOW_HANN;
+            case "blackman":
+                return WINDOW_BLACKMAN;
+            default:
+                throw new IllegalArgumentException("Unknown window: " + name);
+        }
+    }
+
+    public void reset() {
+        mFrameFill = 0;
+        mIntervalFrames = 0;
+        mTotalFrames = 0;
+        Arrays.fill(mIntervalSum, 0);
+        Arrays.fill(mTotalSum, 0);
+    }
+
+    /**
+     * count samples, stride apart, starting at offset. Pass the channel as
+     * offset and the channel count as stride for interleaved input.
+     */
+    public void process(float[] samples, int offset, int count, int stride) {
+        for (int i = 0; i < count; i++) {
+            mFrame[mFrameFill++] = samples[offset + i * stride];
+            if (mFrameFill == mFftSize) {
+                analyzeFrame();
+                // keep the second half for the next, overlapping, frame
+                System.arraycopy(mFrame, mHop, mFrame, 0, mFftSize - mHop);
+                mFrameFill = mFftSize - mHop;
+            }
+        }
+    }
+
+    void analyzeFrame() {
+        for (int i = 0; i < mFftSize; i++) {
+            mWindowed[i] = mFrame[i] * mWindow[i];
+        }
+        mFft.powerSpectrum(mWindowed, mPower);
+        for (int k = 0; k < mPower.length; k++) {
+            // dc and nyquist are not mirrored
+            double scale = (k == 0 || k == mPower.length - 1) ? mScale / 2 : mScale;
+            double power = mPower[k] * scale;
+            mIntervalSum[k] += power;
+            mTotalSum[k] += power;
+        }
+        mIntervalFrames++;
+        mTotalFrames++;
+    }
+
+    public int getIntervalFrames() {
+        return mIntervalFrames;
+    }
+
+    /**
+     * Spectrum averaged since the last call, null if no FFT frame was completed.
+     */
+    public SpectrumStats takeInterval(long sequence) {
+        if (mIntervalFrames == 0) {
+            return null;
+        }
+        SpectrumStats stats = createStats(sequence, mIntervalSum, mIntervalFrames);
+        Arrays.fill(mIntervalSum, 0);
+        mIntervalFrames = 0;
+        return stats;
+    }
+
+    /**
+     * Spectrum averaged since reset(), null if no FFT frame was completed.
+     */
+    public SpectrumStats getTotal(long sequence) {
+        if (mTotalFrames == 0) {
+            return null;
+        }
+        return createStats(sequence, mTotalSum, mTotalFrames);
+    }
+
+    SpectrumStats createStats(long sequence, double[] sum, long frames) {
+        double[] bins = new double[sum.length];
+        for (int k = 0; k < sum.length; k++) {
+            bins[k] = sum[k] / frames;
+        }
+        double[] bands = new double[mBandCenters.length];
+        for (int i = 0; i < bands.length; i++) {
+            double power = 0;
+            for (int k = mBandFirstBin[i]; k <= mBandLastBin[i]; k++) {
+                power += bins[k];
+            }
+            bands[i] = 10 * Math.log10(Math.max(power, 1e-20));
+        }
+        for (int k = 0; k < bins.length; k++) {
+            bins[k] = 10 * Math.log10(Math.max(bins[k], 1e-20));
+        }
+        return new SpectrumStats(sequence, mSampleRate, mFftSize, frames, bins, mBandCenters.clone(), bands);
+    }
+}
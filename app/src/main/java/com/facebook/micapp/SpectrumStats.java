@@ -0,0 +1,111 @@
+package com.facebook.micapp;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Immutable snapshot of an averaged spectrum, in dB relative to full scale.
+ *
+ * binLevels has fftSize / 2 + 1 bins, sampleRate / fftSize Hz apart.
+ * bandLevels are the 1/3 octave bands centered on bandCenters. The arrays
+ * are shared by every listener and must not be modified.
+ */
+public final class SpectrumStats {
+    // tones reported in toString()
+    static final int MAX_PEAKS = 5;
+    static final double PEAK_ABOVE_FLOOR_DB = 10;
+
+    public final long sequence;
+    public final int sampleRate;
+    public final int fftSize;
+    public final long frames;
+    public final double[] binLevels;
+    public final double[] bandCenters;
+    public final double[] bandLevels;
+
+    public SpectrumStats(long sequence,
+                         int sampleRate,
+                         int fftSize,
+                         long frames,
+                         double[] binLevels,
+                         double[] bandCenters,
+                         double[] bandLevels) {
+        this.sequence = sequence;
+        this.sampleRate = sampleRate;
+        this.fftSize = fftSize;
+        this.frames = frames;
+        this.binLevels = binLevels;
+        this.bandCenters = bandCenters;
+        this.bandLevels = bandLevels;
+    }
+
+    public double getBinFrequency(int bin) {
+        return (double) bin * sampleRate / fftSize;
+    }
+
+    /**
+     * Median bin level, a robust estimate of the noise floor per bin.
+     */
+    public double getNoiseFloor() {
+        double[] sorted = binLevels.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Bins of the strongest local maxima at least PEAK_ABOVE_FLOOR_DB above
+     * the noise floor, loudest first.
+     */
+    public int[] getPeakBins(int maxPeaks) {
+        double threshold = getNoiseFloor() + PEAK_ABOVE_FLOOR_DB;
+        int[] peaks = new int[maxPeaks];
+        int count = 0;
+        // skip dc
+        for (int k = 2; k < binLevels.length - 1; k++) {
+            double level = binLevels[k];
+            if (level < threshold || level < binLevels[k - 1] || level <= binLevels[k + 1]) {
+                continue;
+            }
+            // insertion into the sorted top list
+            int pos = count;
+            while (pos > 0 && binLevels[peaks[pos - 1]] < level) {
+                pos--;
+            }
+            if (pos < maxPeaks) {
+                int last = Math.min(count, maxPeaks - 1);
+                System.arraycopy(peaks, pos, peaks, pos + 1, last - pos);
+                peaks[pos] = k;
+                count = Math.min(count + 1, maxPeaks);
+            }
+        }
+        return Arrays.copyOf(peaks, count);
+    }
+
+    public String toString(int indent) {
+        String tab = Utils.getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        str.append(tab + "spectrum {\n");
+        indent += 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "sample_rate: " + sampleRate + "\n");
+        str.append(tab + "fft_size: " + fftSize + "\n");
+        str.append(tab + "frames: " + frames + "\n");
+        str.append(String.format(Locale.ROOT, "%snoise_floor_db: %.1f\n", tab, getNoiseFloor()));
+        for (int bin : getPeakBins(MAX_PEAKS)) {
+            str.append(tab + "peak {\n");
+            str.append(String.format(Locale.ROOT, "%s  frequency_hz: %.1f\n", tab, getBinFrequency(bin)));
+            str.append(String.format(Locale.ROOT, "%s  level_db: %.1f\n", tab, binLevels[bin]));
+            str.append(tab + "}\n");
+        }
+        for (int i = 0; i < bandLevels.length; i++) {
+            str.append(tab + "band {\n");
+            str.append(String.format(Locale.ROOT, "%s  center_hz: %.0f\n", tab, bandCenters[i]));
+            str.append(String.format(Locale.ROOT, "%s  level_db: %.1f\n", tab, bandLevels[i]));
+            str.append(tab + "}\n");
+        }
+        indent -= 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "}\n");
+        return str.toString();
+    }
+}
@@ -0,0 +1,267 @@
+package com.facebook.micapp;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Sound level meter with frequency and time weighting, after IEC 61672.
+ *
+ * The A and C weightings are the analog IEC 61672 poles mapped to biquads
+ * with the bilinear transform at the actual sample rate and normalized to
+ * 0 dB at 1 kHz. They are within the class 2 tolerances up to about 10 kHz
+ * at 48 kHz and fall off early close to Nyquist at lower rates. Z is flat.
+ *
+ * The weighted signal is squared and time weighted with the Fast (125 ms)
+ * and Slow (1 s) exponential averages, and integrated into Leq. Every
+ * HISTOGRAM_INTERVAL_MS the Fast level goes into a fixed 0.1 dB bin
+ * histogram, giving the percentile levels, e.g. L10 and L90.
+ *
+ * Levels are in dBFS plus the calibration offset, which makes them dB SPL
+ * for a calibrated input. Nothing is allocated after the constructor.
+ */
+public class SplMeter {
+    public static final int WEIGHTING_Z = 0;
+    public static final int WEIGHTING_A = 1;
+    public static final int WEIGHTING_C = 2;
+    static final double FAST_SECONDS = 0.125;
+    static final double SLOW_SECONDS = 1.0;
+    static final int HISTOGRAM_INTERVAL_MS = 10;
+    static final double HISTOGRAM_MIN_DB = -150;
+    static final double HISTOGRAM_MAX_DB = 10;
+    static final double HISTOGRAM_STEP_DB = 0.1;
+    // MicrophoneInfo sensitivities are the dBFS level at this SPL
+    static final double SENSITIVITY_SPL = 94;
+    static final double SILENCE_DB = -200;
+
+    // IEC 61672 pole frequencies
+    static final double F1 = 20.598997;
+    static final double F2 = 107.65265;
+    static final double F3 = 737.86223;
+    static final double F4 = 12194.217;
+
+    final int mWeighting;
+    final Biquad[] mFilters;
+    final double mGain;
+    final double mFastAlpha;
+    final double mSlowAlpha;
+    final int mHistogramFrames;
+    final int[] mHistogram;
+    volatile double mCalibrationDb = Double.NaN;
+
+    double mFast = 0;
+    double mSlow = 0;
+    double mMaxFast = 0;
+    double mPeak = 0;
+    double mSumSquares = 0;
+    long mFrames = 0;
+    long mHistogramCount = 0;
+    int mHistogramPhase = 0;
+
+    public SplMeter(int sampleRate, int weighting) {
+        mWeighting = weighting;
+        double w1 = 2 * Math.PI * F1;
+        double w2 = 2 * Math.PI * F2;
+        double w3 = 2 * Math.PI * F3;
+        double w4 = 2 * Math.PI * F4;
+        switch (weighting) {
+            case WEIGHTING_A:
+                // s^4 / ((s + w1)^2 (s + w2) (s + w3) (s + w4)^2)
+                mFilters = new Biquad[]{
+                        Biquad.fromAnalog(1, 0, 0, 1, 2 * w1, w1 * w1, sampleRate),
+                        Biquad.fromAnalog(1, 0, 0, 1, w2 + w3, w2 * w3, sampleRate),
+                        Biquad.fromAnalog(0, 0, 1, 1, 2 * w4, w4 * w4, sampleRate)};
+                break;
+            case WEIGHTING_C:
+                // s^2 / ((s + w1)^2 (s + w4)^2)
+                mFilters = new Biquad[]{
+                        Biquad.fromAnalog(1, 0, 0, 1, 2 * w1, w1 * w1, sampleRate),
+                        Biquad.fromAnalog(0, 0, 1, 1, 2 * w4, w4 * w4, sampleRate)};
+                break;
+            default:
+                mFilters = new Biquad[0];
+                break;
+        }
+        double gain = 1;
+        for (Biquad filter : mFilters) {
+            gain *= filter.getGain(1000, sampleRate);
+        }
+        mGain = 1 / gain;
+        mFastAlpha = 1 - Math.exp(-1 / (FAST_SECONDS * sampleRate));
+        mSlowAlpha = 1 - Math.exp(-1 / (SLOW_SECONDS * sampleRate));
+        mHistogramFrames = Math.max(1, sampleRate * HISTOGRAM_INTERVAL_MS / 1000);
+        mHistogram = new int[(int) Math.round((HISTOGRAM_MAX_DB - HISTOGRAM_MIN_DB) / HISTOGRAM_STEP_DB) + 1];
+    }
+
+    public static int weightingFromString(String name) {
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case "A":
+                return WEIGHTING_A;
+            case "C":
+                return WEIGHTING_C;
+            case "Z":
+                return WEIGHTING_Z;
+            default:
+                throw new IllegalArgumentException("Unknown weighting: " + name);
+        }
+    }
+
+    public static String weightingToString(int weighting) {
+        switch (weighting) {
+            case WEIGHTING_A:
+                return "A";
+            case WEIGHTING_C:
+                return "C";
+            default:
+                return "Z";
+        }
+    }
+
+    /**
+     * Calibration offset of a microphone with the given MicrophoneInfo
+     * sensitivity, NaN if the sensitivity is unknown.
+     */
+    public static double calibrationFromSensitivity(float sensitivity) {
+        if (Float.isNaN(sensitivity) || sensitivity == -Float.MAX_VALUE) {
+            return Double.NaN;
+        }
+        return SENSITIVITY_SPL - sensitivity;
+    }
+
+    // may be set from another thread while metering, NaN is no calibration
+    public void setCalibration(double offsetDb) {
+        mCalibrationDb = offsetDb;
+    }
+
+    public boolean isCalibrated() {
+        return !Double.isNaN(mCalibrationDb);
+    }
+
+    public int getWeighting() {
+        return mWeighting;
+    }
+
+    /**
+     * Restarts Leq, the maximum levels and the percentiles. The filters and
+     * the time weighting keep running.
+     */
+    public void reset() {
+        mMaxFast = 0;
+        mPeak = 0;
+        mSumSquares = 0;
+        mFrames = 0;
+        mHistogramCount = 0;
+        mHistogramPhase = 0;
+        Arrays.fill(mHistogram, 0);
+    }
+
+    // count samples, stride apart, starting at offset
+    public void process(float[] samples, int offset, int count, int stride) {
+        int end = offset + count * stride;
+        for (int i = offset; i < end; i += stride) {
+            processSample(samples[i]);
+        }
+    }
+
+    public void process(short[] samples, int offset, int count, int stride) {
+        int end = offset + count * stride;
+        for (int i = offset; i < end; i += stride) {
+            processSample(samples[i] * LevelMeter.SHORT_SCALE);
+        }
+    }
+
+    void processSample(double x) {
+        for (Biquad filter : mFilters) {
+            x = filter.process(x);
+        }
+        x *= mGain;
+        double square = x * x;
+        mFast += mFastAlpha * (square - mFast);
+        mSlow += mSlowAlpha * (square - mSlow);
+        mSumSquares += square;
+        mFrames++;
+        if (square > mPeak) {
+            mPeak = square;
+        }
+        if (mFast > mMaxFast) {
+            mMaxFast = mFast;
+        }
+        if (++mHistogramPhase == mHistogramFrames) {
+            mHistogramPhase = 0;
+            double db = toDb(mFast);
+            int bin = (int) Math.round((db - HISTOGRAM_MIN_DB) / HISTOGRAM_STEP_DB);
+            mHistogram[Math.max(0, Math.min(mHistogram.length - 1, bin))]++;
+            mHistogramCount++;
+        }
+    }
+
+    static double toDb(double meanSquare) {
+        return meanSquare > 0 ? 10 * Math.log10(meanSquare) : SILENCE_DB;
+    }
+
+    double calibrate(double db) {
+        double calibration = mCalibrationDb;
+        return Double.isNaN(calibration) ? db : db + calibration;
+    }
+
+    public double getFastDb() {
+        return calibrate(toDb(mFast));
+    }
+
+    public double getSlowDb() {
+        return calibrate(toDb(mSlow));
+    }
+
+    public double getMaxFastDb() {
+        return calibrate(toDb(mMaxFast));
+    }
+
+    // weighted peak, e.g. LCpeak
+    public double getPeakDb() {
+        return calibrate(toDb(mPeak));
+    }
+
+    public double getLeqDb() {
+        return calibrate(toDb(mFrames > 0 ? mSumSquares / mFrames : 0));
+    }
+
+    /**
+     * Fast level exceeded percent of the time, e.g. 10 for L10.
+     */
+    public double getPercentileDb(double percent) {
+        if (mHistogramCount == 0) {
+            return calibrate(SILENCE_DB);
+        }
+        long limit = (long) Math.ceil(mHistogramCount * percent / 100);
+        long count = 0;
+        for (int bin = mHistogram.length - 1; bin > 0; bin--) {
+            count += mHistogram[bin];
+            if (count >= limit) {
+                return calibrate(HISTOGRAM_MIN_DB + bin * HISTOGRAM_STEP_DB);
+            }
+        }
+        return calibrate(HISTOGRAM_MIN_DB);
+    }
+
+    public String toString(int indent) {
+        String tab = Utils.getIndentation(indent);
+        StringBuilder str = new StringBuilder();
+        str.append(tab + "spl {\n");
+        indent += 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "weighting: " + weightingToString(mWeighting) + "\n");
+        str.append(tab + "calibrated: " + isCalibrated() + "\n");
+        if (isCalibrated()) {
+            str.append(String.format(Locale.ROOT, "%scalibration_db: %.1f\n", tab, mCalibrationDb));
+        }
+        str.append(String.format(Locale.ROOT, "%sleq_db: %.1f\n", tab, getLeqDb()));
+        str.append(String.format(Locale.ROOT, "%sl10_db: %.1f\n", tab, getPercentileDb(10)));
+        str.append(String.format(Locale.ROOT, "%sl50_db: %.1f\n", tab, getPercentileDb(50)));
+        str.append(String.format(Locale.ROOT, "%sl90_db: %.1f\n", tab, getPercentileDb(90)));
+        str.append(String.format(Locale.ROOT, "%smax_fast_db: %.1f\n", tab, getMaxFastDb()));
+        str.append(String.format(Locale.ROOT, "%speak_db: %.1f\n", tab, getPeakDb()));
+        indent -= 1;
+        tab = Utils.getIndentation(indent);
+        str.append(tab + "}\n");
+        return str.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.facebook.micapp;
+
+/**
+ * Immutable snapshot of the Recorder levels, in dBFS.
+ *
+ * One snapshot is created per meter update and shared by every listener, and
+ * the latest one can be polled at any time with Recorder.getLatestSpl(). The
+ * sequence number increases with every update, so a poller can tell whether
+ * anything changed since it last looked.
+ *
+ * The overall levels are over all channels of the capture, the per channel
+ * levels are in the capture channel order and must not be modified.
+ *
+ * The weighted levels come from the SplMeter on the first channel: dB SPL
+ * when calibrated, dBFS otherwise, and NaN when there is no SplMeter.
+ */
+public final class SplStats {
+    public final long sequence;
+    public final double maxPeak;
+    public final double maxRMS;
+    public final double minPeak;
+    public final double minRMS;
+    public final double currentPeak;
+    public final double currentRMS;
+    public final double[] channelPeak;
+    public final double[] channelRMS;
+    public final String weighting;
+    public final boolean calibrated;
+    public final double weightedFast;
+    public final double weightedSlow;
+    public final double leq;
+    public final double l10;
+    public final double l90;
+
+    public SplStats(long sequence,
+                    double maxPeak,
+                    double maxRMS,
+                    double minPeak,
+                    double minRMS,
+                    double currentPeak,
+                    double currentRMS,
+                    double[] channelPeak,
+                    double[] channelRMS,
+                    String weighting,
+                    boolean calibrated,
+                    double weightedFast,
+                    double weightedSlow,
+                    double leq,
+                    double l10,
+                    double l90) {
+        this.sequence = sequence;
+        this.maxPeak = maxPeak;
+        this.maxRMS = maxRMS;
+        this.minPeak = minPeak;
+        this.minRMS = minRMS;
+        this.currentPeak = currentPeak;
+        this.currentRMS = currentRMS;
+        this.channelPeak = channelPeak;
+        this.channelRMS = channelRMS;
+        this.weighting = weighting;
+        this.calibrated = calibrated;
+        this.weightedFast = weightedFast;
+        this.weightedSlow = weightedSlow;
+        this.leq = leq;
+        this.l10 = l10;
+        this.l90 = l90;
+    }
+}
@@ -0,0 +1,135 @@
+package com.facebook.micapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the blocks of one input to a StreamSender as they are captured:
+ * a STATS_BLOCK message with the peak and rms of every channel, and with
+ * STREAM_PCM a PCM_BLOCK with the samples as captured.
+ *
+ * Every message carries the input index, a sequence number per message
+ * type, counting the dropped messages too, the position of the first
+ * frame of the block, its monotonic time from the capture FrameClock and
+ * the number of messages the sender dropped so far.
+ *
+ * Stays attached to its Recorder across captures and sends nothing
+ * without a sender. Nothing is allocated per block.
+ */
+public class StreamConsumer implements CaptureConsumer {
+    // input, sequence, frame position, timestamp, dropped
+    static final int HEADER_BYTES = 1 + 8 + 8 + 8 + 8;
+
+    final int mInput;
+    volatile StreamSender mSender = null;
+    volatile int mStreams = 0;
+    int mSampleRate = 0;
+    CaptureFormat mFormat = null;
+    FrameClock mClock = null;
+    float[] mSamples = new float[0];
+    long mFramePosition = 0;
+    long mStatsSequence = 0;
+    long mPcmSequence = 0;
+
+    public StreamConsumer(int input) {
+        mInput = input;
+    }
+
+    /**
+     * Streams to sender from the next block on, null to stop. streams is
+     * a combination of ControlProtocol.STREAM_STATS and STREAM_PCM.
+     */
+    public void setSender(StreamSender sender, int streams) {
+        mStreams = streams;
+        mSender = sender;
+    }
+
+    @Override
+    public void onCaptureStarted(int sampleRate, CaptureFormat format, FrameClock clock) {
+        mSampleRate = sampleRate;
+        mFormat = format;
+        mClock = clock;
+        mFramePosition = 0;
+        mStatsSequence = 0;
+        mPcmSequence = 0;
+    }
+
+    @Override
+    public void onCaptureData(byte[] data, int offset, int length) {
+        int frames = length / mFormat.getFrameSize();
+        StreamSender sender = mSender;
+        if (sender != null) {
+            int streams = mStreams;
+            long timeNs = (mClock != null) ? mClock.getTimeNs(mFramePosition) : 0;
+            if ((streams & ControlProtocol.STREAM_STATS) != 0) {
+                sendStats(sender, timeNs, data, offset, frames);
+            }
+            if ((streams & ControlProtocol.STREAM_PCM) != 0) {
+                sendPcm(sender, timeNs, data, offset, length);
+            }
+        }
+        mFramePosition += frames;
+    }
+
+    void sendStats(StreamSender sender, long timeNs, byte[] data, int offset, int frames) {
+        long sequence = mStatsSequence++;
+        int channels = mFormat.channels;
+        ByteBuffer message = sender.obtain(1 + HEADER_BYTES + 4 + 1 + 8 * channels);
+        if (message == null) {
+            return;
+        }
+        putHeader(message, ControlProtocol.STATS_BLOCK, sequence, timeNs, sender);
+        message.putInt(frames);
+        message.put((byte) channels);
+        int samples = frames * channels;
+        if (mSamples.length < samples) {
+            mSamples = new float[samples];
+        }
+        mFormat.toFloats(data, offset, mSamples, samples);
+        for (int ch = 0; ch < channels; ch++) {
+            float peak = 0;
+            double sumSquares = 0;
+            for (int i = ch; i < samples; i += channels) {
+                float val = mSamples[i];
+                peak = Math.max(peak, Math.abs(val));
+                sumSquares += val * val;
+            }
+            double rms = Math.sqrt(sumSquares / Math.max(1, frames));
+            message.putFloat(toDb(peak));
+            message.putFloat(toDb(rms));
+        }
+        sender.send(message);
+    }
+
+    void sendPcm(StreamSender sender, long timeNs, byte[] data, int offset, int length) {
+        long sequence = mPcmSequence++;
+        ByteBuffer message = sender.obtain(1 + HEADER_BYTES + 4 + 3 + length);
+        if (message == null) {
+            return;
+        }
+        putHeader(message, ControlProtocol.PCM_BLOCK, sequence, timeNs, sender);
+        message.putInt(mSampleRate);
+        message.put((byte) mFormat.channels);
+        message.put((byte) mFormat.bytesPerSample);
+        message.put((byte) (mFormat.isFloat() ? 1 : 0));
+        message.put(data, offset, length);
+        sender.send(message);
+    }
+
+    void putHeader(ByteBuffer message, int type, long sequence, long timeNs, StreamSender sender) {
+        message.put((byte) type);
+        message.put((byte) mInput);
+        message.putLong(sequence);
+        message.putLong(mFramePosition);
+        message.putLong(timeNs);
+        message.putLong(sender.getDropped());
+    }
+
+    // -100 dB for silence, like the meters
+    static float toDb(double val) {
+        return (float) Math.max(-100, 20 * Math.log10(val));
+    }
+
+    @Override
+    public void onCaptureStopped() {
+    }
+}
@@ -0,0 +1,130 @@
+package com.facebook.micapp;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the streamed ControlProtocol messages of a connection on its own
+ * thread, so a slow host never stalls the capture.
+ *
+ * Messages are built in a fixed set of slots. obtain() never blocks: when
+ * every slot is queued the message is dropped and counted instead, and the
+ * senders put that count and a sequence number in every message so the
+ * host sees where the gaps are. Slots are reused, so nothing is allocated
+ * once every slot has grown to the largest message.
+ *
+ * Uses no android classes, so it runs on a plain JVM.
+ */
+public class StreamSender {
+    public static final int DEFAULT_SLOTS = 64;
+
+    final DataOutputStream mOut;
+    final ArrayBlockingQueue<ByteBuffer> mFree;
+    final ArrayBlockingQueue<ByteBuffer> mQueue;
+    final AtomicLong mSent = new AtomicLong();
+    final AtomicLong mDropped = new AtomicLong();
+    final Thread mThread;
+    volatile boolean mRunning = true;
+
+    /**
+     * Writes to out, the reply stream of the connection, locking it for
+     * every message.
+     */
+    public StreamSender(DataOutputStream out, int slots) {
+        mOut = out;
+        mFree = new ArrayBlockingQueue<>(slots);
+        mQueue = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) {
+            mFree.add(ByteBuffer.allocate(0));
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        }, "micapp.stream");
+    }
+
+    public void start() {
+        mThread.start();
+    }
+
+    /**
+     * A cleared slot of at least size bytes for the type byte and payload
+     * of a message, or null if the queue is full. Pass it to send() once
+     * written. Never blocks.
+     */
+    public ByteBuffer obtain(int size) {
+        ByteBuffer slot = mRunning ? mFree.poll() : null;
+        if (slot == null) {
+            mDropped.incrementAndGet();
+            return null;
+        }
+        if (slot.capacity() < size) {
+            slot = ByteBuffer.allocate(size);
+        }
+        slot.clear();
+        return slot;
+    }
+
+    // queues a slot from obtain(), written from position 0 to its position
+    public void send(ByteBuffer slot) {
+        slot.flip();
+        // cannot fail, there are as many places as slots
+        mQueue.add(slot);
+    }
+
+    // messages dropped because the queue was full, or the connection is gone
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    public long getSent() {
+        return mSent.get();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    void sendLoop() {
+        try {
+            while (mRunning) {
+                ByteBuffer slot = mQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (slot == null) {
+                    continue;
+                }
+                synchronized (mOut) {
+                    mOut.writeInt(slot.remaining());
+                    mOut.write(slot.array(), slot.arrayOffset(), slot.remaining());
+                    mOut.flush();
+                }
+                mSent.incrementAndGet();
+                mFree.add(slot);
+            }
+        } catch (IOException | InterruptedException e) {
+            // the connection is gone, everything from now on is dropped
+        } finally {
+            mRunning = false;
+        }
+    }
+
+    /**
+     * Stops sending, the queued messages are dropped. Returns once the
+     * sender thread has ended.
+     */
+    public void close() {
+        mRunning = false;
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mDropped.addAndGet(mQueue.size());
+        mQueue.clear();
+    }
+}
@@ -0,0 +1,365 @@
+package com.facebook.micapp;
+
+import com.facebook.micapp.analysis.AudioFile;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AudioInput generating the capture instead of reading a device.
+ *
+ * The signal is a sine, gaussian white noise, a repeated exponential chirp
+ * or the looped replay of a file, the same on every channel (a replayed
+ * file maps its channels round robin). Dropouts can be injected as periodic
+ * runs of silence.
+ *
+ * At speed 1 every read blocks until its last frame would have been
+ * captured, like AudioRecord. Other speeds run that many times faster or
+ * slower, and speed 0 runs as fast as the reader reads. The timestamps
+ * always follow the frames at the nominal rate, as if captured in real
+ * time, so only the read timing stats depend on the speed.
+ *
+ * Uses no android classes, so the whole capture path runs on a plain JVM.
+ */
+public class SyntheticInput implements AudioInput {
+    public static final int SIGNAL_SINE = 0;
+    public static final int SIGNAL_NOISE = 1;
+    public static final int SIGNAL_CHIRP = 2;
+    public static final int SIGNAL_FILE = 3;
+    static final double DEFAULT_FREQUENCY = 1000;
+    static final double DEFAULT_LEVEL_DB = -20;
+    static final double CHIRP_START_FREQUENCY = 20;
+    static final int CHIRP_SWEEP_MS = 1000;
+
+    final int mSampleRate;
+    final int mChannels;
+    final int mBytesPerSample;
+    final boolean mFloat;
+    final int mFrameSize;
+    // integer samples are scaled to their width and shifted to the top of an int
+    final double mIntScale;
+    final int mIntShift;
+    final Random mRandom = new Random(1);
+    int mSignal = SIGNAL_SINE;
+    // amplitude of the tones, rms of the noise
+    double mLevel = dBToFloat(DEFAULT_LEVEL_DB);
+    double mFrequency = DEFAULT_FREQUENCY;
+    double mEndFrequency = DEFAULT_FREQUENCY;
+    int mSweepFrames = 1;
+    AudioFile mReplay = null;
+    double mSpeed = 1;
+    int mDropoutIntervalFrames = 0;
+    int mDropoutFrames = 0;
+
+    float[] mSamples = new float[0];
+    float[] mReplaySamples = new float[0];
+    double mPhase = 0;
+    long mFrames = 0;
+    long mStartNs = 0;
+    long mDropouts = 0;
+    volatile boolean mRecording = false;
+
+    public SyntheticInput(int sampleRate, int channels, int bytesPerSample, boolean isFloat) {
+        if (bytesPerSample < 2 || bytesPerSample > 4 || (isFloat && bytesPerSample != 4)) {
+            throw new IllegalArgumentException("Unsupported sample size: " + bytesPerSample);
+        }
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBytesPerSample = bytesPerSample;
+        mFloat = isFloat;
+        mFrameSize = channels * bytesPerSample;
+        mIntScale = (1L << (8 * bytesPerSample - 1)) - 1;
+        mIntShift = 32 - 8 * bytesPerSample;
+    }
+
+    // same as Utils.dBToFloat(), which cannot be used off-device
+    static double dBToFloat(double val) {
+        return Math.pow(10, val / 20.0);
+    }
+
+    public void setSine(double frequency, double levelDb) {
+        mSignal = SIGNAL_SINE;
+        mFrequency = frequency;
+        mLevel = dBToFloat(levelDb);
+    }
+
+    public void setNoise(double levelDb) {
+        mSignal = SIGNAL_NOISE;
+        mLevel = dBToFloat(levelDb);
+    }
+
+    // sweeps from startFrequency to endFrequency in sweepMs, over and over
+    public void setChirp(double startFrequency, double endFrequency, int sweepMs, double levelDb) {
+        mSignal = SIGNAL_CHIRP;
+        mFrequency = startFrequency;
+        mEndFrequency = endFrequency;
+        mSweepFrames = Math.max(1, (int) ((long) mSampleRate * sweepMs / 1000));
+        mLevel = dBToFloat(levelDb);
+    }
+
+    // the file is read as is, at the sample rate of the input, and closed on release()
+    public void setReplay(AudioFile file) {
+        mSignal = SIGNAL_FILE;
+        mReplay = file;
+    }
+
+    // 1 is real time, 0 as fast as possible
+    public void setSpeed(double speed) {
+        mSpeed = speed;
+    }
+
+    // every intervalMs the last lengthMs of the interval are silent, 0 disables dropouts
+    public void setDropouts(int intervalMs, int lengthMs) {
+        mDropoutIntervalFrames = (int) ((long) mSampleRate * intervalMs / 1000);
+        mDropoutFrames = (int) ((long) mSampleRate * lengthMs / 1000);
+    }
+
+    /**
+     * Sets the signal from a "<signal>[:<frequency>][:<level_db>]" string,
+     * e.g. "sine:440:-6", "noise::-30" or "chirp". File replay is set with
+     * setReplay().
+     */
+    public void setSignal(String spec) {
+        String[] fields = spec.split(":", -1);
+        double frequency = (fields.length > 1 && !fields[1].isEmpty()) ?
+                Double.parseDouble(fields[1]) : DEFAULT_FREQUENCY;
+        double levelDb = (fields.length > 2 && !fields[2].isEmpty()) ?
+                Double.parseDouble(fields[2]) : DEFAULT_LEVEL_DB;
+        switch (signalFromString(fields[0])) {
+            case SIGNAL_NOISE:
+                setNoise(levelDb);
+                break;
+            case SIGNAL_CHIRP:
+                setChirp(CHIRP_START_FREQUENCY, 0.45 * mSampleRate, CHIRP_SWEEP_MS, levelDb);
+                break;
+            case SIGNAL_SINE:
+                setSine(frequency, levelDb);
+                break;
+            default:
+                throw new IllegalArgumentException("Replay needs a file: " + spec);
+        }
+    }
+
+    public static int signalFromString(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "sine":
+                return SIGNAL_SINE;
+            case "noise":
+                return SIGNAL_NOISE;
+            case "chirp":
+                return SIGNAL_CHIRP;
+            case "file":
+                return SIGNAL_FILE;
+            default:
+                throw new IllegalArgumentException("Unknown signal: " + name);
+        }
+    }
+
+    public static String signalToString(int signal) {
+        switch (signal) {
+            case SIGNAL_SINE:
+                return "sine";
+            case SIGNAL_NOISE:
+                return "noise";
+            case SIGNAL_CHIRP:
+                return "chirp";
+            case SIGNAL_FILE:
+                return "file";
+            default:
+                return "unknown";
+        }
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    // dropouts started so far
+    public long getDropouts() {
+        return mDropouts;
+    }
+
+    @Override
+    public void start() {
+        mFrames = 0;
+        mPhase = 0;
+        mDropouts = 0;
+        mStartNs = System.nanoTime();
+        mRecording = true;
+    }
+
+    @Override
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) {
+        if (!mRecording) {
+            return ERROR;
+        }
+        int frames = length / mFrameSize;
+        int samples = frames * mChannels;
+        if (mSamples.length < samples) {
+            mSamples = new float[samples];
+        }
+        try {
+            generate(mSamples, frames);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ERROR;
+        }
+        injectDropouts(mSamples, frames);
+        encode(mSamples, samples, data, offset);
+        mFrames += frames;
+        if (mSpeed > 0) {
+            long due = mStartNs + (long) (mFrames * 1e9 / mSampleRate / mSpeed);
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return frames * mFrameSize;
+    }
+
+    void generate(float[] dst, int frames) throws IOException {
+        if (mSignal == SIGNAL_FILE) {
+            replay(dst, frames);
+            return;
+        }
+        for (int i = 0; i < frames; i++) {
+            float val;
+            switch (mSignal) {
+                case SIGNAL_NOISE:
+                    val = (float) Math.max(-1, Math.min(1, mLevel * mRandom.nextGaussian()));
+                    break;
+                case SIGNAL_CHIRP: {
+                    double position = (double) ((mFrames + i) % mSweepFrames) / mSweepFrames;
+                    double frequency = mFrequency * Math.pow(mEndFrequency / mFrequency, position);
+                    val = (float) (mLevel * Math.sin(mPhase));
+                    mPhase += 2 * Math.PI * frequency / mSampleRate;
+                    break;
+                }
+                default:
+                    val = (float) (mLevel * Math.sin(mPhase));
+                    mPhase += 2 * Math.PI * mFrequency / mSampleRate;
+                    break;
+            }
+            if (mPhase > 2 * Math.PI) {
+                mPhase -= 2 * Math.PI;
+            }
+            for (int ch = 0; ch < mChannels; ch++) {
+                dst[i * mChannels + ch] = val;
+            }
+        }
+    }
+
+    void replay(float[] dst, int frames) throws IOException {
+        int fileChannels = mReplay.getChannels();
+        if (mReplaySamples.length < frames * fileChannels) {
+            mReplaySamples = new float[frames * fileChannels];
+        }
+        int done = 0;
+        while (done < frames) {
+            long position = (mFrames + done) % mReplay.getFrames();
+            int read = mReplay.read(position, mReplaySamples, frames - done);
+            if (read <= 0) {
+                throw new IOException("Nothing to replay in " + mReplay.getFile());
+            }
+            for (int i = 0; i < read; i++) {
+                for (int ch = 0; ch < mChannels; ch++) {
+                    dst[(done + i) * mChannels + ch] = mReplaySamples[i * fileChannels + ch % fileChannels];
+                }
+            }
+            done += read;
+        }
+    }
+
+    void injectDropouts(float[] dst, int frames) {
+        if (mDropoutIntervalFrames <= 0 || mDropoutFrames <= 0) {
+            return;
+        }
+        int silentFrom = mDropoutIntervalFrames - mDropoutFrames;
+        for (int i = 0; i < frames; i++) {
+            long phase = (mFrames + i) % mDropoutIntervalFrames;
+            if (phase >= silentFrom) {
+                if (phase == silentFrom) {
+                    mDropouts++;
+                }
+                for (int ch = 0; ch < mChannels; ch++) {
+                    dst[i * mChannels + ch] = 0;
+                }
+            }
+        }
+    }
+
+    // the inverse of CaptureFormat.toFloats()
+    void encode(float[] src, int samples, byte[] data, int offset) {
+        int index = offset;
+        for (int i = 0; i < samples; i++) {
+            float val = Math.max(-1, Math.min(1, src[i]));
+            int bits;
+            if (mFloat) {
+                bits = Float.floatToRawIntBits(val);
+            } else {
+                bits = (int) Math.round(val * mIntScale) << mIntShift;
+            }
+            // the top bytes of the 32-bit value
+            for (int b = 4 - mBytesPerSample; b < 4; b++) {
+                data[index++] = (byte) (bits >> (8 * b));
+            }
+        }
+    }
+
+    @Override
+    public boolean getTimestamp(Timestamp timestamp) {
+        if (mFrames == 0) {
+            return false;
+        }
+        timestamp.framePosition = mFrames;
+        timestamp.nanoTime = mStartNs + mFrames * 1000000000L / mSampleRate;
+        return true;
+    }
+
+    @Override
+    public int getAudioSessionId() {
+        return 0;
+    }
+
+    @Override
+    public void stop() {
+        mRecording = false;
+    }
+
+    @Override
+    public void release() {
+        mRecording = false;
+        if (mReplay != null) {
+            try {
+                mReplay.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append("synthetic " + signalToString(mSignal));
+        if (mSignal == SIGNAL_FILE) {
+            str.append(" " + mReplay.getFile().getName());
+        } else {
+            str.append(String.format(Locale.ROOT, " %.0f Hz %.1f dBFS", mFrequency, 20 * Math.log10(mLevel)));
+        }
+        if (mDropoutFrames > 0) {
+            str.append(" with dropouts");
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,401 @@
+package com.facebook.micapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Steps run back to back by a single launch of the app.
+ *
+ * The plan is text-proto or JSON, both read by the same lenient parser:
+ * keys may be quoted, the ':' before a message and the ',' between fields
+ * are optional and '#' starts a comment. E.g.
+ *
+ *   duration_sec: 5
+ *   stimulus: "chirp"
+ *   step { name: "vc" audio_source: VOICE_COMMUNICATION effects: "aec,ns" }
+ *   step { name: "raw" audio_source: UNPROCESSED effects: "none" }
+ *   matrix { sample_rate: [16000, 48000] }
+ *
+ * Top level step fields are the defaults of every step. Every step ("step"
+ * messages, or a "steps" list in JSON) is run once per combination of the
+ * matrix values, the first matrix field varying slowest. The matrix values
+ * override the step fields. Without steps the defaults are the only step.
+ *
+ * Parsing uses no android classes, so plans can be checked on a plain JVM.
+ */
+public class TestPlan {
+    final List<Step> mSteps;
+
+    /**
+     * One capture, with the stimulus looped for the whole step.
+     */
+    public static class Step {
+        public String name = null;
+        // a MediaRecorder.AudioSource name or number
+        public String audioSource = "VOICE_COMMUNICATION";
+        // null is the default input, several ids capture together
+        public int[] inputIds = null;
+        public int sampleRate = 48000;
+        // "aec,agc,ns" enables those and disables the others, "none" all,
+        // "default" leaves them as they are
+        public String effects = "default";
+        // a sound resource name (chirp, noise or voice), "none" for silence
+        public String stimulus = "none";
+        // a SyntheticInput signal captured instead of the inputs, null for the inputs
+        public String synthetic = null;
+        public float durationSec = 5;
+
+        Step copy() {
+            Step step = new Step();
+            step.name = name;
+            step.audioSource = audioSource;
+            step.inputIds = (inputIds != null) ? inputIds.clone() : null;
+            step.sampleRate = sampleRate;
+            step.effects = effects;
+            step.stimulus = stimulus;
+            step.synthetic = synthetic;
+            step.durationSec = durationSec;
+            return step;
+        }
+
+        /**
+         * Sets a field from its plan values, false if the key is not a step
+         * field. Only input_id takes more than one value.
+         */
+        boolean set(String key, List<Object> values) {
+            String value = scalar(key, values.get(values.size() - 1));
+            switch (key) {
+                case "name":
+                    name = value;
+                    break;
+                case "audio_source":
+                    audioSource = value;
+                    break;
+                case "input_id": {
+                    // [12, 14] or "12,14"
+                    List<Integer> ids = new ArrayList<>();
+                    for (Object item : values) {
+                        for (String id : scalar(key, item).split("[,]")) {
+                            if (!id.trim().isEmpty()) {
+                                ids.add(Integer.parseInt(id.trim()));
+                            }
+                        }
+                    }
+                    inputIds = new int[ids.size()];
+                    for (int i = 0; i < inputIds.length; i++) {
+                        inputIds[i] = ids.get(i);
+                    }
+                    if (inputIds.length == 0) {
+                        inputIds = null;
+                    }
+                    break;
+                }
+                case "sample_rate":
+                    sampleRate = Integer.parseInt(value);
+                    break;
+                case "effects":
+                    effects = value.toLowerCase(Locale.ROOT);
+                    break;
+                case "stimulus":
+                    stimulus = value.toLowerCase(Locale.ROOT);
+                    break;
+                case "synthetic":
+                    synthetic = value.equals("null") ? null : value;
+                    break;
+                case "duration_sec":
+                    durationSec = Float.parseFloat(value);
+                    break;
+                default:
+                    return false;
+            }
+            return true;
+        }
+
+        // "none" and "default" are false for every effect
+        public boolean isEffectEnabled(String effect) {
+            for (String name : effects.split("[,+ ]")) {
+                if (name.equals(effect)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public String toString(int indent) {
+            String tab = Utils.getIndentation(indent);
+            StringBuilder str = new StringBuilder();
+            str.append(tab + "step {\n");
+            indent += 1;
+            tab = Utils.getIndentation(indent);
+            if (name != null) {
+                str.append(tab + "name: \"" + name + "\"\n");
+            }
+            str.append(tab + "audio_source: " + audioSource + "\n");
+            if (inputIds != null) {
+                for (int id : inputIds) {
+                    str.append(tab + "input_id: " + id + "\n");
+                }
+            }
+            str.append(tab + "sample_rate: " + sampleRate + "\n");
+            str.append(tab + "effects: \"" + effects + "\"\n");
+            str.append(tab + "stimulus: \"" + stimulus + "\"\n");
+            if (synthetic != null) {
+                str.append(tab + "synthetic: \"" + synthetic + "\"\n");
+            }
+            str.append(String.format(Locale.ROOT, "%sduration_sec: %.1f\n", tab, durationSec));
+            indent -= 1;
+            tab = Utils.getIndentation(indent);
+            str.append(tab + "}\n");
+            return str.toString();
+        }
+    }
+
+    TestPlan(List<Step> steps) {
+        mSteps = steps;
+    }
+
+    public List<Step> getSteps() {
+        return mSteps;
+    }
+
+    public static TestPlan read(File file) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        try {
+            return parse(text);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static TestPlan parse(String text) {
+        Map<String, List<Object>> plan = new Parser(text).parsePlan();
+        Step defaults = new Step();
+        List<Map<String, List<Object>>> stepFields = new ArrayList<>();
+        Map<String, List<Object>> matrix = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Object>> field : plan.entrySet()) {
+            String key = field.getKey();
+            if (key.equals("step") || key.equals("steps")) {
+                for (Object value : field.getValue()) {
+                    stepFields.add(message(key, value));
+                }
+            } else if (key.equals("matrix")) {
+                for (Object value : field.getValue()) {
+                    matrix.putAll(message(key, value));
+                }
+            } else if (!defaults.set(key, field.getValue())) {
+                throw new IllegalArgumentException("Unknown plan field: " + key);
+            }
+        }
+        if (stepFields.isEmpty()) {
+            stepFields.add(new LinkedHashMap<String, List<Object>>());
+        }
+        List<Step> steps = new ArrayList<>();
+        for (Map<String, List<Object>> fields : stepFields) {
+            Step step = defaults.copy();
+            for (Map.Entry<String, List<Object>> field : fields.entrySet()) {
+                if (!step.set(field.getKey(), field.getValue())) {
+                    throw new IllegalArgumentException("Unknown step field: " + field.getKey());
+                }
+            }
+            expand(step, new ArrayList<>(matrix.entrySet()), 0, steps);
+        }
+        return new TestPlan(steps);
+    }
+
+    // adds a copy of step for every combination of the matrix fields from index on
+    static void expand(Step step, List<Map.Entry<String, List<Object>>> matrix, int index, List<Step> steps) {
+        if (index == matrix.size()) {
+            steps.add(step);
+            return;
+        }
+        Map.Entry<String, List<Object>> field = matrix.get(index);
+        for (Object value : field.getValue()) {
+            Step combination = step.copy();
+            List<Object> values = new ArrayList<>();
+            values.add(value);
+            if (!combination.set(field.getKey(), values)) {
+                throw new IllegalArgumentException("Unknown matrix field: " + field.getKey());
+            }
+            expand(combination, matrix, index + 1, steps);
+        }
+    }
+
+    static String scalar(String key, Object value) {
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(key + " is not a value");
+        }
+        return (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, List<Object>> message(String key, Object value) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException(key + " is not a message");
+        }
+        return (Map<String, List<Object>>) value;
+    }
+
+    /**
+     * Reads messages into maps of every value of each key, in plan order.
+     * Lists add each of their items as a value, so "a: [1, 2]" is the same
+     * as "a: 1 a: 2". Scalars are kept as strings.
+     */
+    static class Parser {
+        final String mText;
+        int mPos = 0;
+
+        Parser(String text) {
+            mText = text;
+        }
+
+        Map<String, List<Object>> parsePlan() {
+            skipSpace();
+            Map<String, List<Object>> plan;
+            if (peek() == '{') {
+                // JSON
+                mPos++;
+                plan = parseMessage('}');
+                expect('}');
+            } else {
+                plan = parseMessage((char) 0);
+            }
+            skipSpace();
+            if (mPos < mText.length()) {
+                throw error("Unexpected '" + peek() + "'");
+            }
+            return plan;
+        }
+
+        Map<String, List<Object>> parseMessage(char end) {
+            Map<String, List<Object>> fields = new LinkedHashMap<>();
+            while (true) {
+                skipSeparators();
+                if (mPos == mText.length() || peek() == end) {
+                    return fields;
+                }
+                String key = parseScalar();
+                skipSpace();
+                if (peek() == ':') {
+                    mPos++;
+                    skipSpace();
+                }
+                List<Object> values = fields.get(key);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    fields.put(key, values);
+                }
+                if (peek() == '[') {
+                    mPos++;
+                    while (true) {
+                        skipSeparators();
+                        if (peek() == ']') {
+                            mPos++;
+                            break;
+                        }
+                        values.add(parseValue());
+                    }
+                } else {
+                    values.add(parseValue());
+                }
+            }
+        }
+
+        Object parseValue() {
+            skipSpace();
+            if (peek() == '{') {
+                mPos++;
+                Map<String, List<Object>> message = parseMessage('}');
+                expect('}');
+                return message;
+            }
+            return parseScalar();
+        }
+
+        String parseScalar() {
+            skipSpace();
+            char c = peek();
+            if (c == '"' || c == '\'') {
+                StringBuilder str = new StringBuilder();
+                mPos++;
+                while (peek() != c) {
+                    char next = mText.charAt(mPos++);
+                    if (next == '\\') {
+                        next = peek();
+                        mPos++;
+                    }
+                    str.append(next);
+                }
+                mPos++;
+                return str.toString();
+            }
+            int start = mPos;
+            while (mPos < mText.length() && isWordChar(mText.charAt(mPos))) {
+                mPos++;
+            }
+            if (mPos == start) {
+                throw error("Unexpected '" + c + "'");
+            }
+            return mText.substring(start, mPos);
+        }
+
+        static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-' || c == '+';
+        }
+
+        void expect(char c) {
+            skipSpace();
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            mPos++;
+        }
+
+        // the next character, fails at the end of the plan
+        char peek() {
+            if (mPos >= mText.length()) {
+                throw error("Unexpected end of plan");
+            }
+            return mText.charAt(mPos);
+        }
+
+        void skipSpace() {
+            while (mPos < mText.length()) {
+                char c = mText.charAt(mPos);
+                if (c == '#') {
+                    while (mPos < mText.length() && mText.charAt(mPos) != '\n') {
+                        mPos++;
+                    }
+                } else if (Character.isWhitespace(c)) {
+                    mPos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        void skipSeparators() {
+            skipSpace();
+            while (mPos < mText.length() && (peek() == ',' || peek() == ';')) {
+                mPos++;
+                skipSpace();
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            int line = 1;
+            for (int i = 0; i < Math.min(mPos, mText.length()); i++) {
+                if (mText.charAt(i) == '\n') {
+                    line++;
+                }
+            }
+            return new IllegalArgumentException(message + " at line " + line);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.facebook.micapp;
+
+/**
+ * Welch H1 estimate of the transfer function from a stimulus x to a response y.
+ *
+ * The signals are fed in aligned pairs, in any number of calls, and cut into
+ * Hann windowed segments overlapping by half. The auto spectra of x and y
+ * and their cross spectrum are summed over all segments, so only one segment
+ * of each signal is held in memory:
+ *
+ *   H1(f) = Sxy(f) / Sxx(f)
+ *   coherence(f) = |Sxy(f)|^2 / (Sxx(f) Syy(f))
+ *
+ * H1 is unbiased by noise in y, the coherence tells how much of y is
+ * explained by x. 1/3 octave band gains only use bins with a coherence of at
+ * least MIN_COHERENCE.
+ */
+public class TransferFunction {
+    static final double MIN_COHERENCE = 0.5;
+
+    final int mSampleRate;
+    final int mFftSize;
+    final int mHop;
+    final RealFft mFft;
+    final double[] mWindow;
+    final double[] mFrameX;
+    final double[] mFrameY;
+    final double[] mWindowed;
+    final double[] mRe;
+    final double[] mIm;
+    final double[] mRe2;
+    final double[] mIm2;
+    int mFrameFill = 0;
+
+    final double[] mSxx;
+    final double[] mSyy;
+    final double[] mSxyRe;
+    final double[] mSxyIm;
+    long mSegments = 0;
+
+    final double[] mBandCenters;
+
+    public TransferFunction(int sampleRate, int fftSize) {
+        mSampleRate = sampleRate;
+        mFftSize = fftSize;
+        mHop = fftSize / 2;
+        mFft = new RealFft(fftSize);
+        mWindow = SpectrumAnalyzer.createWindow(SpectrumAnalyzer.WINDOW_HANN, fftSize);
+        mFrameX = new double[fftSize];
+        mFrameY = new double[fftSize];
+        mWindowed = new double[fftSize];
+        int bins = fftSize / 2 + 1;
+        mRe = new double[bins];
+        mIm = new double[bins];
+        mRe2 = new double[bins];
+        mIm2 = new double[bins];
+        mSxx = new double[bins];
+        mSyy = new double[bins];
+        mSxyRe = new double[bins];
+        mSxyIm = new double[bins];
+        mBandCenters = SpectrumAnalyzer.getBandCenters(sampleRate, fftSize);
+    }
+
+    /**
+     * Drops the partial segment, call between unrelated pairs of signals
+     * so that no segment spans both.
+     */
+    public void restart() {
+        mFrameFill = 0;
+    }
+
+    /**
+     * count samples of x from xOffset and of y from yOffset, sample i of
+     * both being the same instant.
+     */
+    public void process(float[] x, int xOffset, float[] y, int yOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            mFrameX[mFrameFill] = x[xOffset + i];
+            mFrameY[mFrameFill] = y[yOffset + i];
+            if (++mFrameFill == mFftSize) {
+                addSegment();
+                System.arraycopy(mFrameX, mHop, mFrameX, 0, mFftSize - mHop);
+                System.arraycopy(mFrameY, mHop, mFrameY, 0, mFftSize - mHop);
+                mFrameFill = mFftSize - mHop;
+            }
+        }
+    }
+
+    void addSegment() {
+        for (int i = 0; i < mFftSize; i++) {
+            mWindowed[i] = mFrameX[i] * mWindow[i];
+        }
+        mFft.transform(mWindowed, mRe, mIm);
+        for (int i = 0; i < mFftSize; i++) {
+            mWindowed[i] = mFrameY[i] * mWindow[i];
+        }
+        mFft.transform(mWindowed, mRe2, mIm2);
+        for (int k = 0; k < mSxx.length; k++) {
+            mSxx[k] += mRe[k] * mRe[k] + mIm[k] * mIm[k];
+            mSyy[k] += mRe2[k] * mRe2[k] + mIm2[k] * mIm2[k];
+            // conj(X) * Y
+            mSxyRe[k] += mRe[k] * mRe2[k] + mIm[k] * mIm2[k];
+            mSxyIm[k] += mRe[k] * mIm2[k] - mIm[k] * mRe2[k];
+        }
+        mSegments++;
+    }
+
+    public long getSegments() {
+        return mSegments;
+    }
+
+    public double getBinFrequency(int bin) {
+        return (double) bin * mSampleRate / mFftSize;
+    }
+
+    // |H1|^2
+    double getPowerGain(int bin) {
+        if (mSxx[bin] <= 0) {
+            return 0;
+        }
+        return (mSxyRe[bin] * mSxyRe[bin] + mSxyIm[bin] * mSxyIm[bin]) / (mSxx[bin] * mSxx[bin]);
+    }
+
+    public double getGainDb(int bin) {
+        return 10 * Math.log10(Math.max(getPowerGain(bin), 1e-20));
+    }
+
+    public double getPhase(int bin) {
+        return Math.atan2(mSxyIm[bin], mSxyRe[bin]);
+    }
+
+    public double getCoherence(int bin) {
+        double denominator = mSxx[bin] * mSyy[bin];
+        if (denominator <= 0) {
+            return 0;
+        }
+        return (mSxyRe[bin] * mSxyRe[bin] + mSxyIm[bin] * mSxyIm[bin]) / denominator;
+    }
+
+    public double[] getBandCenters() {
+        return mBandCenters.clone();
+    }
+
+    /**
+     * Gain of every 1/3 octave band in dB, the gain of its coherent bins
+     * weighted by the stimulus power in them. NaN for bands without any
+     * coherent bin.
+     */
+    public double[] getBandGainsDb() {
+        double[] gains = new double[mBandCenters.length];
+        for (int i = 0; i < gains.length; i++) {
+            double output = 0;
+            double input = 0;
+            int first = SpectrumAnalyzer.getBandFirstBin(mBandCenters[i], mSampleRate, mFftSize);
+            int last = SpectrumAnalyzer.getBandLastBin(mBandCenters[i], mSampleRate, mFftSize);
+            for (int k = first; k <= last; k++) {
+                if (getCoherence(k) >= MIN_COHERENCE) {
+                    output += getPowerGain(k) * mSxx[k];
+                    input += mSxx[k];
+                }
+            }
+            gains[i] = (input > 0) ? 10 * Math.log10(Math.max(output / input, 1e-20)) : Double.NaN;
+        }
+        return gains;
+    }
+
+    /**
+     * Mean coherence of the bins of every 1/3 octave band.
+     */
+    public double[] getBandCoherence() {
+        double[] coherence = new double[mBandCenters.length];
+        for (int i = 0; i < coherence.length; i++) {
+            int first = SpectrumAnalyzer.getBandFirstBin(mBandCenters[i], mSampleRate, mFftSize);
+            int last = SpectrumAnalyzer.getBandLastBin(mBandCenters[i], mSampleRate, mFftSize);
+            double sum = 0;
+            for (int k = first; k <= last; k++) {
+                sum += getCoherence(k);
+            }
+            coherence[i] = sum / (last - first + 1);
+        }
+        return coherence;
+    }
+
+    /**
+     * Response in dB at frequency, linearly interpolated in log frequency
+     * between the points of a declared response and held beyond its ends,
+     * e.g. for MicrophoneInfo.getFrequencyResponse(). NaN without points.
+     */
+    public static double interpolateDb(float[] frequencies, float[] levels, double frequency) {
+        if (frequencies.length == 0) {
+            return Double.NaN;
+        }
+        if (frequency <= frequencies[0]) {
+            return levels[0];
+        }
+        for (int i = 1; i < frequencies.length; i++) {
+            if (frequency <= frequencies[i]) {
+                double position = Math.log(frequency / frequencies[i - 1]) /
+                        Math.log((double) frequencies[i] / frequencies[i - 1]);
+                return levels[i - 1] + position * (levels[i] - levels[i - 1]);
+            }
+        }
+        return levels[levels.length - 1];
+    }
+}
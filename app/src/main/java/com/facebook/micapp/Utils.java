@@ -13,7 +13,9 @@ import android.os.Bundle;
 import android.util.Log;
 import android.util.Pair;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
@@ -126,6 +128,20 @@ public class Utils {
         return names;
     }
 
+    // a name from audioSourceToString() or the number of the source
+    public static int audioSourceFromString(String name) {
+        for (int i = 0; i <= MediaRecorder.AudioSource.VOICE_PERFORMANCE; i++) {
+            if (audioSourceToString(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown audio source: " + name);
+        }
+    }
+
     public static String audioSourceToString(int source) {
         switch(source) {
             case MediaRecorder.AudioSource
@@ -318,6 +334,30 @@ public class Utils {
         return ret;
     }
 
+    // the whole raw resource, InputStream.available() is not reliable for its size
+    public static byte[] readRawResource(Context context, int id) throws IOException {
+        InputStream is = context.getResources().openRawResource(id);
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                data.write(buffer, 0, count);
+            }
+            return data.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    // 16-bit little endian mono raw resource as floats
+    public static float[] loadRawSound(Context context, int id) throws IOException {
+        byte[] data = readRawResource(context, id);
+        float[] samples = new float[data.length / 2];
+        CaptureFormat.getDefault().toFloats(data, 0, samples, samples.length);
+        return samples;
+    }
+
     public static String getIndentation(int indent) {
         String tab = "";
         if (indent > 0){
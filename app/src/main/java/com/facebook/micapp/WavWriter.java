@@ -0,0 +1,252 @@
+package com.facebook.micapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming WAV writer.
+ *
+ * The header is written when the file is opened, with a JUNK chunk reserving
+ * room for an RF64 ds64 chunk, so nothing has to be moved when the file is
+ * closed. On close the sizes are patched in, and if the file ended up larger
+ * than 4 GB the header is turned into RF64. Pcm is staged in a direct buffer
+ * and written through a FileChannel in large blocks.
+ *
+ * A LIST/INFO chunk with the values set through setInfo() is appended after
+ * the data on close, so it can describe the state at the end of the capture.
+ *
+ * Plain 16-bit mono/stereo uses WAVE_FORMAT_PCM, everything else (more
+ * channels, 24/32-bit, float) WAVE_FORMAT_EXTENSIBLE without speaker
+ * positions, since the channels of a mic array have none.
+ */
+public class WavWriter implements AudioSink {
+    static final int WAVE_FORMAT_PCM = 1;
+    static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    static final int WAVE_FORMAT_EXTENSIBLE = 0xfffe;
+    // the rest of the subformat guid, after the format tag
+    static final byte[] KSDATAFORMAT_SUBTYPE_SUFFIX = {
+            0x00, 0x00, 0x00, 0x00, 0x10, 0x00, (byte) 0x80, 0x00,
+            0x00, (byte) 0xaa, 0x00, 0x38, (byte) 0x9b, 0x71};
+    static final int DS64_SIZE = 28;
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long MAX_RIFF_SIZE = 0xffffffffL;
+
+    final RandomAccessFile mFile;
+    final FileChannel mChannel;
+    final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    final int mBlockAlign;
+    final long mDataOffset;
+    final Map<String, String> mInfo = new LinkedHashMap<>();
+    long mDataSize = 0;
+    // lowered by the tests to exercise RF64 without writing 4 GB
+    long mMaxRiffSize = MAX_RIFF_SIZE;
+
+    public WavWriter(File file, int sampleRate, int channels, int bitsPerSample) throws IOException {
+        this(file, sampleRate, channels, bitsPerSample, false);
+    }
+
+    public WavWriter(File file, int sampleRate, CaptureFormat format) throws IOException {
+        this(file, sampleRate, format.channels, format.getBitsPerSample(), format.isFloat());
+    }
+
+    public WavWriter(File file, int sampleRate, int channels, int bitsPerSample, boolean isFloat) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mBlockAlign = channels * (bitsPerSample / 8);
+
+        ByteBuffer header = createHeader(sampleRate, channels, bitsPerSample, isFloat);
+        writeFully(header);
+        mDataOffset = mChannel.position();
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Adds a LIST/INFO entry, e.g. "ISFT" -> "micapp". Ids are four characters.
+     */
+    @Override
+    public synchronized void setInfo(String id, String value) {
+        if (id.length() != 4) {
+            throw new IllegalArgumentException("Info id must be four characters: " + id);
+        }
+        mInfo.put(id, value);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        mDataSize += length;
+        while (length > 0) {
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.put(data, offset, count);
+            offset += count;
+            length -= count;
+            if (!mBuffer.hasRemaining()) {
+                flushBuffer();
+            }
+        }
+    }
+
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!mChannel.isOpen()) {
+            return;
+        }
+        try {
+            if ((mDataSize & 1) != 0) {
+                // chunks are word aligned
+                mBuffer.put((byte) 0);
+            }
+            flushBuffer();
+            writeInfo();
+            patchHeader(mChannel.position());
+        } finally {
+            mChannel.close();
+            mFile.close();
+        }
+    }
+
+    void flushBuffer() throws IOException {
+        mBuffer.flip();
+        writeFully(mBuffer);
+        mBuffer.clear();
+    }
+
+    void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    synchronized void writeInfo() throws IOException {
+        if (mInfo.isEmpty()) {
+            return;
+        }
+        writeFully(createInfo(mInfo));
+    }
+
+    void patchHeader(long fileSize) throws IOException {
+        patchHeader(mChannel, fileSize, mDataSize, mDataOffset, mBlockAlign, mMaxRiffSize);
+    }
+
+    /**
+     * Header up to and including the data chunk id and size, ready to be written.
+     */
+    static ByteBuffer createHeader(int sampleRate, int channels, int bitsPerSample) {
+        return createHeader(sampleRate, channels, bitsPerSample, false);
+    }
+
+    static ByteBuffer createHeader(int sampleRate, int channels, int bitsPerSample, boolean isFloat) {
+        int blockAlign = channels * (bitsPerSample / 8);
+        int formatTag = isFloat ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM;
+        boolean extensible = isFloat || channels > 2 || bitsPerSample > 16;
+        int fmtSize = extensible ? 40 : 16;
+        ByteBuffer header = ByteBuffer.allocate(12 + 8 + DS64_SIZE + 8 + fmtSize + 8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(fourCC("RIFF"));
+        header.putInt(0);
+        header.put(fourCC("WAVE"));
+        // becomes ds64 if needed
+        header.put(fourCC("JUNK"));
+        header.putInt(DS64_SIZE);
+        header.put(new byte[DS64_SIZE]);
+        header.put(fourCC("fmt "));
+        header.putInt(fmtSize);
+        header.putShort((short) (extensible ? WAVE_FORMAT_EXTENSIBLE : formatTag));
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) bitsPerSample);
+        if (extensible) {
+            header.putShort((short) 22);
+            // valid bits, channel mask
+            header.putShort((short) bitsPerSample);
+            header.putInt(0);
+            header.putShort((short) formatTag);
+            header.put(KSDATAFORMAT_SUBTYPE_SUFFIX);
+        }
+        header.put(fourCC("data"));
+        header.putInt(0);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * LIST/INFO chunk, ready to be written.
+     */
+    static ByteBuffer createInfo(Map<String, String> info) {
+        int size = 4;
+        for (String value : info.values()) {
+            size += 8 + paddedLength(value);
+        }
+        ByteBuffer list = ByteBuffer.allocate(8 + size).order(ByteOrder.LITTLE_ENDIAN);
+        list.put(fourCC("LIST"));
+        list.putInt(size);
+        list.put(fourCC("INFO"));
+        for (Map.Entry<String, String> entry : info.entrySet()) {
+            byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            list.put(fourCC(entry.getKey()));
+            // zero terminated, padded to an even size
+            list.putInt(value.length + 1);
+            list.put(value);
+            list.put((byte) 0);
+            if (((value.length + 1) & 1) != 0) {
+                list.put((byte) 0);
+            }
+        }
+        list.flip();
+        return list;
+    }
+
+    static int paddedLength(String value) {
+        int length = value.getBytes(StandardCharsets.UTF_8).length + 1;
+        return length + (length & 1);
+    }
+
+    /**
+     * Writes the final sizes into a header created by createHeader(), switching to RF64 if needed.
+     */
+    static void patchHeader(FileChannel channel, long fileSize, long dataSize, long dataOffset,
+                            int blockAlign, long maxRiffSize) throws IOException {
+        ByteBuffer field = ByteBuffer.allocate(DS64_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long riffSize = fileSize - 8;
+        if (riffSize <= maxRiffSize && dataSize <= maxRiffSize) {
+            field.putInt((int) riffSize).flip();
+            channel.write(field, 4);
+            field.clear();
+            field.putInt((int) dataSize).flip();
+            channel.write(field, dataOffset - 4);
+            return;
+        }
+        // RF64: the 32 bit sizes are set to -1 and the real ones go in ds64
+        field.put(fourCC("RF64")).putInt(-1).flip();
+        channel.write(field, 0);
+        field.clear();
+        field.put(fourCC("ds64")).flip();
+        channel.write(field, 12);
+        field.clear();
+        field.putLong(riffSize);
+        field.putLong(dataSize);
+        field.putLong(dataSize / blockAlign);
+        field.putInt(0);
+        field.flip();
+        channel.write(field, 20);
+        field.clear();
+        field.putInt(-1).flip();
+        channel.write(field, dataOffset - 4);
+    }
+
+    static byte[] fourCC(String id) {
+        return id.getBytes(StandardCharsets.US_ASCII);
+    }
+}
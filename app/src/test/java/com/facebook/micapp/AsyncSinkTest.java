@@ -0,0 +1,76 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class AsyncSinkTest {
+    static class SlowSink implements AudioSink {
+        final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        final long mDelayMs;
+        boolean mClosed = false;
+
+        SlowSink(long delayMs) {
+            mDelayMs = delayMs;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            try {
+                Thread.sleep(mDelayMs);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            mData.write(data, offset, length);
+        }
+
+        @Override
+        public void setInfo(String id, String value) {
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+
+    @Test
+    public void writesEverythingInOrder() throws Exception {
+        SlowSink slow = new SlowSink(0);
+        CaptureStats stats = new CaptureStats(48000, 480);
+        AsyncSink sink = new AsyncSink(slow, 1000, 2, stats);
+        byte[] chunk = new byte[300];
+        for (int i = 0; i < 21; i++) {
+            for (int j = 0; j < chunk.length; j++) {
+                chunk[j] = (byte) (i * chunk.length + j);
+            }
+            sink.write(chunk, 0, chunk.length);
+        }
+        sink.close();
+        assertTrue(slow.mClosed);
+        byte[] out = slow.mData.toByteArray();
+        assertEquals(21 * chunk.length, out.length);
+        for (int i = 0; i < out.length; i++) {
+            assertEquals((byte) i, out[i]);
+        }
+        // 6 full blocks and the rest on close
+        assertEquals(7, stats.mWrites);
+    }
+
+    @Test
+    public void countsBackPressure() throws Exception {
+        SlowSink slow = new SlowSink(20);
+        CaptureStats stats = new CaptureStats(48000, 480);
+        AsyncSink sink = new AsyncSink(slow, 100, 2, stats);
+        byte[] chunk = new byte[100];
+        for (int i = 0; i < 10; i++) {
+            sink.write(chunk, 0, chunk.length);
+        }
+        sink.close();
+        assertEquals(1000, slow.mData.size());
+        assertTrue(stats.getBackPressureEvents() > 0);
+        assertTrue(stats.getWriteStallMaxMs() >= 10);
+    }
+}
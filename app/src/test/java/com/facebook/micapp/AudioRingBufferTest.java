@@ -0,0 +1,90 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class AudioRingBufferTest {
+    static byte[] ramp(int start, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (start + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void readersWrapIndependently() {
+        AudioRingBuffer ring = new AudioRingBuffer(8, 2);
+        AudioRingBuffer.Reader fast = ring.createReader();
+        AudioRingBuffer.Reader slow = ring.createReader();
+        byte[] out = new byte[16];
+        int value = 0;
+        for (int i = 0; i < 10; i++) {
+            ring.write(ramp(value, 6), 0, 6);
+            assertEquals(6, fast.read(out, 0, out.length));
+            assertArrayEquals(ramp(value, 6), Arrays.copyOf(out, 6));
+            value += 6;
+        }
+        assertEquals(0, fast.getLostBytes());
+        // the slow reader only gets the last capacity bytes
+        assertEquals(16, slow.read(out, 0, out.length));
+        assertArrayEquals(ramp(value - 16, 16), out);
+        assertEquals(60 - 16, slow.getLostBytes());
+    }
+
+    @Test
+    public void readsWholeFramesOnly() {
+        AudioRingBuffer ring = new AudioRingBuffer(16, 4);
+        AudioRingBuffer.Reader reader = ring.createReader();
+        ring.write(ramp(0, 12), 0, 12);
+        byte[] out = new byte[6];
+        assertEquals(4, reader.read(out, 0, out.length));
+        assertEquals(8, reader.available());
+    }
+
+    @Test
+    public void slowReaderNeverSeesTornFrames() throws InterruptedException {
+        // every frame holds its own index, a torn read shows up as a wrong
+        // index. On x86 this catches a reader racing the producer's copy;
+        // reordering of the copy around the checks only shows on weakly
+        // ordered cpus, e.g. when the unit tests run on an arm64 host.
+        final AudioRingBuffer ring = new AudioRingBuffer(64, 4);
+        AudioRingBuffer.Reader reader = ring.createReader();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = new byte[48 * 4];
+                for (int frame = 0; frame < 48 * 40000; ) {
+                    for (int i = 0; i < data.length; i += 4, frame++) {
+                        data[i] = (byte) frame;
+                        data[i + 1] = (byte) (frame >> 8);
+                        data[i + 2] = (byte) (frame >> 16);
+                        data[i + 3] = (byte) (frame >> 24);
+                    }
+                    ring.write(data, 0, data.length);
+                }
+                done.set(true);
+            }
+        });
+        producer.start();
+        byte[] out = new byte[60 * 4];
+        long bytesRead = 0;
+        while (!done.get() || reader.available() > 0) {
+            int read = reader.read(out, 0, out.length);
+            // lost bytes are skipped before the copy
+            long first = (bytesRead + reader.getLostBytes()) / 4;
+            for (int i = 0; i < read; i += 4) {
+                assertEquals(first + i / 4, CaptureFormat.readInt(out, i));
+            }
+            bytesRead += read;
+        }
+        producer.join();
+        assertEquals(48 * 40000 * 4, bytesRead + reader.getLostBytes());
+        assertTrue(bytesRead > 0);
+    }
+}
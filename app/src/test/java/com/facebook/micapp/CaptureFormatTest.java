@@ -0,0 +1,37 @@
+package com.facebook.micapp;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureFormatTest {
+    @Test
+    public void channelsFromMasks() {
+        assertEquals(1, CaptureFormat.getDefault().channels);
+        assertEquals(2, CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_16BIT, 2).channels);
+        CaptureFormat format = CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_24BIT_PACKED, 4);
+        assertEquals(0xf, format.channelIndexMask);
+        assertEquals(12, format.getFrameSize());
+        assertEquals(24, format.getBitsPerSample());
+    }
+
+    @Test
+    public void convertsEveryEncodingToFloats() {
+        float[] out = new float[2];
+        CaptureFormat.getDefault().toFloats(new byte[] {0x00, 0x40, 0x00, (byte) 0x80}, 0, out, 2);
+        assertArrayEquals(new float[] {0.5f, -1.0f}, out, 0);
+        CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_24BIT_PACKED, 1).toFloats(
+                new byte[] {0x00, 0x00, 0x40, 0x00, 0x00, (byte) 0xc0}, 0, out, 2);
+        assertArrayEquals(new float[] {0.5f, -0.5f}, out, 0);
+        CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_32BIT, 1).toFloats(
+                new byte[] {0x00, 0x00, 0x00, 0x40, 0x00, 0x00, 0x00, (byte) 0x80}, 0, out, 2);
+        assertArrayEquals(new float[] {0.5f, -1.0f}, out, 0);
+        int bits = Float.floatToIntBits(-0.25f);
+        CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_FLOAT, 1).toFloats(
+                new byte[] {0, 0, 0, 0, (byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24)},
+                0, out, 2);
+        assertArrayEquals(new float[] {0.0f, -0.25f}, out, 0);
+    }
+}
@@ -0,0 +1,96 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CaptureReaderTest {
+    /**
+     * The capture path of the Recorder, at 20 times real time: synthetic
+     * reads into the ring buffer, a meter and a file writer on a consumer
+     * thread.
+     */
+    @Test
+    public void capturesFasterThanRealTimeWithoutLoss() throws Exception {
+        int sampleRate = 48000;
+        int periodFrames = 480;
+        CaptureFormat format = CaptureFormat.getDefault();
+        SyntheticInput input = new SyntheticInput(sampleRate, 1, 2, false);
+        input.setSine(1000, -20);
+        input.setSpeed(20);
+        AudioRingBuffer ring = new AudioRingBuffer(sampleRate * Recorder.RING_BUFFER_MS / 1000, 2);
+        CaptureStats stats = new CaptureStats(sampleRate, periodFrames);
+        byte[] audioData = new byte[periodFrames * 2];
+        CaptureReader reader = new CaptureReader(input, ring, stats, audioData, 2, sampleRate);
+
+        final LevelMeter meter = new LevelMeter();
+        RingBufferConsumer meterConsumer = new RingBufferConsumer(ring, new CaptureConsumer() {
+            final short[] mShorts = new short[periodFrames];
+
+            @Override
+            public void onCaptureData(byte[] data, int offset, int length) {
+                format.toShorts(data, offset, mShorts, length / 2);
+                meter.process(mShorts, 0, length / 2);
+            }
+
+            @Override
+            public void onCaptureStopped() {
+            }
+        }, audioData.length, "micapp.meter");
+        File file = File.createTempFile("micapp", ".wav");
+        file.deleteOnExit();
+        final WavWriter writer = new WavWriter(file, sampleRate, format);
+        RingBufferConsumer fileConsumer = new RingBufferConsumer(ring, new CaptureConsumer() {
+            @Override
+            public void onCaptureData(byte[] data, int offset, int length) {
+                try {
+                    writer.write(data, offset, length);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void onCaptureStopped() {
+            }
+        }, 10 * audioData.length, "micapp.file");
+        ConsumerThread consumers = new ConsumerThread("micapp.consumers");
+        consumers.add(meterConsumer);
+        consumers.add(fileConsumer);
+        consumers.start();
+
+        // 5 s of audio
+        long startNs = System.nanoTime();
+        input.start();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(periodFrames, reader.read());
+        }
+        input.stop();
+        long elapsedNs = System.nanoTime() - startNs;
+        consumers.stop();
+        for (RingBufferConsumer consumer : consumers.getConsumers()) {
+            stats.addConsumer(consumer.getName(), consumer.getLostBytes());
+        }
+        writer.close();
+
+        assertTrue(elapsedNs >= 240000000L);
+        assertTrue(stats.isHealthy());
+        assertEquals(5 * sampleRate, stats.getFramesDelivered());
+        assertEquals(5 * sampleRate, meter.getCount());
+        assertEquals(-23.01, meter.getRmsDb(), 0.01);
+        assertEquals(10L * sampleRate, writer.getDataSize());
+        assertEquals(sampleRate, stats.getFrameClock().getMeasuredSampleRate(), 1);
+    }
+
+    @Test
+    public void readErrorsAreCounted() {
+        SyntheticInput input = new SyntheticInput(48000, 1, 2, false);
+        CaptureStats stats = new CaptureStats(48000, 480);
+        CaptureReader reader = new CaptureReader(input, new AudioRingBuffer(4800, 2), stats, new byte[960], 2, 48000);
+        // not started
+        assertEquals(AudioInput.ERROR, reader.read());
+        assertFalse(stats.isHealthy());
+    }
+}
@@ -0,0 +1,232 @@
+package com.facebook.micapp;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ControlServerTest {
+    // stands in for the recorders, the player and the effects
+    static class FakeEngine implements ControlEngine {
+        String mInputs = null;
+        int mSampleRate = 0;
+        boolean mCapturing = false;
+        String mSound = null;
+        boolean mLoop = false;
+        boolean[] mEffects = new boolean[3];
+        // fed by the tests instead of a recorder
+        final StreamConsumer mStream = new StreamConsumer(0);
+
+        @Override
+        public synchronized int startCapture(int audioSource, String inputs, int sampleRate, boolean record)
+                throws IOException {
+            if (sampleRate <= 0) {
+                throw new IOException("Bad sample rate: " + sampleRate);
+            }
+            mInputs = inputs;
+            mSampleRate = sampleRate;
+            mCapturing = true;
+            return 1000 + audioSource;
+        }
+
+        @Override
+        public synchronized void stopCapture() {
+            mCapturing = false;
+        }
+
+        @Override
+        public synchronized void play(String sound, boolean loop) {
+            mSound = sound;
+            mLoop = loop;
+        }
+
+        @Override
+        public synchronized void stopSounds() {
+            mSound = null;
+        }
+
+        @Override
+        public synchronized boolean setEffect(int effect, boolean enable) throws IOException {
+            if (effect < 0 || effect >= mEffects.length) {
+                throw new IOException("Unknown effect: " + effect);
+            }
+            // no agc on this device
+            mEffects[effect] = enable && effect != ControlProtocol.EFFECT_AGC;
+            return mEffects[effect];
+        }
+
+        @Override
+        public synchronized String getStats() {
+            return "capturing: " + mCapturing + "\nsample_rate: " + mSampleRate + "\n";
+        }
+
+        @Override
+        public void setStream(StreamSender sender, int streams) {
+            mStream.setSender(sender, streams);
+        }
+    }
+
+    // serves a FakeEngine on a loopback port until closed
+    static class TestServer implements AutoCloseable {
+        final FakeEngine mEngine = new FakeEngine();
+        final ServerSocket mSocket;
+        final Thread mThread;
+
+        TestServer() throws IOException {
+            mSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            final ControlServer server = new ControlServer(mEngine);
+            mThread = new Thread(() -> server.listen(mSocket));
+            mThread.start();
+        }
+
+        ControlClient connect() throws IOException {
+            return new ControlClient(mSocket.getInetAddress().getHostAddress(), mSocket.getLocalPort());
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+            try {
+                mThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void servesOnlyShellRootAndItself() {
+        int ownUid = 10123;
+        assertTrue(ControlServer.isAllowedPeer(2000, ownUid));
+        assertTrue(ControlServer.isAllowedPeer(0, ownUid));
+        assertTrue(ControlServer.isAllowedPeer(ownUid, ownUid));
+        assertFalse(ControlServer.isAllowedPeer(10124, ownUid));
+        assertFalse(ControlServer.isAllowedPeer(1000, ownUid));
+    }
+
+    @Test
+    public void runsRequests() throws Exception {
+        try (TestServer server = new TestServer(); ControlClient client = server.connect()) {
+            FakeEngine engine = server.mEngine;
+            assertEquals("micapp " + ControlProtocol.VERSION, client.ping());
+            assertEquals(1007, client.startCapture(7, "12,14", 16000, true));
+            assertEquals("12,14", engine.mInputs);
+            assertTrue(client.getStats().contains("sample_rate: 16000"));
+            client.play("chirp", true);
+            assertEquals("chirp", engine.mSound);
+            assertTrue(engine.mLoop);
+            client.stopSounds();
+            assertNull(engine.mSound);
+            assertTrue(client.setEffect(ControlProtocol.EFFECT_AEC, true));
+            assertFalse(client.setEffect(ControlProtocol.EFFECT_AGC, true));
+            client.stopCapture();
+            assertTrue(client.getStats().contains("capturing: false"));
+        }
+    }
+
+    @Test
+    public void failedRequestsKeepTheConnection() throws Exception {
+        try (TestServer server = new TestServer(); ControlClient client = server.connect()) {
+            try {
+                client.startCapture(7, "default", 0, false);
+                fail("Started at 0 Hz");
+            } catch (IOException e) {
+                assertEquals("Bad sample rate: 0", e.getMessage());
+            }
+            try {
+                client.setEffect(9, true);
+                fail("Set effect 9");
+            } catch (IOException e) {
+                assertEquals("Unknown effect: 9", e.getMessage());
+            }
+            try {
+                client.request(0x42, ByteBuffer.allocate(0));
+                fail("Unknown request answered");
+            } catch (IOException e) {
+                assertEquals("Unknown request: 66", e.getMessage());
+            }
+            // no payload at all
+            try {
+                client.request(ControlProtocol.START_CAPTURE, ByteBuffer.allocate(0));
+                fail("Short request answered");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Short request"));
+            }
+            assertEquals(1001, client.startCapture(1, "default", 48000, false));
+        }
+    }
+
+    @Test
+    public void streamsBlocks() throws Exception {
+        try (TestServer server = new TestServer(); ControlClient client = server.connect()) {
+            StreamConsumer stream = server.mEngine.mStream;
+            CaptureFormat format = CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_16BIT, 2);
+            FrameClock clock = new FrameClock(48000);
+            clock.onBuffer(0, 1000000000L);
+            stream.onCaptureStarted(48000, format, clock);
+            // not subscribed yet
+            byte[] block = new byte[480 * 4];
+            stream.onCaptureData(block, 0, block.length);
+            client.subscribe(ControlProtocol.STREAM_STATS | ControlProtocol.STREAM_PCM);
+            // full scale square on the left, silence on the right
+            for (int i = 0; i < 480; i++) {
+                short val = (short) ((i % 2 == 0) ? 32767 : -32767);
+                block[4 * i] = (byte) val;
+                block[4 * i + 1] = (byte) (val >> 8);
+            }
+            stream.onCaptureData(block, 0, block.length);
+
+            ControlProtocol.Frame stats = client.readStream();
+            assertEquals(ControlProtocol.STATS_BLOCK, stats.type);
+            assertEquals(0, stats.payload.get());
+            assertEquals(0, stats.payload.getLong());
+            assertEquals(480, stats.payload.getLong());
+            assertEquals(1000000000L + 10000000L, stats.payload.getLong());
+            assertEquals(0, stats.payload.getLong());
+            assertEquals(480, stats.payload.getInt());
+            assertEquals(2, stats.payload.get());
+            assertEquals(0, stats.payload.getFloat(), 0.01);
+            assertEquals(0, stats.payload.getFloat(), 0.01);
+            assertEquals(-100, stats.payload.getFloat(), 0.01);
+            assertEquals(-100, stats.payload.getFloat(), 0.01);
+
+            ControlProtocol.Frame pcm = client.readStream();
+            assertEquals(ControlProtocol.PCM_BLOCK, pcm.type);
+            pcm.payload.position(1 + 8 + 8 + 8 + 8);
+            assertEquals(48000, pcm.payload.getInt());
+            assertEquals(2, pcm.payload.get());
+            assertEquals(2, pcm.payload.get());
+            assertEquals(0, pcm.payload.get());
+            byte[] samples = new byte[pcm.payload.remaining()];
+            pcm.payload.get(samples);
+            assertArrayEquals(block, samples);
+
+            client.subscribe(0);
+            stream.onCaptureData(block, 0, block.length);
+            assertEquals("micapp " + ControlProtocol.VERSION, client.ping());
+        }
+    }
+
+    @Test
+    public void brokenFrameEndsOnlyThatConnection() throws Exception {
+        try (TestServer server = new TestServer()) {
+            try (Socket socket = new Socket(server.mSocket.getInetAddress(), server.mSocket.getLocalPort())) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(ControlProtocol.MAX_FRAME_BYTES + 1);
+                out.flush();
+                assertEquals(-1, socket.getInputStream().read());
+            }
+            try (ControlClient client = server.connect()) {
+                assertEquals("micapp " + ControlProtocol.VERSION, client.ping());
+            }
+        }
+    }
+}
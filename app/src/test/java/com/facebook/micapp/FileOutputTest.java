@@ -0,0 +1,34 @@
+package com.facebook.micapp;
+
+import com.facebook.micapp.analysis.AudioFile;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class FileOutputTest {
+    @Test
+    public void writesInRealTime() throws Exception {
+        File file = File.createTempFile("micapp", ".wav");
+        file.deleteOnExit();
+        FileOutput output = new FileOutput(file, 48000, true);
+        byte[] data = new byte[960];
+        assertTrue(output.write(data, 0, data.length) < 0);
+        long startNs = System.nanoTime();
+        output.play();
+        // 100 ms
+        for (int i = 0; i < 10; i++) {
+            assertEquals(data.length, output.write(data, 0, data.length));
+        }
+        assertTrue(System.nanoTime() - startNs >= 95000000L);
+        output.stop();
+        output.release();
+
+        try (AudioFile audio = AudioFile.open(file)) {
+            assertEquals(48000, audio.getSampleRate());
+            assertEquals(4800, audio.getFrames());
+        }
+    }
+}
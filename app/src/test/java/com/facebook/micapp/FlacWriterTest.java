@@ -0,0 +1,402 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.*;
+
+public class FlacWriterTest {
+    /**
+     * Decodes what FlacEncoder writes, checking the CRCs of every frame.
+     */
+    static class Decoded {
+        int sampleRate;
+        int channels;
+        int bitsPerSample;
+        long totalFrames;
+        byte[] md5 = new byte[16];
+        int[][] samples;
+        final Map<String, String> comments = new HashMap<>();
+    }
+
+    static class BitReader {
+        final byte[] mData;
+        long mBit = 0;
+
+        BitReader(byte[] data, int offset) {
+            mData = data;
+            mBit = 8L * offset;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++, mBit++) {
+                value = (value << 1) | ((mData[(int) (mBit >> 3)] >> (7 - (mBit & 7))) & 1);
+            }
+            return value;
+        }
+
+        long readSigned(int bits) {
+            long value = read(bits);
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+
+        long readRice(int param) {
+            long quotient = 0;
+            while (read(1) == 0) {
+                quotient++;
+            }
+            long folded = (quotient << param) | read(param);
+            return (folded >>> 1) ^ -(folded & 1);
+        }
+
+        void align() {
+            mBit = (mBit + 7) & ~7L;
+        }
+
+        int getBytePosition() {
+            return (int) (mBit >> 3);
+        }
+    }
+
+    static int crc(byte[] data, int from, int to, int bits, int poly) {
+        int top = 1 << (bits - 1);
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc ^= (data[i] & 0xff) << (bits - 8);
+            for (int bit = 0; bit < 8; bit++) {
+                crc = ((crc & top) != 0) ? (crc << 1) ^ poly : crc << 1;
+            }
+            crc &= (1 << bits) - 1;
+        }
+        return crc;
+    }
+
+    static Decoded decode(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        assertEquals("fLaC", new String(data, 0, 4, StandardCharsets.US_ASCII));
+        Decoded decoded = new Decoded();
+        BitReader in = new BitReader(data, 4);
+        boolean last = false;
+        while (!last) {
+            last = in.read(1) == 1;
+            int type = (int) in.read(7);
+            int length = (int) in.read(24);
+            int start = in.getBytePosition();
+            if (type == 0) {
+                in.read(16 + 16 + 24 + 24);
+                decoded.sampleRate = (int) in.read(20);
+                decoded.channels = (int) in.read(3) + 1;
+                decoded.bitsPerSample = (int) in.read(5) + 1;
+                decoded.totalFrames = in.read(36);
+                System.arraycopy(data, in.getBytePosition(), decoded.md5, 0, 16);
+            } else if (type == 4) {
+                ByteBuffer comments = ByteBuffer.wrap(data, start, length).order(ByteOrder.LITTLE_ENDIAN);
+                int vendorLength = comments.getInt();
+                comments.position(comments.position() + vendorLength);
+                for (int count = comments.getInt(); count > 0; count--) {
+                    byte[] comment = new byte[comments.getInt()];
+                    comments.get(comment);
+                    String[] split = new String(comment, StandardCharsets.UTF_8).split("=", 2);
+                    decoded.comments.put(split[0], split[1]);
+                }
+            }
+            in = new BitReader(data, start + length);
+        }
+
+        int bps = decoded.bitsPerSample;
+        decoded.samples = new int[decoded.channels][(int) decoded.totalFrames];
+        int position = 0;
+        long frameNumber = 0;
+        while (in.getBytePosition() < data.length) {
+            int frameStart = in.getBytePosition();
+            assertEquals(0xfff8, in.read(16));
+            int blockSizeCode = (int) in.read(4);
+            in.read(4);
+            assertEquals(decoded.channels - 1, in.read(4));
+            in.read(3 + 1);
+            long number = in.read(8);
+            int extra = 0;
+            while ((number & (0x80 >> extra)) != 0) {
+                extra++;
+            }
+            if (extra > 0) {
+                number &= 0x7f >> extra;
+                for (int i = 1; i < extra; i++) {
+                    number = (number << 6) | (in.read(8) & 0x3f);
+                }
+            }
+            assertEquals(frameNumber++, number);
+            int n;
+            if (blockSizeCode == 6) {
+                n = (int) in.read(8) + 1;
+            } else if (blockSizeCode == 7) {
+                n = (int) in.read(16) + 1;
+            } else {
+                assertEquals(12, blockSizeCode);
+                n = 4096;
+            }
+            int headerCrc = crc(data, frameStart, in.getBytePosition(), 8, 0x07);
+            assertEquals(headerCrc, in.read(8));
+
+            for (int ch = 0; ch < decoded.channels; ch++) {
+                decodeSubframe(in, decoded.samples[ch], position, n, bps);
+            }
+            in.align();
+            int frameCrc = crc(data, frameStart, in.getBytePosition(), 16, 0x8005);
+            assertEquals(frameCrc, in.read(16));
+            position += n;
+        }
+        assertEquals(decoded.totalFrames, position);
+        return decoded;
+    }
+
+    static void decodeSubframe(BitReader in, int[] out, int start, int n, int bps) {
+        assertEquals(0, in.read(1));
+        int type = (int) in.read(6);
+        // no wasted bits
+        assertEquals(0, in.read(1));
+        if (type == FlacEncoder.SUBFRAME_CONSTANT) {
+            int value = (int) in.readSigned(bps);
+            for (int i = 0; i < n; i++) {
+                out[start + i] = value;
+            }
+        } else if (type == FlacEncoder.SUBFRAME_VERBATIM) {
+            for (int i = 0; i < n; i++) {
+                out[start + i] = (int) in.readSigned(bps);
+            }
+        } else if ((type & 0x38) == FlacEncoder.SUBFRAME_FIXED) {
+            int order = type & 7;
+            long[][] coefs = {{}, {1}, {2, -1}, {3, -3, 1}, {4, -6, 4, -1}};
+            for (int i = 0; i < order; i++) {
+                out[start + i] = (int) in.readSigned(bps);
+            }
+            long[] residual = readResidual(in, n, order);
+            for (int i = order; i < n; i++) {
+                long prediction = 0;
+                for (int j = 0; j < order; j++) {
+                    prediction += coefs[order][j] * out[start + i - j - 1];
+                }
+                out[start + i] = (int) (prediction + residual[i]);
+            }
+        } else {
+            assertTrue(type >= FlacEncoder.SUBFRAME_LPC);
+            int order = (type & 0x1f) + 1;
+            for (int i = 0; i < order; i++) {
+                out[start + i] = (int) in.readSigned(bps);
+            }
+            int precision = (int) in.read(4) + 1;
+            int shift = (int) in.readSigned(5);
+            long[] qlp = new long[order];
+            for (int i = 0; i < order; i++) {
+                qlp[i] = in.readSigned(precision);
+            }
+            long[] residual = readResidual(in, n, order);
+            for (int i = order; i < n; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += qlp[j] * out[start + i - j - 1];
+                }
+                out[start + i] = (int) (residual[i] + (sum >> shift));
+            }
+        }
+    }
+
+    static long[] readResidual(BitReader in, int n, int order) {
+        int method = (int) in.read(2);
+        assertTrue(method <= 1);
+        int paramBits = (method == 0) ? 4 : 5;
+        int partitionOrder = (int) in.read(4);
+        long[] residual = new long[n];
+        int i = order;
+        for (int p = 0; p < (1 << partitionOrder); p++) {
+            int param = (int) in.read(paramBits);
+            assertTrue("escape", param < (1 << paramBits) - 1);
+            for (int end = (p + 1) * (n >> partitionOrder); i < end; i++) {
+                residual[i] = in.readRice(param);
+            }
+        }
+        return residual;
+    }
+
+    static byte[] toPcm(int[][] samples, int frames, int bytesPerSample) {
+        byte[] pcm = new byte[frames * samples.length * bytesPerSample];
+        int index = 0;
+        for (int i = 0; i < frames; i++) {
+            for (int[] channel : samples) {
+                for (int b = 0; b < bytesPerSample; b++) {
+                    pcm[index++] = (byte) (channel[i] >> (8 * b));
+                }
+            }
+        }
+        return pcm;
+    }
+
+    static void assertRoundTrip(int[][] samples, int frames, int bitsPerSample, int threads) throws Exception {
+        File file = File.createTempFile("micapp", ".flac");
+        file.deleteOnExit();
+        int channels = samples.length;
+        int frameSize = channels * bitsPerSample / 8;
+        byte[] pcm = toPcm(samples, frames, bitsPerSample / 8);
+        ExecutorService encoders = FlacWriter.createEncoders(threads);
+        FlacWriter writer = new FlacWriter(file, 48000, channels, bitsPerSample, encoders, threads);
+        writer.setInfo("ISFT", "micapp");
+        writer.setInfo("ISRC", "UNPROCESSED");
+        // in odd sized chunks, like the capture periods
+        Random random = new Random(frames);
+        for (int offset = 0; offset < pcm.length; ) {
+            int length = Math.min(pcm.length - offset, frameSize * (1 + random.nextInt(3000)));
+            writer.write(pcm, offset, length);
+            offset += length;
+        }
+        writer.close();
+        encoders.shutdown();
+
+        Decoded decoded = decode(file);
+        assertEquals(48000, decoded.sampleRate);
+        assertEquals(channels, decoded.channels);
+        assertEquals(bitsPerSample, decoded.bitsPerSample);
+        assertEquals(frames, decoded.totalFrames);
+        for (int ch = 0; ch < channels; ch++) {
+            for (int i = 0; i < frames; i++) {
+                if (samples[ch][i] != decoded.samples[ch][i]) {
+                    fail("Channel " + ch + " frame " + i + ": " + samples[ch][i] + " != " + decoded.samples[ch][i]);
+                }
+            }
+        }
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(pcm), decoded.md5);
+        assertEquals("micapp", decoded.comments.get("ENCODER"));
+        assertEquals("UNPROCESSED", decoded.comments.get("ISRC"));
+    }
+
+    @Test
+    public void roundTripIs16BitExact() throws Exception {
+        int frames = 5 * FlacWriter.BLOCK_SIZE + 777;
+        int[][] samples = new int[4][frames];
+        Random random = new Random(1);
+        for (int i = 0; i < frames; i++) {
+            // a tone in some noise, lpc
+            samples[0][i] = (int) (3000 * Math.sin(2 * Math.PI * 440 * i / 48000) + 5 * random.nextGaussian());
+            // silence, then a dc offset, constant
+            samples[1][i] = (i < 2 * FlacWriter.BLOCK_SIZE) ? 0 : 17;
+            // full scale noise, verbatim
+            samples[2][i] = (short) random.nextInt();
+            // clipped square wave, fixed
+            samples[3][i] = ((i / 100) % 2 == 0) ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        assertRoundTrip(samples, frames, 16, 2);
+    }
+
+    @Test
+    public void roundTripIs24And32BitExact() throws Exception {
+        int frames = 3 * FlacWriter.BLOCK_SIZE + 100;
+        for (int bits : new int[] {24, 32}) {
+            int[][] samples = new int[2][frames];
+            Random random = new Random(bits);
+            double amplitude = 0.9 * (1L << (bits - 1));
+            for (int i = 0; i < frames; i++) {
+                samples[0][i] = (int) (amplitude * Math.sin(2 * Math.PI * 1000 * i / 48000)
+                        + 1000 * random.nextGaussian());
+                // full scale steps, residuals of 32-bit pcm overflow and go verbatim
+                samples[1][i] = random.nextBoolean() ? (int) ((1L << (bits - 1)) - 1) : (int) -(1L << (bits - 1));
+            }
+            assertRoundTrip(samples, frames, bits, 3);
+        }
+    }
+
+    @Test
+    public void writersShareTheEncoders() throws Exception {
+        int frames = 6 * FlacWriter.BLOCK_SIZE + 5;
+        ExecutorService encoders = FlacWriter.createEncoders(2);
+        FlacWriter[] writers = new FlacWriter[3];
+        File[] files = new File[writers.length];
+        byte[][] pcms = new byte[writers.length][];
+        int[][] samples = new int[writers.length][frames];
+        for (int w = 0; w < writers.length; w++) {
+            for (int i = 0; i < frames; i++) {
+                samples[w][i] = (int) (1000 * Math.sin(2 * Math.PI * (100 + 100 * w) * i / 48000));
+            }
+            pcms[w] = toPcm(new int[][] {samples[w]}, frames, 2);
+            files[w] = File.createTempFile("micapp", ".flac");
+            files[w].deleteOnExit();
+            writers[w] = new FlacWriter(files[w], 48000, 1, 16, encoders, 2);
+        }
+        // interleaved like the captures of a session, in capture period chunks
+        for (int offset = 0; offset < 2 * frames; offset += 960) {
+            for (int w = 0; w < writers.length; w++) {
+                writers[w].write(pcms[w], offset, Math.min(960, 2 * frames - offset));
+            }
+        }
+        for (FlacWriter writer : writers) {
+            writer.close();
+        }
+        encoders.shutdown();
+        for (int w = 0; w < writers.length; w++) {
+            Decoded decoded = decode(files[w]);
+            assertEquals(frames, decoded.totalFrames);
+            // the frames of every writer decode in order
+            for (int i = 0; i < frames; i++) {
+                assertEquals(samples[w][i], decoded.samples[0][i]);
+            }
+        }
+    }
+
+    @Test
+    public void compressesNearSilentCaptures() throws Exception {
+        int frames = 4 * 48000;
+        int channels = 8;
+        int[][] samples = new int[channels][frames];
+        Random random = new Random(2);
+        for (int ch = 0; ch < channels; ch++) {
+            for (int i = 0; i < frames; i++) {
+                // room noise around -75 dBFS and some mains hum
+                samples[ch][i] = (int) Math.round(6 * random.nextGaussian()
+                        + 20 * Math.sin(2 * Math.PI * 50 * i / 48000 + ch));
+            }
+        }
+        assertRoundTrip(samples, frames, 16, 4);
+
+        File file = File.createTempFile("micapp", ".flac");
+        file.deleteOnExit();
+        FlacWriter writer = new FlacWriter(file, 48000, channels, 16);
+        byte[] pcm = toPcm(samples, frames, 2);
+        writer.write(pcm, 0, pcm.length);
+        writer.close();
+        double ratio = (double) pcm.length / file.length();
+        assertTrue("Compression ratio " + ratio, ratio > 2);
+    }
+
+    @Test
+    public void rejectsUnsupportedFormats() throws Exception {
+        File file = File.createTempFile("micapp", ".flac");
+        file.deleteOnExit();
+        try {
+            new FlacWriter(file, 48000, 1, 8);
+            fail("8-bit");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            new FlacWriter(file, 48000, 9, 16);
+            fail("9 channels");
+        } catch (IOException e) {
+            // expected
+        }
+        // an empty capture is still a valid stream
+        new FlacWriter(file, 16000, 1, 16).close();
+        Decoded decoded = decode(file);
+        assertEquals(16000, decoded.sampleRate);
+        assertEquals(0, decoded.totalFrames);
+    }
+}
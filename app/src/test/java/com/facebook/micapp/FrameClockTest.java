@@ -0,0 +1,31 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameClockTest {
+    @Test
+    public void fitsStartTimeAndDrift() {
+        FrameClock clock = new FrameClock(48000);
+        // a device running 100 ppm fast, started at 5 s, with +-0.2 ms of timestamp jitter
+        double rate = 48000 * 1.0001;
+        long start = 5000000000L;
+        for (int i = 0; i < 6000; i++) {
+            long frame = 480L * i;
+            long jitter = (i % 2 == 0) ? 200000 : -200000;
+            clock.onBuffer(frame, start + (long) (frame * 1e9 / rate) + jitter);
+        }
+        assertEquals(100.0, clock.getDriftPpm(), 0.5);
+        assertEquals(start, clock.getStartTimeNs(), 20000);
+        assertEquals(6000, clock.getBuffers());
+    }
+
+    @Test
+    public void nominalRateBeforeTwoBuffers() {
+        FrameClock clock = new FrameClock(16000);
+        clock.onBuffer(160, 1000000000L);
+        assertEquals(16000.0, clock.getMeasuredSampleRate(), 1e-6);
+        assertEquals(1000000000L - 10000000L, clock.getStartTimeNs());
+    }
+}
@@ -0,0 +1,158 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GlitchDetectorTest {
+    static final int SAMPLE_RATE = 48000;
+
+    static class Events implements GlitchDetector.Listener {
+        final List<long[]> mEvents = new ArrayList<>();
+
+        @Override
+        public void onGlitch(int type, int channel, long frame, long frames, float value) {
+            mEvents.add(new long[] {type, channel, frame, frames});
+        }
+
+        boolean contains(int type, int channel, long frame, long frames) {
+            for (long[] event : mEvents) {
+                if (event[0] == type && event[1] == channel && event[2] == frame && event[3] == frames) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int count(int type) {
+            int count = 0;
+            for (long[] event : mEvents) {
+                if (event[0] == type) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    // a tone in some room noise, quantized to 16 bits like a capture
+    static float[] capture(int channels, int frames, double noise) {
+        Random random = new Random(1);
+        float[] samples = new float[channels * frames];
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < channels; ch++) {
+                double x = 0.3 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE + ch) + noise * random.nextGaussian();
+                samples[i * channels + ch] = Math.round(x * 32768) / 32768f;
+            }
+        }
+        return samples;
+    }
+
+    // in odd sized chunks, like the consumer gets them
+    static Events detect(float[] samples, int channels) {
+        Events events = new Events();
+        GlitchDetector detector = new GlitchDetector(SAMPLE_RATE, channels, 0, events);
+        Random random = new Random(2);
+        float[] chunk = new float[4000 * channels];
+        int frames = samples.length / channels;
+        for (int frame = 0; frame < frames; ) {
+            int count = Math.min(frames - frame, 1 + random.nextInt(4000));
+            System.arraycopy(samples, frame * channels, chunk, 0, count * channels);
+            detector.process(chunk, count);
+            frame += count;
+        }
+        detector.flush();
+        assertEquals(frames, detector.getFrames());
+        assertEquals(events.mEvents.size(), detector.getTotalCount());
+        return events;
+    }
+
+    @Test
+    public void cleanCaptureHasNoGlitches() {
+        assertEquals(0, detect(capture(8, SAMPLE_RATE, 0.001), 8).mEvents.size());
+    }
+
+    @Test
+    public void findsInjectedGlitches() {
+        int channels = 8;
+        float[] samples = capture(channels, SAMPLE_RATE, 0.001);
+        // a dropout in one mic
+        for (int i = 10000; i < 10100; i++) {
+            samples[i * channels + 3] = 0;
+        }
+        // clipping
+        for (int i = 20000; i < 20010; i++) {
+            samples[i * channels + 5] = 1;
+        }
+        // a splice, the tone jumps a quarter period
+        for (int i = 30000; i < SAMPLE_RATE; i++) {
+            samples[i * channels + 1] = (float) (0.3 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE + 1 + Math.PI / 2));
+        }
+        // the HAL delivering the last 10 ms again
+        System.arraycopy(samples, (40000 - 480) * channels, samples, 40000 * channels, 480 * channels);
+
+        Events events = detect(samples, channels);
+        assertTrue(events.contains(GlitchDetector.GLITCH_ZERO_RUN, 3, 10000, 100));
+        assertTrue(events.contains(GlitchDetector.GLITCH_CLIPPING, 5, 20000, 10));
+        assertTrue(events.contains(GlitchDetector.GLITCH_DISCONTINUITY, 1, 30000, 2));
+        assertTrue(events.contains(GlitchDetector.GLITCH_REPEATED_BUFFER, GlitchDetector.ALL_CHANNELS, 40000, 480));
+        assertEquals(1, events.count(GlitchDetector.GLITCH_ZERO_RUN));
+        assertEquals(1, events.count(GlitchDetector.GLITCH_CLIPPING));
+        assertEquals(1, events.count(GlitchDetector.GLITCH_REPEATED_BUFFER));
+        // every edge of the injected glitches, nothing else
+        for (long[] event : events.mEvents) {
+            long frame = event[2];
+            assertTrue("Glitch at " + frame, (frame >= 10000 && frame <= 10100) ||
+                    (frame >= 20000 && frame <= 20010) || frame == 30000 ||
+                    (frame >= 40000 && frame <= 40480));
+        }
+    }
+
+    @Test
+    public void lostFramesKeepPositions() {
+        int channels = 2;
+        float[] samples = capture(channels, SAMPLE_RATE, 0.001);
+        // a dropout after the frames the detector does not get
+        for (int i = 30000; i < 30100; i++) {
+            samples[i * channels] = 0;
+        }
+        Events events = new Events();
+        GlitchDetector detector = new GlitchDetector(SAMPLE_RATE, channels, 480, events);
+        float[] tail = new float[samples.length - 25000 * channels];
+        System.arraycopy(samples, 25000 * channels, tail, 0, tail.length);
+        detector.process(samples, 20000);
+        detector.advance(5000);
+        detector.process(tail, tail.length / channels);
+        detector.flush();
+        assertEquals(SAMPLE_RATE, detector.getFrames());
+        assertTrue(events.contains(GlitchDetector.GLITCH_LOST_FRAMES, GlitchDetector.ALL_CHANNELS, 20000, 5000));
+        assertTrue(events.contains(GlitchDetector.GLITCH_ZERO_RUN, 0, 30000, 100));
+        // the step back from the dropout, the gap itself is no content glitch
+        assertTrue(events.contains(GlitchDetector.GLITCH_DISCONTINUITY, 0, 30100, 2));
+        assertEquals(3, events.mEvents.size());
+    }
+
+    @Test
+    public void periodicToneIsNotARepeat() {
+        int channels = 2;
+        float[] samples = capture(channels, SAMPLE_RATE, 0);
+        for (int i = 0; i < samples.length; i++) {
+            // 1 kHz, exactly 48 samples long
+            samples[i] = Math.round(16384 * Math.sin(2 * Math.PI * 1000 * (i / channels) / SAMPLE_RATE)) / 32768f;
+        }
+        assertEquals(0, detect(samples, channels).mEvents.size());
+    }
+
+    @Test
+    public void silenceIsOneZeroRunPerChannel() {
+        Events events = detect(new float[4 * SAMPLE_RATE], 4);
+        assertEquals(4, events.mEvents.size());
+        for (int ch = 0; ch < 4; ch++) {
+            assertTrue(events.contains(GlitchDetector.GLITCH_ZERO_RUN, ch, 0, SAMPLE_RATE));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LevelMeterTest {
+    @Test
+    public void fullScaleSquareWave() {
+        short[] samples = new short[480];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (i % 2 == 0) ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        LevelMeter meter = new LevelMeter();
+        meter.process(samples, 0, samples.length);
+        assertEquals(1.0, meter.getPeak(), 1e-9);
+        assertEquals(0.0, meter.getPeakDb(), 1e-6);
+        assertEquals(0.0, meter.getRmsDb(), 1e-3);
+        assertEquals(-1.0, meter.getMin(), 1e-9);
+        assertEquals(0.0, meter.getDcOffset(), 1e-4);
+    }
+
+    @Test
+    public void onlyMetersRequestedRange() {
+        short[] samples = new short[100];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i < 50 ? 16384 : 0);
+        }
+        LevelMeter meter = new LevelMeter();
+        meter.process(samples, 50, 50);
+        assertEquals(50, meter.getCount());
+        assertEquals(-100.0, meter.getRmsDb(), 1e-9);
+        meter.reset();
+        meter.process(samples, 0, 50);
+        assertEquals(0.5, meter.getRms(), 1e-9);
+        assertEquals(0.5, meter.getDcOffset(), 1e-9);
+    }
+
+    @Test
+    public void floatSine() {
+        float[] samples = new float[4800];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (0.5 * Math.sin(2 * Math.PI * 1000 * i / 48000.0));
+        }
+        LevelMeter meter = new LevelMeter();
+        meter.process(samples, 0, samples.length);
+        assertEquals(0.5, meter.getPeak(), 1e-3);
+        assertEquals(0.5 / Math.sqrt(2), meter.getRms(), 1e-4);
+    }
+}
@@ -0,0 +1,38 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MappedWavWriterTest {
+    @Test
+    public void crossesWindowsAndTruncates() throws Exception {
+        File file = File.createTempFile("micapp", ".wav");
+        file.deleteOnExit();
+        MappedWavWriter writer = new MappedWavWriter(file, 48000, 1, 16);
+        byte[] block = new byte[48000];
+        int blocks = MappedWavWriter.WINDOW_SIZE / block.length + 3;
+        for (int i = 0; i < blocks; i++) {
+            Arrays.fill(block, (byte) i);
+            writer.write(block, 0, block.length);
+        }
+        writer.setInfo("ISFT", "micapp");
+        writer.close();
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        long dataSize = (long) blocks * block.length;
+        assertEquals(data.capacity() - 8, data.getInt(4));
+        assertEquals(dataSize, data.getInt(76));
+        for (int i = 0; i < blocks; i++) {
+            assertEquals((byte) i, data.get(80 + i * block.length));
+            assertEquals((byte) i, data.get(80 + (i + 1) * block.length - 1));
+        }
+        assertEquals('L', data.get(80 + (int) dataSize));
+    }
+}
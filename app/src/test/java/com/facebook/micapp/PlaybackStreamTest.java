@@ -0,0 +1,126 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PlaybackStreamTest {
+    // records what is written, one ms per write
+    static class RecordingOutput implements AudioOutput {
+        final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        int mPlays = 0;
+        boolean mReleased = false;
+
+        @Override
+        public synchronized void play() {
+            mPlays++;
+        }
+
+        @Override
+        public int write(byte[] data, int offset, int length) {
+            synchronized (this) {
+                mData.write(data, offset, length);
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return ERROR;
+            }
+            return length;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public synchronized void release() {
+            mReleased = true;
+        }
+
+        synchronized byte[] getData() {
+            return mData.toByteArray();
+        }
+    }
+
+    static byte[] ramp(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void playsQueuedSoundsOnOneOutput() throws Exception {
+        RecordingOutput output = new RecordingOutput();
+        PlaybackStream stream = new PlaybackStream(output, 32, "micapp.play");
+        stream.start();
+        PlaybackStream.Playback first = stream.play(ramp(100), false);
+        PlaybackStream.Playback second = stream.play(ramp(50), false);
+        assertTrue(first.getFirstWrite().get(1, TimeUnit.SECONDS) > 0);
+        second.getDone().get(1, TimeUnit.SECONDS);
+        assertTrue(first.getDone().isDone());
+        assertFalse(stream.isPlaying());
+        byte[] data = output.getData();
+        assertEquals(150, data.length);
+        assertEquals(99, data[99]);
+        assertEquals(0, data[100]);
+        stream.release();
+        assertEquals(1, output.mPlays);
+        assertTrue(output.mReleased);
+    }
+
+    @Test
+    public void loopsWithoutGapsUntilStopped() throws Exception {
+        RecordingOutput output = new RecordingOutput();
+        PlaybackStream stream = new PlaybackStream(output, 64, "micapp.play");
+        stream.start();
+        PlaybackStream.Playback loop = stream.play(ramp(100), true);
+        PlaybackStream.Playback queued = stream.play(ramp(10), false);
+        loop.getFirstWrite().get(1, TimeUnit.SECONDS);
+        while (output.getData().length < 1000) {
+            Thread.sleep(5);
+        }
+        stream.stopSounds();
+        loop.getDone().get(1, TimeUnit.SECONDS);
+        assertTrue(queued.getDone().isDone());
+        assertTrue(queued.getFirstWrite().isCompletedExceptionally());
+        byte[] data = output.getData();
+        for (int i = 0; i < data.length; i++) {
+            assertEquals((byte) (i % 100), data[i]);
+        }
+        stream.release();
+    }
+
+    @Test
+    public void stopSoundsStopsALoopJustPickedUp() throws Exception {
+        RecordingOutput output = new RecordingOutput();
+        PlaybackStream stream = new PlaybackStream(output, 64, "micapp.play");
+        stream.start();
+        // stop at any point between queuing and the first write
+        for (int i = 0; i < 200; i++) {
+            PlaybackStream.Playback loop = stream.play(ramp(100), true);
+            if (i % 2 == 1) {
+                Thread.yield();
+            }
+            stream.stopSounds();
+            loop.getDone().get(1, TimeUnit.SECONDS);
+        }
+        stream.release();
+    }
+
+    @Test
+    public void playAfterReleaseFails() throws Exception {
+        RecordingOutput output = new RecordingOutput();
+        PlaybackStream stream = new PlaybackStream(output, 64, "micapp.play");
+        stream.start();
+        stream.release();
+        PlaybackStream.Playback playback = stream.play(ramp(100), false);
+        assertTrue(playback.getDone().isCompletedExceptionally());
+        assertFalse(stream.isPlaying());
+    }
+}
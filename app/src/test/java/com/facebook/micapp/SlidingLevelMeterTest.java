@@ -0,0 +1,65 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SlidingLevelMeterTest {
+    int mUpdates = 0;
+
+    @Test
+    public void updatesOncePerHopRegardlessOfBlockSize() {
+        SlidingLevelMeter meter = new SlidingLevelMeter(48000, 10, 100, levels -> mUpdates++);
+        short[] block = new short[137];
+        int total = 0;
+        while (total < 48000) {
+            int len = Math.min(block.length, 48000 - total);
+            meter.process(block, 0, len);
+            total += len;
+        }
+        assertEquals(100, mUpdates);
+        assertEquals(48000, meter.getFrames());
+    }
+
+    @Test
+    public void windowForgetsOldHops() {
+        SlidingLevelMeter meter = new SlidingLevelMeter(1000, 10, 50, null);
+        short[] loud = new short[10];
+        Arrays.fill(loud, (short) 16384);
+        short[] quiet = new short[10];
+        for (int i = 0; i < 5; i++) {
+            meter.process(loud, 0, loud.length);
+        }
+        assertEquals(0.5, meter.getRms(), 1e-9);
+        // half the window replaced by silence
+        for (int i = 0; i < 3; i++) {
+            meter.process(quiet, 0, quiet.length);
+        }
+        assertEquals(0.5 * Math.sqrt(2.0 / 5.0), meter.getRms(), 1e-9);
+        assertEquals(0.5, meter.getPeak(), 1e-9);
+        for (int i = 0; i < 2; i++) {
+            meter.process(quiet, 0, quiet.length);
+        }
+        assertEquals(0.0, meter.getPeak(), 1e-9);
+    }
+
+    @Test
+    public void metersInterleavedChannelsSeparately() {
+        SlidingLevelMeter meter = new SlidingLevelMeter(1000, 3, 10, 10, null);
+        float[] frames = new float[3 * 10];
+        for (int i = 0; i < 10; i++) {
+            frames[3 * i] = 0.5f;
+            frames[3 * i + 1] = (i % 2 == 0) ? 0.25f : -0.25f;
+        }
+        meter.process(frames, 0, 10);
+        assertEquals(0.5, meter.getRms(0), 1e-9);
+        assertEquals(0.5, meter.getDcOffset(0), 1e-9);
+        assertEquals(0.25, meter.getPeak(1), 1e-9);
+        assertEquals(0.0, meter.getDcOffset(1), 1e-9);
+        assertEquals(0.0, meter.getRms(2), 1e-9);
+        assertEquals(0.5, meter.getPeak(), 1e-9);
+        assertEquals(Math.sqrt((0.25 + 0.0625) / 3), meter.getRms(), 1e-9);
+    }
+}
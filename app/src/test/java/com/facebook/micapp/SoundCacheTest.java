@@ -0,0 +1,35 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SoundCacheTest {
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        final int[] loads = new int[1];
+        SoundCache cache = new SoundCache(new SoundCache.Loader() {
+            @Override
+            public byte[] load(int id) {
+                loads[0]++;
+                return new byte[100 * id];
+            }
+        }, 500);
+        assertEquals(100, cache.get(1).length);
+        assertEquals(200, cache.get(2).length);
+        // 1 is now more recent than 2
+        assertSame(cache.get(1), cache.get(1));
+        assertEquals(2, loads[0]);
+        cache.get(3);
+        assertEquals(400, cache.getBytes());
+        assertTrue(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertTrue(cache.contains(3));
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        // a sound larger than the cache is still kept alone
+        cache.get(6);
+        assertEquals(1, cache.size());
+        assertEquals(600, cache.getBytes());
+    }
+}
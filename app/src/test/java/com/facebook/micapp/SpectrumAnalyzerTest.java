@@ -0,0 +1,69 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectrumAnalyzerTest {
+    @Test
+    public void realFftMatchesDft() {
+        int n = 64;
+        double[] x = new double[n];
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextDouble() - 0.5;
+        }
+        double[] power = new double[n / 2 + 1];
+        new RealFft(n).powerSpectrum(x, power);
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0;
+            double im = 0;
+            for (int i = 0; i < n; i++) {
+                re += x[i] * Math.cos(2 * Math.PI * k * i / n);
+                im -= x[i] * Math.sin(2 * Math.PI * k * i / n);
+            }
+            assertEquals(re * re + im * im, power[k], 1e-9);
+        }
+    }
+
+    @Test
+    public void fullScaleSineIsAtItsRmsLevel() {
+        int sampleRate = 48000;
+        for (int window : new int[]{SpectrumAnalyzer.WINDOW_HANN, SpectrumAnalyzer.WINDOW_BLACKMAN}) {
+            SpectrumAnalyzer analyzer = new SpectrumAnalyzer(sampleRate, 4096, window);
+            // stereo, the tone on the first channel only
+            float[] samples = new float[2 * sampleRate];
+            for (int i = 0; i < sampleRate; i++) {
+                samples[2 * i] = (float) Math.sin(2 * Math.PI * 1000 * i / sampleRate);
+                samples[2 * i + 1] = 0.5f;
+            }
+            analyzer.process(samples, 0, sampleRate, 2);
+            SpectrumStats stats = analyzer.takeInterval(1);
+            assertEquals(22, stats.frames);
+            int band = -1;
+            for (int i = 0; i < stats.bandCenters.length; i++) {
+                if (Math.abs(stats.bandCenters[i] - 1000) < 1) {
+                    band = i;
+                }
+            }
+            assertEquals(-3.01, stats.bandLevels[band], 0.05);
+            assertTrue(stats.bandLevels[band - 2] < -60);
+            int[] peaks = stats.getPeakBins(SpectrumStats.MAX_PEAKS);
+            assertEquals(1000, stats.getBinFrequency(peaks[0]), sampleRate / 4096.0);
+            // the interval restarts, the total keeps everything
+            assertNull(analyzer.takeInterval(2));
+            assertEquals(22, analyzer.getTotal(3).frames);
+        }
+    }
+
+    @Test
+    public void bandsStopBelowNyquist() {
+        SpectrumAnalyzer analyzer = new SpectrumAnalyzer(16000, 1024, SpectrumAnalyzer.WINDOW_HANN);
+        // 15.6 Hz bins, the 25 Hz band has none
+        assertEquals(31.6, analyzer.mBandCenters[0], 0.1);
+        // the 8 kHz band reaches above 8 kHz
+        assertEquals(6310, analyzer.mBandCenters[analyzer.mBandCenters.length - 1], 1);
+    }
+}
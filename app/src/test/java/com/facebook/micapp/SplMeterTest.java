@@ -0,0 +1,69 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SplMeterTest {
+    static float[] sine(double frequency, double amplitude, int sampleRate, int length) {
+        float[] samples = new float[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        }
+        return samples;
+    }
+
+    // Leq of a 2 s tone, after a 1 s settling time
+    static double leq(int weighting, double frequency, int sampleRate) {
+        SplMeter meter = new SplMeter(sampleRate, weighting);
+        float[] samples = sine(frequency, 0.5, sampleRate, 3 * sampleRate);
+        meter.process(samples, 0, sampleRate, 1);
+        meter.reset();
+        meter.process(samples, sampleRate, 2 * sampleRate, 1);
+        // the unweighted level of the tone
+        return meter.getLeqDb() - 20 * Math.log10(0.5 / Math.sqrt(2));
+    }
+
+    @Test
+    public void weightingsMatchIec61672() {
+        assertEquals(0.0, leq(SplMeter.WEIGHTING_A, 1000, 48000), 0.05);
+        assertEquals(-19.1, leq(SplMeter.WEIGHTING_A, 100, 48000), 0.3);
+        assertEquals(1.0, leq(SplMeter.WEIGHTING_A, 4000, 48000), 0.3);
+        assertEquals(0.0, leq(SplMeter.WEIGHTING_C, 1000, 48000), 0.05);
+        assertEquals(-3.0, leq(SplMeter.WEIGHTING_C, 31.5, 48000), 0.3);
+        assertEquals(0.0, leq(SplMeter.WEIGHTING_Z, 100, 48000), 0.05);
+        // designed for the actual rate
+        assertEquals(-19.1, leq(SplMeter.WEIGHTING_A, 100, 16000), 0.3);
+    }
+
+    @Test
+    public void fastFollowsAndPercentilesSplitLevels() {
+        int sampleRate = 16000;
+        SplMeter meter = new SplMeter(sampleRate, SplMeter.WEIGHTING_Z);
+        // 9 s at -40 dB, 1 s at -20 dB (rms)
+        float[] quiet = sine(1000, 0.01 * Math.sqrt(2), sampleRate, 9 * sampleRate);
+        float[] loud = sine(1000, 0.1 * Math.sqrt(2), sampleRate, sampleRate);
+        meter.process(quiet, 0, quiet.length, 1);
+        assertEquals(-40, meter.getFastDb(), 0.5);
+        meter.process(loud, 0, loud.length, 1);
+        assertEquals(-20, meter.getFastDb(), 0.5);
+        // the slow level has not quite caught up
+        assertTrue(meter.getSlowDb() < -20.5);
+        assertEquals(-40, meter.getPercentileDb(90), 0.5);
+        assertEquals(-20, meter.getPercentileDb(5), 0.5);
+        // energy average: (9 * 1e-4 + 1e-2) / 10
+        assertEquals(10 * Math.log10(1.09e-3), meter.getLeqDb(), 0.2);
+    }
+
+    @Test
+    public void calibrationFromSensitivity() {
+        SplMeter meter = new SplMeter(48000, SplMeter.WEIGHTING_Z);
+        assertFalse(meter.isCalibrated());
+        // -38 dBFS at 94 dB SPL
+        meter.setCalibration(SplMeter.calibrationFromSensitivity(-38f));
+        float[] samples = sine(1000, Math.pow(10, -38 / 20.0) * Math.sqrt(2), 48000, 48000);
+        meter.process(samples, 0, samples.length, 1);
+        assertEquals(94, meter.getFastDb(), 0.1);
+        assertTrue(Double.isNaN(SplMeter.calibrationFromSensitivity(-Float.MAX_VALUE)));
+    }
+}
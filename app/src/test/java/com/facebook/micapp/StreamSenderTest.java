@@ -0,0 +1,70 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class StreamSenderTest {
+    @Test
+    public void dropsInsteadOfBlocking() throws Exception {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        // a host that stops reading
+        OutputStream host = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                written.write(b);
+            }
+
+            @Override
+            public void flush() {
+                stalled.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        StreamSender sender = new StreamSender(new DataOutputStream(host), 4);
+        sender.start();
+        long start = System.nanoTime();
+        int queued = 0;
+        for (int i = 0; i < 10; i++) {
+            ByteBuffer message = sender.obtain(2);
+            if (message != null) {
+                message.put((byte) ControlProtocol.STATS_BLOCK).put((byte) i);
+                sender.send(message);
+                queued++;
+            }
+            if (i == 0) {
+                stalled.await();
+            }
+        }
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        // the slot being written is not given back until the host reads again
+        assertEquals(4, queued);
+        assertEquals(6, sender.getDropped());
+
+        release.countDown();
+        while (sender.getSent() < 4) {
+            Thread.sleep(1);
+        }
+        assertNotNull(sender.obtain(2));
+        sender.close();
+        byte[] frames = written.toByteArray();
+        assertEquals(4 * (4 + 2), frames.length);
+        // messages 0 to 3 went out, in order
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, frames[6 * i + 5]);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.facebook.micapp;
+
+import android.media.AudioFormat;
+
+import com.facebook.micapp.analysis.AudioFile;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class SyntheticInputTest {
+    static float[] readFloats(SyntheticInput input, CaptureFormat format, int frames) {
+        byte[] data = new byte[frames * format.getFrameSize()];
+        assertEquals(data.length, input.read(data, 0, data.length));
+        float[] samples = new float[frames * format.channels];
+        format.toFloats(data, 0, samples, samples.length);
+        return samples;
+    }
+
+    @Test
+    public void sineLevelInEveryEncoding() {
+        int[] encodings = {AudioFormat.ENCODING_PCM_16BIT, AudioFormat.ENCODING_PCM_24BIT_PACKED,
+                AudioFormat.ENCODING_PCM_32BIT, AudioFormat.ENCODING_PCM_FLOAT};
+        for (int encoding : encodings) {
+            CaptureFormat format = CaptureFormat.withChannels(encoding, 2);
+            SyntheticInput input = new SyntheticInput(48000, format.channels, format.bytesPerSample, format.isFloat());
+            input.setSine(1000, -6);
+            input.setSpeed(0);
+            input.start();
+            float[] samples = readFloats(input, format, 4800);
+            for (int ch = 0; ch < 2; ch++) {
+                LevelMeter meter = new LevelMeter();
+                meter.process(samples, ch, 4800, 2);
+                assertEquals(-6.0, meter.getPeakDb(), 0.01);
+                assertEquals(-9.01, meter.getRmsDb(), 0.01);
+            }
+        }
+    }
+
+    @Test
+    public void dropoutsAreSilent() {
+        CaptureFormat format = CaptureFormat.getDefault();
+        SyntheticInput input = new SyntheticInput(48000, 1, 2, false);
+        input.setNoise(-20);
+        input.setDropouts(100, 10);
+        input.setSpeed(0);
+        input.start();
+        float[] samples = readFloats(input, format, 48000);
+        assertEquals(10, input.getDropouts());
+        int silent = 0;
+        for (float sample : samples) {
+            if (sample == 0) {
+                silent++;
+            }
+        }
+        // the noise itself is almost never exactly 0
+        assertEquals(4800, silent, 10);
+        assertEquals(0, samples[95 * 48], 0);
+        assertTrue(samples[85 * 48] != 0);
+    }
+
+    @Test
+    public void pacedAtSpeedWithNominalTimestamps() {
+        SyntheticInput input = new SyntheticInput(48000, 1, 2, false);
+        input.setSpeed(10);
+        byte[] data = new byte[960];
+        long startNs = System.nanoTime();
+        input.start();
+        AudioInput.Timestamp timestamp = new AudioInput.Timestamp();
+        assertFalse(input.getTimestamp(timestamp));
+        // 500 ms of audio
+        for (int i = 0; i < 50; i++) {
+            assertEquals(data.length, input.read(data, 0, data.length));
+        }
+        assertTrue(System.nanoTime() - startNs >= 45000000L);
+        assertTrue(input.getTimestamp(timestamp));
+        assertEquals(24000, timestamp.framePosition);
+        assertEquals(500000000L, timestamp.nanoTime - input.mStartNs);
+        input.stop();
+        assertFalse(input.isRecording());
+        assertTrue(input.read(data, 0, data.length) < 0);
+    }
+
+    @Test
+    public void replayLoopsTheFile() throws Exception {
+        File file = File.createTempFile("micapp", ".wav");
+        file.deleteOnExit();
+        WavWriter writer = new WavWriter(file, 48000, 1, 16);
+        byte[] ramp = new byte[200];
+        for (int i = 0; i < 100; i++) {
+            ramp[2 * i + 1] = (byte) i;
+        }
+        writer.write(ramp, 0, ramp.length);
+        writer.close();
+
+        CaptureFormat format = CaptureFormat.withChannels(AudioFormat.ENCODING_PCM_16BIT, 2);
+        SyntheticInput input = new SyntheticInput(48000, 2, 2, false);
+        input.setReplay(AudioFile.open(file));
+        input.setSpeed(0);
+        input.start();
+        float[] samples = readFloats(input, format, 250);
+        assertEquals(30 / 128.0, samples[2 * 30], 1e-6);
+        assertEquals(samples[2 * 30], samples[2 * 130], 0);
+        assertEquals(samples[2 * 30], samples[2 * 230 + 1], 0);
+        input.release();
+    }
+}
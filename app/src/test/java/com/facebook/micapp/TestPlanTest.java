@@ -0,0 +1,93 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestPlanTest {
+    @Test
+    public void expandsStepsByMatrix() {
+        TestPlan plan = TestPlan.parse(
+                "# two sources at two rates\n" +
+                "duration_sec: 2.5\n" +
+                "stimulus: \"chirp\"\n" +
+                "step { name: \"vc\" audio_source: VOICE_COMMUNICATION effects: \"aec,ns\" }\n" +
+                "step {\n" +
+                "  name: \"raw\"\n" +
+                "  audio_source: UNPROCESSED\n" +
+                "  input_id: [12, 14]\n" +
+                "  sample_rate: 8000\n" +
+                "}\n" +
+                "matrix { sample_rate: [16000, 48000] }\n");
+        List<TestPlan.Step> steps = plan.getSteps();
+        assertEquals(4, steps.size());
+        assertEquals("vc", steps.get(0).name);
+        assertEquals(16000, steps.get(0).sampleRate);
+        assertEquals(48000, steps.get(1).sampleRate);
+        assertTrue(steps.get(1).isEffectEnabled("aec"));
+        assertFalse(steps.get(1).isEffectEnabled("agc"));
+        assertEquals("raw", steps.get(2).name);
+        assertEquals("UNPROCESSED", steps.get(2).audioSource);
+        assertArrayEquals(new int[] {12, 14}, steps.get(2).inputIds);
+        // the matrix overrides the step
+        assertEquals(16000, steps.get(2).sampleRate);
+        assertEquals("default", steps.get(3).effects);
+        for (TestPlan.Step step : steps) {
+            assertEquals("chirp", step.stimulus);
+            assertEquals(2.5f, step.durationSec, 0);
+        }
+    }
+
+    @Test
+    public void readsJson() {
+        TestPlan plan = TestPlan.parse("{\n" +
+                "  \"duration_sec\": 1,\n" +
+                "  \"steps\": [\n" +
+                "    {\"synthetic\": \"sine:1000:-20\", \"input_id\": \"3,4\"},\n" +
+                "    {\"stimulus\": \"Noise\", \"effects\": \"none\"}\n" +
+                "  ],\n" +
+                "  \"matrix\": {\"effects\": [\"aec\", \"agc\"], \"sample_rate\": [16000, 32000, 48000]}\n" +
+                "}\n");
+        List<TestPlan.Step> steps = plan.getSteps();
+        assertEquals(12, steps.size());
+        assertEquals("sine:1000:-20", steps.get(0).synthetic);
+        assertArrayEquals(new int[] {3, 4}, steps.get(0).inputIds);
+        // the first matrix field varies slowest
+        assertEquals("aec", steps.get(2).effects);
+        assertEquals(48000, steps.get(2).sampleRate);
+        assertEquals("agc", steps.get(3).effects);
+        assertEquals(16000, steps.get(3).sampleRate);
+        assertEquals("noise", steps.get(6).stimulus);
+        assertNull(steps.get(6).synthetic);
+        assertEquals(1f, steps.get(11).durationSec, 0);
+    }
+
+    @Test
+    public void defaultsAreTheOnlyStep() {
+        List<TestPlan.Step> steps = TestPlan.parse("sample_rate: 44100").getSteps();
+        assertEquals(1, steps.size());
+        assertEquals(44100, steps.get(0).sampleRate);
+        assertNull(steps.get(0).inputIds);
+        assertEquals("none", steps.get(0).stimulus);
+    }
+
+    @Test
+    public void rejectsBadPlans() {
+        String[] plans = {
+                "step { sample_rte: 16000 }",
+                "step { name: \"open\"",
+                "matrix { stimulus: [\"chirp\", \"noise\" }",
+                "sample_rate: { 16000 }",
+        };
+        for (String text : plans) {
+            try {
+                TestPlan.parse(text);
+                fail("Parsed " + text);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TransferFunctionTest {
+    @Test
+    public void estimatesFilterThroughNoise() {
+        int length = 48000;
+        Random random = new Random(3);
+        float[] x = new float[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = (float) random.nextGaussian() * 0.1f;
+        }
+        // y[n] = 0.5 (x[n - 2] + x[n - 3]), a low pass with a zero at Nyquist, plus noise
+        float[] y = new float[length];
+        for (int i = 3; i < length; i++) {
+            y[i] = 0.5f * (x[i - 2] + x[i - 3]) + (float) random.nextGaussian() * 0.01f;
+        }
+        TransferFunction response = new TransferFunction(48000, 512);
+        // fed in uneven pieces
+        for (int offset = 0; offset < length; offset += 1000) {
+            response.process(x, offset, y, offset, Math.min(1000, length - offset));
+        }
+        assertEquals(186, response.getSegments());
+        for (int bin : new int[]{8, 64, 128}) {
+            double expected = 20 * Math.log10(Math.abs(Math.cos(Math.PI * bin / 512.0)));
+            assertEquals(expected, response.getGainDb(bin), 0.2);
+            assertTrue(response.getCoherence(bin) > 0.95);
+        }
+        // the band gain follows the response
+        double[] centers = response.getBandCenters();
+        double[] gains = response.getBandGainsDb();
+        for (int i = 0; i < centers.length; i++) {
+            if (Math.abs(centers[i] - 1000) < 1) {
+                assertEquals(20 * Math.log10(Math.cos(Math.PI * 1000 / 48000)), gains[i], 0.2);
+            }
+        }
+    }
+
+    @Test
+    public void uncorrelatedBandsAreNotMeasured() {
+        Random random = new Random(4);
+        float[] x = new float[8192];
+        float[] y = new float[8192];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = (float) random.nextGaussian();
+            y[i] = (float) random.nextGaussian();
+        }
+        TransferFunction response = new TransferFunction(48000, 256);
+        response.process(x, 0, y, 0, x.length);
+        for (double gain : response.getBandGainsDb()) {
+            assertTrue(Double.isNaN(gain));
+        }
+    }
+
+    @Test
+    public void interpolatesInLogFrequency() {
+        float[] frequencies = {100, 1000, 10000};
+        float[] levels = {-6, 0, 4};
+        assertEquals(-6, TransferFunction.interpolateDb(frequencies, levels, 20), 1e-9);
+        assertEquals(-3, TransferFunction.interpolateDb(frequencies, levels, Math.sqrt(100 * 1000)), 1e-6);
+        assertEquals(2, TransferFunction.interpolateDb(frequencies, levels, Math.sqrt(1000 * 10000)), 1e-6);
+        assertEquals(4, TransferFunction.interpolateDb(frequencies, levels, 20000), 1e-9);
+        assertTrue(Double.isNaN(TransferFunction.interpolateDb(new float[0], new float[0], 1000)));
+    }
+}
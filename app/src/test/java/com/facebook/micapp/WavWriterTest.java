@@ -0,0 +1,94 @@
+package com.facebook.micapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class WavWriterTest {
+    static ByteBuffer readAll(File file) throws Exception {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static String fourCC(ByteBuffer data, int offset) {
+        byte[] id = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            id[i] = data.get(offset + i);
+        }
+        return new String(id);
+    }
+
+    @Test
+    public void headerIsPatchedOnClose() throws Exception {
+        File file = File.createTempFile("micapp", ".wav");
+        file.deleteOnExit();
+        WavWriter writer = new WavWriter(file, 48000, 1, 16);
+        byte[] pcm = new byte[200000];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) i;
+        }
+        writer.write(pcm, 0, pcm.length);
+        writer.setInfo("ISFT", "micapp");
+        writer.close();
+
+        ByteBuffer data = readAll(file);
+        assertEquals("RIFF", fourCC(data, 0));
+        assertEquals(data.capacity() - 8, data.getInt(4));
+        assertEquals("JUNK", fourCC(data, 12));
+        assertEquals("fmt ", fourCC(data, 48));
+        assertEquals(48000, data.getInt(60));
+        assertEquals("data", fourCC(data, 72));
+        assertEquals(pcm.length, data.getInt(76));
+        assertEquals(pcm[1234], data.get(80 + 1234));
+        assertEquals("LIST", fourCC(data, 80 + pcm.length));
+        assertEquals("INFO", fourCC(data, 88 + pcm.length));
+        assertEquals("ISFT", fourCC(data, 92 + pcm.length));
+    }
+
+    @Test
+    public void switchesToRf64() throws Exception {
+        File file = File.createTempFile("micapp", ".wav");
+        file.deleteOnExit();
+        WavWriter writer = new WavWriter(file, 48000, 2, 16);
+        writer.mMaxRiffSize = 1000;
+        byte[] pcm = new byte[4000];
+        writer.write(pcm, 0, pcm.length);
+        writer.close();
+
+        ByteBuffer data = readAll(file);
+        assertEquals("RF64", fourCC(data, 0));
+        assertEquals(-1, data.getInt(4));
+        assertEquals("ds64", fourCC(data, 12));
+        assertEquals(data.capacity() - 8, data.getLong(20));
+        assertEquals(pcm.length, data.getLong(28));
+        assertEquals(pcm.length / 4, data.getLong(36));
+        assertEquals(-1, data.getInt(76));
+    }
+
+    @Test
+    public void floatMultichannelIsExtensible() throws Exception {
+        File file = File.createTempFile("micapp", ".wav");
+        file.deleteOnExit();
+        WavWriter writer = new WavWriter(file, 48000, 4, 32, true);
+        byte[] pcm = new byte[4 * 4 * 100];
+        writer.write(pcm, 0, pcm.length);
+        writer.close();
+
+        ByteBuffer data = readAll(file);
+        assertEquals("fmt ", fourCC(data, 48));
+        assertEquals(40, data.getInt(52));
+        assertEquals(WavWriter.WAVE_FORMAT_EXTENSIBLE, data.getShort(56) & 0xffff);
+        assertEquals(4, data.getShort(58));
+        assertEquals(16, data.getShort(68));
+        assertEquals(32, data.getShort(70));
+        assertEquals(22, data.getShort(72));
+        // subformat guid starts with the format tag
+        assertEquals(WavWriter.WAVE_FORMAT_IEEE_FLOAT, data.getInt(80));
+        assertEquals("data", fourCC(data, 96));
+        assertEquals(pcm.length, data.getInt(100));
+    }
+}
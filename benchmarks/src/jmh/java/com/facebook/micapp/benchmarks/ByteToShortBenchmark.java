@@ -0,0 +1,71 @@
+package com.facebook.micapp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Little endian 16-bit bytes to shorts, for one read of the capture thread.
+ *
+ * byteBufferView reads the samples one by one through a ByteBuffer,
+ * manualShift is CaptureFormat.toShorts(), shortBufferBulkGet is the
+ * conversion the Recorder used to do, which wraps the array on every read,
+ * and shortBufferBulkGetReused keeps the view and only rewinds it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ByteToShortBenchmark {
+    @Param({"480", "1920"})
+    int mSamples;
+
+    byte[] mData;
+    short[] mShorts;
+    ShortBuffer mView;
+
+    @Setup
+    public void setup() {
+        mData = Signals.noiseBytes(mSamples, new Random(1));
+        mShorts = new short[mSamples];
+        mView = ByteBuffer.wrap(mData).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    @Benchmark
+    public short[] byteBufferView() {
+        ByteBuffer buffer = ByteBuffer.wrap(mData).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < mSamples; i++) {
+            mShorts[i] = buffer.getShort(2 * i);
+        }
+        return mShorts;
+    }
+
+    @Benchmark
+    public short[] manualShift() {
+        Signals.toShorts(mData, 0, mShorts, mSamples);
+        return mShorts;
+    }
+
+    @Benchmark
+    public short[] shortBufferBulkGet() {
+        ByteBuffer.wrap(mData).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(mShorts);
+        return mShorts;
+    }
+
+    @Benchmark
+    public short[] shortBufferBulkGetReused() {
+        mView.rewind();
+        mView.get(mShorts);
+        return mShorts;
+    }
+}
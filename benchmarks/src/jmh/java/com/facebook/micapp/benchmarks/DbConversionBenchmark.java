@@ -0,0 +1,128 @@
+package com.facebook.micapp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utils.floatToDB()/dBToFloat() against table based approximations, per
+ * VALUES conversions.
+ *
+ * floatToDbTable splits the float into exponent and mantissa and looks up
+ * 20 * log10() of the top LOG_TABLE_BITS bits of the mantissa, which is
+ * within 0.005 dB. dBToFloatTable interpolates 10^(dB / 20) linearly in
+ * 0.1 dB steps between POW_TABLE_MIN_DB and POW_TABLE_MAX_DB, a relative
+ * error below 2e-5, and falls back to Math.pow() outside.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DbConversionBenchmark {
+    static final int VALUES = 1024;
+    static final int LOG_TABLE_BITS = 10;
+    static final double DB_PER_OCTAVE = 20 * Math.log10(2);
+    static final double[] LOG_TABLE = new double[1 << LOG_TABLE_BITS];
+    static final double POW_TABLE_MIN_DB = -160;
+    static final double POW_TABLE_MAX_DB = 20;
+    static final double POW_TABLE_STEP_DB = 0.1;
+    static final double[] POW_TABLE =
+            new double[(int) Math.round((POW_TABLE_MAX_DB - POW_TABLE_MIN_DB) / POW_TABLE_STEP_DB) + 2];
+
+    static {
+        for (int i = 0; i < LOG_TABLE.length; i++) {
+            // middle of the mantissa range of the entry
+            LOG_TABLE[i] = 20 * Math.log10(1 + (i + 0.5) / LOG_TABLE.length);
+        }
+        for (int i = 0; i < POW_TABLE.length; i++) {
+            POW_TABLE[i] = Math.pow(10, (POW_TABLE_MIN_DB + i * POW_TABLE_STEP_DB) / 20.0);
+        }
+    }
+
+    double[] mLevels;
+    double[] mDbs;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        mLevels = new double[VALUES];
+        mDbs = new double[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            mDbs[i] = -120 * random.nextDouble();
+            mLevels[i] = Math.pow(10, mDbs[i] / 20.0);
+        }
+    }
+
+    // Utils.floatToDB()
+    static double floatToDB(double val) {
+        if (val <= 0)
+            return -100;
+        return 20 * Math.log10(val);
+    }
+
+    // Utils.dBToFloat()
+    static double dBToFloat(double val) {
+        return Math.pow(10, val / 20.0);
+    }
+
+    static double floatToDbTable(double val) {
+        if (val <= 0)
+            return -100;
+        int bits = Float.floatToRawIntBits((float) val);
+        int exponent = ((bits >>> 23) & 0xff) - 127;
+        int index = (bits >>> (23 - LOG_TABLE_BITS)) & (LOG_TABLE.length - 1);
+        return exponent * DB_PER_OCTAVE + LOG_TABLE[index];
+    }
+
+    static double dBToFloatTable(double val) {
+        double pos = (val - POW_TABLE_MIN_DB) / POW_TABLE_STEP_DB;
+        if (!(pos >= 0 && pos < POW_TABLE.length - 1)) {
+            return dBToFloat(val);
+        }
+        int index = (int) pos;
+        double frac = pos - index;
+        return POW_TABLE[index] + frac * (POW_TABLE[index + 1] - POW_TABLE[index]);
+    }
+
+    @Benchmark
+    public double floatToDB() {
+        double sum = 0;
+        for (double level : mLevels) {
+            sum += floatToDB(level);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double floatToDbTable() {
+        double sum = 0;
+        for (double level : mLevels) {
+            sum += floatToDbTable(level);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double dBToFloat() {
+        double sum = 0;
+        for (double db : mDbs) {
+            sum += dBToFloat(db);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double dBToFloatTable() {
+        double sum = 0;
+        for (double db : mDbs) {
+            sum += dBToFloatTable(db);
+        }
+        return sum;
+    }
+}
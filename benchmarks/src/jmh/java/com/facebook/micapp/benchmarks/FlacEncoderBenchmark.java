@@ -0,0 +1,62 @@
+package com.facebook.micapp.benchmarks;
+
+import com.facebook.micapp.FlacEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding one FlacWriter block, 4096 frames of 8 channels of 16-bit pcm,
+ * which is 85 ms of audio at 48 kHz. quiet is room noise with some hum,
+ * like most mic captures, loud is full scale noise, which ends up
+ * verbatim after every predictor was tried. A FlacWriter worker keeps up
+ * as long as a block takes well under 85 ms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FlacEncoderBenchmark {
+    static final int SAMPLE_RATE = 48000;
+    static final int CHANNELS = 8;
+    // FlacWriter.BLOCK_SIZE
+    static final int BLOCK_SIZE = 4096;
+
+    @Param({"quiet", "loud"})
+    String mSignal;
+
+    int[][] mSamples;
+    FlacEncoder mEncoder;
+    long mFrameNumber = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        mSamples = new int[CHANNELS][BLOCK_SIZE];
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                if (mSignal.equals("quiet")) {
+                    mSamples[ch][i] = (int) Math.round(6 * random.nextGaussian()
+                            + 20 * Math.sin(2 * Math.PI * 50 * i / SAMPLE_RATE + ch));
+                } else {
+                    mSamples[ch][i] = (short) random.nextInt();
+                }
+            }
+        }
+        mEncoder = new FlacEncoder(SAMPLE_RATE, CHANNELS, 16, BLOCK_SIZE);
+    }
+
+    @Benchmark
+    public int encodeFrame() {
+        mEncoder.encodeFrame(mSamples, BLOCK_SIZE, mFrameNumber++);
+        return mEncoder.getLength();
+    }
+}
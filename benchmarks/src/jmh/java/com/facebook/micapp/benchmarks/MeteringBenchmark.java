@@ -0,0 +1,99 @@
+package com.facebook.micapp.benchmarks;
+
+import com.facebook.micapp.LevelMeter;
+import com.facebook.micapp.SlidingLevelMeter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of metering one AudioRecord read of 16-bit mono pcm.
+ *
+ * legacy is the loop the Recorder used to run on the capture thread: a
+ * ShortBuffer view allocated per read, Math.pow() per sample and a double
+ * accumulation. levelMeter and slidingLevelMeter convert with the shifts of
+ * CaptureFormat.toShorts() and meter with the classes used today, which do
+ * not allocate. Run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MeteringBenchmark {
+    static final int SAMPLE_RATE = 48000;
+
+    // 10 ms and 40 ms periods at 48 kHz
+    @Param({"480", "1920"})
+    int mFrames;
+
+    byte[] mAudioData;
+    short[] mShorts;
+    LevelMeter mMeter;
+    SlidingLevelMeter mSlidingMeter;
+
+    @Setup
+    public void setup() {
+        mAudioData = Signals.noiseBytes(mFrames, new Random(1));
+        mShorts = new short[mFrames];
+        mMeter = new LevelMeter();
+        mSlidingMeter = new SlidingLevelMeter(SAMPLE_RATE, 10, 100, new SlidingLevelMeter.Listener() {
+            @Override
+            public void onLevelsUpdated(SlidingLevelMeter meter) {
+            }
+        });
+    }
+
+    // Utils.floatToDB()
+    static double floatToDB(double val) {
+        if (val <= 0)
+            return -100;
+        return 20 * Math.log10(val);
+    }
+
+    @Benchmark
+    public double legacy() {
+        ByteBuffer.wrap(mAudioData).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(mShorts);
+        double sum = 0;
+        double max = 0;
+        double min = 65000;
+        for (int i = 0; i < mShorts.length; i++) {
+            double norm = mShorts[i] / Math.pow(2, 15);
+            sum += norm * norm;
+            if (norm > max) {
+                max = norm;
+            }
+            if (norm < min) {
+                min = norm;
+            }
+        }
+        double val = sum / (double) mShorts.length;
+        double dB = Math.round(floatToDB(Math.sqrt(val)));
+        double peakDb = Math.round(floatToDB(max));
+        return dB + peakDb + min;
+    }
+
+    @Benchmark
+    public double levelMeter() {
+        Signals.toShorts(mAudioData, 0, mShorts, mFrames);
+        mMeter.reset();
+        mMeter.process(mShorts, 0, mFrames);
+        return mMeter.getRmsDb() + mMeter.getPeakDb();
+    }
+
+    @Benchmark
+    public long slidingLevelMeter() {
+        Signals.toShorts(mAudioData, 0, mShorts, mFrames);
+        mSlidingMeter.process(mShorts, 0, mFrames);
+        return mSlidingMeter.getFrames();
+    }
+}
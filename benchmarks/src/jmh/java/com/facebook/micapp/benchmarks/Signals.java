@@ -0,0 +1,28 @@
+package com.facebook.micapp.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Test signals shared by the benchmarks.
+ */
+class Signals {
+    // little endian 16-bit gaussian noise at about -12 dBFS rms
+    static byte[] noiseBytes(int samples, Random random) {
+        byte[] data = new byte[2 * samples];
+        for (int i = 0; i < samples; i++) {
+            double val = random.nextGaussian() * 0.25 * 32767;
+            int sample = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, val));
+            data[2 * i] = (byte) sample;
+            data[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return data;
+    }
+
+    // same conversion as CaptureFormat.toShorts()
+    static void toShorts(byte[] data, int offset, short[] dst, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int index = offset + 2 * i;
+            dst[i] = (short) ((data[index] & 0xff) | (data[index + 1] << 8));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.facebook.micapp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing one capture read to a file.
+ *
+ * bufferedOutputStream is how the captures used to be written, with the
+ * default 8 KiB buffer. fileChannel stages the pcm in a direct buffer and
+ * writes it in BUFFER_SIZE blocks like WavWriter does, and
+ * fileChannelUnbuffered writes every read straight to the channel. The files are rewound every
+ * MAX_FILE_BYTES so they stay in the page cache and do not fill the disk,
+ * which leaves the cost of the write path rather than of the storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SinkBenchmark {
+    // WavWriter.BUFFER_SIZE
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long MAX_FILE_BYTES = 64L * 1024 * 1024;
+
+    // 10 ms of 16-bit mono and of 32-bit float stereo at 48 kHz
+    @Param({"960", "3840"})
+    int mBlockBytes;
+
+    byte[] mBlock;
+    File mStreamFile;
+    FileOutputStream mFileStream;
+    BufferedOutputStream mStream;
+    long mStreamBytes = 0;
+    File mChannelFile;
+    RandomAccessFile mChannelRaf;
+    FileChannel mChannel;
+    ByteBuffer mBuffer;
+
+    @Setup
+    public void setup() throws IOException {
+        mBlock = Signals.noiseBytes(mBlockBytes / 2, new Random(1));
+        mStreamFile = File.createTempFile("micapp_stream", ".raw");
+        mFileStream = new FileOutputStream(mStreamFile);
+        mStream = new BufferedOutputStream(mFileStream);
+        mChannelFile = File.createTempFile("micapp_channel", ".raw");
+        mChannelRaf = new RandomAccessFile(mChannelFile, "rw");
+        mChannel = mChannelRaf.getChannel();
+        mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mStream.close();
+        mChannel.close();
+        mChannelRaf.close();
+        mStreamFile.delete();
+        mChannelFile.delete();
+    }
+
+    @Benchmark
+    public void bufferedOutputStream() throws IOException {
+        mStream.write(mBlock, 0, mBlockBytes);
+        mStreamBytes += mBlockBytes;
+        if (mStreamBytes >= MAX_FILE_BYTES) {
+            mStream.flush();
+            mFileStream.getChannel().position(0);
+            mStreamBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public void fileChannel() throws IOException {
+        int offset = 0;
+        int length = mBlockBytes;
+        while (length > 0) {
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.put(mBlock, offset, count);
+            offset += count;
+            length -= count;
+            if (!mBuffer.hasRemaining()) {
+                mBuffer.flip();
+                writeFully(mBuffer);
+                mBuffer.clear();
+            }
+        }
+    }
+
+    @Benchmark
+    public void fileChannelUnbuffered() throws IOException {
+        writeFully(ByteBuffer.wrap(mBlock, 0, mBlockBytes));
+    }
+
+    void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+        if (mChannel.position() >= MAX_FILE_BYTES) {
+            mChannel.position(0);
+        }
+    }
+}
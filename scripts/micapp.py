@@ -5,8 +5,9 @@ import os
 import subprocess
 import sys
 import time
-import soundfile as sf
 import re
+import socket
+import struct
 import threading
 
 from _version import __version__
@@ -28,6 +29,10 @@ FUNC_CHOICES = {
     'info': 'provide audio uplink',
     'record': 'record an audioclip',
     'play': 'play a sound',
+    'latency': 'measure the record and play round trip latency',
+    'response': 'measure the mic frequency response with noise or chirp',
+    'plan': 'run the steps of a test plan file back to back',
+    'control': 'send --command to the control service, starting it if needed',
 }
 
 AUDIO_SOURCE_CHOICES = {
@@ -64,6 +69,43 @@ SOUNDS = {
     'chirp': '100ms 200Hz to 1200Hz',
 }
 
+# ControlProtocol request types, replies have CONTROL_REPLY set
+CONTROL_SOCKET = 'micapp.control'
+CONTROL_PING = 0x01
+CONTROL_START_CAPTURE = 0x02
+CONTROL_STOP_CAPTURE = 0x03
+CONTROL_PLAY = 0x04
+CONTROL_STOP_SOUNDS = 0x05
+CONTROL_SET_EFFECT = 0x06
+CONTROL_GET_STATS = 0x07
+CONTROL_SUBSCRIBE = 0x08
+CONTROL_STATS_BLOCK = 0x40
+CONTROL_PCM_BLOCK = 0x41
+CONTROL_REPLY = 0x80
+CONTROL_STREAM_STATS = 1
+CONTROL_STREAM_PCM = 2
+# input, sequence, frame position, time ns, dropped
+CONTROL_BLOCK_HEADER = '>Bqqqq'
+CONTROL_EFFECTS = ['aec', 'agc', 'ns']
+
+COMMAND_CHOICES = {
+    'ping': 'check the service is up',
+    'start': 'start capturing with --audiosource, --inputids, -r',
+    'stop': 'stop capturing',
+    'play': 'loop --sound',
+    'stopsound': 'stop the sounds',
+    'aec:on': 'enable (or :off disable) aec, also agc and ns',
+    'stats': 'print the capture stats',
+    'stream': 'print the levels for -t seconds (stream:pcm also saves the '
+              'audio to stream_<input>.raw)',
+}
+
+SINK_CHOICES = {
+    'wav': 'streaming wav writer (default)',
+    'mmap': 'memory mapped wav writer for long soak captures',
+    'flac': 'lossless flac, a fraction of the wav size (not for float)',
+}
+
 
 # returns info (device model and serial number) about the device where the
 # test will be run
@@ -202,15 +244,22 @@ def pull_info(serial, name, extended, audiosource, inputids,
 
 
 def record(serial, name, audiosource=None, ids=None, samplerate=48000,
-           timesec=10.0, playsound=None, debug=0):
+           timesec=10.0, playsound=None, periodms=None, sink=None,
+           encoding=None, channels=None, indexmask=None, debug=0):
     adb_cmd = f'adb -s {serial} shell am force-stop {APPNAME_MAIN}'
     ret, stdout, stderr = run_cmd(adb_cmd, debug)
     # clean out old files
-    adb_cmd = f'adb -s {serial} shell rm {DUT_FILE_PATH}*.raw'
+    adb_cmd = f'adb -s {serial} shell rm {DUT_FILE_PATH}*.wav {DUT_FILE_PATH}*.flac'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    adb_cmd = (f'adb -s {serial} shell rm {DUT_FILE_PATH}*.stats.txt '
+               f'{DUT_FILE_PATH}*.glitches.txt')
     ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    capture_args = build_capture_args(periodms, sink, encoding, channels,
+                                      indexmask)
     adb_cmd = (f'adb -s {serial} shell  am start -e rec 1 '
                f'-e sr {samplerate} '
                f'{build_args(audiosource, ids, timesec, playsound)} '
+               f'{capture_args} '
                f'-n {APPNAME_MAIN}/.MainActivity')
     ret, stdout, stderr = run_cmd(adb_cmd, debug)
     time.sleep(1)
@@ -218,11 +267,13 @@ def record(serial, name, audiosource=None, ids=None, samplerate=48000,
     time.sleep(2)
 
     if debug:
-        adb_cmd = f'adb -s {serial} shell ls -l {DUT_FILE_PATH}*.raw'
+        adb_cmd = (f'adb -s {serial} shell ls -l {DUT_FILE_PATH}*.wav '
+                   f'{DUT_FILE_PATH}*.flac')
         ret, stdout, stderr = run_cmd(adb_cmd, debug)
         print(f'Files:\n{stdout}')
 
-    adb_cmd = f'adb -s {serial} shell ls {DUT_FILE_PATH}*.raw'
+    adb_cmd = (f'adb -s {serial} shell ls {DUT_FILE_PATH}*.wav '
+               f'{DUT_FILE_PATH}*.flac')
     ret, stdout, stderr = run_cmd(adb_cmd, debug)
     output_files = re.split('[ \n]', stdout.strip())
 
@@ -236,28 +287,241 @@ def record(serial, name, audiosource=None, ids=None, samplerate=48000,
     for file in output_files:
         if file == '':
             continue
-        # pull the output file
+        # pull the output file, the app writes complete wav (or rf64, flac)
+        # files
         base_file_name = os.path.basename(file).strip()
         adb_cmd = f'adb -s {serial} pull {file.strip()} {base_file_name}'
         run_cmd(adb_cmd, debug)
-        # convert to wav, currently only 48k
-        audio = sf.SoundFile(base_file_name, 'r', format='RAW',
-                             samplerate=48000, channels=1, subtype='PCM_16',
-                             endian='FILE')
-        pcmname = f'{os.path.splitext(base_file_name)[0]}.wav'
-        print(f'Convert {base_file_name} to wav: {pcmname}')
-        wav = sf.SoundFile(pcmname, 'w', format='WAV', samplerate=48000,
-                           channels=1, subtype='PCM_16', endian='FILE')
-        wav.write(audio.read())
-        wav.close()
-        audio.close()
-        audiofiles.append(pcmname)
-        os.remove(base_file_name)
+        audiofiles.append(base_file_name)
+
+    # capture health, one stats file per capture
+    adb_cmd = f'adb -s {serial} shell ls {DUT_FILE_PATH}*.stats.txt'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    for file in re.split('[ \n]', stdout.strip()):
+        if file == '':
+            continue
+        base_file_name = os.path.basename(file).strip()
+        adb_cmd = f'adb -s {serial} pull {file.strip()} {base_file_name}'
+        run_cmd(adb_cmd, debug)
+        with open(base_file_name, 'r') as fl:
+            stats = fl.read()
+        if 'healthy: false' in stats:
+            print(f'warning: unhealthy capture, see {base_file_name}')
+        glitches = re.search(r'glitch_events: (\d+)', stats)
+        if glitches and int(glitches.group(1)) > 0:
+            glitch_file = base_file_name.replace('.stats.txt', '.glitches.txt')
+            adb_cmd = (f'adb -s {serial} pull {DUT_FILE_PATH}{glitch_file} '
+                       f'{glitch_file}')
+            run_cmd(adb_cmd, debug)
+            print(f'warning: {glitches.group(1)} glitches in the capture, '
+                  f'see {glitch_file}')
+        if debug > 0:
+            print(stats)
 
     for name in audiofiles:
         print(f'{name}')
 
 
+def latency(serial, audiosource=None, ids=None, runs=10, debug=0):
+    run_measurement(serial, 'latency', 'latency.txt',
+                    build_args(audiosource, ids, -1, None), runs, debug)
+
+
+def response(serial, audiosource=None, ids=None, runs=10, sound=None,
+             debug=0):
+    run_measurement(serial, 'response', 'response.txt',
+                    build_args(audiosource, ids, -1, sound), runs, debug)
+
+
+# runs the "-e <extra> <runs>" measurement and prints its results file
+def run_measurement(serial, extra, filename, args, runs, debug=0):
+    adb_cmd = f'adb -s {serial} shell am force-stop {APPNAME_MAIN}'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    adb_cmd = f'adb -s {serial} shell rm {DUT_FILE_PATH}{filename}'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    adb_cmd = (f'adb -s {serial} shell am start -e {extra} {runs} '
+               f'{args} '
+               f'-n {APPNAME_MAIN}/.MainActivity')
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    time.sleep(1)
+    wait_for_exit(serial)
+
+    if os.path.exists(filename):
+        os.remove(filename)
+    adb_cmd = f'adb -s {serial} pull {DUT_FILE_PATH}{filename} {filename}'
+    run_cmd(adb_cmd, debug)
+    if not os.path.exists(filename):
+        print(f'No {extra} results, see logcat for the reason')
+        return
+    with open(filename, 'r') as fl:
+        print(f'{fl.read()}')
+
+
+def plan(serial, planfile, debug=0):
+    assert planfile is not None, 'error: plan needs --plan <file>'
+    adb_cmd = f'adb -s {serial} shell am force-stop {APPNAME_MAIN}'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    # clean out old files
+    adb_cmd = f'adb -s {serial} shell rm {DUT_FILE_PATH}plan*'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    plan_name = os.path.basename(planfile)
+    adb_cmd = f'adb -s {serial} push {planfile} {DUT_FILE_PATH}{plan_name}'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    assert ret, f'error: failed to push {planfile}'
+    adb_cmd = (f'adb -s {serial} shell am start -e plan {plan_name} '
+               f'-n {APPNAME_MAIN}/.MainActivity')
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    time.sleep(1)
+    wait_for_exit(serial)
+
+    adb_cmd = f'adb -s {serial} shell ls {DUT_FILE_PATH}plan[0-9]*'
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    for file in re.split('[ \n]', stdout.strip()):
+        if file == '':
+            continue
+        base_file_name = os.path.basename(file).strip()
+        adb_cmd = f'adb -s {serial} pull {file.strip()} {base_file_name}'
+        run_cmd(adb_cmd, debug)
+
+    filename = 'plan_result.txt'
+    if os.path.exists(filename):
+        os.remove(filename)
+    adb_cmd = f'adb -s {serial} pull {DUT_FILE_PATH}{filename} {filename}'
+    run_cmd(adb_cmd, debug)
+    if not os.path.exists(filename):
+        print('No plan results, see logcat for the reason')
+        return
+    with open(filename, 'r') as fl:
+        print(f'{fl.read()}')
+
+
+def control_string(text):
+    data = text.encode('utf-8')
+    return struct.pack('>i', len(data)) + data
+
+
+def recv_exactly(sock, size):
+    data = b''
+    while len(data) < size:
+        chunk = sock.recv(size - len(data))
+        assert chunk, 'error: control connection closed'
+        data += chunk
+    return data
+
+
+# sends a ControlProtocol request and returns (ok, text) of its reply
+def control_request(sock, msgtype, payload=b''):
+    sock.sendall(struct.pack('>iB', 1 + len(payload), msgtype) + payload)
+    while True:
+        length, replytype = struct.unpack('>iB', recv_exactly(sock, 5))
+        body = recv_exactly(sock, length - 1)
+        # skip anything else the service sends
+        if replytype == msgtype | CONTROL_REPLY:
+            break
+    status = body[0]
+    (size,) = struct.unpack('>i', body[1:5])
+    return status == 0, body[5:5 + size].decode('utf-8')
+
+
+# prints the streamed levels once a second, writes the pcm blocks if asked
+def control_stream(sock, pcm, timesec):
+    streams = CONTROL_STREAM_STATS | (CONTROL_STREAM_PCM if pcm else 0)
+    ok, text = control_request(sock, CONTROL_SUBSCRIBE,
+                               struct.pack('>B', streams))
+    assert ok, f'error: {text}'
+    header_size = struct.calcsize(CONTROL_BLOCK_HEADER)
+    files = {}
+    expected = {}
+    gaps = 0
+    last_print = 0
+    end = time.time() + (timesec if timesec > 0 else 10)
+    while time.time() < end:
+        length, msgtype = struct.unpack('>iB', recv_exactly(sock, 5))
+        body = recv_exactly(sock, length - 1)
+        if msgtype not in (CONTROL_STATS_BLOCK, CONTROL_PCM_BLOCK):
+            continue
+        inp, sequence, position, time_ns, dropped = struct.unpack(
+            CONTROL_BLOCK_HEADER, body[:header_size])
+        key = (msgtype, inp)
+        if key in expected and sequence != expected[key]:
+            gaps += sequence - expected[key]
+        expected[key] = sequence + 1
+        if msgtype == CONTROL_PCM_BLOCK:
+            if inp not in files:
+                files[inp] = open(f'stream_{inp}.raw', 'wb')
+            # sample rate, channels, bytes per sample, float
+            files[inp].write(body[header_size + 7:])
+        elif time.time() - last_print >= 1:
+            last_print = time.time()
+            channels = body[header_size + 4]
+            levels = struct.unpack(f'>{2 * channels}f',
+                                   body[header_size + 5:])
+            rms = ' '.join(f'{level:.1f}' for level in levels[1::2])
+            print(f'input: {inp} frame: {position} time_ns: {time_ns} '
+                  f'rms_db: {rms} dropped: {dropped} gaps: {gaps}')
+    for fl in files.values():
+        fl.close()
+
+
+def control(serial, command, port, audiosource=None, ids=None,
+            samplerate=48000, sound=None, timesec=-1, debug=0):
+    adb_cmd = (f'adb -s {serial} shell am start-foreground-service '
+               f'-n {APPNAME_MAIN}/.ControlService')
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    assert ret and 'Error' not in stdout + stderr, (
+        f'error: failed to start the control service: {stdout}{stderr}')
+    adb_cmd = (f'adb -s {serial} forward tcp:{port} '
+               f'localabstract:{CONTROL_SOCKET}')
+    ret, stdout, stderr = run_cmd(adb_cmd, debug)
+    assert ret, 'error: failed to forward the control socket'
+    name, _, value = command.partition(':')
+    if name == 'ping':
+        msgtype, payload = CONTROL_PING, b''
+    elif name == 'start':
+        source = AUDIO_SOURCE_CHOICES[audiosource or 'VOICE_COMMUNICATION'][0]
+        inputs = ids if ids is not None else 'default'
+        msgtype = CONTROL_START_CAPTURE
+        payload = (struct.pack('>iiB', source, int(samplerate), 1) +
+                   control_string(inputs))
+    elif name == 'stop':
+        msgtype, payload = CONTROL_STOP_CAPTURE, b''
+    elif name == 'play':
+        msgtype = CONTROL_PLAY
+        payload = control_string(sound or 'chirp') + struct.pack('>B', 1)
+    elif name == 'stopsound':
+        msgtype, payload = CONTROL_STOP_SOUNDS, b''
+    elif name in CONTROL_EFFECTS:
+        msgtype = CONTROL_SET_EFFECT
+        payload = struct.pack('>BB', CONTROL_EFFECTS.index(name),
+                              1 if value != 'off' else 0)
+    elif name == 'stats':
+        msgtype, payload = CONTROL_GET_STATS, b''
+    elif name == 'stream':
+        msgtype, payload = None, b''
+    else:
+        print(f'error: unknown command {command}')
+        return
+    # the service may still be opening its socket
+    for attempt in range(10):
+        try:
+            sock = socket.create_connection(('localhost', port))
+            if msgtype is None:
+                control_stream(sock, value == 'pcm', timesec)
+                ok, text = True, ''
+            else:
+                ok, text = control_request(sock, msgtype, payload)
+            sock.close()
+            break
+        except (OSError, AssertionError):
+            if attempt == 9:
+                raise
+            time.sleep(0.5)
+    if not ok:
+        print(f'error: {text}')
+    elif text:
+        print(text)
+
+
 def play(serial, timesec=10.0, playsound=None, stopapp=False, debug=0):
     if stopapp:
         adb_cmd = f'adb -s {serial} shell am force-stop {APPNAME_MAIN}'
@@ -284,6 +548,24 @@ def build_args(audiosource, inputids, timesec, sound):
     return ret
 
 
+def build_capture_args(periodms, sink, encoding, channels, indexmask=None):
+    ret = ''
+    if periodms is not None:
+        ret = f'{ret} -e periodms {periodms} '
+    if sink is not None:
+        ret = f'{ret} -e sink {sink} '
+    if encoding is not None:
+        ret = f'{ret} -e encoding {encoding} '
+    if channels is not None:
+        ret = f'{ret} -e channels {channels} '
+    if indexmask is not None:
+        # parsed as hex by the app, without a prefix
+        if indexmask.lower().startswith('0x'):
+            indexmask = indexmask[2:]
+        ret = f'{ret} -e indexmask {indexmask} '
+    return ret
+
+
 def install_ok(serial, debug=0):
     package_list = installed_apps(serial, debug)
     if APPNAME_MAIN not in package_list:
@@ -367,6 +649,37 @@ def get_options(argv):
     parser.add_argument(
         '--samplerate', '-r', default=default_values['samplerate'],
         help='Sets sample rate for recording',)
+    parser.add_argument(
+        '--periodms', type=int, default=None,
+        help='Capture read period in ms (0 uses the minimum buffer size)',)
+    parser.add_argument(
+        '--sink', type=str, default=None,
+        choices=list(SINK_CHOICES),
+        help='|'.join(key + ':' + desc for key, desc in SINK_CHOICES.items()))
+    parser.add_argument(
+        '--encoding', type=str, default=None,
+        choices=['16', '24', '32', 'float'],
+        help='Capture sample encoding (16, 24 packed, 32 bit or float)',)
+    parser.add_argument(
+        '--channels', type=int, default=None,
+        help='Capture the first N device channels in one interleaved file',)
+    parser.add_argument(
+        '--indexmask', type=str, default=None,
+        help='Capture the device channels of a hex index mask instead of '
+        '--channels, e.g. 5 for channels 0 and 2',)
+    parser.add_argument(
+        '--plan', type=str, default=None,
+        help='Test plan file (text-proto or JSON) for the plan function',)
+    parser.add_argument(
+        '--command', type=str, default='ping',
+        help='|'.join(key + ':' + desc for key, desc in
+                      COMMAND_CHOICES.items()))
+    parser.add_argument(
+        '--port', type=int, default=4242,
+        help='Host port the control socket is forwarded to',)
+    parser.add_argument(
+        '--runs', type=int, default=10,
+        help='Number of latency or frequency response measurements',)
     options = parser.parse_args(argv[1:])
 
     # implement help
@@ -413,7 +726,20 @@ def run_command(options, model, serial):
     elif options.func == 'record':
         record(serial, model, options.audiosource, options.inputids,
                options.samplerate, options.timesec,  options.sound,
-               options.debug)
+               options.periodms, options.sink, options.encoding,
+               options.channels, options.indexmask, options.debug)
+    elif options.func == 'latency':
+        latency(serial, options.audiosource, options.inputids, options.runs,
+                options.debug)
+    elif options.func == 'response':
+        response(serial, options.audiosource, options.inputids, options.runs,
+                 options.sound, options.debug)
+    elif options.func == 'plan':
+        plan(serial, options.plan, options.debug)
+    elif options.func == 'control':
+        control(serial, options.command, options.port, options.audiosource,
+                options.inputids, options.samplerate, options.sound,
+                options.timesec, options.debug)
     elif options.func == 'play':
         play(serial, options.timesec, options.sound, options.stop,
              options.debug)